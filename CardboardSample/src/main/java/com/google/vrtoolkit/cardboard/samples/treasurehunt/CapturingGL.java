@@ -0,0 +1,994 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import java.io.IOException;
+import java.nio.Buffer;
+
+/**
+ * Records every GL call made through it, for a number of frames, into a compact binary capture
+ * that CaptureAnalyzer can turn into statistics offline.
+ *
+ * A capture starts with a header: the magic number, the format version, and a table giving the
+ * name of each opcode and the types of the arguments recorded for it. Each call is then an opcode
+ * as a short followed by its arguments; the end of each frame is OP_END_FRAME. Argument types are
+ * 'i' int, 'f' float, 'z' boolean, 's' string (int length and UTF-8 bytes), 'I' int array and
+ * 'F' float array (int length and the elements). Output arrays are recorded after the call.
+ * Buffer contents and array offsets aren't recorded. Everything is big-endian.
+ *
+ * The capture is kept in memory until it's written out, so that recording doesn't touch the
+ * file system from the GL thread.
+ */
+public class CapturingGL extends ForwardingGL {
+    static final int MAGIC = 0x474c4350;
+    static final int VERSION = 1;
+    static final int OP_END_FRAME = 0x7fff;
+
+    static final int OP_ACTIVE_TEXTURE = 0;
+    static final int OP_ATTACH_SHADER = 1;
+    static final int OP_BIND_ATTRIB_LOCATION = 2;
+    static final int OP_BIND_BUFFER = 3;
+    static final int OP_BIND_TEXTURE = 4;
+    static final int OP_BLEND_FUNC = 5;
+    static final int OP_BUFFER_DATA = 6;
+    static final int OP_BUFFER_SUB_DATA = 7;
+    static final int OP_CLEAR = 8;
+    static final int OP_CLEAR_COLOR = 9;
+    static final int OP_COMPILE_SHADER = 10;
+    static final int OP_CREATE_PROGRAM = 11;
+    static final int OP_CREATE_SHADER = 12;
+    static final int OP_DELETE_BUFFERS = 13;
+    static final int OP_DELETE_PROGRAM = 14;
+    static final int OP_DELETE_SHADER = 15;
+    static final int OP_DELETE_TEXTURES = 16;
+    static final int OP_DISABLE = 17;
+    static final int OP_DISABLE_VERTEX_ATTRIB_ARRAY = 18;
+    static final int OP_DRAW_ARRAYS = 19;
+    static final int OP_DRAW_ELEMENTS = 20;
+    static final int OP_ENABLE = 21;
+    static final int OP_ENABLE_VERTEX_ATTRIB_ARRAY = 22;
+    static final int OP_GEN_BUFFERS = 23;
+    static final int OP_GEN_TEXTURES = 24;
+    static final int OP_GET_ACTIVE_ATTRIB = 25;
+    static final int OP_GET_ACTIVE_UNIFORM = 26;
+    static final int OP_GET_ATTRIB_LOCATION = 27;
+    static final int OP_GET_ERROR = 28;
+    static final int OP_GET_INTEGERV = 29;
+    static final int OP_GET_PROGRAM_INFO_LOG = 30;
+    static final int OP_GET_PROGRAMIV = 31;
+    static final int OP_GET_SHADER_INFO_LOG = 32;
+    static final int OP_GET_SHADERIV = 33;
+    static final int OP_GET_STRING = 34;
+    static final int OP_GET_UNIFORM_LOCATION = 35;
+    static final int OP_LINK_PROGRAM = 36;
+    static final int OP_SHADER_SOURCE = 37;
+    static final int OP_TEX_IMAGE_2D = 38;
+    static final int OP_TEX_PARAMETERI = 39;
+    static final int OP_TEX_SUB_IMAGE_2D = 40;
+    static final int OP_UNIFORM1F = 41;
+    static final int OP_UNIFORM3F = 42;
+    static final int OP_UNIFORM4F = 43;
+    static final int OP_UNIFORM4FV = 44;
+    static final int OP_UNIFORM_MATRIX4FV = 45;
+    static final int OP_USE_PROGRAM = 46;
+    static final int OP_VERTEX_ATTRIB_POINTER = 47;
+    static final int OP_VIEWPORT = 48;
+    static final int OP_BEGIN_QUERY = 49;
+    static final int OP_DELETE_QUERIES = 50;
+    static final int OP_END_QUERY = 51;
+    static final int OP_GEN_QUERIES = 52;
+    static final int OP_GET_QUERY_OBJECTUIV = 53;
+    static final int OP_GET_PROGRAM_BINARY = 54;
+    static final int OP_PROGRAM_BINARY = 55;
+    static final int OP_PROGRAM_PARAMETERI = 56;
+    static final int OP_BIND_FRAMEBUFFER = 57;
+    static final int OP_BIND_RENDERBUFFER = 58;
+    static final int OP_CHECK_FRAMEBUFFER_STATUS = 59;
+    static final int OP_DELETE_FRAMEBUFFERS = 60;
+    static final int OP_DELETE_RENDERBUFFERS = 61;
+    static final int OP_FRAMEBUFFER_RENDERBUFFER = 62;
+    static final int OP_FRAMEBUFFER_TEXTURE_2D = 63;
+    static final int OP_GEN_FRAMEBUFFERS = 64;
+    static final int OP_GEN_RENDERBUFFERS = 65;
+    static final int OP_RENDERBUFFER_STORAGE = 66;
+    static final int OP_SCISSOR = 67;
+
+    /** The name and argument types of each opcode, in pairs. */
+    static final String[] OPS = new String[] {
+        "glActiveTexture", "i",
+        "glAttachShader", "ii",
+        "glBindAttribLocation", "iis",
+        "glBindBuffer", "ii",
+        "glBindTexture", "ii",
+        "glBlendFunc", "ii",
+        "glBufferData", "iii",
+        "glBufferSubData", "iii",
+        "glClear", "i",
+        "glClearColor", "ffff",
+        "glCompileShader", "i",
+        "glCreateProgram", "",
+        "glCreateShader", "i",
+        "glDeleteBuffers", "iI",
+        "glDeleteProgram", "i",
+        "glDeleteShader", "i",
+        "glDeleteTextures", "iI",
+        "glDisable", "i",
+        "glDisableVertexAttribArray", "i",
+        "glDrawArrays", "iii",
+        "glDrawElements", "iiii",
+        "glEnable", "i",
+        "glEnableVertexAttribArray", "i",
+        "glGenBuffers", "iI",
+        "glGenTextures", "iI",
+        "glGetActiveAttrib", "iii",
+        "glGetActiveUniform", "iii",
+        "glGetAttribLocation", "is",
+        "glGetError", "",
+        "glGetIntegerv", "iI",
+        "glGetProgramInfoLog", "i",
+        "glGetProgramiv", "iiI",
+        "glGetShaderInfoLog", "i",
+        "glGetShaderiv", "iiI",
+        "glGetString", "i",
+        "glGetUniformLocation", "is",
+        "glLinkProgram", "i",
+        "glShaderSource", "is",
+        "glTexImage2D", "iiiiiiii",
+        "glTexParameteri", "iii",
+        "glTexSubImage2D", "iiiiiiii",
+        "glUniform1f", "if",
+        "glUniform3f", "ifff",
+        "glUniform4f", "iffff",
+        "glUniform4fv", "iiF",
+        "glUniformMatrix4fv", "iizF",
+        "glUseProgram", "i",
+        "glVertexAttribPointer", "iiizii",
+        "glViewport", "iiii",
+        "glBeginQuery", "ii",
+        "glDeleteQueries", "iI",
+        "glEndQuery", "i",
+        "glGenQueries", "iI",
+        "glGetQueryObjectuiv", "iiI",
+        "glGetProgramBinary", "iiii",
+        "glProgramBinary", "iii",
+        "glProgramParameteri", "iii",
+        "glBindFramebuffer", "ii",
+        "glBindRenderbuffer", "ii",
+        "glCheckFramebufferStatus", "i",
+        "glDeleteFramebuffers", "iI",
+        "glDeleteRenderbuffers", "iI",
+        "glFramebufferRenderbuffer", "iiii",
+        "glFramebufferTexture2D", "iiiii",
+        "glGenFramebuffers", "iI",
+        "glGenRenderbuffers", "iI",
+        "glRenderbufferStorage", "iiii",
+        "glScissor", "iiii",
+    };
+
+    private Recorder mOut;
+    private volatile int mRequestedFrames;
+    private int mFramesLeft;
+    private byte[] mCapture;
+
+    /**
+     * A growable big-endian byte array, like a DataOutputStream that can't fail.
+     */
+    private static final class Recorder {
+        private byte[] mData = new byte[1 << 16];
+        private int mSize;
+
+        private void ensure(int bytes) {
+            if (mSize + bytes > mData.length) {
+                byte[] grown = new byte[Math.max(mData.length * 2, mSize + bytes)];
+                System.arraycopy(mData, 0, grown, 0, mSize);
+                mData = grown;
+            }
+        }
+
+        void writeShort(int v) {
+            ensure(2);
+            mData[mSize++] = (byte) (v >> 8);
+            mData[mSize++] = (byte) v;
+        }
+
+        void writeInt(int v) {
+            ensure(4);
+            mData[mSize++] = (byte) (v >> 24);
+            mData[mSize++] = (byte) (v >> 16);
+            mData[mSize++] = (byte) (v >> 8);
+            mData[mSize++] = (byte) v;
+        }
+
+        void writeFloat(float v) {
+            writeInt(Float.floatToRawIntBits(v));
+        }
+
+        void writeBoolean(boolean v) {
+            ensure(1);
+            mData[mSize++] = (byte) (v ? 1 : 0);
+        }
+
+        void writeUTF(String s) {
+            byte[] bytes;
+            try {
+                bytes = s.getBytes("UTF-8");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            writeInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, mData, mSize, bytes.length);
+            mSize += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            byte[] data = new byte[mSize];
+            System.arraycopy(mData, 0, data, 0, mSize);
+            return data;
+        }
+    }
+
+    public CapturingGL(GLApi delegate) {
+        super(delegate);
+    }
+
+    /**
+     * Asks for the next frames to be captured, starting at the next beginFrame().
+     * @param frames The number of frames to capture.
+     */
+    public void requestCapture(int frames) {
+        mRequestedFrames = frames;
+    }
+
+    public boolean isCapturing() {
+        return mOut != null;
+    }
+
+    /**
+     * Call this at the start of every frame.
+     */
+    public void beginFrame() {
+        int frames = mRequestedFrames;
+        if (mOut != null || frames <= 0) {
+            return;
+        }
+        mRequestedFrames = 0;
+        mFramesLeft = frames;
+        mCapture = null;
+        mOut = new Recorder();
+        mOut.writeInt(MAGIC);
+        mOut.writeInt(VERSION);
+        mOut.writeInt(OPS.length / 2);
+        for (String s : OPS) {
+            mOut.writeUTF(s);
+        }
+    }
+
+    /**
+     * Call this at the end of every frame.
+     * @return Whether this frame completed a capture, which getCapture() now returns.
+     */
+    public boolean endFrame() {
+        if (mOut == null) {
+            return false;
+        }
+        mOut.writeShort(OP_END_FRAME);
+        if (--mFramesLeft > 0) {
+            return false;
+        }
+        mCapture = mOut.toByteArray();
+        mOut = null;
+        return true;
+    }
+
+    /**
+     * @return The last completed capture, or null if there isn't one.
+     */
+    public byte[] getCapture() {
+        return mCapture;
+    }
+
+    private boolean begin(int op) {
+        if (mOut == null) {
+            return false;
+        }
+        mOut.writeShort(op);
+        return true;
+    }
+
+    private void writeInts(int[] values, int offset, int count) {
+        mOut.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            mOut.writeInt(values[offset + i]);
+        }
+    }
+
+    private void writeFloats(float[] values, int offset, int count) {
+        mOut.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            mOut.writeFloat(values[offset + i]);
+        }
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        super.glActiveTexture(texture);
+        if (begin(OP_ACTIVE_TEXTURE)) {
+            mOut.writeInt(texture);
+        }
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        super.glAttachShader(program, shader);
+        if (begin(OP_ATTACH_SHADER)) {
+            mOut.writeInt(program);
+            mOut.writeInt(shader);
+        }
+    }
+
+    @Override
+    public void glBindAttribLocation(int program, int index, String name) {
+        super.glBindAttribLocation(program, index, name);
+        if (begin(OP_BIND_ATTRIB_LOCATION)) {
+            mOut.writeInt(program);
+            mOut.writeInt(index);
+            mOut.writeUTF(name);
+        }
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        super.glBindBuffer(target, buffer);
+        if (begin(OP_BIND_BUFFER)) {
+            mOut.writeInt(target);
+            mOut.writeInt(buffer);
+        }
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        super.glBindTexture(target, texture);
+        if (begin(OP_BIND_TEXTURE)) {
+            mOut.writeInt(target);
+            mOut.writeInt(texture);
+        }
+    }
+
+    @Override
+    public void glBlendFunc(int sfactor, int dfactor) {
+        super.glBlendFunc(sfactor, dfactor);
+        if (begin(OP_BLEND_FUNC)) {
+            mOut.writeInt(sfactor);
+            mOut.writeInt(dfactor);
+        }
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        super.glBufferData(target, size, data, usage);
+        if (begin(OP_BUFFER_DATA)) {
+            mOut.writeInt(target);
+            mOut.writeInt(size);
+            mOut.writeInt(usage);
+        }
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        super.glBufferSubData(target, offset, size, data);
+        if (begin(OP_BUFFER_SUB_DATA)) {
+            mOut.writeInt(target);
+            mOut.writeInt(offset);
+            mOut.writeInt(size);
+        }
+    }
+
+    @Override
+    public void glClear(int mask) {
+        super.glClear(mask);
+        if (begin(OP_CLEAR)) {
+            mOut.writeInt(mask);
+        }
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        super.glClearColor(red, green, blue, alpha);
+        if (begin(OP_CLEAR_COLOR)) {
+            mOut.writeFloat(red);
+            mOut.writeFloat(green);
+            mOut.writeFloat(blue);
+            mOut.writeFloat(alpha);
+        }
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        super.glCompileShader(shader);
+        if (begin(OP_COMPILE_SHADER)) {
+            mOut.writeInt(shader);
+        }
+    }
+
+    @Override
+    public int glCreateProgram() {
+        int result = super.glCreateProgram();
+        if (begin(OP_CREATE_PROGRAM)) {
+        }
+        return result;
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        int result = super.glCreateShader(type);
+        if (begin(OP_CREATE_SHADER)) {
+            mOut.writeInt(type);
+        }
+        return result;
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        super.glDeleteBuffers(n, buffers, offset);
+        if (begin(OP_DELETE_BUFFERS)) {
+            mOut.writeInt(n);
+            writeInts(buffers, offset, n);
+        }
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        super.glDeleteProgram(program);
+        if (begin(OP_DELETE_PROGRAM)) {
+            mOut.writeInt(program);
+        }
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        super.glDeleteShader(shader);
+        if (begin(OP_DELETE_SHADER)) {
+            mOut.writeInt(shader);
+        }
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+        super.glDeleteTextures(n, textures, offset);
+        if (begin(OP_DELETE_TEXTURES)) {
+            mOut.writeInt(n);
+            writeInts(textures, offset, n);
+        }
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        super.glDisable(cap);
+        if (begin(OP_DISABLE)) {
+            mOut.writeInt(cap);
+        }
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        super.glDisableVertexAttribArray(index);
+        if (begin(OP_DISABLE_VERTEX_ATTRIB_ARRAY)) {
+            mOut.writeInt(index);
+        }
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        super.glDrawArrays(mode, first, count);
+        if (begin(OP_DRAW_ARRAYS)) {
+            mOut.writeInt(mode);
+            mOut.writeInt(first);
+            mOut.writeInt(count);
+        }
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        super.glDrawElements(mode, count, type, offset);
+        if (begin(OP_DRAW_ELEMENTS)) {
+            mOut.writeInt(mode);
+            mOut.writeInt(count);
+            mOut.writeInt(type);
+            mOut.writeInt(offset);
+        }
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        super.glEnable(cap);
+        if (begin(OP_ENABLE)) {
+            mOut.writeInt(cap);
+        }
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        super.glEnableVertexAttribArray(index);
+        if (begin(OP_ENABLE_VERTEX_ATTRIB_ARRAY)) {
+            mOut.writeInt(index);
+        }
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        super.glGenBuffers(n, buffers, offset);
+        if (begin(OP_GEN_BUFFERS)) {
+            mOut.writeInt(n);
+            writeInts(buffers, offset, n);
+        }
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        super.glGenTextures(n, textures, offset);
+        if (begin(OP_GEN_TEXTURES)) {
+            mOut.writeInt(n);
+            writeInts(textures, offset, n);
+        }
+    }
+
+    @Override
+    public void glGetActiveAttrib(int program, int index, int bufsize, int[] length,
+            int lengthOffset, int[] size, int sizeOffset, int[] type, int typeOffset, byte[] name,
+            int nameOffset) {
+        super.glGetActiveAttrib(program, index, bufsize, length, lengthOffset, size, sizeOffset,
+                type, typeOffset, name, nameOffset);
+        if (begin(OP_GET_ACTIVE_ATTRIB)) {
+            mOut.writeInt(program);
+            mOut.writeInt(index);
+            mOut.writeInt(bufsize);
+        }
+    }
+
+    @Override
+    public void glGetActiveUniform(int program, int index, int bufsize, int[] length,
+            int lengthOffset, int[] size, int sizeOffset, int[] type, int typeOffset, byte[] name,
+            int nameOffset) {
+        super.glGetActiveUniform(program, index, bufsize, length, lengthOffset, size, sizeOffset,
+                type, typeOffset, name, nameOffset);
+        if (begin(OP_GET_ACTIVE_UNIFORM)) {
+            mOut.writeInt(program);
+            mOut.writeInt(index);
+            mOut.writeInt(bufsize);
+        }
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        int result = super.glGetAttribLocation(program, name);
+        if (begin(OP_GET_ATTRIB_LOCATION)) {
+            mOut.writeInt(program);
+            mOut.writeUTF(name);
+        }
+        return result;
+    }
+
+    @Override
+    public int glGetError() {
+        int result = super.glGetError();
+        if (begin(OP_GET_ERROR)) {
+        }
+        return result;
+    }
+
+    @Override
+    public void glGetIntegerv(int pname, int[] params, int offset) {
+        super.glGetIntegerv(pname, params, offset);
+        if (begin(OP_GET_INTEGERV)) {
+            mOut.writeInt(pname);
+            writeInts(params, offset, 1);
+        }
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        String result = super.glGetProgramInfoLog(program);
+        if (begin(OP_GET_PROGRAM_INFO_LOG)) {
+            mOut.writeInt(program);
+        }
+        return result;
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        super.glGetProgramiv(program, pname, params, offset);
+        if (begin(OP_GET_PROGRAMIV)) {
+            mOut.writeInt(program);
+            mOut.writeInt(pname);
+            writeInts(params, offset, 1);
+        }
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        String result = super.glGetShaderInfoLog(shader);
+        if (begin(OP_GET_SHADER_INFO_LOG)) {
+            mOut.writeInt(shader);
+        }
+        return result;
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        super.glGetShaderiv(shader, pname, params, offset);
+        if (begin(OP_GET_SHADERIV)) {
+            mOut.writeInt(shader);
+            mOut.writeInt(pname);
+            writeInts(params, offset, 1);
+        }
+    }
+
+    @Override
+    public String glGetString(int name) {
+        String result = super.glGetString(name);
+        if (begin(OP_GET_STRING)) {
+            mOut.writeInt(name);
+        }
+        return result;
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        int result = super.glGetUniformLocation(program, name);
+        if (begin(OP_GET_UNIFORM_LOCATION)) {
+            mOut.writeInt(program);
+            mOut.writeUTF(name);
+        }
+        return result;
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        super.glLinkProgram(program);
+        if (begin(OP_LINK_PROGRAM)) {
+            mOut.writeInt(program);
+        }
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string) {
+        super.glShaderSource(shader, string);
+        if (begin(OP_SHADER_SOURCE)) {
+            mOut.writeInt(shader);
+            mOut.writeUTF(string);
+        }
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height,
+            int border, int format, int type, Buffer pixels) {
+        super.glTexImage2D(target, level, internalformat, width, height, border, format, type,
+                pixels);
+        if (begin(OP_TEX_IMAGE_2D)) {
+            mOut.writeInt(target);
+            mOut.writeInt(level);
+            mOut.writeInt(internalformat);
+            mOut.writeInt(width);
+            mOut.writeInt(height);
+            mOut.writeInt(border);
+            mOut.writeInt(format);
+            mOut.writeInt(type);
+        }
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        super.glTexParameteri(target, pname, param);
+        if (begin(OP_TEX_PARAMETERI)) {
+            mOut.writeInt(target);
+            mOut.writeInt(pname);
+            mOut.writeInt(param);
+        }
+    }
+
+    @Override
+    public void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width,
+            int height, int format, int type, Buffer pixels) {
+        super.glTexSubImage2D(target, level, xoffset, yoffset, width, height, format, type, pixels);
+        if (begin(OP_TEX_SUB_IMAGE_2D)) {
+            mOut.writeInt(target);
+            mOut.writeInt(level);
+            mOut.writeInt(xoffset);
+            mOut.writeInt(yoffset);
+            mOut.writeInt(width);
+            mOut.writeInt(height);
+            mOut.writeInt(format);
+            mOut.writeInt(type);
+        }
+    }
+
+    @Override
+    public void glUniform1f(int location, float x) {
+        super.glUniform1f(location, x);
+        if (begin(OP_UNIFORM1F)) {
+            mOut.writeInt(location);
+            mOut.writeFloat(x);
+        }
+    }
+
+    @Override
+    public void glUniform3f(int location, float x, float y, float z) {
+        super.glUniform3f(location, x, y, z);
+        if (begin(OP_UNIFORM3F)) {
+            mOut.writeInt(location);
+            mOut.writeFloat(x);
+            mOut.writeFloat(y);
+            mOut.writeFloat(z);
+        }
+    }
+
+    @Override
+    public void glUniform4f(int location, float x, float y, float z, float w) {
+        super.glUniform4f(location, x, y, z, w);
+        if (begin(OP_UNIFORM4F)) {
+            mOut.writeInt(location);
+            mOut.writeFloat(x);
+            mOut.writeFloat(y);
+            mOut.writeFloat(z);
+            mOut.writeFloat(w);
+        }
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+        super.glUniform4fv(location, count, v, offset);
+        if (begin(OP_UNIFORM4FV)) {
+            mOut.writeInt(location);
+            mOut.writeInt(count);
+            writeFloats(v, offset, count * 4);
+        }
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+            int offset) {
+        super.glUniformMatrix4fv(location, count, transpose, value, offset);
+        if (begin(OP_UNIFORM_MATRIX4FV)) {
+            mOut.writeInt(location);
+            mOut.writeInt(count);
+            mOut.writeBoolean(transpose);
+            writeFloats(value, offset, count * 16);
+        }
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        super.glUseProgram(program);
+        if (begin(OP_USE_PROGRAM)) {
+            mOut.writeInt(program);
+        }
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+            int offset) {
+        super.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+        if (begin(OP_VERTEX_ATTRIB_POINTER)) {
+            mOut.writeInt(index);
+            mOut.writeInt(size);
+            mOut.writeInt(type);
+            mOut.writeBoolean(normalized);
+            mOut.writeInt(stride);
+            mOut.writeInt(offset);
+        }
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        super.glViewport(x, y, width, height);
+        if (begin(OP_VIEWPORT)) {
+            mOut.writeInt(x);
+            mOut.writeInt(y);
+            mOut.writeInt(width);
+            mOut.writeInt(height);
+        }
+    }
+
+    @Override
+    public void glBeginQuery(int target, int id) {
+        super.glBeginQuery(target, id);
+        if (begin(OP_BEGIN_QUERY)) {
+            mOut.writeInt(target);
+            mOut.writeInt(id);
+        }
+    }
+
+    @Override
+    public void glDeleteQueries(int n, int[] ids, int offset) {
+        super.glDeleteQueries(n, ids, offset);
+        if (begin(OP_DELETE_QUERIES)) {
+            mOut.writeInt(n);
+            writeInts(ids, offset, n);
+        }
+    }
+
+    @Override
+    public void glEndQuery(int target) {
+        super.glEndQuery(target);
+        if (begin(OP_END_QUERY)) {
+            mOut.writeInt(target);
+        }
+    }
+
+    @Override
+    public void glGenQueries(int n, int[] ids, int offset) {
+        super.glGenQueries(n, ids, offset);
+        if (begin(OP_GEN_QUERIES)) {
+            mOut.writeInt(n);
+            writeInts(ids, offset, n);
+        }
+    }
+
+    @Override
+    public void glGetQueryObjectuiv(int id, int pname, int[] params, int offset) {
+        super.glGetQueryObjectuiv(id, pname, params, offset);
+        if (begin(OP_GET_QUERY_OBJECTUIV)) {
+            mOut.writeInt(id);
+            mOut.writeInt(pname);
+            writeInts(params, offset, 1);
+        }
+    }
+
+    @Override
+    public void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+            int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+        super.glGetProgramBinary(program, bufSize, length, lengthOffset, binaryFormat,
+                binaryFormatOffset, binary);
+        if (begin(OP_GET_PROGRAM_BINARY)) {
+            mOut.writeInt(program);
+            mOut.writeInt(bufSize);
+            mOut.writeInt(length[lengthOffset]);
+            mOut.writeInt(binaryFormat[binaryFormatOffset]);
+        }
+    }
+
+    @Override
+    public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+        super.glProgramBinary(program, binaryFormat, binary, length);
+        if (begin(OP_PROGRAM_BINARY)) {
+            mOut.writeInt(program);
+            mOut.writeInt(binaryFormat);
+            mOut.writeInt(length);
+        }
+    }
+
+    @Override
+    public void glProgramParameteri(int program, int pname, int value) {
+        super.glProgramParameteri(program, pname, value);
+        if (begin(OP_PROGRAM_PARAMETERI)) {
+            mOut.writeInt(program);
+            mOut.writeInt(pname);
+            mOut.writeInt(value);
+        }
+    }
+
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer) {
+        super.glBindFramebuffer(target, framebuffer);
+        if (begin(OP_BIND_FRAMEBUFFER)) {
+            mOut.writeInt(target);
+            mOut.writeInt(framebuffer);
+        }
+    }
+
+    @Override
+    public void glBindRenderbuffer(int target, int renderbuffer) {
+        super.glBindRenderbuffer(target, renderbuffer);
+        if (begin(OP_BIND_RENDERBUFFER)) {
+            mOut.writeInt(target);
+            mOut.writeInt(renderbuffer);
+        }
+    }
+
+    @Override
+    public int glCheckFramebufferStatus(int target) {
+        int result = super.glCheckFramebufferStatus(target);
+        if (begin(OP_CHECK_FRAMEBUFFER_STATUS)) {
+            mOut.writeInt(target);
+        }
+        return result;
+    }
+
+    @Override
+    public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+        super.glDeleteFramebuffers(n, framebuffers, offset);
+        if (begin(OP_DELETE_FRAMEBUFFERS)) {
+            mOut.writeInt(n);
+            writeInts(framebuffers, offset, n);
+        }
+    }
+
+    @Override
+    public void glDeleteRenderbuffers(int n, int[] renderbuffers, int offset) {
+        super.glDeleteRenderbuffers(n, renderbuffers, offset);
+        if (begin(OP_DELETE_RENDERBUFFERS)) {
+            mOut.writeInt(n);
+            writeInts(renderbuffers, offset, n);
+        }
+    }
+
+    @Override
+    public void glFramebufferRenderbuffer(int target, int attachment, int renderbuffertarget,
+            int renderbuffer) {
+        super.glFramebufferRenderbuffer(target, attachment, renderbuffertarget, renderbuffer);
+        if (begin(OP_FRAMEBUFFER_RENDERBUFFER)) {
+            mOut.writeInt(target);
+            mOut.writeInt(attachment);
+            mOut.writeInt(renderbuffertarget);
+            mOut.writeInt(renderbuffer);
+        }
+    }
+
+    @Override
+    public void glFramebufferTexture2D(int target, int attachment, int textarget, int texture,
+            int level) {
+        super.glFramebufferTexture2D(target, attachment, textarget, texture, level);
+        if (begin(OP_FRAMEBUFFER_TEXTURE_2D)) {
+            mOut.writeInt(target);
+            mOut.writeInt(attachment);
+            mOut.writeInt(textarget);
+            mOut.writeInt(texture);
+            mOut.writeInt(level);
+        }
+    }
+
+    @Override
+    public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+        super.glGenFramebuffers(n, framebuffers, offset);
+        if (begin(OP_GEN_FRAMEBUFFERS)) {
+            mOut.writeInt(n);
+            writeInts(framebuffers, offset, n);
+        }
+    }
+
+    @Override
+    public void glGenRenderbuffers(int n, int[] renderbuffers, int offset) {
+        super.glGenRenderbuffers(n, renderbuffers, offset);
+        if (begin(OP_GEN_RENDERBUFFERS)) {
+            mOut.writeInt(n);
+            writeInts(renderbuffers, offset, n);
+        }
+    }
+
+    @Override
+    public void glRenderbufferStorage(int target, int internalformat, int width, int height) {
+        super.glRenderbufferStorage(target, internalformat, width, height);
+        if (begin(OP_RENDERBUFFER_STORAGE)) {
+            mOut.writeInt(target);
+            mOut.writeInt(internalformat);
+            mOut.writeInt(width);
+            mOut.writeInt(height);
+        }
+    }
+
+    @Override
+    public void glScissor(int x, int y, int width, int height) {
+        super.glScissor(x, y, width, height);
+        if (begin(OP_SCISSOR)) {
+            mOut.writeInt(x);
+            mOut.writeInt(y);
+            mOut.writeInt(width);
+            mOut.writeInt(height);
+        }
+    }
+}
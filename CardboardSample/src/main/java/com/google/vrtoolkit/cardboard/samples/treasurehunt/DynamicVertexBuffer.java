@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+
+/**
+ * A buffer object for geometry that is rewritten while the app runs.
+ *
+ * Writing into a buffer the GPU is still reading from makes the driver wait for the GPU, so the
+ * buffer is updated in one of two ways that avoid that:
+ * <ul>
+ * <li>MODE_ORPHAN gives the old storage back to the driver before every update, which lets the
+ * driver hand out fresh memory while earlier draws still read the old one.</li>
+ * <li>MODE_DOUBLE_BUFFER keeps two buffer objects and writes into the one that was not used for
+ * the previous frame.</li>
+ * </ul>
+ */
+public class DynamicVertexBuffer {
+    public static final int MODE_ORPHAN = 0;
+    public static final int MODE_DOUBLE_BUFFER = 1;
+
+    private final GLApi mGl;
+    private final int mTarget;
+    private final int mMode;
+    private final int mCapacityInBytes;
+    private final int[] mBuffers;
+    private int mCurrent;
+
+    /**
+     * @param gl Where to make the GL calls.
+     * @param target GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER.
+     * @param capacityInBytes The largest update that will be made.
+     * @param mode MODE_ORPHAN or MODE_DOUBLE_BUFFER.
+     */
+    public DynamicVertexBuffer(GLApi gl, int target, int capacityInBytes, int mode) {
+        mGl = gl;
+        mTarget = target;
+        mMode = mode;
+        mCapacityInBytes = capacityInBytes;
+        mBuffers = new int[mode == MODE_DOUBLE_BUFFER ? 2 : 1];
+
+        mGl.glGenBuffers(mBuffers.length, mBuffers, 0);
+        for (int buffer : mBuffers) {
+            mGl.glBindBuffer(mTarget, buffer);
+            mGl.glBufferData(mTarget, mCapacityInBytes, null, GLES20.GL_DYNAMIC_DRAW);
+        }
+        mGl.glBindBuffer(mTarget, 0);
+    }
+
+    /**
+     * Replaces the contents of the buffer and leaves it bound.
+     * @param data The new data, starting at its current position.
+     * @param sizeInBytes The number of bytes to upload. Must not exceed the capacity.
+     */
+    public void update(Buffer data, int sizeInBytes) {
+        if (sizeInBytes > mCapacityInBytes) {
+            throw new IllegalArgumentException("Update of " + sizeInBytes
+                    + " bytes exceeds capacity of " + mCapacityInBytes);
+        }
+
+        if (mMode == MODE_DOUBLE_BUFFER) {
+            mCurrent = 1 - mCurrent;
+            mGl.glBindBuffer(mTarget, mBuffers[mCurrent]);
+        } else {
+            mGl.glBindBuffer(mTarget, mBuffers[mCurrent]);
+            mGl.glBufferData(mTarget, mCapacityInBytes, null, GLES20.GL_DYNAMIC_DRAW);
+        }
+        mGl.glBufferSubData(mTarget, 0, sizeInBytes, data);
+    }
+
+    /**
+     * Binds the buffer that was written by the last update.
+     */
+    public void bind() {
+        mGl.glBindBuffer(mTarget, mBuffers[mCurrent]);
+    }
+
+    /**
+     * Frees the GPU memory. The buffer can't be used afterwards.
+     */
+    public void release() {
+        mGl.glDeleteBuffers(mBuffers.length, mBuffers, 0);
+    }
+}
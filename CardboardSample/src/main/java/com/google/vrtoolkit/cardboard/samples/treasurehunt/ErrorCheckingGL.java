@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * Checks for OpenGL ES errors as often as a policy says.
+ *
+ * glGetError() makes many mobile drivers wait for the GPU to catch up, so checking after every
+ * call is only worth it while hunting down a bug. The policy can be changed at any time without
+ * touching the drawing code:
+ * <ul>
+ * <li>POLICY_OFF never checks.</li>
+ * <li>POLICY_PER_FRAME checks once per frame, in endFrame(). It says which frame went wrong but
+ * not which call.</li>
+ * <li>POLICY_EVERY_CALL checks after every call and reports the code that made it.</li>
+ * </ul>
+ * Errors are logged and then thrown as a RuntimeException.
+ */
+public class ErrorCheckingGL extends ForwardingGL {
+    private static final String TAG = "ErrorCheckingGL";
+
+    public static final int POLICY_OFF = 0;
+    public static final int POLICY_PER_FRAME = 1;
+    public static final int POLICY_EVERY_CALL = 2;
+
+    // glGetError() returns each error flag once, and there are only a handful of them.
+    private static final int MAX_ERRORS = 8;
+
+    private volatile int mPolicy;
+
+    /**
+     * @param delegate Where to pass the calls on to.
+     * @param policy POLICY_OFF, POLICY_PER_FRAME or POLICY_EVERY_CALL.
+     */
+    public ErrorCheckingGL(GLApi delegate, int policy) {
+        super(delegate);
+        mPolicy = policy;
+    }
+
+    public void setPolicy(int policy) {
+        mPolicy = policy;
+    }
+
+    public int getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * Call this at the end of each frame.
+     */
+    public void endFrame() {
+        if (mPolicy == POLICY_PER_FRAME) {
+            check("frame", false);
+        }
+    }
+
+    /**
+     * Checks for errors now, unless the policy is POLICY_OFF. For places that aren't run every
+     * frame, such as setup.
+     * @param where Describes what was being done, for the error message.
+     */
+    public void checkNow(String where) {
+        if (mPolicy != POLICY_OFF) {
+            check(where, false);
+        }
+    }
+
+    @Override
+    protected void onCall(String name) {
+        if (mPolicy == POLICY_EVERY_CALL && !"glGetError".equals(name)) {
+            check(name, true);
+        }
+    }
+
+    /**
+     * @param withCallSite Whether to find the code that made the last call. Only done once an
+     *     error has turned up, since walking the stack is slow.
+     */
+    private void check(String where, boolean withCallSite) {
+        int error = mDelegate.glGetError();
+        if (error == GLES20.GL_NO_ERROR) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder(where);
+        if (withCallSite) {
+            sb.append(" at ").append(findCallSite());
+        }
+        sb.append(": glError");
+        for (int i = 0; i < MAX_ERRORS && error != GLES20.GL_NO_ERROR; i++) {
+            sb.append(" 0x").append(Integer.toHexString(error));
+            error = mDelegate.glGetError();
+        }
+        String message = sb.toString();
+        Log.e(TAG, message);
+        throw new RuntimeException(message);
+    }
+
+    /**
+     * @return The first frame on the stack outside of the GLApi wrappers.
+     */
+    private static String findCallSite() {
+        for (StackTraceElement element : new Throwable().getStackTrace()) {
+            if (!isWrapper(element.getClassName())) {
+                return element.toString();
+            }
+        }
+        return "unknown";
+    }
+
+    private static boolean isWrapper(String className) {
+        try {
+            return GLApi.class.isAssignableFrom(Class.forName(className));
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.GLES20;
+
+/**
+ * An offscreen framebuffer to draw an eye into at less than its full resolution, before it is
+ * stretched over the eye's viewport.
+ *
+ * It is allocated at the full size of the viewport, and each frame only the corner of it that the
+ * current scale covers is drawn, so changing the scale never reallocates. The color goes into a
+ * texture with linear filtering, for the upscale; the depth goes into a renderbuffer that is never
+ * read.
+ */
+public class EyeTarget {
+    private final GLApi mGl;
+    private final int mWidth;
+    private final int mHeight;
+    private int mFramebuffer;
+    private int mTexture;
+    private int mDepthBuffer;
+    private boolean mComplete;
+    private int mDrawnWidth;
+    private int mDrawnHeight;
+
+    /**
+     * Creates the framebuffer in the current context. Check isComplete() before using it.
+     * @param gl Where to make the GL calls.
+     * @param width The width of the eye's viewport.
+     * @param height The height of the eye's viewport.
+     */
+    public EyeTarget(GLApi gl, int width, int height) {
+        mGl = gl;
+        mWidth = width;
+        mHeight = height;
+        mDrawnWidth = width;
+        mDrawnHeight = height;
+
+        int[] names = new int[1];
+        mGl.glGenTextures(1, names, 0);
+        mTexture = names[0];
+        mGl.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture);
+        mGl.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0, GLES20.GL_RGBA,
+                GLES20.GL_UNSIGNED_BYTE, null);
+        // Not a power of two, so no mipmaps and no repeating.
+        mGl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        mGl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        mGl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+                GLES20.GL_CLAMP_TO_EDGE);
+        mGl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+                GLES20.GL_CLAMP_TO_EDGE);
+        mGl.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+        mGl.glGenRenderbuffers(1, names, 0);
+        mDepthBuffer = names[0];
+        mGl.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, mDepthBuffer);
+        mGl.glRenderbufferStorage(GLES20.GL_RENDERBUFFER, GLES20.GL_DEPTH_COMPONENT16, width,
+                height);
+        mGl.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, 0);
+
+        // Leave whatever framebuffer was bound, which is where the eyes are drawn, as it was.
+        mGl.glGetIntegerv(GLES20.GL_FRAMEBUFFER_BINDING, names, 0);
+        int previous = names[0];
+        mGl.glGenFramebuffers(1, names, 0);
+        mFramebuffer = names[0];
+        mGl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
+        mGl.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, mTexture, 0);
+        mGl.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER, GLES20.GL_DEPTH_ATTACHMENT,
+                GLES20.GL_RENDERBUFFER, mDepthBuffer);
+        mComplete = mGl.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER)
+                == GLES20.GL_FRAMEBUFFER_COMPLETE;
+        mGl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, previous);
+    }
+
+    /**
+     * @return Whether the driver accepted the framebuffer. If not, it can't be drawn into.
+     */
+    public boolean isComplete() {
+        return mComplete;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Makes the framebuffer the one to draw into, with the viewport and scissor box set to the
+     * part of it the scale covers.
+     * @param scale The fraction of the full resolution to draw at, along each axis.
+     */
+    public void bind(float scale) {
+        mDrawnWidth = Math.max(1, Math.min(mWidth, Math.round(mWidth * scale)));
+        mDrawnHeight = Math.max(1, Math.min(mHeight, Math.round(mHeight * scale)));
+        mGl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
+        mGl.glViewport(0, 0, mDrawnWidth, mDrawnHeight);
+        // The eye's scissor box, which the Cardboard view turns on, is somewhere else entirely.
+        mGl.glScissor(0, 0, mDrawnWidth, mDrawnHeight);
+    }
+
+    /**
+     * @return The texture holding what was drawn since the last bind().
+     */
+    public int getTexture() {
+        return mTexture;
+    }
+
+    /**
+     * Works out where to sample the texture to stretch what was drawn over the whole viewport:
+     * from the centre of the first texel drawn to the centre of the last, so that linear filtering
+     * never reaches the texels outside it.
+     * @param rect Receives the x and y offset, then the x and y extent, in texture coordinates.
+     */
+    public void getTexRect(float[] rect) {
+        rect[0] = 0.5f / mWidth;
+        rect[1] = 0.5f / mHeight;
+        rect[2] = (mDrawnWidth - 1f) / mWidth;
+        rect[3] = (mDrawnHeight - 1f) / mHeight;
+    }
+
+    /**
+     * Frees the framebuffer and its memory. Only call this in the context it was created in.
+     */
+    public void release() {
+        if (mFramebuffer != 0) {
+            mGl.glDeleteFramebuffers(1, new int[] {mFramebuffer}, 0);
+            mGl.glDeleteRenderbuffers(1, new int[] {mDepthBuffer}, 0);
+            mGl.glDeleteTextures(1, new int[] {mTexture}, 0);
+            mFramebuffer = 0;
+            mDepthBuffer = 0;
+            mTexture = 0;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+/**
+ * Schedules a comparison of the ways of drawing the floor while the renderer draws a scene that
+ * is nothing but floor, so that fragment shading is all that differs.
+ *
+ * The modes take turns for a number of frames each, over several rounds, so that the GPU warming
+ * up or throttling affects them alike. Each mode has a FrameProfiler of its own that only sees
+ * its measured frames. The first frames after every switch are left out, which also gives the
+ * GPU timer's late results for the previous mode time to arrive elsewhere.
+ */
+public class FillRateBenchmark {
+    private final String[] mModeNames;
+    private final FrameProfiler[] mProfilers;
+    // Takes the frames that aren't measured.
+    private final FrameProfiler mWarmup;
+    private final int mWarmupFrames;
+    private final int mPeriod;
+    private final int mFrameCount;
+    private int mFrame = -1;
+
+    /**
+     * @param clock Where to read the time from.
+     * @param refreshNanos The display's refresh period.
+     * @param modeNames The names of the modes, for the report.
+     * @param warmupFrames How many frames to leave out after each switch.
+     * @param measuredFrames How many frames to measure in each turn.
+     * @param rounds How many turns each mode gets.
+     */
+    public FillRateBenchmark(Clock clock, long refreshNanos, String[] modeNames, int warmupFrames,
+            int measuredFrames, int rounds) {
+        mModeNames = modeNames;
+        mProfilers = new FrameProfiler[modeNames.length];
+        for (int i = 0; i < modeNames.length; i++) {
+            mProfilers[i] = new FrameProfiler(clock, refreshNanos, Long.MAX_VALUE);
+        }
+        mWarmup = new FrameProfiler(clock, refreshNanos, Long.MAX_VALUE);
+        mWarmupFrames = warmupFrames;
+        mPeriod = warmupFrames + measuredFrames;
+        mFrameCount = mPeriod * modeNames.length * rounds;
+    }
+
+    /**
+     * Moves on to the next frame. Call this at the start of every frame, before using the
+     * profiler.
+     * @return The mode to draw the frame in, or -1 once the benchmark is over.
+     */
+    public int beginFrame() {
+        if (++mFrame >= mFrameCount) {
+            return -1;
+        }
+        int frameInTurn = mFrame % mPeriod;
+        if (frameInTurn == mWarmupFrames) {
+            // The last frame this profiler saw was in its previous turn.
+            getProfiler().skipInterval();
+        }
+        return getMode();
+    }
+
+    private int getMode() {
+        return mFrame / mPeriod % mModeNames.length;
+    }
+
+    /**
+     * @return Where to record the current frame, and the GPU times that arrive during it.
+     */
+    public FrameProfiler getProfiler() {
+        if (mFrame % mPeriod < mWarmupFrames) {
+            return mWarmup;
+        }
+        return mProfilers[getMode()];
+    }
+
+    /**
+     * @return The times of each mode. Building the report allocates.
+     */
+    public String getReport() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mModeNames.length; i++) {
+            sb.append('\n').append(mModeNames[i]).append(": ").append(mProfilers[i].getSummary());
+        }
+        return sb.toString();
+    }
+}
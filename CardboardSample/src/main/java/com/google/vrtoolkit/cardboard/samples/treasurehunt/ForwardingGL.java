@@ -0,0 +1,471 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import java.nio.Buffer;
+
+/**
+ * Passes every call on to another GLApi, and calls onCall() after each. Wrappers extend this and
+ * override the calls or the hook they care about.
+ */
+public class ForwardingGL implements GLApi {
+    protected final GLApi mDelegate;
+
+    public ForwardingGL(GLApi delegate) {
+        mDelegate = delegate;
+    }
+
+    /**
+     * Called after each call has been passed on. Does nothing unless overridden.
+     * @param name The name of the call, such as "glDrawElements".
+     */
+    protected void onCall(String name) {
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        mDelegate.glActiveTexture(texture);
+        onCall("glActiveTexture");
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        mDelegate.glAttachShader(program, shader);
+        onCall("glAttachShader");
+    }
+
+    @Override
+    public void glBindAttribLocation(int program, int index, String name) {
+        mDelegate.glBindAttribLocation(program, index, name);
+        onCall("glBindAttribLocation");
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        mDelegate.glBindBuffer(target, buffer);
+        onCall("glBindBuffer");
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        mDelegate.glBindTexture(target, texture);
+        onCall("glBindTexture");
+    }
+
+    @Override
+    public void glBlendFunc(int sfactor, int dfactor) {
+        mDelegate.glBlendFunc(sfactor, dfactor);
+        onCall("glBlendFunc");
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        mDelegate.glBufferData(target, size, data, usage);
+        onCall("glBufferData");
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        mDelegate.glBufferSubData(target, offset, size, data);
+        onCall("glBufferSubData");
+    }
+
+    @Override
+    public void glClear(int mask) {
+        mDelegate.glClear(mask);
+        onCall("glClear");
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        mDelegate.glClearColor(red, green, blue, alpha);
+        onCall("glClearColor");
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        mDelegate.glCompileShader(shader);
+        onCall("glCompileShader");
+    }
+
+    @Override
+    public int glCreateProgram() {
+        int result = mDelegate.glCreateProgram();
+        onCall("glCreateProgram");
+        return result;
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        int result = mDelegate.glCreateShader(type);
+        onCall("glCreateShader");
+        return result;
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        mDelegate.glDeleteBuffers(n, buffers, offset);
+        onCall("glDeleteBuffers");
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        mDelegate.glDeleteProgram(program);
+        onCall("glDeleteProgram");
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        mDelegate.glDeleteShader(shader);
+        onCall("glDeleteShader");
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+        mDelegate.glDeleteTextures(n, textures, offset);
+        onCall("glDeleteTextures");
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        mDelegate.glDisable(cap);
+        onCall("glDisable");
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        mDelegate.glDisableVertexAttribArray(index);
+        onCall("glDisableVertexAttribArray");
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        mDelegate.glDrawArrays(mode, first, count);
+        onCall("glDrawArrays");
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        mDelegate.glDrawElements(mode, count, type, offset);
+        onCall("glDrawElements");
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        mDelegate.glEnable(cap);
+        onCall("glEnable");
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        mDelegate.glEnableVertexAttribArray(index);
+        onCall("glEnableVertexAttribArray");
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        mDelegate.glGenBuffers(n, buffers, offset);
+        onCall("glGenBuffers");
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        mDelegate.glGenTextures(n, textures, offset);
+        onCall("glGenTextures");
+    }
+
+    @Override
+    public void glGetActiveAttrib(int program, int index, int bufsize, int[] length,
+            int lengthOffset, int[] size, int sizeOffset, int[] type, int typeOffset, byte[] name,
+            int nameOffset) {
+        mDelegate.glGetActiveAttrib(program, index, bufsize, length, lengthOffset, size, sizeOffset,
+                type, typeOffset, name, nameOffset);
+        onCall("glGetActiveAttrib");
+    }
+
+    @Override
+    public void glGetActiveUniform(int program, int index, int bufsize, int[] length,
+            int lengthOffset, int[] size, int sizeOffset, int[] type, int typeOffset, byte[] name,
+            int nameOffset) {
+        mDelegate.glGetActiveUniform(program, index, bufsize, length, lengthOffset, size,
+                sizeOffset, type, typeOffset, name, nameOffset);
+        onCall("glGetActiveUniform");
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        int result = mDelegate.glGetAttribLocation(program, name);
+        onCall("glGetAttribLocation");
+        return result;
+    }
+
+    @Override
+    public int glGetError() {
+        int result = mDelegate.glGetError();
+        onCall("glGetError");
+        return result;
+    }
+
+    @Override
+    public void glGetIntegerv(int pname, int[] params, int offset) {
+        mDelegate.glGetIntegerv(pname, params, offset);
+        onCall("glGetIntegerv");
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        String result = mDelegate.glGetProgramInfoLog(program);
+        onCall("glGetProgramInfoLog");
+        return result;
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        mDelegate.glGetProgramiv(program, pname, params, offset);
+        onCall("glGetProgramiv");
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        String result = mDelegate.glGetShaderInfoLog(shader);
+        onCall("glGetShaderInfoLog");
+        return result;
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        mDelegate.glGetShaderiv(shader, pname, params, offset);
+        onCall("glGetShaderiv");
+    }
+
+    @Override
+    public String glGetString(int name) {
+        String result = mDelegate.glGetString(name);
+        onCall("glGetString");
+        return result;
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        int result = mDelegate.glGetUniformLocation(program, name);
+        onCall("glGetUniformLocation");
+        return result;
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        mDelegate.glLinkProgram(program);
+        onCall("glLinkProgram");
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string) {
+        mDelegate.glShaderSource(shader, string);
+        onCall("glShaderSource");
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height,
+            int border, int format, int type, Buffer pixels) {
+        mDelegate.glTexImage2D(target, level, internalformat, width, height, border, format, type,
+                pixels);
+        onCall("glTexImage2D");
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        mDelegate.glTexParameteri(target, pname, param);
+        onCall("glTexParameteri");
+    }
+
+    @Override
+    public void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width,
+            int height, int format, int type, Buffer pixels) {
+        mDelegate.glTexSubImage2D(target, level, xoffset, yoffset, width, height, format, type,
+                pixels);
+        onCall("glTexSubImage2D");
+    }
+
+    @Override
+    public void glUniform1f(int location, float x) {
+        mDelegate.glUniform1f(location, x);
+        onCall("glUniform1f");
+    }
+
+    @Override
+    public void glUniform3f(int location, float x, float y, float z) {
+        mDelegate.glUniform3f(location, x, y, z);
+        onCall("glUniform3f");
+    }
+
+    @Override
+    public void glUniform4f(int location, float x, float y, float z, float w) {
+        mDelegate.glUniform4f(location, x, y, z, w);
+        onCall("glUniform4f");
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+        mDelegate.glUniform4fv(location, count, v, offset);
+        onCall("glUniform4fv");
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+            int offset) {
+        mDelegate.glUniformMatrix4fv(location, count, transpose, value, offset);
+        onCall("glUniformMatrix4fv");
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        mDelegate.glUseProgram(program);
+        onCall("glUseProgram");
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+            int offset) {
+        mDelegate.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+        onCall("glVertexAttribPointer");
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        mDelegate.glViewport(x, y, width, height);
+        onCall("glViewport");
+    }
+
+    @Override
+    public void glBeginQuery(int target, int id) {
+        mDelegate.glBeginQuery(target, id);
+        onCall("glBeginQuery");
+    }
+
+    @Override
+    public void glDeleteQueries(int n, int[] ids, int offset) {
+        mDelegate.glDeleteQueries(n, ids, offset);
+        onCall("glDeleteQueries");
+    }
+
+    @Override
+    public void glEndQuery(int target) {
+        mDelegate.glEndQuery(target);
+        onCall("glEndQuery");
+    }
+
+    @Override
+    public void glGenQueries(int n, int[] ids, int offset) {
+        mDelegate.glGenQueries(n, ids, offset);
+        onCall("glGenQueries");
+    }
+
+    @Override
+    public void glGetQueryObjectuiv(int id, int pname, int[] params, int offset) {
+        mDelegate.glGetQueryObjectuiv(id, pname, params, offset);
+        onCall("glGetQueryObjectuiv");
+    }
+
+    @Override
+    public void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+            int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+        mDelegate.glGetProgramBinary(program, bufSize, length, lengthOffset, binaryFormat,
+                binaryFormatOffset, binary);
+        onCall("glGetProgramBinary");
+    }
+
+    @Override
+    public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+        mDelegate.glProgramBinary(program, binaryFormat, binary, length);
+        onCall("glProgramBinary");
+    }
+
+    @Override
+    public void glProgramParameteri(int program, int pname, int value) {
+        mDelegate.glProgramParameteri(program, pname, value);
+        onCall("glProgramParameteri");
+    }
+
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer) {
+        mDelegate.glBindFramebuffer(target, framebuffer);
+        onCall("glBindFramebuffer");
+    }
+
+    @Override
+    public void glBindRenderbuffer(int target, int renderbuffer) {
+        mDelegate.glBindRenderbuffer(target, renderbuffer);
+        onCall("glBindRenderbuffer");
+    }
+
+    @Override
+    public int glCheckFramebufferStatus(int target) {
+        int result = mDelegate.glCheckFramebufferStatus(target);
+        onCall("glCheckFramebufferStatus");
+        return result;
+    }
+
+    @Override
+    public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+        mDelegate.glDeleteFramebuffers(n, framebuffers, offset);
+        onCall("glDeleteFramebuffers");
+    }
+
+    @Override
+    public void glDeleteRenderbuffers(int n, int[] renderbuffers, int offset) {
+        mDelegate.glDeleteRenderbuffers(n, renderbuffers, offset);
+        onCall("glDeleteRenderbuffers");
+    }
+
+    @Override
+    public void glFramebufferRenderbuffer(int target, int attachment, int renderbuffertarget,
+            int renderbuffer) {
+        mDelegate.glFramebufferRenderbuffer(target, attachment, renderbuffertarget, renderbuffer);
+        onCall("glFramebufferRenderbuffer");
+    }
+
+    @Override
+    public void glFramebufferTexture2D(int target, int attachment, int textarget, int texture,
+            int level) {
+        mDelegate.glFramebufferTexture2D(target, attachment, textarget, texture, level);
+        onCall("glFramebufferTexture2D");
+    }
+
+    @Override
+    public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+        mDelegate.glGenFramebuffers(n, framebuffers, offset);
+        onCall("glGenFramebuffers");
+    }
+
+    @Override
+    public void glGenRenderbuffers(int n, int[] renderbuffers, int offset) {
+        mDelegate.glGenRenderbuffers(n, renderbuffers, offset);
+        onCall("glGenRenderbuffers");
+    }
+
+    @Override
+    public void glRenderbufferStorage(int target, int internalformat, int width, int height) {
+        mDelegate.glRenderbufferStorage(target, internalformat, width, height);
+        onCall("glRenderbufferStorage");
+    }
+
+    @Override
+    public void glScissor(int x, int y, int width, int height) {
+        mDelegate.glScissor(x, y, width, height);
+        onCall("glScissor");
+    }
+}
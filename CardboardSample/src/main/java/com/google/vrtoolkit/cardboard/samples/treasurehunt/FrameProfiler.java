@@ -0,0 +1,218 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+/**
+ * Measures where the time in each frame goes.
+ *
+ * The renderer brackets each phase of the frame with begin() and end(). Their CPU times, the
+ * time between the starts of frames and any GPU times reported by a GpuTimer are counted in
+ * LatencyHistograms, which is lock-free and allocation-free, so it can stay on in release builds.
+ * Frames that took longer than the display's refresh period count as dropped.
+ *
+ * All times come from a Clock, so the profiler can be driven by a fake one.
+ */
+public class FrameProfiler {
+    public static final int PHASE_NEW_FRAME = 0;
+    public static final int PHASE_LEFT_EYE = 1;
+    public static final int PHASE_RIGHT_EYE = 2;
+    public static final int PHASE_FINISH_FRAME = 3;
+    public static final int PHASE_COUNT = 4;
+
+    private static final String[] PHASE_NAMES =
+            new String[] {"newFrame", "leftEye", "rightEye", "finishFrame"};
+
+    private final Clock mClock;
+    private final long mRefreshNanos;
+    private final long mSummaryIntervalNanos;
+
+    private final LatencyHistogram mFrameIntervals = new LatencyHistogram();
+    private final LatencyHistogram[] mPhases = new LatencyHistogram[PHASE_COUNT];
+    // GPU time for the left and right eyes.
+    private final LatencyHistogram[] mGpuEyes =
+            new LatencyHistogram[] {new LatencyHistogram(), new LatencyHistogram()};
+    private final long[] mPhaseStarts = new long[PHASE_COUNT];
+    // The most recent samples, for feedback such as a ResolutionGovernor. Zero until there is one.
+    private long mLastInterval;
+    private final long[] mLastGpuEyes = new long[2];
+
+    private long mFrameStart = -1;
+    private long mLastSummary;
+    private long mFrames;
+    private long mDroppedFrames;
+
+    /**
+     * @param clock Where to read the time from.
+     * @param refreshNanos The display's refresh period. Frames longer than half as much again
+     *     count as dropped.
+     * @param summaryIntervalNanos How often pollSummary() returns a summary.
+     */
+    public FrameProfiler(Clock clock, long refreshNanos, long summaryIntervalNanos) {
+        mClock = clock;
+        mRefreshNanos = refreshNanos;
+        mSummaryIntervalNanos = summaryIntervalNanos;
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            mPhases[i] = new LatencyHistogram();
+        }
+        mLastSummary = clock.nanoTime();
+    }
+
+    /**
+     * Starts a frame and its PHASE_NEW_FRAME phase.
+     */
+    public void beginFrame() {
+        long now = mClock.nanoTime();
+        if (mFrameStart >= 0) {
+            long interval = now - mFrameStart;
+            mFrameIntervals.record(interval);
+            mLastInterval = interval;
+            // A frame that takes two and a half refresh periods, say, misses two vsyncs.
+            long missed = (interval + mRefreshNanos / 2) / mRefreshNanos - 1;
+            if (missed > 0) {
+                mDroppedFrames += missed;
+            }
+            mFrames++;
+        }
+        mFrameStart = now;
+        mPhaseStarts[PHASE_NEW_FRAME] = now;
+    }
+
+    /**
+     * Forgets when the last frame started, so that the interval up to the next one isn't counted.
+     * For when the frames in between were recorded somewhere else.
+     */
+    public void skipInterval() {
+        mFrameStart = -1;
+    }
+
+    public void begin(int phase) {
+        mPhaseStarts[phase] = mClock.nanoTime();
+    }
+
+    public void end(int phase) {
+        mPhases[phase].record(mClock.nanoTime() - mPhaseStarts[phase]);
+    }
+
+    /**
+     * Counts GPU time for an eye.
+     * @param phase PHASE_LEFT_EYE or PHASE_RIGHT_EYE.
+     */
+    public void recordGpu(int phase, long nanos) {
+        int eye = phase == PHASE_RIGHT_EYE ? 1 : 0;
+        mGpuEyes[eye].record(nanos);
+        mLastGpuEyes[eye] = nanos;
+    }
+
+    /**
+     * @return The time between the starts of the last two frames, or 0 if there hasn't been one.
+     */
+    public long getLastInterval() {
+        return mLastInterval;
+    }
+
+    /**
+     * @param phase PHASE_LEFT_EYE or PHASE_RIGHT_EYE.
+     * @return The GPU time of the eye's most recent result, or 0 if there hasn't been one.
+     */
+    public long getLastGpu(int phase) {
+        return mLastGpuEyes[phase == PHASE_RIGHT_EYE ? 1 : 0];
+    }
+
+    public LatencyHistogram getFrameIntervals() {
+        return mFrameIntervals;
+    }
+
+    public LatencyHistogram getPhase(int phase) {
+        return mPhases[phase];
+    }
+
+    public LatencyHistogram getGpu(int phase) {
+        return mGpuEyes[phase == PHASE_RIGHT_EYE ? 1 : 0];
+    }
+
+    /**
+     * @return The number of frames measured since the last summary.
+     */
+    public long getFrameCount() {
+        return mFrames;
+    }
+
+    /**
+     * @return The number of vsyncs missed since the last summary.
+     */
+    public long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    /**
+     * Call this once per frame. Building the summary allocates, but only once per interval.
+     * @return A summary of the frames since the last one, or null if it isn't time yet. The
+     *     counts start again afterwards.
+     */
+    public String pollSummary() {
+        long now = mClock.nanoTime();
+        if (now - mLastSummary < mSummaryIntervalNanos) {
+            return null;
+        }
+        mLastSummary = now;
+        String summary = getSummary();
+        reset();
+        return summary;
+    }
+
+    /**
+     * @return Percentiles of every histogram with anything in it, in milliseconds.
+     */
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(mFrames).append(" frames, ").append(mDroppedFrames).append(" dropped");
+        appendHistogram(sb, "frame", mFrameIntervals);
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            appendHistogram(sb, PHASE_NAMES[i], mPhases[i]);
+        }
+        appendHistogram(sb, "gpuLeftEye", mGpuEyes[0]);
+        appendHistogram(sb, "gpuRightEye", mGpuEyes[1]);
+        return sb.toString();
+    }
+
+    public void reset() {
+        mFrameIntervals.reset();
+        for (LatencyHistogram phase : mPhases) {
+            phase.reset();
+        }
+        for (LatencyHistogram gpu : mGpuEyes) {
+            gpu.reset();
+        }
+        mFrames = 0;
+        mDroppedFrames = 0;
+    }
+
+    private static void appendHistogram(StringBuilder sb, String name, LatencyHistogram h) {
+        if (h.getCount() == 0) {
+            return;
+        }
+        sb.append("\n  ").append(name)
+                .append(": p50 ").append(toMillis(h.getPercentile(0.5)))
+                .append(" p95 ").append(toMillis(h.getPercentile(0.95)))
+                .append(" p99 ").append(toMillis(h.getPercentile(0.99)))
+                .append(" max ").append(toMillis(h.getMax())).append(" ms");
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format("%.2f", nanos / 1e6);
+    }
+}
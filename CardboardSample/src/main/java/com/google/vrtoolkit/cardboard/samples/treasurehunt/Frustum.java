@@ -0,0 +1,238 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+/**
+ * The six planes of a view frustum, for culling objects that can't be seen.
+ *
+ * The planes are extracted from a view-projection matrix, so they are in the space the matrix
+ * transforms from, usually world space. Each plane is stored as (a, b, c, d) with a unit normal
+ * pointing into the frustum, so a point p is inside when a * p.x + b * p.y + c * p.z + d >= 0.
+ *
+ * Nothing here allocates or touches OpenGL, so a frustum can be rebuilt every frame.
+ */
+public class Frustum {
+    public static final int LEFT = 0;
+    public static final int RIGHT = 1;
+    public static final int BOTTOM = 2;
+    public static final int TOP = 3;
+    public static final int NEAR = 4;
+    public static final int FAR = 5;
+    public static final int PLANE_COUNT = 6;
+
+    private final float[] mPlanes = new float[PLANE_COUNT * 4];
+    // The corners of the frustum, x, y and z for each. Only set by set().
+    private final float[] mCorners = new float[8 * 3];
+    // False when the frustum is unbounded, so that every test passes.
+    private boolean mValid;
+
+    public Frustum() {
+        setInfinite();
+    }
+
+    /**
+     * Makes the frustum contain everything, so that nothing is culled.
+     */
+    public void setInfinite() {
+        mValid = false;
+    }
+
+    /**
+     * Extracts the planes of a view-projection matrix, after Gribb and Hartmann.
+     * @param viewProjection A column-major matrix, as used by android.opengl.Matrix.
+     * @param offset The offset of the matrix in its array.
+     */
+    public void set(float[] viewProjection, int offset) {
+        float[] m = viewProjection;
+        int o = offset;
+        // Each plane is the last row of the matrix plus or minus one of the others.
+        for (int i = 0; i < 3; i++) {
+            for (int sign = 0; sign < 2; sign++) {
+                float s = sign == 0 ? 1f : -1f;
+                int p = (i * 2 + sign) * 4;
+                mPlanes[p] = m[o + 3] + s * m[o + i];
+                mPlanes[p + 1] = m[o + 7] + s * m[o + 4 + i];
+                mPlanes[p + 2] = m[o + 11] + s * m[o + 8 + i];
+                mPlanes[p + 3] = m[o + 15] + s * m[o + 12 + i];
+            }
+        }
+        mValid = true;
+        for (int p = 0; p < PLANE_COUNT * 4; p += 4) {
+            float length = (float) Math.sqrt(mPlanes[p] * mPlanes[p]
+                    + mPlanes[p + 1] * mPlanes[p + 1] + mPlanes[p + 2] * mPlanes[p + 2]);
+            if (length == 0f) {
+                mValid = false;
+                return;
+            }
+            mPlanes[p] /= length;
+            mPlanes[p + 1] /= length;
+            mPlanes[p + 2] /= length;
+            mPlanes[p + 3] /= length;
+        }
+
+        int c = 0;
+        for (int z = NEAR; z <= FAR; z++) {
+            for (int y = BOTTOM; y <= TOP; y++) {
+                for (int x = LEFT; x <= RIGHT; x++) {
+                    if (!intersectPlanes(x, y, z, c)) {
+                        mValid = false;
+                        return;
+                    }
+                    c += 3;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets this frustum to a conservative bound of two others, such as the frusta of two eyes.
+     * Every plane is taken from one of them and pushed out until it holds all the corners of the
+     * other, so anything either frustum can see passes the tests of this one. Of the two choices
+     * for each plane, the one that moves least is kept.
+     */
+    public void setUnion(Frustum a, Frustum b) {
+        if (!a.mValid || !b.mValid) {
+            mValid = false;
+            return;
+        }
+        for (int p = 0; p < PLANE_COUNT * 4; p += 4) {
+            float pushA = a.pushToContain(p, b);
+            float pushB = b.pushToContain(p, a);
+            Frustum source = pushA <= pushB ? a : b;
+            mPlanes[p] = source.mPlanes[p];
+            mPlanes[p + 1] = source.mPlanes[p + 1];
+            mPlanes[p + 2] = source.mPlanes[p + 2];
+            mPlanes[p + 3] = source.mPlanes[p + 3] + Math.min(pushA, pushB);
+        }
+        // The corners of the union aren't needed, so it can't be used to build another union.
+        mValid = true;
+        for (int i = 0; i < mCorners.length; i++) {
+            mCorners[i] = Float.NaN;
+        }
+    }
+
+    /**
+     * Copies another frustum.
+     */
+    public void set(Frustum other) {
+        System.arraycopy(other.mPlanes, 0, mPlanes, 0, mPlanes.length);
+        System.arraycopy(other.mCorners, 0, mCorners, 0, mCorners.length);
+        mValid = other.mValid;
+    }
+
+    /**
+     * @return Whether a sphere is at least partly inside the frustum.
+     */
+    public boolean intersectsSphere(float x, float y, float z, float radius) {
+        if (!mValid) {
+            return true;
+        }
+        for (int p = 0; p < PLANE_COUNT * 4; p += 4) {
+            if (distance(p, x, y, z) < -radius) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Whether an axis-aligned box is at least partly inside the frustum. Boxes that only
+     *     pass near a corner of the frustum may be reported as inside.
+     */
+    public boolean intersectsBox(float minX, float minY, float minZ,
+            float maxX, float maxY, float maxZ) {
+        if (!mValid) {
+            return true;
+        }
+        for (int p = 0; p < PLANE_COUNT * 4; p += 4) {
+            // Test the corner of the box furthest along the plane's normal.
+            float x = mPlanes[p] >= 0f ? maxX : minX;
+            float y = mPlanes[p + 1] >= 0f ? maxY : minY;
+            float z = mPlanes[p + 2] >= 0f ? maxZ : minZ;
+            if (distance(p, x, y, z) < 0f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies a plane into an array as (a, b, c, d).
+     * @param plane One of LEFT, RIGHT, BOTTOM, TOP, NEAR or FAR.
+     */
+    public void getPlane(int plane, float[] out, int offset) {
+        System.arraycopy(mPlanes, plane * 4, out, offset, 4);
+    }
+
+    /**
+     * @return Whether the frustum culls anything. Unions of frusta that couldn't be set up, and
+     *     new frusta, don't.
+     */
+    public boolean isValid() {
+        return mValid;
+    }
+
+    private float distance(int p, float x, float y, float z) {
+        return mPlanes[p] * x + mPlanes[p + 1] * y + mPlanes[p + 2] * z + mPlanes[p + 3];
+    }
+
+    /**
+     * @return How far plane p of this frustum must move out to hold every corner of other.
+     */
+    private float pushToContain(int p, Frustum other) {
+        float push = 0f;
+        for (int c = 0; c < other.mCorners.length; c += 3) {
+            float d = distance(p, other.mCorners[c], other.mCorners[c + 1],
+                    other.mCorners[c + 2]);
+            push = Math.max(push, -d);
+        }
+        return push;
+    }
+
+    /**
+     * Finds the point where three planes meet and stores it as corner c.
+     * @return False if two of the planes are parallel.
+     */
+    private boolean intersectPlanes(int i, int j, int k, int c) {
+        int p1 = i * 4;
+        int p2 = j * 4;
+        int p3 = k * 4;
+        float[] n = mPlanes;
+        // Cross products of the normals.
+        float x23 = n[p2 + 1] * n[p3 + 2] - n[p2 + 2] * n[p3 + 1];
+        float y23 = n[p2 + 2] * n[p3] - n[p2] * n[p3 + 2];
+        float z23 = n[p2] * n[p3 + 1] - n[p2 + 1] * n[p3];
+        float x31 = n[p3 + 1] * n[p1 + 2] - n[p3 + 2] * n[p1 + 1];
+        float y31 = n[p3 + 2] * n[p1] - n[p3] * n[p1 + 2];
+        float z31 = n[p3] * n[p1 + 1] - n[p3 + 1] * n[p1];
+        float x12 = n[p1 + 1] * n[p2 + 2] - n[p1 + 2] * n[p2 + 1];
+        float y12 = n[p1 + 2] * n[p2] - n[p1] * n[p2 + 2];
+        float z12 = n[p1] * n[p2 + 1] - n[p1 + 1] * n[p2];
+
+        float det = n[p1] * x23 + n[p1 + 1] * y23 + n[p1 + 2] * z23;
+        if (Math.abs(det) < 1e-6f) {
+            return false;
+        }
+        float d1 = n[p1 + 3];
+        float d2 = n[p2 + 3];
+        float d3 = n[p3 + 3];
+        mCorners[c] = -(d1 * x23 + d2 * x31 + d3 * x12) / det;
+        mCorners[c + 1] = -(d1 * y23 + d2 * y31 + d3 * y12) / det;
+        mCorners[c + 2] = -(d1 * z23 + d2 * z31 + d3 * z12) / det;
+        return true;
+    }
+}
@@ -0,0 +1,547 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+/**
+ * A bounding volume hierarchy over the positions of the objects, so that the object the user is
+ * looking at can be found without testing every one of them.
+ *
+ * The tree is built top down, splitting the objects of each node at the median along the longest
+ * side of its box until at most LEAF_SIZE are left, so it stays balanced however the objects are
+ * spread. Nodes are kept depth first in parallel arrays: a node's first child comes straight
+ * after it, and its second is in mSecondChildren. Every leaf has room for LEAF_CAPACITY objects.
+ *
+ * Moving an object only marks leaves, and refit() then updates the boxes from the marked leaves
+ * up, stopping wherever a box comes out the same, so it costs a few boxes per moved object rather
+ * than a pass over the tree. An object that stays inside its leaf's box is just refitted. One
+ * that leaves it, as hidden treasure does when it jumps across the scene, is taken out of its
+ * leaf and put in whichever leaf its box grows least, found by walking down the tree; that keeps
+ * the boxes tight where stretching the old leaf to follow it would cover half the scene. If that
+ * leaf is full the object goes on a short list that every pick() tests one by one, and the tree
+ * is rebuilt once the list reaches LOOSE_LIMIT.
+ *
+ * pick() gives exactly the answer GazeEvaluator's test of every object would. Nothing allocates
+ * after construction.
+ */
+public class GazeBvh {
+    /** The most objects in a leaf when the tree is built. */
+    public static final int LEAF_SIZE = 4;
+    /** The most objects in a leaf as objects move into it. */
+    public static final int LEAF_CAPACITY = 8;
+    /** The most objects left out of the tree before it is rebuilt. */
+    public static final int LOOSE_LIMIT = 64;
+
+    private static final int NO_NODE = -1;
+    private static final int FLOATS_PER_BOX = 6;
+    // How much the box tests allow for rounding, relative to the size of the terms they add up, so
+    // that a box is never rejected when an object in it would pass the exact test.
+    private static final float TOLERANCE = 1e-5f;
+    // Splitting at the median halves the objects at every level, so no tree of int-indexed
+    // objects gets near this deep.
+    private static final int MAX_DEPTH = 64;
+
+    // The gaze limits as planes, (a, b, c, d) in world space, each positive on the side an
+    // object has to be on: in front of the head, then within the yaw and pitch limits either way.
+    private static final int PLANE_COUNT = 5;
+
+    private final float[] mPositions;
+    // The leaf each object is in, or NO_NODE if it is loose or not in the tree.
+    private final int[] mObjectLeaves;
+    // Object indices in the order the build sorts them into.
+    private final int[] mOrder;
+    // LEAF_CAPACITY entries for each leaf, of which the first mCounts[node] are in use.
+    private final int[] mSlots;
+    // The objects that are out of the tree, tested one by one.
+    private final int[] mLoose = new int[LOOSE_LIMIT];
+    private int mLooseCount;
+    // The box of each node: minimum x, y and z, then maximum x, y and z. An empty leaf has a box
+    // with its minimum above its maximum.
+    private final float[] mBounds;
+    // For a leaf, the first of its entries in mSlots and NO_NODE for its second child.
+    private final int[] mFirsts;
+    private final int[] mCounts;
+    private final int[] mSecondChildren;
+    private final int[] mParents;
+    private final boolean[] mDirty;
+    private final int[] mDirtyLeaves;
+    private int mDirtyCount;
+    private int mCount;
+    private int mNodeCount;
+    private int mLeafCount;
+    private int mRebuildCount;
+
+    private final float[] mPlanes = new float[PLANE_COUNT * 4];
+    private final float[] mTolerances = new float[PLANE_COUNT];
+    // The depth plane, (a, b, c, d) with depth = -(a * x + b * y + c * z + d) as in head space.
+    private final float[] mDepthPlane = new float[4];
+    private float mDepthTolerance;
+    // The nodes still to visit while picking, with a lower bound on the depth of each.
+    private final int[] mStack = new int[MAX_DEPTH * 2];
+    private final float[] mStackDepths = new float[MAX_DEPTH * 2];
+    // The best object so far while picking.
+    private int mNearest;
+    private float mNearestDepth;
+
+    /**
+     * @param capacity The most objects the tree can hold.
+     */
+    public GazeBvh(int capacity) {
+        mPositions = new float[capacity * 3];
+        mObjectLeaves = new int[capacity];
+        mOrder = new int[capacity];
+        // Any node that is split leaves at least two objects in each half, so there are at most
+        // half as many leaves as objects, and one fewer other nodes than leaves.
+        int maxLeaves = Math.max(1, capacity / 2);
+        int maxNodes = maxLeaves * 2 - 1;
+        mSlots = new int[maxLeaves * LEAF_CAPACITY];
+        mBounds = new float[maxNodes * FLOATS_PER_BOX];
+        mFirsts = new int[maxNodes];
+        mCounts = new int[maxNodes];
+        mSecondChildren = new int[maxNodes];
+        mParents = new int[maxNodes];
+        mDirty = new boolean[maxNodes];
+        mDirtyLeaves = new int[maxNodes];
+        for (int i = 0; i < capacity; i++) {
+            mObjectLeaves[i] = NO_NODE;
+        }
+    }
+
+    public int getCapacity() {
+        return mObjectLeaves.length;
+    }
+
+    /**
+     * @return The number of objects in the tree at the last build().
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    public int getNodeCount() {
+        return mNodeCount;
+    }
+
+    /**
+     * @return How many times refit() has rebuilt the tree.
+     */
+    public int getRebuildCount() {
+        return mRebuildCount;
+    }
+
+    /**
+     * Moves an object. If it is in the tree the leaves it leaves and joins are marked, to be
+     * refitted by refit(); if not, the position is kept for the next build(). Setting the position
+     * an object already has does nothing, so every position can be set every frame.
+     */
+    public void setPosition(int object, float x, float y, float z) {
+        int p = object * 3;
+        if (mPositions[p] == x && mPositions[p + 1] == y && mPositions[p + 2] == z) {
+            return;
+        }
+        mPositions[p] = x;
+        mPositions[p + 1] = y;
+        mPositions[p + 2] = z;
+        int leaf = mObjectLeaves[object];
+        if (leaf == NO_NODE) {
+            return;
+        }
+        markDirty(leaf);
+        int b = leaf * FLOATS_PER_BOX;
+        if (x >= mBounds[b] && y >= mBounds[b + 1] && z >= mBounds[b + 2]
+                && x <= mBounds[b + 3] && y <= mBounds[b + 4] && z <= mBounds[b + 5]) {
+            return;
+        }
+
+        int first = mFirsts[leaf];
+        int last = first + --mCounts[leaf];
+        for (int i = first; i < last; i++) {
+            if (mSlots[i] == object) {
+                mSlots[i] = mSlots[last];
+                break;
+            }
+        }
+        leaf = findLeaf(x, y, z);
+        if (mCounts[leaf] < LEAF_CAPACITY) {
+            mSlots[mFirsts[leaf] + mCounts[leaf]++] = object;
+            mObjectLeaves[object] = leaf;
+            markDirty(leaf);
+        } else {
+            mObjectLeaves[object] = NO_NODE;
+            if (mLooseCount < LOOSE_LIMIT) {
+                mLoose[mLooseCount] = object;
+            }
+            // Past the limit the object is only found again by the rebuild at the next refit().
+            mLooseCount++;
+        }
+    }
+
+    private void markDirty(int leaf) {
+        if (!mDirty[leaf]) {
+            mDirty[leaf] = true;
+            mDirtyLeaves[mDirtyCount++] = leaf;
+        }
+    }
+
+    /**
+     * @return The leaf whose box grows least to take in a point, choosing the child that grows
+     *     least at each level on the way down. The boxes may be out of date, which only makes
+     *     the choice worse.
+     */
+    private int findLeaf(float x, float y, float z) {
+        int node = 0;
+        while (mSecondChildren[node] != NO_NODE) {
+            int first = node + 1;
+            int second = mSecondChildren[node];
+            node = getGrowth(first, x, y, z) <= getGrowth(second, x, y, z) ? first : second;
+        }
+        return node;
+    }
+
+    private double getGrowth(int node, float x, float y, float z) {
+        int b = node * FLOATS_PER_BOX;
+        if (mBounds[b] > mBounds[b + 3]) {
+            return 0.0;
+        }
+        return getArea(Math.min(mBounds[b], x), Math.min(mBounds[b + 1], y),
+                Math.min(mBounds[b + 2], z), Math.max(mBounds[b + 3], x),
+                Math.max(mBounds[b + 4], y), Math.max(mBounds[b + 5], z)) - getArea(b);
+    }
+
+    /**
+     * Builds the tree from scratch over objects 0 to count - 1, at the positions last set.
+     */
+    public void build(int count) {
+        if (count < 0 || count > mObjectLeaves.length) {
+            throw new IllegalArgumentException("Can't build a tree of " + count
+                    + " objects, capacity " + mObjectLeaves.length);
+        }
+        for (int i = 0; i < mDirtyCount; i++) {
+            mDirty[mDirtyLeaves[i]] = false;
+        }
+        mDirtyCount = 0;
+        mLooseCount = 0;
+        mCount = count;
+        mNodeCount = 0;
+        mLeafCount = 0;
+        for (int i = 0; i < mObjectLeaves.length; i++) {
+            mObjectLeaves[i] = NO_NODE;
+            mOrder[i] = i;
+        }
+        buildNode(NO_NODE, 0, count);
+    }
+
+    private int buildNode(int parent, int first, int count) {
+        int node = mNodeCount++;
+        mParents[node] = parent;
+        if (count <= LEAF_SIZE) {
+            mFirsts[node] = mLeafCount++ * LEAF_CAPACITY;
+            mCounts[node] = count;
+            mSecondChildren[node] = NO_NODE;
+            for (int i = 0; i < count; i++) {
+                int object = mOrder[first + i];
+                mSlots[mFirsts[node] + i] = object;
+                mObjectLeaves[object] = node;
+            }
+            computeLeafBounds(node);
+            return node;
+        }
+
+        // Split along the longest side of the box around the objects.
+        int b = node * FLOATS_PER_BOX;
+        for (int i = 0; i < 3; i++) {
+            mBounds[b + i] = Float.POSITIVE_INFINITY;
+            mBounds[b + 3 + i] = Float.NEGATIVE_INFINITY;
+        }
+        for (int j = first; j < first + count; j++) {
+            expandBounds(b, mOrder[j]);
+        }
+        int axis = 0;
+        float longest = -1f;
+        for (int i = 0; i < 3; i++) {
+            float side = mBounds[b + 3 + i] - mBounds[b + i];
+            if (side > longest) {
+                axis = i;
+                longest = side;
+            }
+        }
+        int half = count / 2;
+        select(first, first + count - 1, first + half, axis);
+        mCounts[node] = 0;
+        buildNode(node, first, half);
+        mSecondChildren[node] = buildNode(node, first + half, count - half);
+        return node;
+    }
+
+    /**
+     * Reorders mOrder[lo] to mOrder[hi] so that the object at k is where it would be if they
+     * were sorted along an axis, with none after it lower and none before it higher.
+     */
+    private void select(int lo, int hi, int k, int axis) {
+        while (lo < hi) {
+            float pivot = mPositions[mOrder[(lo + hi) >>> 1] * 3 + axis];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (mPositions[mOrder[i] * 3 + axis] < pivot) {
+                    i++;
+                }
+                while (mPositions[mOrder[j] * 3 + axis] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = mOrder[i];
+                    mOrder[i] = mOrder[j];
+                    mOrder[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Brings the boxes up to date with the objects moved since the last refit() or build(), and
+     * rebuilds the tree instead if too many objects have been left out of it.
+     * @return Whether the tree was rebuilt.
+     */
+    public boolean refit() {
+        if (mLooseCount >= LOOSE_LIMIT) {
+            build(mCount);
+            mRebuildCount++;
+            return true;
+        }
+        for (int i = 0; i < mDirtyCount; i++) {
+            int node = mDirtyLeaves[i];
+            mDirty[node] = false;
+            // A parent may be refitted here from a leaf further down the list that is still
+            // stale, but it is refitted again when that leaf's turn comes.
+            while (node != NO_NODE && updateBounds(node)) {
+                node = mParents[node];
+            }
+        }
+        mDirtyCount = 0;
+        return false;
+    }
+
+    /**
+     * Recomputes the box of a node from its objects or its children.
+     * @return Whether the box changed.
+     */
+    private boolean updateBounds(int node) {
+        int b = node * FLOATS_PER_BOX;
+        float minX = mBounds[b];
+        float minY = mBounds[b + 1];
+        float minZ = mBounds[b + 2];
+        float maxX = mBounds[b + 3];
+        float maxY = mBounds[b + 4];
+        float maxZ = mBounds[b + 5];
+        if (mSecondChildren[node] == NO_NODE) {
+            computeLeafBounds(node);
+        } else {
+            int first = (node + 1) * FLOATS_PER_BOX;
+            int second = mSecondChildren[node] * FLOATS_PER_BOX;
+            for (int i = 0; i < 3; i++) {
+                mBounds[b + i] = Math.min(mBounds[first + i], mBounds[second + i]);
+                mBounds[b + 3 + i] = Math.max(mBounds[first + 3 + i], mBounds[second + 3 + i]);
+            }
+        }
+        return mBounds[b] != minX || mBounds[b + 1] != minY || mBounds[b + 2] != minZ
+                || mBounds[b + 3] != maxX || mBounds[b + 4] != maxY || mBounds[b + 5] != maxZ;
+    }
+
+    private void computeLeafBounds(int node) {
+        int b = node * FLOATS_PER_BOX;
+        for (int i = 0; i < 3; i++) {
+            mBounds[b + i] = Float.POSITIVE_INFINITY;
+            mBounds[b + 3 + i] = Float.NEGATIVE_INFINITY;
+        }
+        for (int j = mFirsts[node]; j < mFirsts[node] + mCounts[node]; j++) {
+            expandBounds(b, mSlots[j]);
+        }
+    }
+
+    private void expandBounds(int b, int object) {
+        int p = object * 3;
+        for (int i = 0; i < 3; i++) {
+            mBounds[b + i] = Math.min(mBounds[b + i], mPositions[p + i]);
+            mBounds[b + 3 + i] = Math.max(mBounds[b + 3 + i], mPositions[p + i]);
+        }
+    }
+
+    private double getArea(int b) {
+        return getArea(mBounds[b], mBounds[b + 1], mBounds[b + 2], mBounds[b + 3],
+                mBounds[b + 4], mBounds[b + 5]);
+    }
+
+    private static double getArea(float minX, float minY, float minZ, float maxX, float maxY,
+            float maxZ) {
+        double x = maxX - minX;
+        double y = maxY - minY;
+        double z = maxZ - minZ;
+        return 2.0 * (x * y + y * z + z * x);
+    }
+
+    /**
+     * Finds the nearest object within the gaze limits. Children are visited nearest first, and
+     * anything that can't be nearer than the best object so far is skipped, so usually only a
+     * few leaves are tested. Call refit() first if anything has moved.
+     * @param headView The head view matrix for the frame.
+     * @param tanYawLimit The tangent of the largest yaw at which an object counts as looked at.
+     * @param tanPitchLimit The tangent of the largest pitch at which an object counts as looked
+     *     at.
+     * @return The nearest object looked at, or -1 if there is none. Objects at the same depth
+     *     are settled in favour of the lowest index, as GazeEvaluator does.
+     */
+    public int pick(float[] headView, float tanYawLimit, float tanPitchLimit) {
+        mNearest = -1;
+        mNearestDepth = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < Math.min(mLooseCount, LOOSE_LIMIT); i++) {
+            test(mLoose[i], headView, tanYawLimit, tanPitchLimit);
+        }
+        if (mCount == 0) {
+            return mNearest;
+        }
+
+        setPlanes(headView, tanYawLimit, tanPitchLimit);
+        int top = 0;
+        mStack[top] = 0;
+        mStackDepths[top++] = getMinDepth(0);
+        while (top > 0) {
+            int node = mStack[--top];
+            if (mStackDepths[top] > mNearestDepth || !isInsidePlanes(node)) {
+                continue;
+            }
+            int second = mSecondChildren[node];
+            if (second == NO_NODE) {
+                for (int j = mFirsts[node]; j < mFirsts[node] + mCounts[node]; j++) {
+                    test(mSlots[j], headView, tanYawLimit, tanPitchLimit);
+                }
+                continue;
+            }
+
+            int first = node + 1;
+            float firstDepth = getMinDepth(first);
+            float secondDepth = getMinDepth(second);
+            // The nearer child goes on top, to be visited first.
+            if (firstDepth <= secondDepth) {
+                mStack[top] = second;
+                mStackDepths[top++] = secondDepth;
+                mStack[top] = first;
+                mStackDepths[top++] = firstDepth;
+            } else {
+                mStack[top] = first;
+                mStackDepths[top++] = firstDepth;
+                mStack[top] = second;
+                mStackDepths[top++] = secondDepth;
+            }
+        }
+        return mNearest;
+    }
+
+    /**
+     * Tests one object exactly, with the same arithmetic as GazeEvaluator so that the two agree
+     * to the last bit, and keeps it if it is the best so far.
+     */
+    private void test(int object, float[] headView, float tanYawLimit, float tanPitchLimit) {
+        float ox = mPositions[object * 3];
+        float oy = mPositions[object * 3 + 1];
+        float oz = mPositions[object * 3 + 2];
+        float x = headView[0] * ox + headView[4] * oy + headView[8] * oz + headView[12];
+        float y = headView[1] * ox + headView[5] * oy + headView[9] * oz + headView[13];
+        float z = headView[2] * ox + headView[6] * oy + headView[10] * oz + headView[14];
+        float depth = -z;
+        if (depth > 0f
+                && (depth < mNearestDepth || depth == mNearestDepth && object < mNearest)
+                && Math.abs(x) < tanYawLimit * depth
+                && Math.abs(y) < tanPitchLimit * depth) {
+            mNearest = object;
+            mNearestDepth = depth;
+        }
+    }
+
+    /**
+     * Turns the gaze limits into planes in world space. An object at p is looked at when its
+     * head space position, x = r0 . p + t0 and likewise for y and z, has -z > 0 and
+     * |x| < tanYawLimit * -z, which makes five linear tests of p.
+     */
+    private void setPlanes(float[] headView, float tanYawLimit, float tanPitchLimit) {
+        float[] h = headView;
+        for (int i = 0; i < 4; i++) {
+            float depth = -h[i * 4 + 2];
+            mDepthPlane[i] = h[i * 4 + 2];
+            mPlanes[i] = depth;
+            mPlanes[4 + i] = tanYawLimit * depth - h[i * 4];
+            mPlanes[8 + i] = tanYawLimit * depth + h[i * 4];
+            mPlanes[12 + i] = tanPitchLimit * depth - h[i * 4 + 1];
+            mPlanes[16 + i] = tanPitchLimit * depth + h[i * 4 + 1];
+        }
+
+        // How far the terms of a plane's sum can reach, from the box around the whole tree.
+        float extentX = Math.max(Math.abs(mBounds[0]), Math.abs(mBounds[3]));
+        float extentY = Math.max(Math.abs(mBounds[1]), Math.abs(mBounds[4]));
+        float extentZ = Math.max(Math.abs(mBounds[2]), Math.abs(mBounds[5]));
+        for (int p = 0; p < PLANE_COUNT; p++) {
+            mTolerances[p] = getTolerance(mPlanes, p * 4, extentX, extentY, extentZ);
+        }
+        mDepthTolerance = getTolerance(mDepthPlane, 0, extentX, extentY, extentZ);
+    }
+
+    private static float getTolerance(float[] plane, int p, float extentX, float extentY,
+            float extentZ) {
+        return TOLERANCE * (Math.abs(plane[p]) * extentX + Math.abs(plane[p + 1]) * extentY
+                + Math.abs(plane[p + 2]) * extentZ + Math.abs(plane[p + 3]) + 1f);
+    }
+
+    /**
+     * @return Whether some of a node's box is on the inner side of every plane, allowing for
+     *     rounding. Empty boxes may pass.
+     */
+    private boolean isInsidePlanes(int node) {
+        int b = node * FLOATS_PER_BOX;
+        for (int p = 0; p < PLANE_COUNT; p++) {
+            if (getBoxMax(mPlanes, p * 4, b) < -mTolerances[p]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return A depth that nothing in a node's box is nearer than, allowing for rounding.
+     */
+    private float getMinDepth(int node) {
+        return -getBoxMax(mDepthPlane, 0, node * FLOATS_PER_BOX) - mDepthTolerance;
+    }
+
+    /**
+     * @return The largest value of a plane's equation over a box, at the corner furthest along
+     *     its normal.
+     */
+    private float getBoxMax(float[] plane, int p, int b) {
+        float x = plane[p] >= 0f ? mBounds[b + 3] : mBounds[b];
+        float y = plane[p + 1] >= 0f ? mBounds[b + 4] : mBounds[b + 1];
+        float z = plane[p + 2] >= 0f ? mBounds[b + 5] : mBounds[b + 2];
+        return plane[p] * x + plane[p + 1] * y + plane[p + 2] * z + plane[p + 3];
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+/**
+ * Works out which object, if any, the user is looking at.
+ *
+ * The test is run once per frame from the head transform, and the result is cached so that both
+ * eyes and the trigger handler see the same answer. It does no allocation, so it is safe to call
+ * from the render loop.
+ *
+ * There are two ways to use it. Handing update() every object's model matrix each frame tests
+ * every object, which is as quick as anything for a few of them. An evaluator made with a
+ * capacity keeps a GazeBvh instead: positions are handed over with setPosition(), which costs
+ * nothing for objects that haven't moved, and update(float[], int) searches the tree, with the
+ * same result, in time that hardly grows with the scene.
+ */
+public class GazeEvaluator {
+    private final float mTanYawLimit;
+    private final float mTanPitchLimit;
+    // Null unless made with a capacity.
+    private final GazeBvh mBvh;
+
+    // Written on the GL thread, read on the UI thread by onCardboardTrigger().
+    private volatile int mLookedAtObject = -1;
+
+    /**
+     * @param yawLimit The largest yaw, in radians, at which an object still counts as looked at.
+     * @param pitchLimit The largest pitch, in radians, at which an object still counts as looked
+     *     at.
+     */
+    public GazeEvaluator(float yawLimit, float pitchLimit) {
+        mTanYawLimit = (float) Math.tan(yawLimit);
+        mTanPitchLimit = (float) Math.tan(pitchLimit);
+        mBvh = null;
+    }
+
+    /**
+     * Makes an evaluator that keeps its objects in a GazeBvh, for setPosition() and
+     * update(float[], int).
+     * @param capacity The most objects there will be.
+     */
+    public GazeEvaluator(float yawLimit, float pitchLimit, int capacity) {
+        mTanYawLimit = (float) Math.tan(yawLimit);
+        mTanPitchLimit = (float) Math.tan(pitchLimit);
+        mBvh = new GazeBvh(capacity);
+    }
+
+    /**
+     * Moves an object, for the next update(float[], int). Only for an evaluator made with a
+     * capacity.
+     */
+    public void setPosition(int object, float x, float y, float z) {
+        mBvh.setPosition(object, x, y, z);
+    }
+
+    /**
+     * Re-evaluates the gaze for a new frame, from the positions given to setPosition(). Only for
+     * an evaluator made with a capacity.
+     * @param headView The head view matrix for the frame.
+     * @param count The number of objects.
+     * @return The index of the nearest object the user is looking at, or -1 if there is none.
+     */
+    public int update(float[] headView, int count) {
+        if (count != mBvh.getCount()) {
+            mBvh.build(count);
+        } else {
+            mBvh.refit();
+        }
+        int nearest = mBvh.pick(headView, mTanYawLimit, mTanPitchLimit);
+        mLookedAtObject = nearest;
+        return nearest;
+    }
+
+    /**
+     * Re-evaluates the gaze for a new frame by testing every object.
+     * @param headView The head view matrix for the frame.
+     * @param models The model matrices of the objects, 16 floats apart. Only their translations
+     *     are used.
+     * @param count The number of objects.
+     * @return The index of the nearest object the user is looking at, or -1 if there is none.
+     */
+    public int update(float[] headView, float[] models, int count) {
+        int nearest = -1;
+        float nearestDepth = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            // Transform the object's origin into head space. This is
+            // headView * model * (0, 0, 0, 1), which only needs the translation of the model.
+            float ox = models[i * 16 + 12];
+            float oy = models[i * 16 + 13];
+            float oz = models[i * 16 + 14];
+            float x = headView[0] * ox + headView[4] * oy + headView[8] * oz + headView[12];
+            float y = headView[1] * ox + headView[5] * oy + headView[9] * oz + headView[13];
+            float z = headView[2] * ox + headView[6] * oy + headView[10] * oz + headView[14];
+
+            // Comparing atan2(x, -z) and atan2(y, -z) against the limits is the same as requiring
+            // the object to be in front of the head and inside the box given by the tangents of
+            // the limits.
+            float depth = -z;
+            if (depth > 0f && depth < nearestDepth
+                    && Math.abs(x) < mTanYawLimit * depth
+                    && Math.abs(y) < mTanPitchLimit * depth) {
+                nearest = i;
+                nearestDepth = depth;
+            }
+        }
+        mLookedAtObject = nearest;
+        return nearest;
+    }
+
+    /**
+     * @return The result of the last call to update().
+     */
+    public int getLookedAtObject() {
+        return mLookedAtObject;
+    }
+
+    public boolean isLookingAtObject() {
+        return mLookedAtObject >= 0;
+    }
+}
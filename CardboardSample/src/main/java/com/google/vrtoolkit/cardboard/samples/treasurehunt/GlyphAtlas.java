@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The printable ASCII characters of a font, rendered once into a texture, and the metrics needed
+ * to lay text out with them.
+ *
+ * Each character has a cell of the same size in a grid of COLUMNS cells per row, with the glyph
+ * drawn PADDING pixels in from the left of the cell and its baseline at the same height in every
+ * cell. Text is drawn as one quad per character covering its whole cell, so the layout only needs
+ * the advance of each character and not its exact bounds. The pixels are coverage values, one
+ * byte each, for a GL_ALPHA texture.
+ *
+ * This doesn't rasterize anything itself: GlyphRasterizer does on a device, so that the layout can
+ * also run on a desktop JVM.
+ */
+public class GlyphAtlas {
+    public static final char FIRST_CHAR = ' ';
+    public static final char LAST_CHAR = '~';
+    public static final int CHAR_COUNT = LAST_CHAR - FIRST_CHAR + 1;
+    public static final int COLUMNS = 16;
+    public static final int ROWS = (CHAR_COUNT + COLUMNS - 1) / COLUMNS;
+    /** Empty pixels around each glyph, so that filtering doesn't pick up its neighbours. */
+    public static final int PADDING = 2;
+
+    /** The number of floats layout() writes for each character: x, y, u and v of four corners. */
+    public static final int FLOATS_PER_CHAR = 4 * 4;
+
+    private final int mCellWidth;
+    private final int mCellHeight;
+    private final float[] mAdvances;
+    private final ByteBuffer mPixels;
+
+    /**
+     * @return The width of an atlas, in pixels. It's a multiple of 4, so that rows of the texture
+     *     are aligned with the default GL_UNPACK_ALIGNMENT.
+     */
+    public static int getWidth(int cellWidth) {
+        return (cellWidth * COLUMNS + 3) & ~3;
+    }
+
+    /**
+     * @return The height of an atlas, in pixels.
+     */
+    public static int getHeight(int cellHeight) {
+        return cellHeight * ROWS;
+    }
+
+    /**
+     * @return The left edge of the cell of a character, in pixels.
+     */
+    public static int getCellX(char c, int cellWidth) {
+        return (c - FIRST_CHAR) % COLUMNS * cellWidth;
+    }
+
+    /**
+     * @return The top edge of the cell of a character, in pixels.
+     */
+    public static int getCellY(char c, int cellHeight) {
+        return (c - FIRST_CHAR) / COLUMNS * cellHeight;
+    }
+
+    /**
+     * @param cellWidth The width of each cell, in pixels.
+     * @param cellHeight The height of each cell, which is also the height of a line of text.
+     * @param advances How far each character moves the pen, in pixels, from FIRST_CHAR on.
+     * @param pixels getWidth() by getHeight() coverage values, rows from the top.
+     */
+    public GlyphAtlas(int cellWidth, int cellHeight, float[] advances, ByteBuffer pixels) {
+        if (advances.length != CHAR_COUNT) {
+            throw new IllegalArgumentException("Need " + CHAR_COUNT + " advances, got "
+                    + advances.length);
+        }
+        mCellWidth = cellWidth;
+        mCellHeight = cellHeight;
+        mAdvances = advances;
+        mPixels = pixels;
+    }
+
+    public int getWidth() {
+        return getWidth(mCellWidth);
+    }
+
+    public int getHeight() {
+        return getHeight(mCellHeight);
+    }
+
+    public ByteBuffer getPixels() {
+        return mPixels;
+    }
+
+    /**
+     * Lays out text as quads, one per printable character, with lines centered horizontally.
+     * Positions are in lines: the first line spans y from 0 down to -1, and x is centered on 0.
+     * Characters that aren't in the atlas take the space of a '?'.
+     * @param text The text, with lines separated by '\n'.
+     * @param out Where to write FLOATS_PER_CHAR floats per character, corners in the order of a
+     *     quad split into triangles 0-1-2 and 2-1-3.
+     * @param maxChars The most characters to write. The rest are left out.
+     * @return The number of characters written.
+     */
+    public int layout(String text, float[] out, int maxChars) {
+        float scale = 1f / mCellHeight;
+        float atlasWidth = getWidth();
+        float atlasHeight = getHeight();
+        int count = 0;
+        int line = 0;
+        int start = 0;
+        while (start <= text.length() && count < maxChars) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            float lineWidth = 0f;
+            for (int i = start; i < end; i++) {
+                lineWidth += mAdvances[toIndex(text.charAt(i))];
+            }
+            float x = -lineWidth / 2;
+            float top = -line;
+            for (int i = start; i < end && count < maxChars; i++) {
+                char c = text.charAt(i);
+                int index = toIndex(c);
+                if (c != ' ') {
+                    char glyph = (char) (FIRST_CHAR + index);
+                    float u0 = getCellX(glyph, mCellWidth) / atlasWidth;
+                    float v0 = getCellY(glyph, mCellHeight) / atlasHeight;
+                    float u1 = u0 + mCellWidth / atlasWidth;
+                    float v1 = v0 + mCellHeight / atlasHeight;
+                    float x0 = (x - PADDING) * scale;
+                    float x1 = x0 + mCellWidth * scale;
+                    int o = count * FLOATS_PER_CHAR;
+                    putCorner(out, o, x0, top, u0, v0);
+                    putCorner(out, o + 4, x1, top, u1, v0);
+                    putCorner(out, o + 8, x0, top - 1f, u0, v1);
+                    putCorner(out, o + 12, x1, top - 1f, u1, v1);
+                    count++;
+                }
+                x += mAdvances[index];
+            }
+            start = end + 1;
+            line++;
+        }
+        return count;
+    }
+
+    private static void putCorner(float[] out, int offset, float x, float y, float u, float v) {
+        out[offset] = x;
+        out[offset + 1] = y;
+        out[offset + 2] = u;
+        out[offset + 3] = v;
+    }
+
+    private static int toIndex(char c) {
+        return c >= FIRST_CHAR && c <= LAST_CHAR ? c - FIRST_CHAR : '?' - FIRST_CHAR;
+    }
+}
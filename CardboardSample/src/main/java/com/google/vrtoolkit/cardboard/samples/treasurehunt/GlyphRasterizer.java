@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Renders a GlyphAtlas with the Android text renderer.
+ */
+public class GlyphRasterizer {
+    private GlyphRasterizer() {
+    }
+
+    /**
+     * @param typeface The font.
+     * @param textSize The size of the text in pixels. Render it at about the size it will be seen
+     *     at, since the atlas is only filtered linearly.
+     */
+    public static GlyphAtlas rasterize(Typeface typeface, float textSize) {
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setTypeface(typeface);
+        paint.setTextSize(textSize);
+        paint.setColor(Color.WHITE);
+        Paint.FontMetrics metrics = paint.getFontMetrics();
+
+        char[] glyph = new char[1];
+        float[] advances = new float[GlyphAtlas.CHAR_COUNT];
+        float maxAdvance = 0f;
+        for (int i = 0; i < GlyphAtlas.CHAR_COUNT; i++) {
+            glyph[0] = (char) (GlyphAtlas.FIRST_CHAR + i);
+            advances[i] = paint.measureText(glyph, 0, 1);
+            maxAdvance = Math.max(maxAdvance, advances[i]);
+        }
+        int cellWidth = (int) Math.ceil(maxAdvance) + 2 * GlyphAtlas.PADDING;
+        int cellHeight = (int) Math.ceil(metrics.bottom - metrics.top) + 2 * GlyphAtlas.PADDING;
+        float baseline = GlyphAtlas.PADDING - metrics.top;
+
+        int width = GlyphAtlas.getWidth(cellWidth);
+        int height = GlyphAtlas.getHeight(cellHeight);
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+        Canvas canvas = new Canvas(bitmap);
+        for (int i = 0; i < GlyphAtlas.CHAR_COUNT; i++) {
+            glyph[0] = (char) (GlyphAtlas.FIRST_CHAR + i);
+            canvas.drawText(glyph, 0, 1,
+                    GlyphAtlas.getCellX(glyph[0], cellWidth) + GlyphAtlas.PADDING,
+                    GlyphAtlas.getCellY(glyph[0], cellHeight) + baseline, paint);
+        }
+        // The width is a multiple of 4, so the rows of an ALPHA_8 bitmap are tightly packed.
+        ByteBuffer pixels = ByteBuffer.allocateDirect(width * height);
+        bitmap.copyPixelsToBuffer(pixels);
+        bitmap.recycle();
+        pixels.position(0);
+        return new GlyphAtlas(cellWidth, cellHeight, advances, pixels);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+
+/**
+ * Measures how long the GPU spends drawing each eye with GL_EXT_disjoint_timer_query.
+ *
+ * Query results arrive a few frames late, so there is a ring of queries and results are only
+ * read once the driver says they are available. If every query in the ring is still pending, an
+ * eye simply isn't measured rather than waiting for the GPU.
+ *
+ * The extension's entry points are only reachable through GLES30, so this needs Android 4.3 and
+ * an OpenGL ES 3.0 context; isSupported() checks for all of that.
+ */
+public class GpuTimer {
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+    // Enough for the results to be a few frames late with both eyes measured.
+    private static final int QUERY_COUNT = 8;
+
+    private final GLApi mGl;
+    private FrameProfiler mProfiler;
+    private final int[] mQueries = new int[QUERY_COUNT];
+    private final int[] mQueryPhases = new int[QUERY_COUNT];
+    private final boolean[] mPending = new boolean[QUERY_COUNT];
+    // Results read by poll() but not yet recorded.
+    private final boolean[] mRead = new boolean[QUERY_COUNT];
+    private final long[] mElapsed = new long[QUERY_COUNT];
+    private final int[] mResult = new int[1];
+    private int mNext;
+    private int mActive = -1;
+
+    /**
+     * @return Whether the current context can time the GPU. Call this on the GL thread.
+     */
+    public static boolean isSupported(GLApi gl) {
+        // The context is asked first, so that a GLApi that isn't backed by Android never gets as
+        // far as the Build check.
+        String version = gl.glGetString(GLES20.GL_VERSION);
+        String extensions = gl.glGetString(GLES20.GL_EXTENSIONS);
+        return version != null && version.startsWith("OpenGL ES 3")
+                && extensions != null && extensions.contains("GL_EXT_disjoint_timer_query")
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+    }
+
+    /**
+     * Creates the queries. Only create a GpuTimer when isSupported() is true.
+     * @param gl Where to make the GL calls.
+     * @param profiler Where to record the times.
+     */
+    public GpuTimer(GLApi gl, FrameProfiler profiler) {
+        mGl = gl;
+        mProfiler = profiler;
+        mGl.glGenQueries(QUERY_COUNT, mQueries, 0);
+    }
+
+    /**
+     * Changes where the times are recorded. Results that arrive afterwards go to the new
+     * profiler, even those of eyes drawn before.
+     */
+    public void setProfiler(FrameProfiler profiler) {
+        mProfiler = profiler;
+    }
+
+    /**
+     * Starts timing an eye, if a query is free.
+     * @param phase FrameProfiler.PHASE_LEFT_EYE or PHASE_RIGHT_EYE.
+     */
+    public void begin(int phase) {
+        if (mPending[mNext]) {
+            return;
+        }
+        mActive = mNext;
+        mNext = (mNext + 1) % QUERY_COUNT;
+        mQueryPhases[mActive] = phase;
+        mGl.glBeginQuery(GL_TIME_ELAPSED_EXT, mQueries[mActive]);
+    }
+
+    public void end() {
+        if (mActive < 0) {
+            return;
+        }
+        mGl.glEndQuery(GL_TIME_ELAPSED_EXT);
+        mPending[mActive] = true;
+        mActive = -1;
+    }
+
+    /**
+     * Records the results that have arrived. Call this once per frame, outside begin() and end().
+     */
+    public void poll() {
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            if (!mPending[i]) {
+                continue;
+            }
+            mGl.glGetQueryObjectuiv(mQueries[i], GLES30.GL_QUERY_RESULT_AVAILABLE, mResult, 0);
+            if (mResult[0] == 0) {
+                continue;
+            }
+            mGl.glGetQueryObjectuiv(mQueries[i], GLES30.GL_QUERY_RESULT, mResult, 0);
+            mPending[i] = false;
+            mRead[i] = true;
+            mElapsed[i] = mResult[0] & 0xffffffffL;
+        }
+        // A disjoint event, such as a change of GPU clock, makes the results unreliable. The
+        // extension has the flag read after the results, so that an event while they are being
+        // read isn't missed.
+        mGl.glGetIntegerv(GL_GPU_DISJOINT_EXT, mResult, 0);
+        boolean disjoint = mResult[0] != 0;
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            if (!mRead[i]) {
+                continue;
+            }
+            mRead[i] = false;
+            if (!disjoint) {
+                mProfiler.recordGpu(mQueryPhases[i], mElapsed[i]);
+            }
+        }
+    }
+
+    public void release() {
+        mGl.glDeleteQueries(QUERY_COUNT, mQueries, 0);
+    }
+}
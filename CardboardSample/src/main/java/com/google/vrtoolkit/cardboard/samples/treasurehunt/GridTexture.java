@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The floor grid as a texture: one cell of the grid, with lines along two of its edges, repeated
+ * across the floor. grid_texture_fragment.shader draws the floor with it in one texture fetch,
+ * instead of testing every fragment against the lines as grid_fragment.shader does.
+ *
+ * Every mip level is generated from the exact coverage of the lines in each of its texels rather
+ * than filtered down from the level above, so the lines keep their average brightness at any
+ * distance instead of shimmering. Where GL_EXT_texture_filter_anisotropic is available it keeps
+ * them sharp at the grazing angles most of the floor is seen at.
+ */
+public final class GridTexture {
+    /** World units per repeat of the texture, the spacing of the lines in grid_fragment.shader. */
+    public static final float CELL_SIZE = 10f;
+    /** The width of a line as a fraction of a cell. */
+    public static final float LINE_WIDTH = 0.01f;
+    public static final int SIZE = 256;
+
+    private static final String ANISOTROPY_EXTENSION = "GL_EXT_texture_filter_anisotropic";
+    private static final int GL_TEXTURE_MAX_ANISOTROPY_EXT = 0x84FE;
+    private static final int GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT = 0x84FF;
+    private static final int MAX_ANISOTROPY = 8;
+
+    private GridTexture() {
+    }
+
+    /**
+     * Works out the mip levels of a grid cell.
+     * @param size The side of level 0, a power of two.
+     * @param lineWidth The width of a line as a fraction of the cell.
+     * @return GL_LUMINANCE levels from size by size down to 1 by 1, holding how much of each texel
+     *     the lines cover. Rows are padded to four bytes, the default GL_UNPACK_ALIGNMENT.
+     */
+    public static ByteBuffer[] generate(int size, float lineWidth) {
+        int levels = Integer.numberOfTrailingZeros(size) + 1;
+        ByteBuffer[] pixels = new ByteBuffer[levels];
+        for (int level = 0; level < levels; level++) {
+            int width = size >> level;
+            int rowBytes = (width + 3) & ~3;
+            // The lines run along the start of each axis, from 0 to lineTexels.
+            float lineTexels = lineWidth * width;
+            float[] coverage = new float[width];
+            for (int i = 0; i < width; i++) {
+                coverage[i] = Math.max(0f, Math.min(1f, lineTexels - i));
+            }
+
+            ByteBuffer data = ByteBuffer.allocateDirect(rowBytes * width);
+            for (int y = 0; y < width; y++) {
+                for (int x = 0; x < width; x++) {
+                    // Where the lines cross, they overlap rather than add up.
+                    float c = 1f - (1f - coverage[x]) * (1f - coverage[y]);
+                    data.put(y * rowBytes + x, (byte) Math.round(c * 255f));
+                }
+            }
+            pixels[level] = data;
+        }
+        return pixels;
+    }
+
+    /**
+     * Creates the texture in the current context, repeating and with trilinear filtering. Call
+     * this on the GL thread.
+     * @return The texture name.
+     */
+    public static int create(GLApi gl) {
+        int[] texture = new int[1];
+        gl.glGenTextures(1, texture, 0);
+        gl.glBindTexture(GLES20.GL_TEXTURE_2D, texture[0]);
+        ByteBuffer[] levels = generate(SIZE, LINE_WIDTH);
+        for (int level = 0; level < levels.length; level++) {
+            int width = SIZE >> level;
+            gl.glTexImage2D(GLES20.GL_TEXTURE_2D, level, GLES20.GL_LUMINANCE, width, width, 0,
+                    GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, levels[level]);
+        }
+        gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_REPEAT);
+        gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_REPEAT);
+        gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+                GLES20.GL_LINEAR_MIPMAP_LINEAR);
+        gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+
+        String extensions = gl.glGetString(GLES20.GL_EXTENSIONS);
+        if (extensions != null && extensions.contains(ANISOTROPY_EXTENSION)) {
+            int[] maxAnisotropy = new int[1];
+            gl.glGetIntegerv(GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT, maxAnisotropy, 0);
+            gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GL_TEXTURE_MAX_ANISOTROPY_EXT,
+                    Math.max(1, Math.min(MAX_ANISOTROPY, maxAnisotropy[0])));
+        }
+        return texture[0];
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.GLES20;
+import com.google.vrtoolkit.cardboard.EyeParams;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Draws the stereo HUD, a few lines of text that fade out, over each eye with OpenGL.
+ *
+ * This replaces a pair of Android views over the GL surface, which cost a layout pass, an
+ * animation on the UI thread and a full-screen layer for the compositor every time a message
+ * changed. Here the text is a single mesh of quads cut from a GlyphAtlas texture, rebuilt only when
+ * the text changes and drawn in one call per eye. The fade is a uniform.
+ *
+ * Like the views it replaces, the text is shifted in opposite directions for the two eyes so that
+ * it appears a little in front of the screen, and it's drawn at a fixed place on each eye's half
+ * of the screen rather than in the world.
+ */
+public class HudRenderer {
+    private static final int MAX_CHARS = 256;
+    private static final int FLOATS_PER_VERTEX = 4;
+
+    private static final long FADE_NANOS = 5000000000L;
+    // Shifts the text towards the nose in each eye, as a fraction of the eye's width.
+    private static final float DEPTH_OFFSET = 0.016f;
+    // Where the top of the text is, as a fraction of the eye's height from the top.
+    private static final float TEXT_TOP = 0.52f;
+    // The height of a line of text, as a fraction of the eye's height.
+    private static final float LINE_HEIGHT = 0.05f;
+    private static final float[] COLOR = new float[] {150 / 255f, 1f, 180 / 255f};
+
+    private final GLApi mGl;
+    private final Clock mClock;
+    private final GlyphAtlas mAtlas;
+    private final ShaderProgram mProgram;
+    private final ShaderProgram.Attribute mPositionParam;
+    private final ShaderProgram.Attribute mTexCoordParam;
+    private final ShaderProgram.Uniform mTransformParam;
+    private final ShaderProgram.Uniform mColorParam;
+    private final DynamicVertexBuffer mVertices;
+    private final VertexBuffer mIndices;
+    private final float[] mLayout = new float[MAX_CHARS * GlyphAtlas.FLOATS_PER_CHAR];
+    private final FloatBuffer mUpload;
+    private int mTexture;
+
+    private int mCharCount;
+    private long mShownAt;
+    private float mAlpha;
+
+    /**
+     * Creates the atlas texture and the buffers. Call this on the GL thread.
+     * @param program A program built from hud_vertex.shader and hud_fragment.shader.
+     * @param atlas The font to draw with.
+     * @param clock Times the fade.
+     */
+    public HudRenderer(ShaderProgram program, GlyphAtlas atlas, Clock clock) {
+        mProgram = program;
+        mGl = program.getGl();
+        mAtlas = atlas;
+        mClock = clock;
+        mPositionParam = program.getAttribute("a_Position");
+        mTexCoordParam = program.getAttribute("a_TexCoordinate");
+        mTransformParam = program.getUniform("u_Transform");
+        mColorParam = program.getUniform("u_Color");
+        // u_Texture keeps its default of texture unit 0.
+
+        final int[] texture = new int[1];
+        mGl.glGenTextures(1, texture, 0);
+        mTexture = texture[0];
+        mGl.glActiveTexture(GLES20.GL_TEXTURE0);
+        mGl.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture);
+        mGl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        mGl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        mGl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+                GLES20.GL_CLAMP_TO_EDGE);
+        mGl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+                GLES20.GL_CLAMP_TO_EDGE);
+        mGl.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_ALPHA, atlas.getWidth(),
+                atlas.getHeight(), 0, GLES20.GL_ALPHA, GLES20.GL_UNSIGNED_BYTE, atlas.getPixels());
+        mGl.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+        ByteBuffer bb = ByteBuffer.allocateDirect(mLayout.length * 4);
+        bb.order(ByteOrder.nativeOrder());
+        mUpload = bb.asFloatBuffer();
+        mVertices = new DynamicVertexBuffer(mGl, GLES20.GL_ARRAY_BUFFER, mLayout.length * 4,
+                DynamicVertexBuffer.MODE_ORPHAN);
+
+        // Every character is a quad of two triangles.
+        bb = ByteBuffer.allocateDirect(MAX_CHARS * 6 * 2);
+        bb.order(ByteOrder.nativeOrder());
+        ShortBuffer indices = bb.asShortBuffer();
+        for (int i = 0; i < MAX_CHARS; i++) {
+            short v = (short) (i * 4);
+            indices.put(v).put((short) (v + 1)).put((short) (v + 2));
+            indices.put((short) (v + 2)).put((short) (v + 1)).put((short) (v + 3));
+        }
+        indices.position(0);
+        mIndices = new VertexBuffer(mGl, GLES20.GL_ELEMENT_ARRAY_BUFFER, indices,
+                MAX_CHARS * 6 * 2);
+    }
+
+    /**
+     * Shows new text at full opacity and starts fading it out. Call this on the GL thread.
+     * @param text The text, with lines separated by '\n'.
+     */
+    public void setText(String text) {
+        mCharCount = mAtlas.layout(text, mLayout, MAX_CHARS);
+        int floats = mCharCount * GlyphAtlas.FLOATS_PER_CHAR;
+        mUpload.position(0);
+        mUpload.put(mLayout, 0, floats);
+        mUpload.position(0);
+        mVertices.update(mUpload, floats * 4);
+        mShownAt = mClock.nanoTime();
+    }
+
+    /**
+     * Works out how far the text has faded. Call this once per frame, before draw().
+     */
+    public void beginFrame() {
+        long elapsed = mClock.nanoTime() - mShownAt;
+        mAlpha = mCharCount == 0 ? 0f : Math.max(0f, 1f - (float) elapsed / FADE_NANOS);
+    }
+
+    /**
+     * Draws the text over everything else for one eye.
+     * @param eye One of the EyeParams.Eye constants.
+     * @param perspective The projection of the eye, for the shape of its half of the screen.
+     * @return The number of draw calls made.
+     */
+    public int draw(int eye, float[] perspective) {
+        if (mAlpha <= 0f) {
+            return 0;
+        }
+        float offset = eye == EyeParams.Eye.LEFT ? DEPTH_OFFSET
+                : eye == EyeParams.Eye.RIGHT ? -DEPTH_OFFSET : 0f;
+        // The positions are in lines; a line is 2 * LINE_HEIGHT high in clip space, and the
+        // width is scaled by the height-to-width ratio of the eye's viewport.
+        float scaleY = 2 * LINE_HEIGHT;
+        float scaleX = scaleY * perspective[0] / perspective[5];
+
+        mGl.glDisable(GLES20.GL_DEPTH_TEST);
+        mGl.glEnable(GLES20.GL_BLEND);
+        mGl.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+
+        mProgram.use();
+        mTransformParam.set(scaleX, scaleY, 2 * offset, 1f - 2 * TEXT_TOP);
+        mColorParam.set(COLOR[0], COLOR[1], COLOR[2], mAlpha);
+        mGl.glActiveTexture(GLES20.GL_TEXTURE0);
+        mGl.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture);
+
+        mVertices.bind();
+        mPositionParam.setPointer(2, GLES20.GL_FLOAT, false, FLOATS_PER_VERTEX * 4, 0);
+        mTexCoordParam.setPointer(2, GLES20.GL_FLOAT, false, FLOATS_PER_VERTEX * 4, 2 * 4);
+        // The scene programs have no texture coordinates.
+        mTexCoordParam.enable();
+        mIndices.bind();
+        mGl.glDrawElements(GLES20.GL_TRIANGLES, mCharCount * 6, GLES20.GL_UNSIGNED_SHORT, 0);
+        mTexCoordParam.disable();
+
+        mGl.glDisable(GLES20.GL_BLEND);
+        mGl.glEnable(GLES20.GL_DEPTH_TEST);
+        return 1;
+    }
+
+    /**
+     * Frees the GPU memory. The HUD can't be drawn afterwards.
+     */
+    public void release() {
+        mVertices.release();
+        mIndices.release();
+        if (mTexture != 0) {
+            mGl.glDeleteTextures(1, new int[] {mTexture}, 0);
+            mTexture = 0;
+        }
+    }
+}
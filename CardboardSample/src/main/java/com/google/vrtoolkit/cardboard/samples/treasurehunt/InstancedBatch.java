@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Draws many copies of one mesh, each with its own transform and highlight color, in a handful of
+ * draw calls.
+ *
+ * OpenGL ES 2.0 has no instanced drawing, so this uses pseudo-instancing instead: the vertex
+ * buffer holds a fixed number of copies of the mesh, every vertex carries the index of its copy
+ * in a_InstanceIndex, and the per-copy data is uploaded as the uniform array u_Instances. Each
+ * draw call then renders as many objects as fit in the uniform array.
+ *
+ * Every instance takes VECTORS_PER_INSTANCE vec4s: the first three rows of its model matrix and
+ * a highlight color whose alpha says how much of it replaces the vertex color.
+ */
+public class InstancedBatch {
+    public static final int VECTORS_PER_INSTANCE = 4;
+    public static final int FLOATS_PER_INSTANCE = VECTORS_PER_INSTANCE * 4;
+
+    /** Uniform vectors left for the rest of light_vertex.shader. */
+    private static final int RESERVED_UNIFORM_VECTORS = 16;
+    /** Keeps the replicated vertex buffer small on GPUs with many uniforms. */
+    private static final int MAX_INSTANCES_PER_DRAW = 64;
+
+    private final GLApi mGl;
+    private final Mesh mMesh;
+    private final VertexBuffer mInstanceIndices;
+    private final int mInstancesPerDraw;
+    private final int mIndicesPerInstance;
+    private final ShaderProgram.Attribute mInstanceIndexParam;
+    private final ShaderProgram.Uniform mInstancesParam;
+
+    /**
+     * @param maxVertexUniformVectors The value of GL_MAX_VERTEX_UNIFORM_VECTORS.
+     * @return How many instances a draw call can hold.
+     */
+    public static int getInstancesPerDraw(int maxVertexUniformVectors) {
+        int instances = (maxVertexUniformVectors - RESERVED_UNIFORM_VECTORS) / VECTORS_PER_INSTANCE;
+        return Math.max(1, Math.min(MAX_INSTANCES_PER_DRAW, instances));
+    }
+
+    /**
+     * @return Preprocessor lines that switch light_vertex.shader to instanced drawing.
+     */
+    public static String getShaderDefines(int instancesPerDraw) {
+        return "#define INSTANCED\n#define INSTANCE_VECTORS "
+                + instancesPerDraw * VECTORS_PER_INSTANCE + "\n";
+    }
+
+    /**
+     * Writes one instance into an instance data array.
+     * @param data The instance data, FLOATS_PER_INSTANCE floats per instance.
+     * @param instance The instance to write.
+     * @param model An array holding the model matrix.
+     * @param modelOffset The offset of the model matrix in its array.
+     * @param highlight The highlight color, or null for none.
+     */
+    public static void writeInstance(float[] data, int instance, float[] model, int modelOffset,
+            float[] highlight) {
+        int d = instance * FLOATS_PER_INSTANCE;
+        // Rows of the column-major model matrix.
+        for (int row = 0; row < 3; row++) {
+            data[d + row * 4] = model[modelOffset + row];
+            data[d + row * 4 + 1] = model[modelOffset + 4 + row];
+            data[d + row * 4 + 2] = model[modelOffset + 8 + row];
+            data[d + row * 4 + 3] = model[modelOffset + 12 + row];
+        }
+        if (highlight != null) {
+            data[d + 12] = highlight[0];
+            data[d + 13] = highlight[1];
+            data[d + 14] = highlight[2];
+            data[d + 15] = highlight[3];
+        } else {
+            data[d + 15] = 0f;
+        }
+    }
+
+    /**
+     * @param mesh The packed, indexed mesh to draw copies of.
+     * @param instancesPerDraw The value returned by getInstancesPerDraw().
+     * @param program A program built from light_vertex.shader with getShaderDefines().
+     */
+    public InstancedBatch(MeshFile mesh, int instancesPerDraw, ShaderProgram program) {
+        mInstancesPerDraw = instancesPerDraw;
+        mIndicesPerInstance = mesh.getIndexCount();
+        mGl = program.getGl();
+        mMesh = new Mesh(mGl, MeshBatcher.replicate(mesh, instancesPerDraw));
+
+        int verticesPerInstance = mesh.getVertexCount();
+        int vertexCount = verticesPerInstance * instancesPerDraw;
+        ByteBuffer bb = ByteBuffer.allocateDirect(vertexCount * 4);
+        bb.order(ByteOrder.nativeOrder());
+        FloatBuffer instanceIndices = bb.asFloatBuffer();
+        for (int v = 0; v < vertexCount; v++) {
+            instanceIndices.put(v / verticesPerInstance);
+        }
+        instanceIndices.position(0);
+        mInstanceIndices = new VertexBuffer(mGl, GLES20.GL_ARRAY_BUFFER, instanceIndices,
+                vertexCount * 4);
+
+        mInstanceIndexParam = program.getAttribute("a_InstanceIndex");
+        mInstancesParam = program.getUniform("u_Instances");
+    }
+
+    /**
+     * Draws instances. The program must be in use, with its view and projection uniforms set.
+     * @param bindings The vertex handles of the program.
+     * @param data The instance data, as filled in by writeInstance().
+     * @param count The number of instances to draw.
+     * @return The number of draw calls made.
+     */
+    public int draw(VertexFormat.Bindings bindings, float[] data, int count) {
+        mMesh.bind(bindings);
+        mInstanceIndices.bind();
+        mInstanceIndexParam.setPointer(1, GLES20.GL_FLOAT, false, 0, 0);
+        mInstanceIndexParam.enable();
+
+        int drawCalls = 0;
+        for (int first = 0; first < count; first += mInstancesPerDraw) {
+            int instances = Math.min(mInstancesPerDraw, count - first);
+            mInstancesParam.set4v(data, first * FLOATS_PER_INSTANCE,
+                    instances * VECTORS_PER_INSTANCE);
+            mMesh.draw(instances * mIndicesPerInstance);
+            drawCalls++;
+        }
+
+        // The other programs have no per-instance attribute.
+        mInstanceIndexParam.disable();
+        return drawCalls;
+    }
+
+    /**
+     * Frees the GPU memory. The batch can't be drawn afterwards.
+     */
+    public void release() {
+        mMesh.release();
+        mInstanceIndices.release();
+    }
+}
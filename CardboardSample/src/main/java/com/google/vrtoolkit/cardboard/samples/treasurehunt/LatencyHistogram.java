@@ -0,0 +1,131 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in buckets whose width grows with the duration, so that percentiles are
+ * accurate to about 6% from a microsecond up to over a minute in a fixed amount of memory.
+ *
+ * Recording is lock-free and doesn't allocate, so it can be done from the render loop while
+ * another thread reads the percentiles.
+ */
+public class LatencyHistogram {
+    // Durations are counted in microseconds. Below 2 * SUB_BUCKETS each has its own bucket, and
+    // after that every power of two is split into SUB_BUCKETS buckets.
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 26;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * @param nanos A duration. Negative durations are counted as zero.
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        mCounts.incrementAndGet(getBucket(micros));
+        mCount.incrementAndGet();
+        long max;
+        while (nanos > (max = mMax.get())) {
+            if (mMax.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /**
+     * @return The longest duration recorded, in nanoseconds, exactly.
+     */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * @param fraction Between 0 and 1, for instance 0.95 for the 95th percentile.
+     * @return The shortest duration, in nanoseconds, that at least the given fraction of the
+     *     recorded durations don't exceed, to the middle of its bucket. The maximum if that is in
+     *     the last bucket, which has no upper bound. 0 if nothing was recorded.
+     */
+    public long getPercentile(double fraction) {
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts.get(i);
+            if (seen >= target) {
+                if (i == BUCKET_COUNT - 1) {
+                    return getMax();
+                }
+                long middle = getBucketLowerBound(i) * 1000 + getBucketWidth(i) * 500;
+                return Math.min(middle, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Forgets everything recorded. Durations recorded while this runs may be partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts.set(i, 0);
+        }
+        mCount.set(0);
+        mMax.set(0);
+    }
+
+    static int getBucket(long micros) {
+        if (micros < 2 * SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (micros >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long getBucketLowerBound(int bucket) {
+        return bucket < 2 * SUB_BUCKETS
+                ? bucket : (SUB_BUCKETS + bucket % SUB_BUCKETS) * getBucketWidth(bucket);
+    }
+
+    /**
+     * @return The number of microseconds counted in a bucket.
+     */
+    static long getBucketWidth(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return 1;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return 1L << (exponent - SUB_BUCKET_BITS);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+/**
+ * Picks a level of detail for each of a number of objects from how large it is drawn.
+ *
+ * Every level has a geometric error, the distance in model units its surface may be from the full
+ * mesh, which MeshConverter measures offline and MeshFile stores. A level is good enough while that
+ * error, projected to the object's depth, covers at most a tolerance in pixels. As the error is a
+ * fixed fraction of the object's radius, that is a limit on the object's projected size, the
+ * pixels its radius covers, radius * pixelsPerUnit / depth: level n may be used while the size is
+ * at most tolerance * radius / error(n).
+ *
+ * An object whose size sits near a limit would switch levels back and forth as it or the head
+ * moves a little, and every switch shows as a pop. So each object keeps its level until its size
+ * leaves a band around the limit: it only moves to a coarser level once it is hysteresis smaller
+ * than that level's limit, and only back to a finer one once it is hysteresis larger than its own.
+ * The error seen can therefore be that much over the tolerance.
+ */
+public class LodSelector {
+    private final float mRadius;
+    // Per level: the largest size it may be drawn at, in pixels.
+    private final float[] mMaxSizes;
+    private final float mHysteresis;
+    private final int[] mLevels;
+    private float mPixelsPerUnit;
+
+    /**
+     * @param radius The radius of the objects, in model units.
+     * @param errors The error of each level, from level 0, the full mesh, with an error of 0.
+     *     No level's error may be smaller than the one before.
+     * @param tolerancePixels How many pixels a level's error may cover.
+     * @param hysteresis The width of the band around each limit, as a fraction of it.
+     * @param objectCount The number of objects.
+     */
+    public LodSelector(float radius, float[] errors, float tolerancePixels, float hysteresis,
+            int objectCount) {
+        mRadius = radius;
+        mMaxSizes = new float[errors.length];
+        for (int level = 0; level < errors.length; level++) {
+            if (level > 0 && errors[level] < errors[level - 1]) {
+                throw new IllegalArgumentException("Level " + level
+                        + " isn't coarser than the level before.");
+            }
+            mMaxSizes[level] = errors[level] > 0f
+                    ? tolerancePixels * radius / errors[level] : Float.POSITIVE_INFINITY;
+        }
+        mHysteresis = hysteresis;
+        mLevels = new int[objectCount];
+    }
+
+    public int getLevelCount() {
+        return mMaxSizes.length;
+    }
+
+    /**
+     * Sets the projection the objects are drawn with. Until it has been set, every object is at
+     * level 0.
+     * @param perspective A projection matrix, as from EyeTransform.getPerspective().
+     * @param viewportHeight The height of the viewport it projects to, in pixels.
+     */
+    public void setProjection(float[] perspective, int offset, float viewportHeight) {
+        // Clip space is two units high, and w is the depth.
+        mPixelsPerUnit = perspective[offset + 5] * viewportHeight * 0.5f;
+    }
+
+    /**
+     * @param depth The distance of the object's center in front of the viewer.
+     * @return The pixels the object's radius covers, or infinity if the viewer is inside it.
+     */
+    public float getProjectedSize(float depth) {
+        return depth > mRadius ? mRadius * mPixelsPerUnit / depth : Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Updates an object's level for its depth.
+     * @param depth The distance of the object's center in front of the viewer.
+     * @return The object's level.
+     */
+    public int select(int object, float depth) {
+        int level = mLevels[object];
+        if (mPixelsPerUnit <= 0f) {
+            level = 0;
+        } else {
+            float size = getProjectedSize(depth);
+            while (level > 0 && size > mMaxSizes[level] * (1f + mHysteresis)) {
+                level--;
+            }
+            while (level + 1 < mMaxSizes.length
+                    && size <= mMaxSizes[level + 1] * (1f - mHysteresis)) {
+                level++;
+            }
+        }
+        mLevels[object] = level;
+        return level;
+    }
+
+    /**
+     * @return The level select() last gave the object.
+     */
+    public int getLevel(int object) {
+        return mLevels[object];
+    }
+}
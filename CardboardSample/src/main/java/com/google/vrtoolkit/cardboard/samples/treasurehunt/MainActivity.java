@@ -17,124 +17,109 @@
 package com.google.vrtoolkit.cardboard.samples.treasurehunt;
 
 import android.content.Context;
-import android.opengl.GLES20;
-import android.opengl.Matrix;
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Vibrator;
 import android.util.Log;
 import com.google.vrtoolkit.cardboard.*;
 
-import javax.microedition.khronos.egl.EGLConfig;
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * A Cardboard sample application.
  */
-public class MainActivity extends CardboardActivity implements CardboardView.StereoRenderer {
+public class MainActivity extends CardboardActivity
+        implements TreasureHuntRenderer.Host, Simulation.Listener {
 
     private static final String TAG = "MainActivity";
 
-    private static final float CAMERA_Z = 0.01f;
-    private static final float TIME_DELTA = 0.3f;
+    /** Intent extra with the number of objects to hide, for stress testing. Defaults to one. */
+    public static final String EXTRA_TREASURE_COUNT = "treasure_count";
 
-    private static final float YAW_LIMIT = 0.12f;
-    private static final float PITCH_LIMIT = 0.12f;
-
-    // We keep the light always position just above the user.
-    private final float[] mLightPosInWorldSpace = new float[] {0.0f, 2.0f, 0.0f, 1.0f};
-    private final float[] mLightPosInEyeSpace = new float[4];
-
-    private static final int COORDS_PER_VERTEX = 3;
-
-    private final WorldLayoutData DATA = new WorldLayoutData();
-
-    private FloatBuffer mFloorVertices;
-    private FloatBuffer mFloorColors;
-    private FloatBuffer mFloorNormals;
-
-    private FloatBuffer mCubeVertices;
-    private FloatBuffer mCubeColors;
-    private FloatBuffer mCubeFoundColors;
-    private FloatBuffer mCubeNormals;
-
-    private int mGlProgram;
-    private int mPositionParam;
-    private int mNormalParam;
-    private int mColorParam;
-    private int mModelViewProjectionParam;
-    private int mLightPosParam;
-    private int mModelViewParam;
-    private int mModelParam;
-    private int mIsFloorParam;
-
-    private float[] mModelCube;
-    private float[] mCamera;
-    private float[] mView;
-    private float[] mHeadView;
-    private float[] mModelViewProjection;
-    private float[] mModelView;
+    /**
+     * Intent extra with how often to check for OpenGL ES errors, one of the ErrorCheckingGL
+     * policies. Defaults to once per frame.
+     */
+    public static final String EXTRA_GL_ERROR_POLICY = "gl_error_policy";
 
-    private float[] mModelFloor;
+    /**
+     * Intent extra that turns on event tracing. The trace is written to trace.json in the app's
+     * external files directory whenever the app is paused.
+     */
+    public static final String EXTRA_TRACE = "trace";
+    private static final int TRACE_CAPACITY = 1 << 16;
 
-    private int mScore = 0;
-    private float mObjectDistance = 12f;
-    private float mFloorDepth = 20f;
+    // The size of the HUD text, as the overlay views had it.
+    private static final float HUD_TEXT_SIZE_DIP = 14f;
 
-    private Vibrator mVibrator;
+    /**
+     * Intent extra giving a number of frames of GL calls to capture, starting from the first
+     * frame. The capture is written to capture.bin in the app's external files directory, for
+     * CaptureAnalyzer.
+     */
+    public static final String EXTRA_CAPTURE_FRAMES = "capture_frames";
 
-    private CardboardOverlayView mOverlayView;
+    /**
+     * Intent extra giving a number of frames of head poses and trigger pulls to record, starting
+     * from the first frame. The recording is written to poses.bin in the app's external files
+     * directory when the app is paused, for ReplayBenchmark.
+     */
+    public static final String EXTRA_RECORD_POSES = "record_poses";
 
     /**
-     * Converts a raw text file, saved as a resource, into an OpenGL ES shader
-     * @param type The type of shader we will be creating.
-     * @param resId The resource ID of the raw text file about to be turned into a shader.
-     * @return
+     * Intent extra with how to draw the floor grid, one of the TreasureHuntRenderer FLOOR_ modes.
+     * Defaults to FLOOR_TEXTURE.
      */
-    private int loadGLShader(int type, int resId) {
-        String code = readRawTextFile(resId);
-        int shader = GLES20.glCreateShader(type);
-        GLES20.glShaderSource(shader, code);
-        GLES20.glCompileShader(shader);
-
-        // Get the compilation status.
-        final int[] compileStatus = new int[1];
-        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
-
-        // If the compilation failed, delete the shader.
-        if (compileStatus[0] == 0) {
-            Log.e(TAG, "Error compiling shader: " + GLES20.glGetShaderInfoLog(shader));
-            GLES20.glDeleteShader(shader);
-            shader = 0;
-        }
+    public static final String EXTRA_FLOOR_MODE = "floor_mode";
 
-        if (shader == 0) {
-            throw new RuntimeException("Error creating shader.");
-        }
+    /**
+     * Intent extra that runs the fill-rate benchmark at startup, comparing the floor modes. The
+     * results are logged.
+     */
+    public static final String EXTRA_FILL_RATE_BENCHMARK = "fill_rate_benchmark";
 
-        return shader;
-    }
+    /**
+     * Intent extra that turns on adaptive resolution: the eyes are drawn at a lower resolution when
+     * frames run over budget, and upscaled.
+     */
+    public static final String EXTRA_ADAPTIVE_RESOLUTION = "adaptive_resolution";
 
     /**
-     * Checks if we've had an error inside of OpenGL ES, and if so what that error is.
-     * @param func
+     * Intent extra that turns on head pose prediction, with the horizon in milliseconds: how long
+     * after the head tracker's pose the frame is expected to be displayed.
      */
-    private static void checkGLError(String func) {
-        int error;
-        while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
-            Log.e(TAG, func + ": glError " + error);
-            throw new RuntimeException(func + ": glError " + error);
-        }
-    }
+    public static final String EXTRA_PREDICTION_MS = "prediction_ms";
+
+    private Simulation mSimulation;
+    private TreasureHuntRenderer mRenderer;
+    // Null unless poses are being recorded.
+    private PoseRecorder mPoseRecorder;
+    private Tracer mTracer;
+    // Decodes textures, one at a time and behind everything else.
+    private ExecutorService mDecodeExecutor;
+
+    private Vibrator mVibrator;
 
     /**
-     * Sets the view to our CardboardView and initializes the transformation matrices we will use
-     * to render our scene.
+     * Sets the view to our CardboardView and sets up the renderer that draws into it.
      * @param savedInstanceState
      */
     @Override
@@ -143,122 +128,171 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
 
         setContentView(R.layout.common_ui);
         CardboardView cardboardView = (CardboardView) findViewById(R.id.cardboard_view);
-        cardboardView.setRenderer(this);
+
+        mDecodeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "TextureDecoder");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+
+        mTracer = new Tracer(Clock.SYSTEM, TRACE_CAPACITY);
+        mTracer.setEnabled(getIntent().getBooleanExtra(EXTRA_TRACE, false));
+
+        int treasureCount = Math.max(1, getIntent().getIntExtra(EXTRA_TREASURE_COUNT, 1));
+        mSimulation = new Simulation(treasureCount, this, mTracer);
+        mRenderer = new TreasureHuntRenderer(this, new AndroidGL(),
+                getIntent().getIntExtra(EXTRA_GL_ERROR_POLICY, ErrorCheckingGL.POLICY_PER_FRAME),
+                mSimulation, Clock.SYSTEM, mTracer);
+        mRenderer.requestCapture(getIntent().getIntExtra(EXTRA_CAPTURE_FRAMES, 0));
+        mRenderer.setFloorMode(getIntent().getIntExtra(EXTRA_FLOOR_MODE,
+                TreasureHuntRenderer.FLOOR_TEXTURE));
+        if (getIntent().getBooleanExtra(EXTRA_FILL_RATE_BENCHMARK, false)) {
+            mRenderer.startFillRateBenchmark();
+        }
+        mRenderer.setAdaptiveResolution(
+                getIntent().getBooleanExtra(EXTRA_ADAPTIVE_RESOLUTION, false));
+        mRenderer.setPredictionHorizon(
+                Math.max(0, getIntent().getIntExtra(EXTRA_PREDICTION_MS, 0)) * 1000000L);
+
+        int poseFrames = getIntent().getIntExtra(EXTRA_RECORD_POSES, 0);
+        if (poseFrames > 0) {
+            mPoseRecorder = new PoseRecorder(mRenderer, Clock.SYSTEM, poseFrames);
+            cardboardView.setRenderer(mPoseRecorder);
+        } else {
+            cardboardView.setRenderer(mRenderer);
+        }
         setCardboardView(cardboardView);
 
-        mModelCube = new float[16];
-        mCamera = new float[16];
-        mView = new float[16];
-        mModelViewProjection = new float[16];
-        mModelView = new float[16];
-        mModelFloor = new float[16];
-        mHeadView = new float[16];
         mVibrator = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
 
+        mRenderer.show3DToast("Pull the magnet when you find an object.");
+    }
 
-        mOverlayView = (CardboardOverlayView) findViewById(R.id.overlay);
-        mOverlayView.show3DToast("Pull the magnet when you find an object.");
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mSimulation.start();
     }
 
     @Override
-    public void onRendererShutdown() {
-        Log.i(TAG, "onRendererShutdown");
+    protected void onPause() {
+        mSimulation.stop();
+        if (mTracer.isEnabled()) {
+            writeTrace();
+        }
+        super.onPause();
+        // The GL thread has stopped now, so the recording can be read.
+        if (mPoseRecorder != null) {
+            writePoses();
+        }
     }
 
     @Override
-    public void onSurfaceChanged(int width, int height) {
-        Log.i(TAG, "onSurfaceChanged");
+    protected void onDestroy() {
+        mDecodeExecutor.shutdownNow();
+        super.onDestroy();
+    }
+
+    /**
+     * Writes the trace out on a background thread, so that pausing isn't held up.
+     */
+    private void writeTrace() {
+        final File file = new File(getExternalFilesDir(null), "trace.json");
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Writer writer = new BufferedWriter(new FileWriter(file));
+                    try {
+                        int events = mTracer.writeChromeTrace(writer);
+                        Log.i(TAG, "Wrote " + events + " trace events to " + file);
+                    } finally {
+                        writer.close();
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to write trace to " + file, e);
+                }
+            }
+        }, "TraceWriter").start();
+    }
+
+    /**
+     * Writes a finished GL capture out on a background thread.
+     */
+    private void writeCapture(final byte[] capture) {
+        final File file = new File(getExternalFilesDir(null), "capture.bin");
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    OutputStream out = new FileOutputStream(file);
+                    try {
+                        out.write(capture);
+                        Log.i(TAG, "Wrote " + capture.length + " bytes of GL capture to " + file);
+                    } finally {
+                        out.close();
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to write GL capture to " + file, e);
+                }
+            }
+        }, "CaptureWriter").start();
     }
 
     /**
-     * Creates the buffers we use to store information about the 3D world. OpenGL doesn't use Java
-     * arrays, but rather needs data in a format it can understand. Hence we use ByteBuffers.
-     * @param config The EGL configuration used when creating the surface.
+     * Writes the pose recording out on a background thread.
      */
+    private void writePoses() {
+        final File file = new File(getExternalFilesDir(null), "poses.bin");
+        final PoseTrace trace = mPoseRecorder.getTrace();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    OutputStream out = new FileOutputStream(file);
+                    try {
+                        trace.write(out);
+                        Log.i(TAG, "Wrote " + trace.getFrameCount() + " poses to " + file);
+                    } finally {
+                        out.close();
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to write poses to " + file, e);
+                }
+            }
+        }, "PoseWriter").start();
+    }
+
     @Override
-    public void onSurfaceCreated(EGLConfig config) {
-        Log.i(TAG, "onSurfaceCreated");
-        GLES20.glClearColor(0.1f, 0.1f, 0.1f, 0.5f); // Dark background so text shows up well
-
-        ByteBuffer bbVertices = ByteBuffer.allocateDirect(DATA.CUBE_COORDS.length * 4);
-        bbVertices.order(ByteOrder.nativeOrder());
-        mCubeVertices = bbVertices.asFloatBuffer();
-        mCubeVertices.put(DATA.CUBE_COORDS);
-        mCubeVertices.position(0);
-
-        ByteBuffer bbColors = ByteBuffer.allocateDirect(DATA.CUBE_COLORS.length * 4);
-        bbColors.order(ByteOrder.nativeOrder());
-        mCubeColors = bbColors.asFloatBuffer();
-        mCubeColors.put(DATA.CUBE_COLORS);
-        mCubeColors.position(0);
-
-        ByteBuffer bbFoundColors = ByteBuffer.allocateDirect(DATA.CUBE_FOUND_COLORS.length * 4);
-        bbFoundColors.order(ByteOrder.nativeOrder());
-        mCubeFoundColors = bbFoundColors.asFloatBuffer();
-        mCubeFoundColors.put(DATA.CUBE_FOUND_COLORS);
-        mCubeFoundColors.position(0);
-
-        ByteBuffer bbNormals = ByteBuffer.allocateDirect(DATA.CUBE_NORMALS.length * 4);
-        bbNormals.order(ByteOrder.nativeOrder());
-        mCubeNormals = bbNormals.asFloatBuffer();
-        mCubeNormals.put(DATA.CUBE_NORMALS);
-        mCubeNormals.position(0);
-
-        // make a floor
-        ByteBuffer bbFloorVertices = ByteBuffer.allocateDirect(DATA.FLOOR_COORDS.length * 4);
-        bbFloorVertices.order(ByteOrder.nativeOrder());
-        mFloorVertices = bbFloorVertices.asFloatBuffer();
-        mFloorVertices.put(DATA.FLOOR_COORDS);
-        mFloorVertices.position(0);
-
-        ByteBuffer bbFloorNormals = ByteBuffer.allocateDirect(DATA.FLOOR_NORMALS.length * 4);
-        bbFloorNormals.order(ByteOrder.nativeOrder());
-        mFloorNormals = bbFloorNormals.asFloatBuffer();
-        mFloorNormals.put(DATA.FLOOR_NORMALS);
-        mFloorNormals.position(0);
-
-        ByteBuffer bbFloorColors = ByteBuffer.allocateDirect(DATA.FLOOR_COLORS.length * 4);
-        bbFloorColors.order(ByteOrder.nativeOrder());
-        mFloorColors = bbFloorColors.asFloatBuffer();
-        mFloorColors.put(DATA.FLOOR_COLORS);
-        mFloorColors.position(0);
-
-        int vertexShader = loadGLShader(GLES20.GL_VERTEX_SHADER, R.raw.light_vertex);
-        int gridShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, R.raw.grid_fragment);
-
-        mGlProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(mGlProgram, vertexShader);
-        GLES20.glAttachShader(mGlProgram, gridShader);
-        GLES20.glLinkProgram(mGlProgram);
-
-        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
-
-        // Object first appears directly in front of user
-        Matrix.setIdentityM(mModelCube, 0);
-        Matrix.translateM(mModelCube, 0, 0, 0, -mObjectDistance);
-
-        Matrix.setIdentityM(mModelFloor, 0);
-        Matrix.translateM(mModelFloor, 0, 0, -mFloorDepth, 0); // Floor appears below user
-
-        checkGLError("onSurfaceCreated");
+    public void onCaptureFinished(byte[] capture) {
+        writeCapture(capture);
     }
 
     /**
-     * Converts a raw text file into a string.
-     * @param resId The resource ID of the raw text file about to be turned into a shader.
+     * Reads a shader from res/raw. The resource is read in large blocks and decoded once, rather
+     * than a line at a time.
+     * @param name The name of the raw resource.
      * @return
      */
-    private String readRawTextFile(int resId) {
+    @Override
+    public String readShader(String name) {
+        int resId = getResources().getIdentifier(name, "raw", getPackageName());
         InputStream inputStream = getResources().openRawResource(resId);
         try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line).append("\n");
+            try {
+                ByteArrayOutputStream source = new ByteArrayOutputStream(4096);
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = inputStream.read(buffer)) >= 0) {
+                    source.write(buffer, 0, read);
+                }
+                return source.toString("UTF-8");
+            } finally {
+                inputStream.close();
             }
-            reader.close();
-            return sb.toString();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -266,198 +300,97 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
     }
 
     /**
-     * Prepares OpenGL ES before we draw a frame.
-     * @param headTransform The head transformation in the new frame.
+     * Maps a file from assets. The file must be stored uncompressed in the APK, as build.gradle
+     * asks for .mesh files, so that it can be mapped where it lies.
      */
     @Override
-    public void onNewFrame(HeadTransform headTransform) {
-        GLES20.glUseProgram(mGlProgram);
-
-        mModelViewProjectionParam = GLES20.glGetUniformLocation(mGlProgram, "u_MVP");
-        mLightPosParam = GLES20.glGetUniformLocation(mGlProgram, "u_LightPos");
-        mModelViewParam = GLES20.glGetUniformLocation(mGlProgram, "u_MVMatrix");
-        mModelParam = GLES20.glGetUniformLocation(mGlProgram, "u_Model");
-        mIsFloorParam = GLES20.glGetUniformLocation(mGlProgram, "u_IsFloor");
-
-        // Build the Model part of the ModelView matrix.
-        Matrix.rotateM(mModelCube, 0, TIME_DELTA, 0.5f, 0.5f, 1.0f);
-
-        // Build the camera matrix and apply it to the ModelView.
-        Matrix.setLookAtM(mCamera, 0, 0.0f, 0.0f, CAMERA_Z, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
-
-        headTransform.getHeadView(mHeadView, 0);
+    public ByteBuffer mapAsset(String name) throws IOException {
+        AssetFileDescriptor fd = getAssets().openFd(name);
+        try {
+            FileInputStream in = fd.createInputStream();
+            try {
+                FileChannel channel = in.getChannel();
+                return channel.map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(),
+                        fd.getLength());
+            } finally {
+                // The mapping outlives the stream, its channel and the descriptor.
+                in.close();
+            }
+        } finally {
+            fd.close();
+        }
+    }
 
-        checkGLError("onReadyToDraw");
+    @Override
+    public File getProgramCacheDir() {
+        return new File(getCacheDir(), "programs");
     }
 
     /**
-     * Draws a frame for an eye. The transformation for that eye (from the camera) is passed in as
-     * a parameter.
-     * @param transform The transformations to apply to render this eye.
+     * Decodes a texture from res/drawable, scaled down to power-of-two sides so that it gets
+     * mipmaps. Called on the decode executor.
+     * @param name The name of the drawable resource.
      */
     @Override
-    public void onDrawEye(EyeTransform transform) {
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
-
-        mPositionParam = GLES20.glGetAttribLocation(mGlProgram, "a_Position");
-        mNormalParam = GLES20.glGetAttribLocation(mGlProgram, "a_Normal");
-        mColorParam = GLES20.glGetAttribLocation(mGlProgram, "a_Color");
-
-        GLES20.glEnableVertexAttribArray(mPositionParam);
-        GLES20.glEnableVertexAttribArray(mNormalParam);
-        GLES20.glEnableVertexAttribArray(mColorParam);
-        checkGLError("mColorParam");
-
-        // Apply the eye transformation to the camera.
-        Matrix.multiplyMM(mView, 0, transform.getEyeView(), 0, mCamera, 0);
-
-        // Set the position of the light
-        Matrix.multiplyMV(mLightPosInEyeSpace, 0, mView, 0, mLightPosInWorldSpace, 0);
-        GLES20.glUniform3f(mLightPosParam, mLightPosInEyeSpace[0], mLightPosInEyeSpace[1],
-                mLightPosInEyeSpace[2]);
-
-        // Build the ModelView and ModelViewProjection matrices
-        // for calculating cube position and light.
-        Matrix.multiplyMM(mModelView, 0, mView, 0, mModelCube, 0);
-        Matrix.multiplyMM(mModelViewProjection, 0, transform.getPerspective(), 0, mModelView, 0);
-        drawCube();
-
-        // Set mModelView for the floor, so we draw floor in the correct location
-        Matrix.multiplyMM(mModelView, 0, mView, 0, mModelFloor, 0);
-        Matrix.multiplyMM(mModelViewProjection, 0, transform.getPerspective(), 0,
-            mModelView, 0);
-        drawFloor(transform.getPerspective());
+    public TextureManager.Image decode(String name) throws IOException {
+        int resId = getResources().getIdentifier(name, "drawable", getPackageName());
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        // Keep the pixels as they are rather than scaling them for the screen density.
+        options.inScaled = false;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap bitmap = BitmapFactory.decodeResource(getResources(), resId, options);
+        if (bitmap == null) {
+            throw new IOException("Can't decode drawable " + name);
+        }
+        int width = Integer.highestOneBit(bitmap.getWidth());
+        int height = Integer.highestOneBit(bitmap.getHeight());
+        if (width != bitmap.getWidth() || height != bitmap.getHeight()) {
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+            bitmap.recycle();
+            bitmap = scaled;
+        }
+        // ARGB_8888 bitmaps are stored as R, G, B and A bytes, as GL_RGBA wants.
+        ByteBuffer pixels = ByteBuffer.allocateDirect(width * height * 4);
+        bitmap.copyPixelsToBuffer(pixels);
+        bitmap.recycle();
+        pixels.position(0);
+        return new TextureManager.Image(width, height, pixels);
     }
 
     @Override
-    public void onFinishFrame(Viewport viewport) {
-    }
-
-    /**
-     * Draw the cube. We've set all of our transformation matrices. Now we simply pass them into
-     * the shader.
-     */
-    public void drawCube() {
-        // This is not the floor!
-        GLES20.glUniform1f(mIsFloorParam, 0f);
-
-        // Set the Model in the shader, used to calculate lighting
-        GLES20.glUniformMatrix4fv(mModelParam, 1, false, mModelCube, 0);
-
-        // Set the ModelView in the shader, used to calculate lighting
-        GLES20.glUniformMatrix4fv(mModelViewParam, 1, false, mModelView, 0);
-
-        // Set the position of the cube
-        GLES20.glVertexAttribPointer(mPositionParam, COORDS_PER_VERTEX, GLES20.GL_FLOAT,
-                false, 0, mCubeVertices);
-
-        // Set the ModelViewProjection matrix in the shader.
-        GLES20.glUniformMatrix4fv(mModelViewProjectionParam, 1, false, mModelViewProjection, 0);
-
-        // Set the normal positions of the cube, again for shading
-        GLES20.glVertexAttribPointer(mNormalParam, 3, GLES20.GL_FLOAT,
-                false, 0, mCubeNormals);
-
-
-
-        if (isLookingAtObject()) {
-            GLES20.glVertexAttribPointer(mColorParam, 4, GLES20.GL_FLOAT, false,
-                    0, mCubeFoundColors);
-        } else {
-            GLES20.glVertexAttribPointer(mColorParam, 4, GLES20.GL_FLOAT, false,
-                    0, mCubeColors);
-        }
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 36);
-        checkGLError("Drawing cube");
+    public Executor getDecodeExecutor() {
+        return mDecodeExecutor;
     }
 
-    /**
-     * Draw the floor. This feeds in data for the floor into the shader. Note that this doesn't
-     * feed in data about position of the light, so if we rewrite our code to draw the floor first,
-     * the lighting might look strange.
-     */
-    public void drawFloor(float[] perspective) {
-        // This is the floor!
-        GLES20.glUniform1f(mIsFloorParam, 1f);
-
-        // Set ModelView, MVP, position, normals, and color
-        GLES20.glUniformMatrix4fv(mModelParam, 1, false, mModelFloor, 0);
-        GLES20.glUniformMatrix4fv(mModelViewParam, 1, false, mModelView, 0);
-        GLES20.glUniformMatrix4fv(mModelViewProjectionParam, 1, false, mModelViewProjection, 0);
-        GLES20.glVertexAttribPointer(mPositionParam, COORDS_PER_VERTEX, GLES20.GL_FLOAT,
-                false, 0, mFloorVertices);
-        GLES20.glVertexAttribPointer(mNormalParam, 3, GLES20.GL_FLOAT, false, 0, mFloorNormals);
-        GLES20.glVertexAttribPointer(mColorParam, 4, GLES20.GL_FLOAT, false, 0, mFloorColors);
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 6);
-
-        checkGLError("drawing floor");
+    @Override
+    public GlyphAtlas createGlyphAtlas() {
+        return GlyphRasterizer.rasterize(Typeface.DEFAULT_BOLD,
+                HUD_TEXT_SIZE_DIP * getResources().getDisplayMetrics().density);
     }
 
     /**
-     * Increment the score, hide the object, and give feedback if the user pulls the magnet while
-     * looking at the object. Otherwise, remind the user what to do.
+     * Tell the simulation if the user pulls the magnet while looking at an object. It increments
+     * the score and hides the object. Otherwise, remind the user what to do.
      */
     @Override
     public void onCardboardTrigger() {
         Log.i(TAG, "onCardboardTrigger");
+        if (mPoseRecorder != null) {
+            mPoseRecorder.onTrigger();
+        }
 
-        if (isLookingAtObject()) {
-            mScore++;
-            mOverlayView.show3DToast("Found it! Look around for another one.\nScore = " + mScore);
-            hideObject();
-        } else {
-            mOverlayView.show3DToast("Look around to find the object!");
+        if (!mRenderer.onTrigger()) {
+            mRenderer.show3DToast("Look around to find the object!");
         }
         // Always give user feedback
         mVibrator.vibrate(50);
     }
 
     /**
-     * Find a new random position for the object.
-     * We'll rotate it around the Y-axis so it's out of sight, and then up or down by a little bit.
-     */
-    private void hideObject() {
-        float[] rotationMatrix = new float[16];
-        float[] posVec = new float[4];
-
-        // First rotate in XZ plane, between 90 and 270 deg away, and scale so that we vary
-        // the object's distance from the user.
-        float angleXZ = (float) Math.random() * 180 + 90;
-        Matrix.setRotateM(rotationMatrix, 0, angleXZ, 0f, 1f, 0f);
-        float oldObjectDistance = mObjectDistance;
-        mObjectDistance = (float) Math.random() * 15 + 5;
-        float objectScalingFactor = mObjectDistance / oldObjectDistance;
-        Matrix.scaleM(rotationMatrix, 0, objectScalingFactor, objectScalingFactor, objectScalingFactor);
-        Matrix.multiplyMV(posVec, 0, rotationMatrix, 0, mModelCube, 12);
-
-        // Now get the up or down angle, between -20 and 20 degrees
-        float angleY = (float) Math.random() * 80 - 40; // angle in Y plane, between -40 and 40
-        angleY = (float) Math.toRadians(angleY);
-        float newY = (float)Math.tan(angleY) * mObjectDistance;
-
-        Matrix.setIdentityM(mModelCube, 0);
-        Matrix.translateM(mModelCube, 0, posVec[0], newY, posVec[2]);
-    }
-
-    /**
-     * Check if user is looking at object by calculating where the object is in eye-space.
-     * @return
+     * Give feedback when the simulation has counted a found object.
      */
-    private boolean isLookingAtObject() {
-        float[] initVec = {0, 0, 0, 1.0f};
-        float[] objPositionVec = new float[4];
-
-        // Convert object space to camera space. Use the headView from onNewFrame.
-        Matrix.multiplyMM(mModelView, 0, mHeadView, 0, mModelCube, 0);
-        Matrix.multiplyMV(objPositionVec, 0, mModelView, 0, initVec, 0);
-
-        float pitch = (float)Math.atan2(objPositionVec[1], -objPositionVec[2]);
-        float yaw = (float)Math.atan2(objPositionVec[0], -objPositionVec[2]);
-
-        Log.i(TAG, "Object position: X: " + objPositionVec[0]
-                + "  Y: " + objPositionVec[1] + " Z: " + objPositionVec[2]);
-        Log.i(TAG, "Object Pitch: " + pitch +"  Yaw: " + yaw);
-
-        return (Math.abs(pitch) < PITCH_LIMIT) && (Math.abs(yaw) < YAW_LIMIT);
+    @Override
+    public void onObjectFound(int object, int score) {
+        mRenderer.show3DToast("Found it! Look around for another one.\nScore = " + score);
     }
 }
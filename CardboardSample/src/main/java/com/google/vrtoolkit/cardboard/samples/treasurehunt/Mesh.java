@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.GLES20;
+
+/**
+ * A triangle mesh stored in a static vertex buffer object, with position, normal and color
+ * interleaved per vertex in a VertexFormat. Indexed meshes keep their indices in a second buffer
+ * object and are drawn with glDrawElements.
+ *
+ * The vertices are uploaded once, so drawing only points the attributes at offsets inside the
+ * buffer instead of having the driver copy client memory on every draw call.
+ */
+public class Mesh {
+    private final GLApi mGl;
+    private final VertexFormat mFormat;
+    private final VertexBuffer mVertices;
+    private final VertexBuffer mIndices;
+    private final int mVertexCount;
+    private final int mIndexCount;
+    private final float[] mPositionScale;
+    private final float[] mPositionOffset;
+
+    /**
+     * Uploads a mesh that is already packed, such as one mapped from a .mesh asset, straight
+     * from its buffers.
+     * @param gl Where to make the GL calls.
+     * @param mesh The packed mesh.
+     */
+    public Mesh(GLApi gl, MeshFile mesh) {
+        mGl = gl;
+        mFormat = mesh.getFormat();
+        mVertexCount = mesh.getVertexCount();
+        mPositionScale = mesh.getPositionScale();
+        mPositionOffset = mesh.getPositionOffset();
+        mVertices = new VertexBuffer(gl, GLES20.GL_ARRAY_BUFFER, mesh.getVertices(),
+                mVertexCount * mFormat.getStride());
+
+        if (mesh.isIndexed()) {
+            mIndexCount = mesh.getIndexCount();
+            mIndices = new VertexBuffer(gl, GLES20.GL_ELEMENT_ARRAY_BUFFER, mesh.getIndices(),
+                    mIndexCount * 2);
+        } else {
+            mIndexCount = 0;
+            mIndices = null;
+        }
+    }
+
+    /**
+     * Binds the vertex buffer, points the attributes into it and sets the uniforms that unpack
+     * the positions.
+     */
+    public void bind(VertexFormat.Bindings bindings) {
+        mVertices.bind();
+        if (mIndices != null) {
+            mIndices.bind();
+        }
+        mFormat.setAttributePointers(bindings, 0);
+        bindings.positionScale.set(mPositionScale[0], mPositionScale[1], mPositionScale[2]);
+        bindings.positionOffset.set(mPositionOffset[0], mPositionOffset[1], mPositionOffset[2]);
+    }
+
+    /**
+     * Draws the mesh. bind() must have been called first.
+     */
+    public void draw() {
+        draw(mIndices != null ? mIndexCount : mVertexCount);
+    }
+
+    /**
+     * Draws the start of the mesh. bind() must have been called first.
+     * @param count The number of indices to draw, or of vertices if the mesh isn't indexed.
+     */
+    public void draw(int count) {
+        if (mIndices != null) {
+            mGl.glDrawElements(GLES20.GL_TRIANGLES, count, GLES20.GL_UNSIGNED_SHORT, 0);
+        } else {
+            mGl.glDrawArrays(GLES20.GL_TRIANGLES, 0, count);
+        }
+    }
+
+    public int getVertexCount() {
+        return mVertexCount;
+    }
+
+    /**
+     * Frees the GPU memory. The mesh can't be drawn afterwards.
+     */
+    public void release() {
+        mVertices.release();
+        if (mIndices != null) {
+            mIndices.release();
+        }
+    }
+}
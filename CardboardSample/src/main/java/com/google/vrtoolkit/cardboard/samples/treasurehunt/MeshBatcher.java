@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Combines copies of a mesh into one mesh so that they can be drawn with a single draw call.
+ */
+public final class MeshBatcher {
+    private MeshBatcher() {
+    }
+
+    /**
+     * Concatenates copies of a packed mesh without moving them. Each copy's vertices follow the
+     * previous copy's, and so do its indices, so the first n copies can be drawn by drawing the
+     * first n times as many indices.
+     * @param mesh An indexed mesh.
+     * @param count The number of copies.
+     * @return The concatenated mesh, in new buffers.
+     */
+    public static MeshFile replicate(MeshFile mesh, int count) {
+        if (!mesh.isIndexed()) {
+            throw new IllegalArgumentException("Only indexed meshes can be batched.");
+        }
+        int vertexCount = mesh.getVertexCount();
+        if (vertexCount * count > 0x10000) {
+            throw new IllegalArgumentException("Too many vertices for 16-bit indices.");
+        }
+
+        int indexCount = mesh.getIndexCount();
+        ByteBuffer vertices = ByteBuffer.allocateDirect(
+                vertexCount * mesh.getFormat().getStride() * count);
+        vertices.order(ByteOrder.nativeOrder());
+        ByteBuffer indices = ByteBuffer.allocateDirect(indexCount * 2 * count);
+        indices.order(ByteOrder.nativeOrder());
+        ShortBuffer source = mesh.getIndices().asShortBuffer();
+        for (int copy = 0; copy < count; copy++) {
+            vertices.put(mesh.getVertices());
+            int base = copy * vertexCount;
+            for (int i = 0; i < indexCount; i++) {
+                indices.putShort((short) (base + (source.get(i) & 0xffff)));
+            }
+        }
+        vertices.position(0);
+        indices.position(0);
+        // The copies sit on top of each other, so the bounds and the position encoding stay.
+        return new MeshFile(mesh.getFormat(), vertices, vertexCount * count, indices,
+                indexCount * count, mesh.getBoundsMin(), mesh.getBoundsMax(),
+                mesh.getPositionScale(), mesh.getPositionOffset(), mesh.getError(), 0);
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.GLES20;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A mesh already packed into a VertexFormat, and the binary container it is stored in as a .mesh
+ * asset. MeshConverter writes the files offline, and map() reads one in place: the vertex and
+ * index blocks are slices of the buffer the file was mapped into, so they go to glBufferData
+ * without being decoded or copied.
+ *
+ * The file is a header followed by the vertex block and the index block, each starting on a
+ * BLOCK_ALIGNMENT byte boundary:
+ * <pre>
+ * offset  bytes  contents
+ *   0       4    MAGIC
+ *   4       4    VERSION
+ *   8       4    header size, including the attribute descriptors
+ *  12       4    vertex count
+ *  16       4    vertex stride
+ *  20       4    vertex block offset
+ *  24       4    index count, 0 for a triangle list
+ *  28       4    index type, GL_UNSIGNED_SHORT
+ *  32       4    index block offset
+ *  36      12    position, normal and color encodings of the VertexFormat
+ *  48      24    bounds: the minimum corner, then the maximum corner
+ *  72      24    u_PositionScale, then u_PositionOffset
+ *  96       4    simplification error, 0 for a mesh that wasn't simplified
+ * 100       4    level of detail count
+ * 104       4    attribute count
+ * 108    20 * n  per attribute: VertexFormat.ATTRIBUTE_ constant, component count, GL type,
+ *                normalized flag and offset inside the vertex
+ * </pre>
+ * Every value is little-endian, which is the native order of all Android ABIs. The attribute
+ * descriptors let tools read a file without knowing the encodings; map() checks that they agree
+ * with the encodings. The app stores the assets uncompressed, and zipalign puts them on four byte
+ * boundaries in the APK, so the mapped blocks stay aligned for the GL.
+ *
+ * A mesh can come with simplified levels of detail from MeshConverter, each in a file of its
+ * own named by getLodName(). The full mesh's file says how many there are, and each of theirs how
+ * far it is from the full mesh.
+ */
+public final class MeshFile {
+    /** "MESH" in file order. */
+    public static final int MAGIC = 0x4853454d;
+    public static final int VERSION = 2;
+    public static final String EXTENSION = ".mesh";
+
+    private static final int BLOCK_ALIGNMENT = 16;
+    private static final int FIXED_HEADER_BYTES = 108;
+    private static final int DESCRIPTOR_BYTES = 20;
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private final VertexFormat mFormat;
+    private final ByteBuffer mVertices;
+    private final int mVertexCount;
+    private final ByteBuffer mIndices;
+    private final int mIndexCount;
+    private final float[] mBoundsMin;
+    private final float[] mBoundsMax;
+    private final float[] mPositionScale;
+    private final float[] mPositionOffset;
+    private final float mError;
+    private final int mLodCount;
+
+    /**
+     * @param vertices vertexCount vertices in the format, from position 0.
+     * @param indices indexCount 16-bit indices from position 0, or null for a triangle list.
+     * @param error How far the mesh is from the full mesh, in model units.
+     * @param lodCount The number of simplified levels of detail of the mesh.
+     */
+    MeshFile(VertexFormat format, ByteBuffer vertices, int vertexCount, ByteBuffer indices,
+            int indexCount, float[] boundsMin, float[] boundsMax, float[] positionScale,
+            float[] positionOffset, float error, int lodCount) {
+        mFormat = format;
+        mVertices = vertices;
+        mVertexCount = vertexCount;
+        mIndices = indices;
+        mIndexCount = indexCount;
+        mBoundsMin = boundsMin;
+        mBoundsMax = boundsMax;
+        mPositionScale = positionScale;
+        mPositionOffset = positionOffset;
+        mError = error;
+        mLodCount = lodCount;
+    }
+
+    /**
+     * Reads a mesh in place.
+     * @param file The whole file from its position, typically mapped with FileChannel.map(). It
+     *     must stay unchanged while the mesh is in use.
+     * @throws IOException If the file isn't a mesh this version can read.
+     */
+    public static MeshFile map(ByteBuffer file) throws IOException {
+        if (ByteOrder.nativeOrder() != ORDER) {
+            throw new IOException("Meshes are stored little-endian, which this platform isn't.");
+        }
+        ByteBuffer header = file.slice();
+        header.order(ORDER);
+        if (header.remaining() < FIXED_HEADER_BYTES || header.getInt(0) != MAGIC) {
+            throw new IOException("Not a mesh file.");
+        }
+        int version = header.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported mesh version " + version + ".");
+        }
+        int headerSize = header.getInt(8);
+        int vertexCount = header.getInt(12);
+        int stride = header.getInt(16);
+        int vertexOffset = header.getInt(20);
+        int indexCount = header.getInt(24);
+        int indexType = header.getInt(28);
+        int indexOffset = header.getInt(32);
+        VertexFormat format = new VertexFormat(header.getInt(36), header.getInt(40),
+                header.getInt(44));
+        float[] boundsMin = getFloats(header, 48);
+        float[] boundsMax = getFloats(header, 60);
+        float[] positionScale = getFloats(header, 72);
+        float[] positionOffset = getFloats(header, 84);
+        float error = header.getFloat(96);
+        int lodCount = header.getInt(100);
+        int attributeCount = header.getInt(104);
+
+        if (stride != format.getStride() || attributeCount != VertexFormat.ATTRIBUTE_COUNT
+                || headerSize != FIXED_HEADER_BYTES + attributeCount * DESCRIPTOR_BYTES
+                || header.remaining() < headerSize || lodCount < 0) {
+            throw new IOException("The mesh layout doesn't match its vertex format.");
+        }
+        for (int a = 0; a < attributeCount; a++) {
+            int d = FIXED_HEADER_BYTES + a * DESCRIPTOR_BYTES;
+            if (header.getInt(d) != a
+                    || header.getInt(d + 4) != format.getComponentCount(a)
+                    || header.getInt(d + 8) != format.getComponentType(a)
+                    || (header.getInt(d + 12) != 0) != format.isNormalized(a)
+                    || header.getInt(d + 16) != format.getOffset(a)) {
+                throw new IOException("Attribute " + a + " doesn't match the vertex format.");
+            }
+        }
+        if (indexCount > 0 && indexType != GLES20.GL_UNSIGNED_SHORT) {
+            throw new IOException("Unsupported index type " + indexType + ".");
+        }
+
+        ByteBuffer vertices = slice(header, vertexOffset, (long) vertexCount * stride);
+        ByteBuffer indices = indexCount > 0 ? slice(header, indexOffset, indexCount * 2L) : null;
+        return new MeshFile(format, vertices, vertexCount, indices, indexCount, boundsMin,
+                boundsMax, positionScale, positionOffset, error, lodCount);
+    }
+
+    private static float[] getFloats(ByteBuffer buffer, int offset) {
+        return new float[] {
+            buffer.getFloat(offset), buffer.getFloat(offset + 4), buffer.getFloat(offset + 8)};
+    }
+
+    /**
+     * @param file A buffer starting at the start of the file.
+     */
+    private static ByteBuffer slice(ByteBuffer file, int offset, long length) throws IOException {
+        if (offset < 0 || offset % BLOCK_ALIGNMENT != 0 || length < 0
+                || offset + length > file.limit()) {
+            throw new IOException("Mesh block out of bounds.");
+        }
+        ByteBuffer block = file.duplicate();
+        block.position(offset);
+        block.limit(offset + (int) length);
+        return block.slice();
+    }
+
+    /**
+     * Writes the mesh in the file format.
+     */
+    public void write(WritableByteChannel out) throws IOException {
+        if (ByteOrder.nativeOrder() != ORDER) {
+            throw new IOException("Meshes are stored little-endian, which this platform isn't.");
+        }
+        int stride = mFormat.getStride();
+        int headerSize = FIXED_HEADER_BYTES + VertexFormat.ATTRIBUTE_COUNT * DESCRIPTOR_BYTES;
+        int vertexOffset = align(headerSize);
+        int vertexEnd = vertexOffset + mVertexCount * stride;
+        int indexOffset = mIndexCount > 0 ? align(vertexEnd) : 0;
+        int size = mIndexCount > 0 ? indexOffset + mIndexCount * 2 : vertexEnd;
+
+        ByteBuffer file = ByteBuffer.allocate(size);
+        file.order(ORDER);
+        file.putInt(MAGIC).putInt(VERSION).putInt(headerSize);
+        file.putInt(mVertexCount).putInt(stride).putInt(vertexOffset);
+        file.putInt(mIndexCount).putInt(GLES20.GL_UNSIGNED_SHORT).putInt(indexOffset);
+        file.putInt(mFormat.getPositionEncoding()).putInt(mFormat.getNormalEncoding())
+                .putInt(mFormat.getColorEncoding());
+        putFloats(file, mBoundsMin);
+        putFloats(file, mBoundsMax);
+        putFloats(file, mPositionScale);
+        putFloats(file, mPositionOffset);
+        file.putFloat(mError).putInt(mLodCount);
+        file.putInt(VertexFormat.ATTRIBUTE_COUNT);
+        for (int a = 0; a < VertexFormat.ATTRIBUTE_COUNT; a++) {
+            file.putInt(a).putInt(mFormat.getComponentCount(a))
+                    .putInt(mFormat.getComponentType(a)).putInt(mFormat.isNormalized(a) ? 1 : 0)
+                    .putInt(mFormat.getOffset(a));
+        }
+
+        // The blocks are already in native order, which is the file order.
+        file.position(vertexOffset);
+        file.put(getVertices());
+        if (mIndexCount > 0) {
+            file.position(indexOffset);
+            file.put(getIndices());
+        }
+        file.position(0);
+        while (file.hasRemaining()) {
+            out.write(file);
+        }
+    }
+
+    private static void putFloats(ByteBuffer buffer, float[] values) {
+        buffer.putFloat(values[0]).putFloat(values[1]).putFloat(values[2]);
+    }
+
+    private static int align(int offset) {
+        return (offset + BLOCK_ALIGNMENT - 1) / BLOCK_ALIGNMENT * BLOCK_ALIGNMENT;
+    }
+
+    /**
+     * @param name The name of a mesh, without its extension.
+     * @param level A level of detail, from 1; level 0 is the mesh itself.
+     * @return The name of the level's file, without its extension.
+     */
+    public static String getLodName(String name, int level) {
+        return level == 0 ? name : name + "_lod" + level;
+    }
+
+    public VertexFormat getFormat() {
+        return mFormat;
+    }
+
+    public int getVertexCount() {
+        return mVertexCount;
+    }
+
+    /**
+     * @return The packed vertices in a buffer of their own, so that its position can be moved.
+     */
+    public ByteBuffer getVertices() {
+        ByteBuffer vertices = mVertices.duplicate();
+        vertices.order(ByteOrder.nativeOrder());
+        return vertices;
+    }
+
+    public int getIndexCount() {
+        return mIndexCount;
+    }
+
+    public boolean isIndexed() {
+        return mIndices != null;
+    }
+
+    /**
+     * @return The 16-bit indices in a buffer of their own, or null for a triangle list.
+     */
+    public ByteBuffer getIndices() {
+        if (mIndices == null) {
+            return null;
+        }
+        ByteBuffer indices = mIndices.duplicate();
+        indices.order(ByteOrder.nativeOrder());
+        return indices;
+    }
+
+    /**
+     * @return The minimum corner of the axis-aligned bounds. Don't modify it.
+     */
+    public float[] getBoundsMin() {
+        return mBoundsMin;
+    }
+
+    /**
+     * @return The maximum corner of the axis-aligned bounds. Don't modify it.
+     */
+    public float[] getBoundsMax() {
+        return mBoundsMax;
+    }
+
+    /**
+     * @return How far, in model units, the mesh may be from the full mesh it was simplified from;
+     *     0 for a full mesh.
+     */
+    public float getError() {
+        return mError;
+    }
+
+    /**
+     * @return How many simplified levels of detail go with this mesh, from level 1 up.
+     */
+    public int getLodCount() {
+        return mLodCount;
+    }
+
+    /**
+     * @return The value for u_PositionScale. Don't modify it.
+     */
+    public float[] getPositionScale() {
+        return mPositionScale;
+    }
+
+    /**
+     * @return The value for u_PositionOffset. Don't modify it.
+     */
+    public float[] getPositionOffset() {
+        return mPositionOffset;
+    }
+}
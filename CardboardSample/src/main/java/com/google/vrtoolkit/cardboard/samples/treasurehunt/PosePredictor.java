@@ -0,0 +1,250 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+/**
+ * Predicts where the head will be pointing when a frame reaches the display, from where it has
+ * been pointing.
+ *
+ * Each frame's head view goes into a short ring of timestamped samples, kept as unit quaternions.
+ * The angular velocity is the rotation between the newest sample and the oldest one within
+ * the velocity window, divided by the time between them; looking back over a few samples rather
+ * than one keeps sensor jitter out of it. predict() turns that rotation rate into a rotation over
+ * the horizon, by the quaternion exponential, and applies it to the newest head view. The head
+ * view's translation, such as the SDK's neck model, turns with the head, as it would.
+ *
+ * Head motion only keeps to a constant rate for a short while, so the horizon is limited to
+ * MAX_HORIZON_NANOS. Nothing allocates after construction.
+ */
+public class PosePredictor {
+    /** The furthest ahead predict() extrapolates. */
+    public static final long MAX_HORIZON_NANOS = 100000000L;
+
+    // Below this angle, sin(angle) / angle is taken to be one.
+    private static final double SMALL_ANGLE = 1e-6;
+
+    private final long mVelocityWindowNanos;
+    private final long[] mTimes;
+    // Four floats per sample: x, y, z, w.
+    private final float[] mQuaternions;
+    private final float[] mLatestHeadView = new float[16];
+    private int mNewest = -1;
+    private int mCount;
+    // Radians per second about each axis, in the head view's frame.
+    private final float[] mVelocity = new float[3];
+    private final float[] mRotation = new float[16];
+
+    /**
+     * @param capacity The most samples to keep, at least two.
+     * @param velocityWindowNanos How far back to look for the angular velocity. The previous
+     *     sample is used if none is that recent.
+     */
+    public PosePredictor(int capacity, long velocityWindowNanos) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("A pose predictor needs two samples, not "
+                    + capacity);
+        }
+        mVelocityWindowNanos = velocityWindowNanos;
+        mTimes = new long[capacity];
+        mQuaternions = new float[capacity * 4];
+    }
+
+    /**
+     * Forgets every sample, for when the head view jumps, such as when the view is recentered.
+     */
+    public void reset() {
+        mNewest = -1;
+        mCount = 0;
+        mVelocity[0] = 0f;
+        mVelocity[1] = 0f;
+        mVelocity[2] = 0f;
+    }
+
+    /**
+     * Adds the head view of a frame. A sample that is no later than the newest replaces it.
+     * @param timeNanos When the head view was sampled.
+     * @param headView The head view matrix, column-major with a rotation in its upper 3x3.
+     */
+    public void addSample(long timeNanos, float[] headView, int offset) {
+        if (mCount == 0 || timeNanos > mTimes[mNewest]) {
+            mNewest = (mNewest + 1) % mTimes.length;
+            mCount = Math.min(mCount + 1, mTimes.length);
+        }
+        mTimes[mNewest] = timeNanos;
+        toQuaternion(headView, offset, mQuaternions, mNewest * 4);
+        System.arraycopy(headView, offset, mLatestHeadView, 0, 16);
+        updateVelocity();
+    }
+
+    private void updateVelocity() {
+        mVelocity[0] = 0f;
+        mVelocity[1] = 0f;
+        mVelocity[2] = 0f;
+        if (mCount < 2) {
+            return;
+        }
+        // The oldest sample in the window, or the one before the newest if it's the only one.
+        int oldest = (mNewest - 1 + mTimes.length) % mTimes.length;
+        for (int i = 2; i < mCount; i++) {
+            int sample = (mNewest - i + mTimes.length) % mTimes.length;
+            if (mTimes[mNewest] - mTimes[sample] > mVelocityWindowNanos) {
+                break;
+            }
+            oldest = sample;
+        }
+        long dt = mTimes[mNewest] - mTimes[oldest];
+
+        // The rotation from the oldest sample to the newest, newest * conjugate(oldest).
+        float[] q = mQuaternions;
+        int a = mNewest * 4;
+        int b = oldest * 4;
+        float x = -q[a + 3] * q[b] + q[a] * q[b + 3] - q[a + 1] * q[b + 2] + q[a + 2] * q[b + 1];
+        float y = -q[a + 3] * q[b + 1] + q[a + 1] * q[b + 3] - q[a + 2] * q[b] + q[a] * q[b + 2];
+        float z = -q[a + 3] * q[b + 2] + q[a + 2] * q[b + 3] - q[a] * q[b + 1] + q[a + 1] * q[b];
+        float w = q[a + 3] * q[b + 3] + q[a] * q[b] + q[a + 1] * q[b + 1] + q[a + 2] * q[b + 2];
+        // q and -q are the same rotation; take the short way round.
+        if (w < 0f) {
+            x = -x;
+            y = -y;
+            z = -z;
+            w = -w;
+        }
+        double sin = Math.sqrt(x * x + y * y + z * z);
+        double angle = 2.0 * Math.atan2(sin, w);
+        double scale = (sin < SMALL_ANGLE ? 2.0 : angle / sin) / (dt * 1e-9);
+        mVelocity[0] = (float) (x * scale);
+        mVelocity[1] = (float) (y * scale);
+        mVelocity[2] = (float) (z * scale);
+    }
+
+    /**
+     * Copies out the angular velocity, in radians per second about each axis of the head view's
+     * frame.
+     */
+    public void getAngularVelocity(float[] out, int offset) {
+        System.arraycopy(mVelocity, 0, out, offset, 3);
+    }
+
+    /**
+     * Works out the head view at a time after the newest sample.
+     * @param timeNanos When the frame is expected to be displayed. Times before the newest sample
+     *     give the newest head view, and times past MAX_HORIZON_NANOS after it are brought in.
+     * @param out Where to write the predicted head view; it may be the array last added from.
+     * @return False if there were no samples, in which case out is left alone.
+     */
+    public boolean predict(long timeNanos, float[] out, int offset) {
+        if (mCount == 0) {
+            return false;
+        }
+        long horizon = Math.max(0L, Math.min(MAX_HORIZON_NANOS, timeNanos - mTimes[mNewest]));
+        double seconds = horizon * 1e-9;
+        double rx = mVelocity[0] * seconds;
+        double ry = mVelocity[1] * seconds;
+        double rz = mVelocity[2] * seconds;
+        double angle = Math.sqrt(rx * rx + ry * ry + rz * rz);
+        if (angle < SMALL_ANGLE) {
+            System.arraycopy(mLatestHeadView, 0, out, offset, 16);
+            return true;
+        }
+
+        // exp(r / 2), the rotation by angle about r, as a matrix, then on to the newest head view.
+        double s = Math.sin(angle / 2.0) / angle;
+        float x = (float) (rx * s);
+        float y = (float) (ry * s);
+        float z = (float) (rz * s);
+        float w = (float) Math.cos(angle / 2.0);
+        toMatrix(x, y, z, w, mRotation);
+        for (int col = 0; col < 4; col++) {
+            for (int row = 0; row < 4; row++) {
+                float sum = 0f;
+                for (int k = 0; k < 4; k++) {
+                    sum += mRotation[k * 4 + row] * mLatestHeadView[col * 4 + k];
+                }
+                out[offset + col * 4 + row] = sum;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts the rotation in the upper 3x3 of a column-major matrix to a unit quaternion, x, y,
+     * z then w, after Shepperd.
+     */
+    static void toQuaternion(float[] m, int offset, float[] q, int qOffset) {
+        // Element (row, col) is m[offset + col * 4 + row].
+        float m00 = m[offset];
+        float m11 = m[offset + 5];
+        float m22 = m[offset + 10];
+        float trace = m00 + m11 + m22;
+        float x;
+        float y;
+        float z;
+        float w;
+        if (trace > 0f) {
+            float s = (float) Math.sqrt(trace + 1f) * 2f;
+            w = 0.25f * s;
+            x = (m[offset + 6] - m[offset + 9]) / s;
+            y = (m[offset + 8] - m[offset + 2]) / s;
+            z = (m[offset + 1] - m[offset + 4]) / s;
+        } else if (m00 > m11 && m00 > m22) {
+            float s = (float) Math.sqrt(1f + m00 - m11 - m22) * 2f;
+            w = (m[offset + 6] - m[offset + 9]) / s;
+            x = 0.25f * s;
+            y = (m[offset + 4] + m[offset + 1]) / s;
+            z = (m[offset + 8] + m[offset + 2]) / s;
+        } else if (m11 > m22) {
+            float s = (float) Math.sqrt(1f + m11 - m00 - m22) * 2f;
+            w = (m[offset + 8] - m[offset + 2]) / s;
+            x = (m[offset + 4] + m[offset + 1]) / s;
+            y = 0.25f * s;
+            z = (m[offset + 9] + m[offset + 6]) / s;
+        } else {
+            float s = (float) Math.sqrt(1f + m22 - m00 - m11) * 2f;
+            w = (m[offset + 1] - m[offset + 4]) / s;
+            x = (m[offset + 8] + m[offset + 2]) / s;
+            y = (m[offset + 9] + m[offset + 6]) / s;
+            z = 0.25f * s;
+        }
+        float length = (float) Math.sqrt(x * x + y * y + z * z + w * w);
+        q[qOffset] = x / length;
+        q[qOffset + 1] = y / length;
+        q[qOffset + 2] = z / length;
+        q[qOffset + 3] = w / length;
+    }
+
+    /**
+     * Writes the rotation of a unit quaternion as a column-major 4x4 matrix.
+     */
+    static void toMatrix(float x, float y, float z, float w, float[] m) {
+        m[0] = 1f - 2f * (y * y + z * z);
+        m[1] = 2f * (x * y + w * z);
+        m[2] = 2f * (x * z - w * y);
+        m[3] = 0f;
+        m[4] = 2f * (x * y - w * z);
+        m[5] = 1f - 2f * (x * x + z * z);
+        m[6] = 2f * (y * z + w * x);
+        m[7] = 0f;
+        m[8] = 2f * (x * z + w * y);
+        m[9] = 2f * (y * z - w * x);
+        m[10] = 1f - 2f * (x * x + y * y);
+        m[11] = 0f;
+        m[12] = 0f;
+        m[13] = 0f;
+        m[14] = 0f;
+        m[15] = 1f;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import com.google.vrtoolkit.cardboard.*;
+
+import javax.microedition.khronos.egl.EGLConfig;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Passes the renderer callbacks on to another renderer, recording the poses and trigger pulls
+ * into a PoseTrace on the way, until the trace is full.
+ */
+public class PoseRecorder implements CardboardView.StereoRenderer {
+    private final CardboardView.StereoRenderer mDelegate;
+    private final Clock mClock;
+    private final PoseTrace mTrace;
+    private final float[] mHeadView = new float[16];
+    // Trigger pulls on the UI thread since the last frame.
+    private final AtomicInteger mTriggers = new AtomicInteger();
+    private boolean mRecording = true;
+
+    /**
+     * @param delegate The renderer to pass the callbacks to.
+     * @param clock Where to read the frame times. It should be the clock the simulation uses.
+     * @param capacity The number of frames to record.
+     */
+    public PoseRecorder(CardboardView.StereoRenderer delegate, Clock clock, int capacity) {
+        mDelegate = delegate;
+        mClock = clock;
+        mTrace = new PoseTrace(capacity);
+    }
+
+    /**
+     * Records a pull of the trigger, on whatever thread it happens.
+     */
+    public void onTrigger() {
+        mTriggers.incrementAndGet();
+    }
+
+    /**
+     * @return The trace. Only read it while the renderer isn't running.
+     */
+    public PoseTrace getTrace() {
+        return mTrace;
+    }
+
+    @Override
+    public void onNewFrame(HeadTransform headTransform) {
+        if (mRecording) {
+            headTransform.getHeadView(mHeadView, 0);
+            mRecording = mTrace.addFrame(mClock.nanoTime(), mTriggers.getAndSet(0), mHeadView);
+        }
+        mDelegate.onNewFrame(headTransform);
+    }
+
+    @Override
+    public void onDrawEye(EyeTransform transform) {
+        if (mRecording) {
+            mTrace.addEye(transform.getParams().getEye(), transform.getEyeView(),
+                    transform.getPerspective());
+        }
+        mDelegate.onDrawEye(transform);
+    }
+
+    @Override
+    public void onFinishFrame(Viewport viewport) {
+        mDelegate.onFinishFrame(viewport);
+    }
+
+    @Override
+    public void onSurfaceChanged(int width, int height) {
+        mDelegate.onSurfaceChanged(width, height);
+    }
+
+    @Override
+    public void onSurfaceCreated(EGLConfig config) {
+        mDelegate.onSurfaceCreated(config);
+    }
+
+    @Override
+    public void onRendererShutdown() {
+        mDelegate.onRendererShutdown();
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The head poses, eye transforms and trigger pulls of a session, so that it can be replayed.
+ *
+ * A trace is filled in frame by frame while recording, into arrays allocated up front so that the
+ * render loop doesn't allocate, and can then be written to a stream and read back. The stream is
+ * big-endian: the magic number, the version and the frame count, then for each frame its time,
+ * the number of trigger pulls since the last frame, the head view, the number of eyes, and for
+ * each eye its EyeParams.Eye value, eye view and perspective.
+ */
+public class PoseTrace {
+    static final int MAGIC = 0x504f5345;
+    static final int VERSION = 1;
+
+    /** The most eyes recorded in a frame. */
+    public static final int MAX_EYES = 2;
+    /** The most frames read() accepts: an hour at 60 frames a second. */
+    public static final int MAX_FRAMES = 60 * 60 * 60;
+
+    private final int mCapacity;
+    private int mFrameCount;
+    private final long[] mTimes;
+    private final int[] mTriggers;
+    private final float[] mHeadViews;
+    private final int[] mEyeCounts;
+    private final int[] mEyes;
+    private final float[] mEyeViews;
+    private final float[] mPerspectives;
+
+    /**
+     * @param capacity The most frames the trace can hold.
+     */
+    public PoseTrace(int capacity) {
+        mCapacity = capacity;
+        mTimes = new long[capacity];
+        mTriggers = new int[capacity];
+        mHeadViews = new float[capacity * 16];
+        mEyeCounts = new int[capacity];
+        mEyes = new int[capacity * MAX_EYES];
+        mEyeViews = new float[capacity * MAX_EYES * 16];
+        mPerspectives = new float[capacity * MAX_EYES * 16];
+    }
+
+    /**
+     * Starts a new frame.
+     * @param timeNanos When the frame started.
+     * @param triggers How many times the trigger was pulled since the last frame.
+     * @param headView The head view matrix.
+     * @return False if the trace is full, in which case the frame isn't added.
+     */
+    public boolean addFrame(long timeNanos, int triggers, float[] headView) {
+        if (mFrameCount == mCapacity) {
+            return false;
+        }
+        int f = mFrameCount++;
+        mTimes[f] = timeNanos;
+        mTriggers[f] = triggers;
+        mEyeCounts[f] = 0;
+        System.arraycopy(headView, 0, mHeadViews, f * 16, 16);
+        return true;
+    }
+
+    /**
+     * Adds an eye to the last frame. Eyes past MAX_EYES are dropped.
+     * @param eye The EyeParams.Eye value.
+     */
+    public void addEye(int eye, float[] eyeView, float[] perspective) {
+        int f = mFrameCount - 1;
+        if (f < 0 || mEyeCounts[f] == MAX_EYES) {
+            return;
+        }
+        int e = f * MAX_EYES + mEyeCounts[f]++;
+        mEyes[e] = eye;
+        System.arraycopy(eyeView, 0, mEyeViews, e * 16, 16);
+        System.arraycopy(perspective, 0, mPerspectives, e * 16, 16);
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public long getTime(int frame) {
+        return mTimes[frame];
+    }
+
+    public int getTriggers(int frame) {
+        return mTriggers[frame];
+    }
+
+    public void getHeadView(int frame, float[] out, int offset) {
+        System.arraycopy(mHeadViews, frame * 16, out, offset, 16);
+    }
+
+    public int getEyeCount(int frame) {
+        return mEyeCounts[frame];
+    }
+
+    /**
+     * @return The EyeParams.Eye value of an eye of a frame.
+     */
+    public int getEye(int frame, int eye) {
+        return mEyes[frame * MAX_EYES + eye];
+    }
+
+    public void getEyeView(int frame, int eye, float[] out, int offset) {
+        System.arraycopy(mEyeViews, (frame * MAX_EYES + eye) * 16, out, offset, 16);
+    }
+
+    public void getPerspective(int frame, int eye, float[] out, int offset) {
+        System.arraycopy(mPerspectives, (frame * MAX_EYES + eye) * 16, out, offset, 16);
+    }
+
+    /**
+     * Writes the recorded frames. The stream is flushed but not closed.
+     */
+    public void write(OutputStream output) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(mFrameCount);
+        for (int f = 0; f < mFrameCount; f++) {
+            out.writeLong(mTimes[f]);
+            out.writeInt(mTriggers[f]);
+            writeFloats(out, mHeadViews, f * 16, 16);
+            out.writeInt(mEyeCounts[f]);
+            for (int e = f * MAX_EYES; e < f * MAX_EYES + mEyeCounts[f]; e++) {
+                out.writeInt(mEyes[e]);
+                writeFloats(out, mEyeViews, e * 16, 16);
+                writeFloats(out, mPerspectives, e * 16, 16);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads a trace written by write().
+     */
+    public static PoseTrace read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a pose trace.");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported pose trace version " + version);
+        }
+        int frames = in.readInt();
+        if (frames < 0 || frames > MAX_FRAMES) {
+            throw new IOException("Bad frame count " + frames);
+        }
+        PoseTrace trace = new PoseTrace(frames);
+        for (int f = 0; f < frames; f++) {
+            trace.mTimes[f] = in.readLong();
+            trace.mTriggers[f] = in.readInt();
+            readFloats(in, trace.mHeadViews, f * 16, 16);
+            int eyes = in.readInt();
+            if (eyes < 0 || eyes > MAX_EYES) {
+                throw new IOException("Bad eye count " + eyes);
+            }
+            trace.mEyeCounts[f] = eyes;
+            for (int e = f * MAX_EYES; e < f * MAX_EYES + eyes; e++) {
+                trace.mEyes[e] = in.readInt();
+                readFloats(in, trace.mEyeViews, e * 16, 16);
+                readFloats(in, trace.mPerspectives, e * 16, 16);
+            }
+        }
+        trace.mFrameCount = frames;
+        return trace;
+    }
+
+    private static void writeFloats(DataOutputStream out, float[] values, int offset, int count)
+            throws IOException {
+        for (int i = offset; i < offset + count; i++) {
+            out.writeFloat(values[i]);
+        }
+    }
+
+    private static void readFloats(DataInputStream in, float[] values, int offset, int count)
+            throws IOException {
+        for (int i = offset; i < offset + count; i++) {
+            values[i] = in.readFloat();
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Executor;
+
+/**
+ * Builds shader programs, and keeps the linked binaries on disk so that later runs can skip
+ * compiling and linking.
+ *
+ * Each binary is stored under a SHA-1 of the sources and attribute locations it was built from,
+ * in a directory named after a SHA-1 of GL_RENDERER and GL_VERSION. A driver update that changes
+ * either string therefore misses the cache, and the directories of other drivers are deleted.
+ * Drivers can still reject a binary, for example after an update that keeps the version string,
+ * so a binary that doesn't link is deleted and the program is built from source again.
+ *
+ * Android only exposes glGetProgramBinary through GLES30, so binaries need an OpenGL ES 3.0
+ * context and Android 4.3; elsewhere every program is built from source. Binaries are written on
+ * an executor so that the GL thread doesn't wait for the disk.
+ */
+public class ProgramCache {
+    private static final String TAG = "ProgramCache";
+
+    static final int MAGIC = 0x50524f47;  // "PROG"
+    static final int VERSION = 1;
+    // MAGIC, VERSION, the binary format and the binary's length.
+    private static final int HEADER_BYTES = 4 * 4;
+    private static final String SUFFIX = ".bin";
+
+    private final GLApi mGl;
+    private final Executor mWriter;
+    // Null when binaries aren't used.
+    private final File mDir;
+    private final int[] mParams = new int[2];
+
+    private int mLoaded;
+    private int mBuilt;
+
+    /**
+     * @return Whether the context can save and load program binaries.
+     */
+    public static boolean isSupported(GLApi gl) {
+        // The context is asked first, so that a GLApi that isn't backed by Android never gets as
+        // far as the Build check.
+        String version = gl.glGetString(GLES20.GL_VERSION);
+        if (version == null || !version.startsWith("OpenGL ES 3")) {
+            return false;
+        }
+        final int[] formats = new int[1];
+        gl.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+        return formats[0] > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+    }
+
+    /**
+     * @param gl Where to make the GL calls.
+     * @param dir Where to keep the binaries, or null to always build from source. The cache
+     *     deletes anything in it that it didn't write.
+     * @param writer Where to write the binaries and delete stale ones.
+     */
+    public ProgramCache(GLApi gl, File dir, Executor writer) {
+        mGl = gl;
+        mWriter = writer;
+        if (dir == null || !isSupported(gl)) {
+            mDir = null;
+            return;
+        }
+        String driver = gl.glGetString(GLES20.GL_RENDERER) + "\n"
+                + gl.glGetString(GLES20.GL_VERSION);
+        mDir = new File(dir, sha1(driver));
+        final File parent = dir;
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] stale = parent.listFiles();
+                if (stale != null) {
+                    for (File file : stale) {
+                        if (!file.equals(mDir)) {
+                            delete(file);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads a program from the cache, or builds it from source and adds it to the cache.
+     * @param vertexSource The source of the vertex shader.
+     * @param fragmentSource The source of the fragment shader.
+     * @param attributeLocations Attribute names, bound to their index in the array.
+     * @throws RuntimeException If a shader doesn't compile or the program doesn't link.
+     */
+    public ShaderProgram getProgram(String vertexSource, String fragmentSource,
+            String[] attributeLocations) {
+        if (mDir == null) {
+            mBuilt++;
+            return new ShaderProgram(mGl,
+                    build(vertexSource, fragmentSource, attributeLocations, false));
+        }
+
+        StringBuilder key = new StringBuilder();
+        key.append(vertexSource).append('\0').append(fragmentSource);
+        for (String attribute : attributeLocations) {
+            key.append('\0').append(attribute);
+        }
+        File file = new File(mDir, sha1(key.toString()) + SUFFIX);
+        int program = load(file);
+        if (program != 0) {
+            mLoaded++;
+            return new ShaderProgram(mGl, program);
+        }
+        mBuilt++;
+        program = build(vertexSource, fragmentSource, attributeLocations, true);
+        save(program, file);
+        return new ShaderProgram(mGl, program);
+    }
+
+    /**
+     * @return The number of programs loaded from binaries.
+     */
+    public int getLoadedCount() {
+        return mLoaded;
+    }
+
+    /**
+     * @return The number of programs built from source.
+     */
+    public int getBuiltCount() {
+        return mBuilt;
+    }
+
+    /**
+     * Loads a program from a binary.
+     * @return The program, or 0 if there is no usable binary. Unusable ones are deleted.
+     */
+    private int load(File file) {
+        if (!file.exists()) {
+            return 0;
+        }
+        ByteBuffer data;
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel channel = in.getChannel();
+                data = ByteBuffer.allocateDirect((int) channel.size());
+                while (data.hasRemaining() && channel.read(data) >= 0) {
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Can't read " + file, e);
+            return 0;
+        }
+
+        data.flip();
+        if (data.remaining() < HEADER_BYTES || data.getInt() != MAGIC
+                || data.getInt() != VERSION) {
+            Log.w(TAG, "Deleting " + file + ", which isn't a program binary");
+            file.delete();
+            return 0;
+        }
+        int format = data.getInt();
+        int length = data.getInt();
+        if (length != data.remaining()) {
+            Log.w(TAG, "Deleting truncated program binary " + file);
+            file.delete();
+            return 0;
+        }
+
+        int program = mGl.glCreateProgram();
+        mGl.glProgramBinary(program, format, data, length);
+        mGl.glGetProgramiv(program, GLES20.GL_LINK_STATUS, mParams, 0);
+        if (mParams[0] == 0) {
+            Log.i(TAG, "The driver rejected program binary " + file + "; rebuilding it");
+            mGl.glDeleteProgram(program);
+            file.delete();
+            return 0;
+        }
+        return program;
+    }
+
+    /**
+     * Reads a program's binary and writes it to a file on the writer executor.
+     */
+    private void save(int program, final File file) {
+        mGl.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, mParams, 0);
+        int size = mParams[0];
+        if (size <= 0) {
+            return;
+        }
+        final ByteBuffer binary = ByteBuffer.allocateDirect(size);
+        final int[] lengthAndFormat = new int[2];
+        mGl.glGetProgramBinary(program, size, lengthAndFormat, 0, lengthAndFormat, 1, binary);
+        if (lengthAndFormat[0] <= 0) {
+            return;
+        }
+        binary.limit(lengthAndFormat[0]);
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(file, lengthAndFormat[1], binary);
+            }
+        });
+    }
+
+    private static void write(File file, int format, ByteBuffer binary) {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "Can't create " + dir);
+            return;
+        }
+        // Written under another name first, so that a crash can't leave half a binary behind.
+        File temp = new File(dir, file.getName() + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                DataOutputStream header = new DataOutputStream(out);
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+                header.writeInt(format);
+                header.writeInt(binary.remaining());
+                header.flush();
+                FileChannel channel = out.getChannel();
+                while (binary.hasRemaining()) {
+                    channel.write(binary);
+                }
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Can't rename " + temp + " to " + file);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Can't write program binary " + file, e);
+            temp.delete();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Compiles and links a program from source.
+     */
+    private int build(String vertexSource, String fragmentSource, String[] attributeLocations,
+            boolean binaryRetrievable) {
+        int vertexShader = compileShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+        int fragmentShader = compileShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+        try {
+            return ShaderProgram.link(mGl, vertexShader, fragmentShader, attributeLocations,
+                    binaryRetrievable);
+        } finally {
+            // The shaders are freed along with the program.
+            mGl.glDeleteShader(vertexShader);
+            mGl.glDeleteShader(fragmentShader);
+        }
+    }
+
+    /**
+     * Compiles a shader.
+     * @param type The type of shader we will be creating.
+     * @param source The source of the shader.
+     * @return The shader.
+     * @throws RuntimeException If the shader doesn't compile.
+     */
+    private int compileShader(int type, String source) {
+        int shader = mGl.glCreateShader(type);
+        mGl.glShaderSource(shader, source);
+        mGl.glCompileShader(shader);
+
+        // Get the compilation status.
+        mGl.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, mParams, 0);
+
+        // If the compilation failed, delete the shader.
+        if (mParams[0] == 0) {
+            Log.e(TAG, "Error compiling shader: " + mGl.glGetShaderInfoLog(shader));
+            mGl.glDeleteShader(shader);
+            throw new RuntimeException("Error creating shader.");
+        }
+        return shader;
+    }
+
+    private static String sha1(String text) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] hash;
+        try {
+            hash = digest.digest(text.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+/**
+ * Collects an eye's draws as 64-bit sort keys and puts them in the order to draw them in.
+ *
+ * From the top, a key holds the layer, then for opaque draws the program, the mesh and the view
+ * depth, so that draws sharing state end up next to each other and each run of them goes front
+ * to back for early depth rejection. Translucent draws put the depth first, inverted, since they
+ * have to go back to front to blend correctly, and only then the program and mesh. The bottom
+ * bits carry the caller's item number, which makes every key unique and says what to draw.
+ * <pre>
+ * opaque:      layer:4 | program:8 | mesh:8 | depth:24 | item:20
+ * translucent: layer:4 | far depth:24 | program:8 | mesh:8 | item:20
+ * </pre>
+ * The keys are sorted with an LSD radix sort, a byte at a time, skipping the bytes every key
+ * shares, which with a handful of programs and meshes is most of the top ones. Nothing allocates
+ * after construction.
+ */
+public class RenderQueue {
+    public static final int LAYER_OPAQUE = 0;
+    public static final int LAYER_TRANSLUCENT = 1;
+    public static final int LAYER_COUNT = 1 << 4;
+    public static final int MAX_PROGRAMS = 1 << 8;
+    public static final int MAX_MESHES = 1 << 8;
+    public static final int MAX_ITEMS = 1 << 20;
+
+    private static final int DEPTH_BITS = 24;
+    private static final long DEPTH_MAX = (1L << DEPTH_BITS) - 1;
+    private static final int ITEM_SHIFT = 0;
+    private static final int LAYER_SHIFT = 60;
+    // Where the program, mesh and depth go depends on the layer.
+    private static final int OPAQUE_DEPTH_SHIFT = 20;
+    private static final int OPAQUE_MESH_SHIFT = 44;
+    private static final int OPAQUE_PROGRAM_SHIFT = 52;
+    private static final int TRANSLUCENT_MESH_SHIFT = 20;
+    private static final int TRANSLUCENT_PROGRAM_SHIFT = 28;
+    private static final int TRANSLUCENT_DEPTH_SHIFT = 36;
+
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+
+    private final float mMaxDepth;
+    private long[] mKeys;
+    private long[] mScratch;
+    private final int[] mCounts = new int[RADIX];
+    private int mSize;
+
+    /**
+     * @param capacity The most draws an eye can submit.
+     * @param maxDepth The view depth that the quantized depth runs up to. Anything further away
+     *     sorts as if it were at maxDepth.
+     */
+    public RenderQueue(int capacity, float maxDepth) {
+        mKeys = new long[capacity];
+        mScratch = new long[capacity];
+        mMaxDepth = maxDepth;
+    }
+
+    /**
+     * Empties the queue, for the next eye.
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * Adds a draw.
+     * @param layer LAYER_OPAQUE or LAYER_TRANSLUCENT. Lower layers are drawn first.
+     * @param program The sort id of the program, less than MAX_PROGRAMS.
+     * @param mesh The sort id of the mesh, less than MAX_MESHES.
+     * @param depth The distance in front of the eye to sort by, usually that of the nearest point
+     *     for opaque draws and the centre for translucent ones.
+     * @param item What to draw, less than MAX_ITEMS. It comes back from getItem().
+     */
+    public void submit(int layer, int program, int mesh, float depth, int item) {
+        if (mSize == mKeys.length) {
+            throw new IllegalStateException("Render queue is full: " + mSize + " draws");
+        }
+        if (layer < 0 || layer >= LAYER_COUNT || program < 0 || program >= MAX_PROGRAMS
+                || mesh < 0 || mesh >= MAX_MESHES || item < 0 || item >= MAX_ITEMS) {
+            throw new IllegalArgumentException("Draw out of range: layer " + layer + ", program "
+                    + program + ", mesh " + mesh + ", item " + item);
+        }
+        long quantized = (long) (Math.max(0f, Math.min(1f, depth / mMaxDepth)) * DEPTH_MAX);
+        long key = (long) layer << LAYER_SHIFT | (long) item << ITEM_SHIFT;
+        if (layer == LAYER_TRANSLUCENT) {
+            key |= (DEPTH_MAX - quantized) << TRANSLUCENT_DEPTH_SHIFT
+                    | (long) program << TRANSLUCENT_PROGRAM_SHIFT
+                    | (long) mesh << TRANSLUCENT_MESH_SHIFT;
+        } else {
+            key |= (long) program << OPAQUE_PROGRAM_SHIFT | (long) mesh << OPAQUE_MESH_SHIFT
+                    | quantized << OPAQUE_DEPTH_SHIFT;
+        }
+        mKeys[mSize++] = key;
+    }
+
+    /**
+     * Puts the draws in order. The sort is stable, though keys are unique anyway as long as the
+     * items are.
+     */
+    public void sort() {
+        long[] keys = mKeys;
+        long[] scratch = mScratch;
+        for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+            for (int i = 0; i < RADIX; i++) {
+                mCounts[i] = 0;
+            }
+            for (int i = 0; i < mSize; i++) {
+                mCounts[(int) (keys[i] >>> shift) & (RADIX - 1)]++;
+            }
+            // A byte that every key shares leaves the order as it is.
+            if (mSize == 0 || mCounts[(int) (keys[0] >>> shift) & (RADIX - 1)] == mSize) {
+                continue;
+            }
+            int start = 0;
+            for (int i = 0; i < RADIX; i++) {
+                int count = mCounts[i];
+                mCounts[i] = start;
+                start += count;
+            }
+            for (int i = 0; i < mSize; i++) {
+                long key = keys[i];
+                scratch[mCounts[(int) (key >>> shift) & (RADIX - 1)]++] = key;
+            }
+            long[] swap = keys;
+            keys = scratch;
+            scratch = swap;
+        }
+        mKeys = keys;
+        mScratch = scratch;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return The key of a draw, in sorted order once sort() has been called.
+     */
+    public long getKey(int index) {
+        return mKeys[index];
+    }
+
+    public static int getLayer(long key) {
+        return (int) (key >>> LAYER_SHIFT);
+    }
+
+    public static int getProgram(long key) {
+        int shift = getLayer(key) == LAYER_TRANSLUCENT
+                ? TRANSLUCENT_PROGRAM_SHIFT : OPAQUE_PROGRAM_SHIFT;
+        return (int) (key >>> shift) & (MAX_PROGRAMS - 1);
+    }
+
+    public static int getMesh(long key) {
+        int shift = getLayer(key) == LAYER_TRANSLUCENT ? TRANSLUCENT_MESH_SHIFT : OPAQUE_MESH_SHIFT;
+        return (int) (key >>> shift) & (MAX_MESHES - 1);
+    }
+
+    public static int getItem(long key) {
+        return (int) (key >>> ITEM_SHIFT) & (MAX_ITEMS - 1);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+/**
+ * Picks the scale to draw the eyes at, from how long recent frames took against a budget, so that
+ * a heavy scene costs sharpness rather than frames.
+ *
+ * The times are smoothed, then compared with the budget. Over budget, the scale comes down at
+ * once; with headroom, it only goes back up once there has been headroom for a while, and not at
+ * all in a band just under the budget, so that it doesn't hunt between two scales. How far it moves
+ * is a proportional-integral step on the error, taken on the area rather than the scale, since
+ * drawing time goes with the number of pixels. After each change the smoothed time is predicted
+ * for the new scale and the governor waits a few frames for the real ones to show.
+ *
+ * This is plain Java with no GL or Android in it, so that it can be driven by a synthetic trace of
+ * frame times. Nothing in update() allocates.
+ */
+public class ResolutionGovernor {
+    /** The scale moves in steps of this much, so that tiny changes in load don't resize. */
+    public static final float SCALE_STEP = 1f / 32;
+
+    // Each new time counts this much towards the smoothed one.
+    private static final float SMOOTHING = 0.2f;
+    // The scale only goes up while the smoothed time is under this fraction of the budget.
+    private static final float HEADROOM = 0.85f;
+    // ...for this many frames in a row.
+    private static final int HEADROOM_FRAMES = 30;
+    // Frames to wait after a change, for late GPU results and the smoothing to catch up.
+    private static final int SETTLE_FRAMES = 8;
+    private static final float PROPORTIONAL_GAIN = 0.6f;
+    private static final float INTEGRAL_GAIN = 0.1f;
+    private static final float MAX_INTEGRAL = 2f;
+    // No single step changes the area by more than this factor either way.
+    private static final float MAX_AREA_STEP = 2f;
+
+    private final float mMinScale;
+    private final float mMaxScale;
+    private final long mBudgetNanos;
+
+    private float mScale;
+    private float mLoad;
+    private boolean mHasLoad;
+    private float mIntegral;
+    private int mHeadroomFrames;
+    private int mSettleFrames;
+    private int mChangeCount;
+
+    /**
+     * @param minScale The smallest scale, as a fraction of full resolution along each axis.
+     * @param maxScale The largest scale, which the governor starts at.
+     * @param budgetNanos The time a frame may take.
+     */
+    public ResolutionGovernor(float minScale, float maxScale, long budgetNanos) {
+        if (minScale <= 0f || minScale > maxScale || budgetNanos <= 0) {
+            throw new IllegalArgumentException("Bad bounds: " + minScale + " to " + maxScale
+                    + ", budget " + budgetNanos);
+        }
+        mMinScale = minScale;
+        mMaxScale = maxScale;
+        mBudgetNanos = budgetNanos;
+        reset();
+    }
+
+    /**
+     * Goes back to the largest scale and forgets the frames so far.
+     */
+    public void reset() {
+        mScale = mMaxScale;
+        mLoad = 0f;
+        mHasLoad = false;
+        mIntegral = 0f;
+        mHeadroomFrames = 0;
+        mSettleFrames = 0;
+    }
+
+    /**
+     * Takes the time of a frame drawn at the current scale. Call this once per frame.
+     * @param frameNanos The frame's time, or 0 or less if it wasn't measured, which is ignored.
+     * @return The scale to draw the next frame at.
+     */
+    public float update(long frameNanos) {
+        if (frameNanos <= 0) {
+            return mScale;
+        }
+        float load = (float) frameNanos / mBudgetNanos;
+        mLoad = mHasLoad ? mLoad + SMOOTHING * (load - mLoad) : load;
+        mHasLoad = true;
+        if (mSettleFrames > 0) {
+            mSettleFrames--;
+            return mScale;
+        }
+
+        if (mLoad > 1f) {
+            mHeadroomFrames = 0;
+        } else if (mLoad < HEADROOM && mScale < mMaxScale) {
+            if (++mHeadroomFrames < HEADROOM_FRAMES) {
+                return mScale;
+            }
+        } else {
+            // Close enough to the budget, or nowhere to go: hold.
+            mHeadroomFrames = 0;
+            mIntegral = 0f;
+            return mScale;
+        }
+
+        // Positive when there is time to spare. The integral only builds while the error keeps
+        // its sign, so that it can't overshoot on the way back.
+        float error = 1f - mLoad;
+        if (error * mIntegral < 0f) {
+            mIntegral = 0f;
+        }
+        mIntegral = Math.max(-MAX_INTEGRAL, Math.min(MAX_INTEGRAL, mIntegral + error));
+        float area = 1f + PROPORTIONAL_GAIN * error + INTEGRAL_GAIN * mIntegral;
+        area = Math.max(1f / MAX_AREA_STEP, Math.min(MAX_AREA_STEP, area));
+
+        float scale = Math.round(mScale * (float) Math.sqrt(area) / SCALE_STEP) * SCALE_STEP;
+        // Always move by at least a step in the direction asked for.
+        if (error > 0f) {
+            scale = Math.max(scale, mScale + SCALE_STEP);
+        } else {
+            scale = Math.min(scale, mScale - SCALE_STEP);
+        }
+        scale = Math.max(mMinScale, Math.min(mMaxScale, scale));
+        if (scale != mScale) {
+            // Drawing time goes with the area, so predict the load at the new scale rather than
+            // reacting to frames drawn at the old one.
+            float ratio = scale / mScale;
+            mLoad *= ratio * ratio;
+            mScale = scale;
+            mSettleFrames = SETTLE_FRAMES;
+            mChangeCount++;
+        }
+        mHeadroomFrames = 0;
+        return mScale;
+    }
+
+    /**
+     * @return The scale to draw at, as a fraction of full resolution along each axis.
+     */
+    public float getScale() {
+        return mScale;
+    }
+
+    /**
+     * @return The smoothed frame time as a fraction of the budget.
+     */
+    public float getLoad() {
+        return mLoad;
+    }
+
+    /**
+     * @return How many times the scale has changed.
+     */
+    public int getChangeCount() {
+        return mChangeCount;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+/**
+ * The game state after one simulation tick, as handed to the renderer.
+ *
+ * Each object has a position and an angle about SPIN_AXIS, both for this tick and the one before,
+ * so that the renderer can draw any moment in between. Objects that jump somewhere new have the
+ * same previous and current position, so that they don't appear to fly there.
+ *
+ * Once published, a state isn't changed until the renderer has moved on to a newer one.
+ */
+public class SceneState {
+    /** The axis the objects spin about. It doesn't need to be normalized. */
+    public static final float[] SPIN_AXIS = new float[] {0.5f, 0.5f, 1.0f};
+
+    public final int objectCount;
+    public final float[] positions;
+    public final float[] previousPositions;
+    /** Angles in degrees, in [0, 360). */
+    public final float[] angles;
+    public final float[] previousAngles;
+
+    /** The System.nanoTime() at which this tick happened. */
+    public long timeNanos;
+    /** The length of a tick. */
+    public long tickNanos;
+    public int score;
+
+    public SceneState(int objectCount) {
+        this.objectCount = objectCount;
+        positions = new float[objectCount * 3];
+        previousPositions = new float[objectCount * 3];
+        angles = new float[objectCount];
+        previousAngles = new float[objectCount];
+    }
+
+    public void copyFrom(SceneState other) {
+        System.arraycopy(other.positions, 0, positions, 0, positions.length);
+        System.arraycopy(other.previousPositions, 0, previousPositions, 0,
+                previousPositions.length);
+        System.arraycopy(other.angles, 0, angles, 0, angles.length);
+        System.arraycopy(other.previousAngles, 0, previousAngles, 0, previousAngles.length);
+        timeNanos = other.timeNanos;
+        tickNanos = other.tickNanos;
+        score = other.score;
+    }
+
+    /**
+     * @param nowNanos The current System.nanoTime().
+     * @return How far between the previous tick and this one to draw at, from 0 to 1. Drawing one
+     *     tick behind the simulation means there is always a tick on either side.
+     */
+    public float getBlend(long nowNanos) {
+        if (tickNanos <= 0) {
+            return 1f;
+        }
+        float blend = (float) (nowNanos - timeNanos) / tickNanos;
+        return Math.max(0f, Math.min(1f, blend));
+    }
+
+    /**
+     * Interpolates the position of an object.
+     * @param out Receives x, y and z.
+     */
+    public void getPosition(int object, float blend, float[] out, int offset) {
+        for (int c = 0; c < 3; c++) {
+            float previous = previousPositions[object * 3 + c];
+            out[offset + c] = previous + (positions[object * 3 + c] - previous) * blend;
+        }
+    }
+
+    /**
+     * @return The interpolated angle of an object, in degrees, the short way round.
+     */
+    public float getAngle(int object, float blend) {
+        float previous = previousAngles[object];
+        float delta = angles[object] - previous;
+        if (delta > 180f) {
+            delta -= 360f;
+        } else if (delta < -180f) {
+            delta += 360f;
+        }
+        return previous + delta * blend;
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A linked OpenGL ES program together with the locations of all of its active uniforms and
+ * attributes.
+ *
+ * The locations never change once the program is linked, so they are looked up once here and the
+ * draw code holds on to the returned handles instead of asking the driver every frame.
+ */
+public class ShaderProgram {
+    private static final String TAG = "ShaderProgram";
+
+    private final GLApi mGl;
+    private final int mProgram;
+    private final Map<String, Uniform> mUniforms = new HashMap<String, Uniform>();
+    private final Map<String, Attribute> mAttributes = new HashMap<String, Attribute>();
+
+    /**
+     * A handle to an active uniform of a program.
+     */
+    public static final class Uniform {
+        public final String name;
+        public final int location;
+        public final int type;
+        public final int size;
+        private final GLApi mGl;
+
+        private Uniform(GLApi gl, String name, int location, int type, int size) {
+            mGl = gl;
+            this.name = name;
+            this.location = location;
+            this.type = type;
+            this.size = size;
+        }
+
+        public void set(float x) {
+            mGl.glUniform1f(location, x);
+        }
+
+        public void set(float x, float y, float z) {
+            mGl.glUniform3f(location, x, y, z);
+        }
+
+        public void set(float x, float y, float z, float w) {
+            mGl.glUniform4f(location, x, y, z, w);
+        }
+
+        public void setMatrix4(float[] matrix) {
+            setMatrix4(matrix, 0);
+        }
+
+        public void setMatrix4(float[] matrix, int offset) {
+            mGl.glUniformMatrix4fv(location, 1, false, matrix, offset);
+        }
+
+        /**
+         * Sets elements of a vec4 array uniform.
+         * @param values The array to read from.
+         * @param offset The first float to read.
+         * @param count The number of vec4s to set.
+         */
+        public void set4v(float[] values, int offset, int count) {
+            mGl.glUniform4fv(location, count, values, offset);
+        }
+    }
+
+    /**
+     * A handle to an active vertex attribute of a program.
+     */
+    public static final class Attribute {
+        public final String name;
+        public final int location;
+        public final int type;
+        public final int size;
+        private final GLApi mGl;
+
+        private Attribute(GLApi gl, String name, int location, int type, int size) {
+            mGl = gl;
+            this.name = name;
+            this.location = location;
+            this.type = type;
+            this.size = size;
+        }
+
+        public void enable() {
+            mGl.glEnableVertexAttribArray(location);
+        }
+
+        public void disable() {
+            mGl.glDisableVertexAttribArray(location);
+        }
+
+        /**
+         * Points the attribute into the bound GL_ARRAY_BUFFER.
+         */
+        public void setPointer(int size, int type, boolean normalized, int stride, int offset) {
+            mGl.glVertexAttribPointer(location, size, type, normalized, stride, offset);
+        }
+    }
+
+    /**
+     * Links a program from compiled shaders and caches its uniform and attribute locations.
+     * @param gl Where to make the GL calls, for this and the handles.
+     * @param vertexShader A compiled vertex shader, as returned by glCreateShader.
+     * @param fragmentShader A compiled fragment shader, as returned by glCreateShader.
+     */
+    public ShaderProgram(GLApi gl, int vertexShader, int fragmentShader) {
+        this(gl, vertexShader, fragmentShader, new String[0]);
+    }
+
+    /**
+     * Links a program from compiled shaders and caches its uniform and attribute locations.
+     * Programs that share vertex arrays should agree on attribute locations, since the enabled
+     * arrays are not part of the program.
+     * @param gl Where to make the GL calls, for this and the handles.
+     * @param vertexShader A compiled vertex shader, as returned by glCreateShader.
+     * @param fragmentShader A compiled fragment shader, as returned by glCreateShader.
+     * @param attributeLocations Attribute names, bound to their index in the array.
+     */
+    public ShaderProgram(GLApi gl, int vertexShader, int fragmentShader,
+            String[] attributeLocations) {
+        this(gl, link(gl, vertexShader, fragmentShader, attributeLocations, false));
+    }
+
+    /**
+     * Takes over a linked program, such as one loaded by ProgramCache, and caches its uniform and
+     * attribute locations.
+     * @param gl Where to make the GL calls, for this and the handles.
+     * @param program A program whose link status is GL_TRUE.
+     */
+    public ShaderProgram(GLApi gl, int program) {
+        mGl = gl;
+        mProgram = program;
+
+        final int[] params = new int[1];
+        final int[] length = new int[1];
+        final int[] size = new int[1];
+        final int[] type = new int[1];
+
+        mGl.glGetProgramiv(mProgram, GLES20.GL_ACTIVE_UNIFORM_MAX_LENGTH, params, 0);
+        byte[] nameBytes = new byte[Math.max(params[0], 1)];
+        mGl.glGetProgramiv(mProgram, GLES20.GL_ACTIVE_UNIFORMS, params, 0);
+        int count = params[0];
+        for (int i = 0; i < count; i++) {
+            mGl.glGetActiveUniform(mProgram, i, nameBytes.length, length, 0, size, 0, type, 0,
+                    nameBytes, 0);
+            String name = baseName(new String(nameBytes, 0, length[0]));
+            int location = mGl.glGetUniformLocation(mProgram, name);
+            mUniforms.put(name, new Uniform(mGl, name, location, type[0], size[0]));
+        }
+
+        mGl.glGetProgramiv(mProgram, GLES20.GL_ACTIVE_ATTRIBUTE_MAX_LENGTH, params, 0);
+        nameBytes = new byte[Math.max(params[0], 1)];
+        mGl.glGetProgramiv(mProgram, GLES20.GL_ACTIVE_ATTRIBUTES, params, 0);
+        count = params[0];
+        for (int i = 0; i < count; i++) {
+            mGl.glGetActiveAttrib(mProgram, i, nameBytes.length, length, 0, size, 0, type, 0,
+                    nameBytes, 0);
+            String name = new String(nameBytes, 0, length[0]);
+            int location = mGl.glGetAttribLocation(mProgram, name);
+            mAttributes.put(name, new Attribute(mGl, name, location, type[0], size[0]));
+        }
+    }
+
+    /**
+     * Links a program from compiled shaders.
+     * @param attributeLocations Attribute names, bound to their index in the array.
+     * @param binaryRetrievable Whether to tell the driver that glGetProgramBinary will be called,
+     *     which needs OpenGL ES 3.0.
+     * @return The program.
+     * @throws RuntimeException If the program doesn't link.
+     */
+    static int link(GLApi gl, int vertexShader, int fragmentShader,
+            String[] attributeLocations, boolean binaryRetrievable) {
+        int program = gl.glCreateProgram();
+        if (binaryRetrievable) {
+            gl.glProgramParameteri(program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT,
+                    GLES20.GL_TRUE);
+        }
+        gl.glAttachShader(program, vertexShader);
+        gl.glAttachShader(program, fragmentShader);
+        for (int i = 0; i < attributeLocations.length; i++) {
+            gl.glBindAttribLocation(program, i, attributeLocations[i]);
+        }
+        gl.glLinkProgram(program);
+
+        // Get the link status.
+        final int[] params = new int[1];
+        gl.glGetProgramiv(program, GLES20.GL_LINK_STATUS, params, 0);
+
+        // If the link failed, delete the program.
+        if (params[0] == 0) {
+            Log.e(TAG, "Error linking program: " + gl.glGetProgramInfoLog(program));
+            gl.glDeleteProgram(program);
+            throw new RuntimeException("Error linking program.");
+        }
+        return program;
+    }
+
+    /**
+     * Array uniforms are reported as "name[0]"; strip the subscript so they can be looked up by
+     * their declared name.
+     */
+    private static String baseName(String name) {
+        return name.endsWith("[0]") ? name.substring(0, name.length() - 3) : name;
+    }
+
+    /**
+     * @return The OpenGL ES name of the program.
+     */
+    public int getId() {
+        return mProgram;
+    }
+
+    public GLApi getGl() {
+        return mGl;
+    }
+
+    public void use() {
+        mGl.glUseProgram(mProgram);
+    }
+
+    /**
+     * Looks up a uniform. Call this once after creating the program, not while drawing.
+     * @param name The name of the uniform as declared in the shader.
+     * @return The uniform's handle. If the uniform is not active, its location is -1, which
+     *     OpenGL ES silently ignores.
+     */
+    public Uniform getUniform(String name) {
+        Uniform uniform = mUniforms.get(name);
+        if (uniform == null) {
+            Log.w(TAG, "Uniform " + name + " is not active in program " + mProgram);
+            uniform = new Uniform(mGl, name, -1, 0, 0);
+            mUniforms.put(name, uniform);
+        }
+        return uniform;
+    }
+
+    /**
+     * Looks up a vertex attribute. Call this once after creating the program, not while drawing.
+     * @param name The name of the attribute as declared in the shader.
+     * @return The attribute's handle.
+     */
+    public Attribute getAttribute(String name) {
+        Attribute attribute = mAttributes.get(name);
+        if (attribute == null) {
+            throw new IllegalArgumentException("Attribute " + name + " is not active in program "
+                    + mProgram);
+        }
+        return attribute;
+    }
+}
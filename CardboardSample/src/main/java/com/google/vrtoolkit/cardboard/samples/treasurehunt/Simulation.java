@@ -0,0 +1,246 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the game on its own thread at a fixed timestep, so that objects move at the same speed
+ * whatever the frame rate.
+ *
+ * The simulation thread owns the game state. Each tick ends by publishing a copy of it through a
+ * TripleBuffer, which the renderer reads without blocking. The UI thread only passes in triggers,
+ * and hears back through a Listener.
+ *
+ * Instead of starting the thread, the simulation can also be stepped from outside with
+ * advanceTo(), which together with a fake Clock and a seeded Random makes it deterministic.
+ */
+public class Simulation implements Runnable {
+    public static final int TICKS_PER_SECOND = 60;
+    private static final long TICK_NANOS = 1000000000L / TICKS_PER_SECOND;
+    // After a stall, drop the time that would take more than this many ticks to catch up.
+    private static final int MAX_CATCH_UP_TICKS = 5;
+
+    private static final float DEGREES_PER_SECOND = 18f;
+    private static final float INITIAL_DISTANCE = 12f;
+
+    private static final int NO_TRIGGER = -2;
+
+    /**
+     * Hears about the results of triggers. Called on the simulation thread.
+     */
+    public interface Listener {
+        void onObjectFound(int object, int score);
+    }
+
+    private final SceneState mState;
+    private final TripleBuffer<SceneState> mSnapshots;
+    private final Listener mListener;
+    private final Tracer mTracer;
+    private final int mTraceTick;
+    private final int mTraceObjectFound;
+    private final Clock mClock;
+    private final Random mRandom;
+
+    // The object the user was looking at when they last pulled the trigger.
+    private final AtomicInteger mTriggeredObject = new AtomicInteger(NO_TRIGGER);
+
+    private Thread mThread;
+    private volatile boolean mRunning;
+    private long mNextTick;
+
+    /**
+     * @param objectCount The number of objects to hide.
+     * @param listener Told when the user finds an object.
+     * @param tracer Records each tick.
+     */
+    public Simulation(int objectCount, Listener listener, Tracer tracer) {
+        this(objectCount, listener, tracer, Clock.SYSTEM, new Random());
+    }
+
+    /**
+     * @param objectCount The number of objects to hide.
+     * @param listener Told when the user finds an object.
+     * @param tracer Records each tick.
+     * @param clock The time the simulation follows.
+     * @param random Where the objects are hidden.
+     */
+    public Simulation(int objectCount, Listener listener, Tracer tracer, Clock clock,
+            Random random) {
+        mListener = listener;
+        mTracer = tracer;
+        mClock = clock;
+        mRandom = random;
+        mTraceTick = tracer.intern("simulationTick");
+        mTraceObjectFound = tracer.intern("objectFound");
+        mState = new SceneState(objectCount);
+        mState.tickNanos = TICK_NANOS;
+
+        // The first object appears directly in front of the user, and the others are hidden
+        // around them.
+        for (int i = 0; i < objectCount; i++) {
+            mState.positions[i * 3 + 2] = -INITIAL_DISTANCE;
+            if (i > 0) {
+                hideObject(i);
+            }
+        }
+        System.arraycopy(mState.positions, 0, mState.previousPositions, 0,
+                mState.positions.length);
+
+        mSnapshots = new TripleBuffer<SceneState>(new SceneState(objectCount),
+                new SceneState(objectCount), new SceneState(objectCount));
+        mState.timeNanos = clock.nanoTime();
+        mNextTick = mState.timeNanos;
+        mSnapshots.getWriteBuffer().copyFrom(mState);
+        mSnapshots.publish();
+    }
+
+    public int getObjectCount() {
+        return mState.objectCount;
+    }
+
+    /**
+     * Starts ticking. The state carries on from where stop() left it.
+     */
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mRunning = true;
+        mThread = new Thread(this, "Simulation");
+        mThread.start();
+    }
+
+    /**
+     * Stops ticking and waits for the thread to finish.
+     */
+    public synchronized void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mRunning = false;
+        mThread.interrupt();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+    }
+
+    /**
+     * Reports that the user pulled the trigger. Only the latest trigger in each tick counts.
+     * @param lookedAtObject The object the user was looking at, or -1 if none.
+     */
+    public void trigger(int lookedAtObject) {
+        mTriggeredObject.set(lookedAtObject);
+    }
+
+    /**
+     * @return The latest state. Only call this from the render thread. The state doesn't change
+     *     until the next call.
+     */
+    public SceneState acquireState() {
+        return mSnapshots.acquire();
+    }
+
+    /**
+     * Runs the ticks that are due by a time and publishes the result. Only call this from one
+     * thread at a time, and not while the simulation is started.
+     * @param nowNanos The time on the simulation's clock.
+     */
+    public void advanceTo(long nowNanos) {
+        if (nowNanos - mNextTick > MAX_CATCH_UP_TICKS * TICK_NANOS) {
+            mNextTick = nowNanos - MAX_CATCH_UP_TICKS * TICK_NANOS;
+        }
+        while (nowNanos - mNextTick >= 0) {
+            tick(mNextTick);
+            mNextTick += TICK_NANOS;
+        }
+        mSnapshots.getWriteBuffer().copyFrom(mState);
+        mSnapshots.publish();
+    }
+
+    @Override
+    public void run() {
+        // Don't try to catch up on the time spent stopped.
+        mNextTick = mClock.nanoTime();
+        while (mRunning) {
+            advanceTo(mClock.nanoTime());
+
+            long wait = mNextTick - mClock.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void tick(long timeNanos) {
+        mTracer.begin(mTraceTick);
+        SceneState state = mState;
+        System.arraycopy(state.positions, 0, state.previousPositions, 0, state.positions.length);
+        System.arraycopy(state.angles, 0, state.previousAngles, 0, state.angles.length);
+        state.timeNanos = timeNanos;
+
+        float step = DEGREES_PER_SECOND / TICKS_PER_SECOND;
+        for (int i = 0; i < state.objectCount; i++) {
+            state.angles[i] = (state.angles[i] + step) % 360f;
+        }
+
+        int object = mTriggeredObject.getAndSet(NO_TRIGGER);
+        if (object >= 0 && object < state.objectCount) {
+            state.score++;
+            hideObject(object);
+            // Jump rather than sweep to the new place.
+            System.arraycopy(state.positions, object * 3, state.previousPositions, object * 3, 3);
+            mTracer.instant(mTraceObjectFound);
+            mListener.onObjectFound(object, state.score);
+        }
+        mTracer.end(mTraceTick);
+    }
+
+    /**
+     * Find a new random position for an object.
+     * We'll rotate it around the Y-axis so it's out of sight, and then up or down by a little bit.
+     */
+    private void hideObject(int object) {
+        float[] positions = mState.positions;
+        int p = object * 3;
+
+        // First rotate in XZ plane, between 90 and 270 deg away, and scale so that we vary
+        // the object's distance from the user.
+        double angleXZ = Math.toRadians(mRandom.nextFloat() * 180 + 90);
+        float oldObjectDistance = (float) Math.hypot(positions[p], positions[p + 2]);
+        float objectDistance = mRandom.nextFloat() * 15 + 5;
+        float scale = objectDistance / oldObjectDistance;
+        float cos = (float) Math.cos(angleXZ);
+        float sin = (float) Math.sin(angleXZ);
+        float x = positions[p];
+        float z = positions[p + 2];
+        positions[p] = (cos * x + sin * z) * scale;
+        positions[p + 2] = (-sin * x + cos * z) * scale;
+
+        // Now get the up or down angle, between -40 and 40 degrees
+        double angleY = Math.toRadians(mRandom.nextFloat() * 80 - 40);
+        positions[p + 1] = (float) Math.tan(angleY) * objectDistance;
+    }
+}
@@ -0,0 +1,470 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+
+/**
+ * Keeps a shadow copy of the GL state and skips calls that wouldn't change it.
+ *
+ * The shadowed state is the program in use, the enabled vertex attribute arrays, the bound array
+ * and element array buffers, the active texture unit and the 2D texture bound to each unit, the
+ * capabilities switched by glEnable() and glDisable(), and the values of the uniforms of each
+ * program. Anything else is passed straight on.
+ *
+ * The shadow only holds while nobody else touches the context. Cardboard's distortion pass runs
+ * after every frame, so invalidate() must be called at the start of each frame; it forgets
+ * everything except the uniform values, which belong to our own programs. A new context reuses
+ * program names, so reset() must be called whenever the context is created, to forget those too.
+ *
+ * Shadowing a uniform location for the first time allocates, so the first frame or two do, but
+ * after that nothing does.
+ */
+public class StateCachingGL extends ForwardingGL {
+    private static final int UNKNOWN = -1;
+    private static final int MAX_VERTEX_ATTRIBS = 16;
+    private static final int MAX_TEXTURE_UNITS = 16;
+    private static final int[] CAPABILITIES = new int[] {
+            GLES20.GL_BLEND, GLES20.GL_CULL_FACE, GLES20.GL_DEPTH_TEST, GLES20.GL_DITHER,
+            GLES20.GL_POLYGON_OFFSET_FILL, GLES20.GL_SAMPLE_ALPHA_TO_COVERAGE,
+            GLES20.GL_SAMPLE_COVERAGE, GLES20.GL_SCISSOR_TEST, GLES20.GL_STENCIL_TEST};
+
+    // For the attribute arrays and capabilities, 1 is enabled, 0 disabled and UNKNOWN unknown.
+    private final int[] mVertexAttribArrays = new int[MAX_VERTEX_ATTRIBS];
+    private final int[] mCapabilities = new int[CAPABILITIES.length];
+    private final int[] mTextures = new int[MAX_TEXTURE_UNITS];
+    private int mProgram;
+    private int mArrayBuffer;
+    private int mElementArrayBuffer;
+    private int mActiveTexture;
+
+    // The uniform values of each program seen, in order of program name.
+    private int[] mProgramIds = new int[4];
+    private UniformValues[] mProgramUniforms = new UniformValues[4];
+    private int mProgramCount;
+    // The uniforms of mProgram, or null if it isn't known.
+    private UniformValues mUniforms;
+    private final float[] mScratch = new float[4];
+
+    private long mIssued;
+    private long mElided;
+
+    /**
+     * The last values set for the uniforms of one program, in order of location.
+     */
+    private static final class UniformValues {
+        int[] locations = new int[8];
+        float[][] values = new float[8][];
+        // The number of floats in use in each of values, which may have room for more.
+        int[] lengths = new int[8];
+        int count;
+
+        /**
+         * Stores new values for a uniform.
+         * @return Whether they differ from the stored ones.
+         */
+        boolean update(int location, float[] src, int offset, int length) {
+            int i = find(location);
+            float[] stored;
+            if (i < 0) {
+                i = -i - 1;
+                if (count == locations.length) {
+                    locations = copyOf(locations, count * 2);
+                    lengths = copyOf(lengths, count * 2);
+                    float[][] grown = new float[count * 2][];
+                    System.arraycopy(values, 0, grown, 0, count);
+                    values = grown;
+                }
+                System.arraycopy(locations, i, locations, i + 1, count - i);
+                System.arraycopy(values, i, values, i + 1, count - i);
+                System.arraycopy(lengths, i, lengths, i + 1, count - i);
+                locations[i] = location;
+                values[i] = null;
+                lengths[i] = 0;
+                count++;
+            }
+            stored = values[i];
+            if (lengths[i] == length) {
+                boolean same = true;
+                for (int j = 0; j < length; j++) {
+                    // Compare bits, so that a NaN that was set is still seen as set.
+                    if (Float.floatToRawIntBits(stored[j])
+                            != Float.floatToRawIntBits(src[offset + j])) {
+                        same = false;
+                        break;
+                    }
+                }
+                if (same) {
+                    return false;
+                }
+            } else if (stored == null || stored.length < length) {
+                stored = new float[length];
+                values[i] = stored;
+            }
+            System.arraycopy(src, offset, stored, 0, length);
+            lengths[i] = length;
+            return true;
+        }
+
+        private int find(int location) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (locations[mid] < location) {
+                    low = mid + 1;
+                } else if (locations[mid] > location) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -low - 1;
+        }
+    }
+
+    public StateCachingGL(GLApi delegate) {
+        super(delegate);
+        invalidate();
+    }
+
+    /**
+     * Forgets the shadowed state, except for uniform values. Call this whenever something else may
+     * have used the context, such as at the start of every frame.
+     */
+    public void invalidate() {
+        for (int i = 0; i < MAX_VERTEX_ATTRIBS; i++) {
+            mVertexAttribArrays[i] = UNKNOWN;
+        }
+        for (int i = 0; i < CAPABILITIES.length; i++) {
+            mCapabilities[i] = UNKNOWN;
+        }
+        for (int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+            mTextures[i] = UNKNOWN;
+        }
+        mProgram = UNKNOWN;
+        mUniforms = null;
+        mArrayBuffer = UNKNOWN;
+        mElementArrayBuffer = UNKNOWN;
+        mActiveTexture = UNKNOWN;
+    }
+
+    /**
+     * Forgets all of the shadowed state, uniform values included. Call this when the context has
+     * been created again, since its programs may have the names of the old ones.
+     */
+    public void reset() {
+        for (int i = 0; i < mProgramCount; i++) {
+            mProgramUniforms[i] = null;
+        }
+        mProgramCount = 0;
+        invalidate();
+    }
+
+    /**
+     * @return The number of state changes passed on since the last resetCounters().
+     */
+    public long getIssuedCount() {
+        return mIssued;
+    }
+
+    /**
+     * @return The number of state changes skipped since the last resetCounters().
+     */
+    public long getElidedCount() {
+        return mElided;
+    }
+
+    public void resetCounters() {
+        mIssued = 0;
+        mElided = 0;
+    }
+
+    /**
+     * Counts a state change.
+     * @return Whether to pass it on.
+     */
+    private boolean issue(boolean changed) {
+        if (changed) {
+            mIssued++;
+        } else {
+            mElided++;
+        }
+        return changed;
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        if (issue(program != mProgram)) {
+            super.glUseProgram(program);
+            mProgram = program;
+            mUniforms = getUniformValues(program);
+        }
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        super.glLinkProgram(program);
+        // Linking resets the uniforms.
+        forgetUniformValues(program);
+    }
+
+    @Override
+    public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+        super.glProgramBinary(program, binaryFormat, binary, length);
+        // Loading a binary links the program, which resets the uniforms.
+        forgetUniformValues(program);
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        super.glDeleteProgram(program);
+        forgetUniformValues(program);
+        if (program == mProgram) {
+            mProgram = UNKNOWN;
+        }
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        setCapability(cap, 1);
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        setCapability(cap, 0);
+    }
+
+    private void setCapability(int cap, int state) {
+        int i = 0;
+        while (i < CAPABILITIES.length && CAPABILITIES[i] != cap) {
+            i++;
+        }
+        if (i < CAPABILITIES.length && !issue(mCapabilities[i] != state)) {
+            return;
+        }
+        if (state == 1) {
+            super.glEnable(cap);
+        } else {
+            super.glDisable(cap);
+        }
+        if (i < CAPABILITIES.length) {
+            mCapabilities[i] = state;
+        }
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        if (index >= MAX_VERTEX_ATTRIBS || issue(mVertexAttribArrays[index] != 1)) {
+            super.glEnableVertexAttribArray(index);
+            if (index < MAX_VERTEX_ATTRIBS) {
+                mVertexAttribArrays[index] = 1;
+            }
+        }
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        if (index >= MAX_VERTEX_ATTRIBS || issue(mVertexAttribArrays[index] != 0)) {
+            super.glDisableVertexAttribArray(index);
+            if (index < MAX_VERTEX_ATTRIBS) {
+                mVertexAttribArrays[index] = 0;
+            }
+        }
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        if (target == GLES20.GL_ARRAY_BUFFER) {
+            if (issue(buffer != mArrayBuffer)) {
+                super.glBindBuffer(target, buffer);
+                mArrayBuffer = buffer;
+            }
+        } else if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+            if (issue(buffer != mElementArrayBuffer)) {
+                super.glBindBuffer(target, buffer);
+                mElementArrayBuffer = buffer;
+            }
+        } else {
+            super.glBindBuffer(target, buffer);
+        }
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        super.glDeleteBuffers(n, buffers, offset);
+        // Deleting a bound buffer unbinds it.
+        for (int i = 0; i < n; i++) {
+            if (buffers[offset + i] == mArrayBuffer) {
+                mArrayBuffer = 0;
+            }
+            if (buffers[offset + i] == mElementArrayBuffer) {
+                mElementArrayBuffer = 0;
+            }
+        }
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        if (issue(texture != mActiveTexture)) {
+            super.glActiveTexture(texture);
+            mActiveTexture = texture;
+        }
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        int unit = mActiveTexture - GLES20.GL_TEXTURE0;
+        if (target != GLES20.GL_TEXTURE_2D || mActiveTexture == UNKNOWN || unit < 0
+                || unit >= MAX_TEXTURE_UNITS) {
+            super.glBindTexture(target, texture);
+            return;
+        }
+        if (issue(texture != mTextures[unit])) {
+            super.glBindTexture(target, texture);
+            mTextures[unit] = texture;
+        }
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+        super.glDeleteTextures(n, textures, offset);
+        for (int i = 0; i < n; i++) {
+            for (int unit = 0; unit < MAX_TEXTURE_UNITS; unit++) {
+                if (mTextures[unit] == textures[offset + i]) {
+                    mTextures[unit] = 0;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void glUniform1f(int location, float x) {
+        mScratch[0] = x;
+        if (uniformChanged(location, mScratch, 0, 1)) {
+            super.glUniform1f(location, x);
+        }
+    }
+
+    @Override
+    public void glUniform3f(int location, float x, float y, float z) {
+        mScratch[0] = x;
+        mScratch[1] = y;
+        mScratch[2] = z;
+        if (uniformChanged(location, mScratch, 0, 3)) {
+            super.glUniform3f(location, x, y, z);
+        }
+    }
+
+    @Override
+    public void glUniform4f(int location, float x, float y, float z, float w) {
+        mScratch[0] = x;
+        mScratch[1] = y;
+        mScratch[2] = z;
+        mScratch[3] = w;
+        if (uniformChanged(location, mScratch, 0, 4)) {
+            super.glUniform4f(location, x, y, z, w);
+        }
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+        if (uniformChanged(location, v, offset, count * 4)) {
+            super.glUniform4fv(location, count, v, offset);
+        }
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+            int offset) {
+        // Transposed matrices are only allowed in OpenGL ES 3.0, and this app doesn't use them.
+        if (transpose || uniformChanged(location, value, offset, count * 16)) {
+            super.glUniformMatrix4fv(location, count, transpose, value, offset);
+        }
+    }
+
+    /**
+     * Checks a uniform update against the shadow of the current program, and updates the shadow.
+     * Arrays that are set in parts are only shadowed from their first element, which is enough
+     * for the ways this app sets them.
+     * @return Whether to pass the update on.
+     */
+    private boolean uniformChanged(int location, float[] src, int offset, int length) {
+        if (location == -1) {
+            // OpenGL ES ignores location -1.
+            return issue(false);
+        }
+        if (mUniforms == null) {
+            return issue(true);
+        }
+        return issue(mUniforms.update(location, src, offset, length));
+    }
+
+    private UniformValues getUniformValues(int program) {
+        int i = findProgram(program);
+        if (i >= 0) {
+            return mProgramUniforms[i];
+        }
+        i = -i - 1;
+        if (mProgramCount == mProgramIds.length) {
+            mProgramIds = copyOf(mProgramIds, mProgramCount * 2);
+            UniformValues[] grown = new UniformValues[mProgramCount * 2];
+            System.arraycopy(mProgramUniforms, 0, grown, 0, mProgramCount);
+            mProgramUniforms = grown;
+        }
+        System.arraycopy(mProgramIds, i, mProgramIds, i + 1, mProgramCount - i);
+        System.arraycopy(mProgramUniforms, i, mProgramUniforms, i + 1, mProgramCount - i);
+        mProgramIds[i] = program;
+        mProgramUniforms[i] = new UniformValues();
+        mProgramCount++;
+        return mProgramUniforms[i];
+    }
+
+    private void forgetUniformValues(int program) {
+        int i = findProgram(program);
+        if (i >= 0) {
+            mProgramUniforms[i] = new UniformValues();
+            if (program == mProgram) {
+                mUniforms = mProgramUniforms[i];
+            }
+        }
+    }
+
+    private int findProgram(int program) {
+        int low = 0;
+        int high = mProgramCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mProgramIds[mid] < program) {
+                low = mid + 1;
+            } else if (mProgramIds[mid] > program) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -low - 1;
+    }
+
+    private static int[] copyOf(int[] array, int length) {
+        int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Streams textures in by name without stalling the frame, and keeps the ones in GPU memory under
+ * a budget.
+ *
+ * Asking for a texture that isn't loaded starts decoding it on an executor. Decoded images are
+ * uploaded on the GL thread by update(), a strip of rows at a time, until that frame's time budget
+ * is spent, so a large texture is spread over several frames instead of causing a hitch. Until
+ * it is fully uploaded, getTexture() returns 0 and the caller draws without it.
+ *
+ * When uploading a texture would take GPU memory over the budget, the least recently used
+ * textures are deleted first. Textures drawn in the last frame are never deleted, since update()
+ * runs before the frame draws anything and they are likely to be drawn again, so the budget can
+ * be exceeded by what a single frame draws. A deleted texture is decoded again the next time it's
+ * asked for.
+ *
+ * Images with power-of-two sides get a full mipmap chain: either the levels the Decoder supplies,
+ * or levels built from the top one by averaging 2x2 blocks on the executor. Other images are
+ * drawn with linear filtering and clamped edges, as OpenGL ES 2.0 requires.
+ */
+public class TextureManager {
+    private static final String TAG = "TextureManager";
+
+    // The most bytes uploaded by one call, so that a big level is spread over several frames.
+    private static final int UPLOAD_CHUNK_BYTES = 256 * 1024;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private static final int STATE_UNLOADED = 0;
+    private static final int STATE_DECODING = 1;
+    private static final int STATE_UPLOADING = 2;
+    private static final int STATE_RESIDENT = 3;
+    private static final int STATE_FAILED = 4;
+
+    /**
+     * Decoded RGBA pixels, 8 bits per channel, with rows tightly packed from the top.
+     */
+    public static final class Image {
+        public final int width;
+        public final int height;
+        private final ByteBuffer[] mLevels;
+
+        /**
+         * An image without mipmaps. They are built if the sides are powers of two.
+         */
+        public Image(int width, int height, ByteBuffer pixels) {
+            this(width, height, new ByteBuffer[] {pixels});
+        }
+
+        /**
+         * An image with precomputed mipmaps.
+         * @param levels The top level, then each level halving the one before, down to 1x1.
+         */
+        public Image(int width, int height, ByteBuffer[] levels) {
+            this.width = width;
+            this.height = height;
+            mLevels = levels;
+        }
+
+        int getLevelWidth(int level) {
+            return Math.max(1, width >> level);
+        }
+
+        int getLevelHeight(int level) {
+            return Math.max(1, height >> level);
+        }
+
+        /**
+         * @return The bytes the image takes in GPU memory.
+         */
+        long getSizeInBytes() {
+            long bytes = 0;
+            for (int level = 0; level < mLevels.length; level++) {
+                bytes += (long) getLevelWidth(level) * getLevelHeight(level) * BYTES_PER_PIXEL;
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Turns a texture name into pixels. Called on the executor, never on the GL thread.
+     */
+    public interface Decoder {
+        Image decode(String name) throws IOException;
+    }
+
+    private final class Entry implements Runnable {
+        final String name;
+        // Only touched on the GL thread, apart from mImage, which the executor sets before
+        // handing the entry back through mDecoded.
+        int state = STATE_UNLOADED;
+        Image image;
+        int texture;
+        long bytes;
+        long lastUsedFrame;
+        int uploadLevel;
+        int uploadRow;
+
+        Entry(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            Image decoded = null;
+            try {
+                decoded = mDecoder.decode(name);
+                if (decoded.mLevels.length == 1 && isPowerOfTwo(decoded.width)
+                        && isPowerOfTwo(decoded.height)) {
+                    decoded = buildMipmaps(decoded);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to decode texture " + name, e);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to decode texture " + name, e);
+            }
+            image = decoded;
+            mDecoded.add(this);
+        }
+    }
+
+    private final GLApi mGl;
+    private final Decoder mDecoder;
+    private final Executor mExecutor;
+    private final Clock mClock;
+    private final long mBudgetBytes;
+
+    // In access order, so that iterating starts from the least recently used.
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final Queue<Entry> mDecoded = new ConcurrentLinkedQueue<Entry>();
+    private final Queue<Entry> mUploads = new ArrayDeque<Entry>();
+    private final int[] mName = new int[1];
+    private long mFrame;
+    private long mResidentBytes;
+    private int mEvictions;
+
+    /**
+     * @param gl Where to make the GL calls.
+     * @param decoder Decodes the images, on the executor.
+     * @param executor Where to decode. A single low-priority thread suits it.
+     * @param clock Measures the upload time budget.
+     * @param budgetBytes The GPU memory the textures should fit in.
+     */
+    public TextureManager(GLApi gl, Decoder decoder, Executor executor, Clock clock,
+            long budgetBytes) {
+        mGl = gl;
+        mDecoder = decoder;
+        mExecutor = executor;
+        mClock = clock;
+        mBudgetBytes = budgetBytes;
+    }
+
+    /**
+     * Looks up a texture for drawing this frame, and starts loading it if it isn't loaded.
+     * @param name The name of the texture, as understood by the Decoder.
+     * @return The GL name of the texture, or 0 if it isn't ready yet.
+     */
+    public int getTexture(String name) {
+        Entry entry = mEntries.get(name);
+        if (entry == null) {
+            entry = new Entry(name);
+            mEntries.put(name, entry);
+        }
+        entry.lastUsedFrame = mFrame;
+        if (entry.state == STATE_UNLOADED) {
+            entry.state = STATE_DECODING;
+            mExecutor.execute(entry);
+        }
+        return entry.state == STATE_RESIDENT ? entry.texture : 0;
+    }
+
+    /**
+     * Starts a new frame and uploads decoded images until the time budget is spent. At least one
+     * strip is uploaded in each call, so loading always makes progress. Call this on the GL
+     * thread at the start of each frame; it leaves GL_TEXTURE0 active, with no texture bound.
+     * @param budgetNanos How long to spend uploading.
+     */
+    public void update(long budgetNanos) {
+        mFrame++;
+        Entry decoded;
+        while ((decoded = mDecoded.poll()) != null) {
+            if (decoded.state != STATE_DECODING) {
+                // Released while it was being decoded.
+                continue;
+            }
+            if (decoded.image == null) {
+                decoded.state = STATE_FAILED;
+            } else {
+                mUploads.add(decoded);
+            }
+        }
+        if (mUploads.isEmpty()) {
+            return;
+        }
+
+        long deadline = mClock.nanoTime() + budgetNanos;
+        mGl.glActiveTexture(GLES20.GL_TEXTURE0);
+        do {
+            Entry entry = mUploads.peek();
+            if (uploadChunk(entry)) {
+                mUploads.remove();
+            }
+        } while (!mUploads.isEmpty() && mClock.nanoTime() - deadline < 0);
+        mGl.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+    }
+
+    /**
+     * Uploads the next part of an image.
+     * @return Whether the texture is now complete.
+     */
+    private boolean uploadChunk(Entry entry) {
+        Image image = entry.image;
+        if (entry.state == STATE_DECODING) {
+            // Allocate every level up front, so that the texture takes its full size in the
+            // budget straight away.
+            entry.bytes = image.getSizeInBytes();
+            evict(entry.bytes);
+            mGl.glGenTextures(1, mName, 0);
+            entry.texture = mName[0];
+            mGl.glBindTexture(GLES20.GL_TEXTURE_2D, entry.texture);
+            boolean mipmapped = image.mLevels.length > 1;
+            boolean repeat = isPowerOfTwo(image.width) && isPowerOfTwo(image.height);
+            mGl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+                    mipmapped ? GLES20.GL_LINEAR_MIPMAP_LINEAR : GLES20.GL_LINEAR);
+            mGl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
+                    GLES20.GL_LINEAR);
+            mGl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+                    repeat ? GLES20.GL_REPEAT : GLES20.GL_CLAMP_TO_EDGE);
+            mGl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+                    repeat ? GLES20.GL_REPEAT : GLES20.GL_CLAMP_TO_EDGE);
+            for (int level = 0; level < image.mLevels.length; level++) {
+                mGl.glTexImage2D(GLES20.GL_TEXTURE_2D, level, GLES20.GL_RGBA,
+                        image.getLevelWidth(level), image.getLevelHeight(level), 0,
+                        GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+            }
+            mResidentBytes += entry.bytes;
+            entry.state = STATE_UPLOADING;
+            entry.uploadLevel = 0;
+            entry.uploadRow = 0;
+            return false;
+        }
+
+        int level = entry.uploadLevel;
+        int width = image.getLevelWidth(level);
+        int height = image.getLevelHeight(level);
+        int rows = Math.min(height - entry.uploadRow,
+                Math.max(1, UPLOAD_CHUNK_BYTES / (width * BYTES_PER_PIXEL)));
+        ByteBuffer pixels = image.mLevels[level];
+        pixels.position(entry.uploadRow * width * BYTES_PER_PIXEL);
+        mGl.glBindTexture(GLES20.GL_TEXTURE_2D, entry.texture);
+        mGl.glTexSubImage2D(GLES20.GL_TEXTURE_2D, level, 0, entry.uploadRow, width, rows,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixels);
+        entry.uploadRow += rows;
+        if (entry.uploadRow < height) {
+            return false;
+        }
+        entry.uploadLevel++;
+        entry.uploadRow = 0;
+        if (entry.uploadLevel < image.mLevels.length) {
+            return false;
+        }
+        // The pixels aren't needed once they're on the GPU.
+        entry.image = null;
+        entry.state = STATE_RESIDENT;
+        return true;
+    }
+
+    /**
+     * Deletes the least recently used textures that weren't drawn in the last frame until the
+     * given number of bytes fit in the budget, or there are no more to delete.
+     */
+    private void evict(long bytes) {
+        for (Map.Entry<String, Entry> e : mEntries.entrySet()) {
+            if (mResidentBytes + bytes <= mBudgetBytes) {
+                return;
+            }
+            Entry entry = e.getValue();
+            if (entry.state == STATE_RESIDENT && entry.lastUsedFrame < mFrame - 1) {
+                deleteTexture(entry);
+                mEvictions++;
+            }
+        }
+    }
+
+    private void deleteTexture(Entry entry) {
+        mName[0] = entry.texture;
+        mGl.glDeleteTextures(1, mName, 0);
+        mResidentBytes -= entry.bytes;
+        entry.texture = 0;
+        entry.bytes = 0;
+        entry.state = STATE_UNLOADED;
+    }
+
+    /**
+     * @return The GPU memory taken by textures, including ones still being uploaded.
+     */
+    public long getResidentBytes() {
+        return mResidentBytes;
+    }
+
+    /**
+     * @return How many textures have been deleted to stay in the budget.
+     */
+    public int getEvictionCount() {
+        return mEvictions;
+    }
+
+    /**
+     * Deletes every texture. Images still being decoded are dropped when they arrive.
+     */
+    public void release() {
+        for (Entry entry : mEntries.values()) {
+            if (entry.state == STATE_RESIDENT || entry.state == STATE_UPLOADING) {
+                deleteTexture(entry);
+            }
+            entry.state = STATE_UNLOADED;
+            entry.image = null;
+        }
+        mEntries.clear();
+        mUploads.clear();
+        mDecoded.clear();
+    }
+
+    private static boolean isPowerOfTwo(int n) {
+        return n > 0 && (n & (n - 1)) == 0;
+    }
+
+    /**
+     * Builds the mipmap chain of an image by averaging 2x2 blocks of each level.
+     */
+    static Image buildMipmaps(Image image) {
+        int levelCount = 1;
+        while (image.getLevelWidth(levelCount - 1) > 1
+                || image.getLevelHeight(levelCount - 1) > 1) {
+            levelCount++;
+        }
+        ByteBuffer[] levels = new ByteBuffer[levelCount];
+        levels[0] = image.mLevels[0];
+        for (int level = 1; level < levelCount; level++) {
+            ByteBuffer src = levels[level - 1];
+            int srcWidth = image.getLevelWidth(level - 1);
+            int srcHeight = image.getLevelHeight(level - 1);
+            int width = image.getLevelWidth(level);
+            int height = image.getLevelHeight(level);
+            ByteBuffer dst = ByteBuffer.allocateDirect(width * height * BYTES_PER_PIXEL);
+            for (int y = 0; y < height; y++) {
+                // A side that is already 1 pixel long isn't halved.
+                int y0 = Math.min(y * 2, srcHeight - 1);
+                int y1 = Math.min(y * 2 + 1, srcHeight - 1);
+                for (int x = 0; x < width; x++) {
+                    int x0 = Math.min(x * 2, srcWidth - 1);
+                    int x1 = Math.min(x * 2 + 1, srcWidth - 1);
+                    for (int c = 0; c < BYTES_PER_PIXEL; c++) {
+                        int sum = (src.get((y0 * srcWidth + x0) * BYTES_PER_PIXEL + c) & 0xff)
+                                + (src.get((y0 * srcWidth + x1) * BYTES_PER_PIXEL + c) & 0xff)
+                                + (src.get((y1 * srcWidth + x0) * BYTES_PER_PIXEL + c) & 0xff)
+                                + (src.get((y1 * srcWidth + x1) * BYTES_PER_PIXEL + c) & 0xff);
+                        dst.put((y * width + x) * BYTES_PER_PIXEL + c, (byte) ((sum + 2) >> 2));
+                    }
+                }
+            }
+            levels[level] = dst;
+        }
+        return new Image(image.width, image.height, levels);
+    }
+}
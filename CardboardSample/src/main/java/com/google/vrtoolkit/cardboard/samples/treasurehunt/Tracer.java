@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records timestamped begin, end and instant events into a fixed-size ring buffer, and writes
+ * them out in the Chrome trace_event JSON format for viewing in a trace viewer such as
+ * chrome://tracing.
+ *
+ * Event names are interned once, up front, and events only carry the resulting IDs, so recording
+ * an event takes no locks and doesn't allocate. Any number of threads can record at once. When
+ * the buffer is full the oldest events are overwritten.
+ */
+public class Tracer {
+    public static final int TYPE_BEGIN = 0;
+    public static final int TYPE_END = 1;
+    public static final int TYPE_INSTANT = 2;
+
+    private static final int MAX_NAMES = 1 << 16;
+    // Each event is a sequence number, a timestamp, and the type, name and thread packed together.
+    private static final int SLOT_SIZE = 3;
+    // Marks a slot that is being written.
+    private static final long WRITING = -1;
+
+    private final Clock mClock;
+    // Timestamps are written out relative to this.
+    private final long mOrigin;
+    private final int mMask;
+    private final AtomicLongArray mSlots;
+    private final AtomicLong mCursor = new AtomicLong();
+    private final List<String> mNames = new ArrayList<String>();
+    private volatile boolean mEnabled = true;
+
+    /**
+     * @param clock Where to read the timestamps from.
+     * @param capacity The number of events to keep. Rounded up to a power of two.
+     */
+    public Tracer(Clock clock, int capacity) {
+        mClock = clock;
+        mOrigin = clock.nanoTime();
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mMask = size - 1;
+        mSlots = new AtomicLongArray(size * SLOT_SIZE);
+        for (int i = 0; i < size; i++) {
+            mSlots.set(i * SLOT_SIZE, WRITING);
+        }
+    }
+
+    /**
+     * Turns recording on or off. Recording calls return straight away while it's off.
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Gets the ID for an event name. This allocates, so do it during setup, not while recording.
+     * @return The same ID for the same name every time.
+     */
+    public synchronized int intern(String name) {
+        int id = mNames.indexOf(name);
+        if (id < 0) {
+            if (mNames.size() == MAX_NAMES) {
+                throw new IllegalStateException("Too many trace event names.");
+            }
+            id = mNames.size();
+            mNames.add(name);
+        }
+        return id;
+    }
+
+    public void begin(int nameId) {
+        record(TYPE_BEGIN, nameId);
+    }
+
+    public void end(int nameId) {
+        record(TYPE_END, nameId);
+    }
+
+    public void instant(int nameId) {
+        record(TYPE_INSTANT, nameId);
+    }
+
+    private void record(int type, int nameId) {
+        if (!mEnabled) {
+            return;
+        }
+        long sequence = mCursor.getAndIncrement();
+        int slot = (int) (sequence & mMask) * SLOT_SIZE;
+        long thread = Thread.currentThread().getId();
+        // Readers check the sequence number before and after reading the event, so it is
+        // invalidated first and only set again once the rest is in place.
+        mSlots.lazySet(slot, WRITING);
+        mSlots.lazySet(slot + 1, mClock.nanoTime());
+        mSlots.lazySet(slot + 2, (thread << 32) | (type << 16) | nameId);
+        mSlots.lazySet(slot, sequence);
+    }
+
+    /**
+     * Writes the events in the buffer as a Chrome trace_event JSON object. Events can still be
+     * recorded meanwhile; any that overwrite the ones being written out are left out.
+     * @return The number of events written.
+     */
+    public int writeChromeTrace(Writer out) throws IOException {
+        String[] names;
+        synchronized (this) {
+            names = mNames.toArray(new String[mNames.size()]);
+        }
+        long end = mCursor.get();
+        long start = Math.max(0, end - (mMask + 1));
+
+        out.write("{\"traceEvents\":[");
+        int written = 0;
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) (sequence & mMask) * SLOT_SIZE;
+            if (mSlots.get(slot) != sequence) {
+                continue;
+            }
+            long time = mSlots.get(slot + 1) - mOrigin;
+            long packed = mSlots.get(slot + 2);
+            if (mSlots.get(slot) != sequence) {
+                continue;
+            }
+            int type = (int) (packed >> 16) & 0xffff;
+            int nameId = (int) packed & 0xffff;
+            String name = nameId < names.length ? names[nameId] : "unknown";
+
+            out.write(written == 0 ? "\n" : ",\n");
+            out.write("{\"name\":\"");
+            writeEscaped(out, name);
+            out.write("\",\"ph\":\"");
+            out.write(type == TYPE_BEGIN ? "B" : type == TYPE_END ? "E" : "i");
+            out.write("\",\"ts\":");
+            // Microseconds, as the format expects, keeping the nanoseconds as a fraction.
+            out.write(Long.toString(time / 1000));
+            out.write('.');
+            out.write(String.format("%03d", time % 1000));
+            out.write(",\"pid\":0,\"tid\":");
+            out.write(Long.toString(packed >>> 32));
+            if (type == TYPE_INSTANT) {
+                out.write(",\"s\":\"t\"");
+            }
+            out.write('}');
+            written++;
+        }
+        out.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+        out.flush();
+        return written;
+    }
+
+    private static void writeEscaped(Writer out, String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write(String.format("\\u%04x", (int) c));
+            } else {
+                out.write(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+/**
+ * The transforms of the objects in the scene, as a tree of nodes whose matrices are kept side by
+ * side in two float arrays, local and world, 16 floats per node at node * 16.
+ *
+ * Changing a node's local matrix marks it dirty. update() then recomputes the world matrices of
+ * the dirty nodes and everything below them, and nothing else, so its cost goes with how much of
+ * the scene moved rather than how big it is. A node is always added after its parent, which lets
+ * a subtree be walked with the child and sibling links and no recursion.
+ *
+ * multiply() turns a run of world matrices into model-view or model-view-projection matrices for
+ * an eye in a single loop over contiguous arrays. Nothing allocates after construction.
+ */
+public class TransformHierarchy {
+    /** The parent of a node at the top of the tree. */
+    public static final int NO_PARENT = -1;
+
+    private static final int FLOATS_PER_MATRIX = 16;
+
+    private final float[] mLocal;
+    private final float[] mWorld;
+    private final int[] mParents;
+    private final int[] mFirstChildren;
+    private final int[] mNextSiblings;
+    private final boolean[] mDirty;
+    private final int[] mDirtyNodes;
+    private int mDirtyCount;
+    // The nodes still to visit while walking a subtree.
+    private final int[] mStack;
+    private int mCount;
+
+    /**
+     * @param capacity The most nodes the tree can hold.
+     */
+    public TransformHierarchy(int capacity) {
+        mLocal = new float[capacity * FLOATS_PER_MATRIX];
+        mWorld = new float[capacity * FLOATS_PER_MATRIX];
+        mParents = new int[capacity];
+        mFirstChildren = new int[capacity];
+        mNextSiblings = new int[capacity];
+        mDirty = new boolean[capacity];
+        mDirtyNodes = new int[capacity];
+        mStack = new int[capacity];
+    }
+
+    /**
+     * Adds a node with an identity local matrix. Its world matrix is worked out at the next
+     * update().
+     * @param parent A node that has already been added, or NO_PARENT.
+     * @return The new node.
+     */
+    public int addNode(int parent) {
+        if (mCount == mParents.length) {
+            throw new IllegalStateException("Transform hierarchy is full: " + mCount + " nodes");
+        }
+        if (parent < NO_PARENT || parent >= mCount) {
+            throw new IllegalArgumentException("No such parent: " + parent);
+        }
+        int node = mCount++;
+        mParents[node] = parent;
+        mFirstChildren[node] = NO_PARENT;
+        mNextSiblings[node] = NO_PARENT;
+        if (parent != NO_PARENT) {
+            mNextSiblings[node] = mFirstChildren[parent];
+            mFirstChildren[parent] = node;
+        }
+        setIdentity(mLocal, node * FLOATS_PER_MATRIX);
+        markDirty(node);
+        return node;
+    }
+
+    public int getNodeCount() {
+        return mCount;
+    }
+
+    public int getParent(int node) {
+        return mParents[node];
+    }
+
+    /**
+     * @return The local matrices, each relative to its node's parent. After writing one directly,
+     *     call markDirty() on its node.
+     */
+    public float[] getLocal() {
+        return mLocal;
+    }
+
+    /**
+     * @return The world matrices, as of the last update(). Don't write to them.
+     */
+    public float[] getWorld() {
+        return mWorld;
+    }
+
+    /**
+     * Sets a node's local matrix.
+     */
+    public void setLocal(int node, float[] matrix, int offset) {
+        System.arraycopy(matrix, offset, mLocal, node * FLOATS_PER_MATRIX, FLOATS_PER_MATRIX);
+        markDirty(node);
+    }
+
+    /**
+     * Says that a node's local matrix has changed, so that its world matrix and those of the
+     * nodes below it are recomputed at the next update().
+     */
+    public void markDirty(int node) {
+        if (!mDirty[node]) {
+            mDirty[node] = true;
+            mDirtyNodes[mDirtyCount++] = node;
+        }
+    }
+
+    /**
+     * Brings the world matrices of the dirty nodes and their subtrees up to date.
+     * @return The number of world matrices recomputed.
+     */
+    public int update() {
+        int updated = 0;
+        for (int d = 0; d < mDirtyCount; d++) {
+            int node = mDirtyNodes[d];
+            if (!mDirty[node]) {
+                // Already done as part of a dirty ancestor's subtree.
+                continue;
+            }
+            // Start from the highest dirty ancestor, so that each subtree is walked once.
+            for (int p = mParents[node]; p != NO_PARENT; p = mParents[p]) {
+                if (mDirty[p]) {
+                    node = p;
+                }
+            }
+            updated += updateSubtree(node);
+        }
+        mDirtyCount = 0;
+        return updated;
+    }
+
+    private int updateSubtree(int root) {
+        int updated = 0;
+        int top = 0;
+        mStack[top++] = root;
+        while (top > 0) {
+            int node = mStack[--top];
+            int parent = mParents[node];
+            int offset = node * FLOATS_PER_MATRIX;
+            if (parent == NO_PARENT) {
+                System.arraycopy(mLocal, offset, mWorld, offset, FLOATS_PER_MATRIX);
+            } else {
+                multiply(mWorld, offset, mWorld, parent * FLOATS_PER_MATRIX, mLocal, offset);
+            }
+            mDirty[node] = false;
+            updated++;
+            for (int c = mFirstChildren[node]; c != NO_PARENT; c = mNextSiblings[c]) {
+                mStack[top++] = c;
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Multiplies a run of world matrices by one matrix, such as an eye's view or
+     * view-projection matrix.
+     * @param lhs The array holding the matrix to multiply by, on the left.
+     * @param lhsOffset The offset of the matrix in its array.
+     * @param first The first node of the run.
+     * @param count The number of nodes in the run.
+     * @param out Receives lhs * world for each node, 16 floats apart.
+     * @param outOffset Where to write the first one.
+     */
+    public void multiply(float[] lhs, int lhsOffset, int first, int count, float[] out,
+            int outOffset) {
+        for (int i = 0; i < count; i++) {
+            multiply(out, outOffset + i * FLOATS_PER_MATRIX, lhs, lhsOffset, mWorld,
+                    (first + i) * FLOATS_PER_MATRIX);
+        }
+    }
+
+    /**
+     * out = a * b, for column-major 4x4 matrices. out must not overlap either of them.
+     */
+    private static void multiply(float[] out, int o, float[] a, int ao, float[] b, int bo) {
+        for (int col = 0; col < 4; col++) {
+            float b0 = b[bo + col * 4];
+            float b1 = b[bo + col * 4 + 1];
+            float b2 = b[bo + col * 4 + 2];
+            float b3 = b[bo + col * 4 + 3];
+            for (int row = 0; row < 4; row++) {
+                out[o + col * 4 + row] = a[ao + row] * b0 + a[ao + 4 + row] * b1
+                        + a[ao + 8 + row] * b2 + a[ao + 12 + row] * b3;
+            }
+        }
+    }
+
+    private static void setIdentity(float[] m, int offset) {
+        for (int i = 0; i < FLOATS_PER_MATRIX; i++) {
+            m[offset + i] = i % 5 == 0 ? 1f : 0f;
+        }
+    }
+}
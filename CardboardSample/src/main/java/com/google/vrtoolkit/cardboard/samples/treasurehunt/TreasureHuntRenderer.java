@@ -0,0 +1,1206 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.util.Log;
+import com.google.vrtoolkit.cardboard.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.microedition.khronos.egl.EGLConfig;
+
+/**
+ * Draws the treasure hunt: the floor, and the objects the simulation has hidden around the user.
+ *
+ * This holds everything the frame loop touches but none of the Android UI, so that it can be
+ * driven by a CardboardView or, with a GLApi that does nothing, by ReplayBenchmark on a desktop
+ * JVM. The things it needs from its surroundings go through a Host.
+ */
+public class TreasureHuntRenderer implements CardboardView.StereoRenderer {
+    private static final String TAG = "TreasureHuntRenderer";
+
+    /** The floor grid is worked out for every fragment, in grid_fragment.shader. */
+    public static final int FLOOR_PROCEDURAL = 0;
+    /** The floor grid is looked up in a GridTexture and faded per vertex. The default. */
+    public static final int FLOOR_TEXTURE = 1;
+    private static final String[] FLOOR_MODE_NAMES = new String[] {"procedural", "texture"};
+
+    // Log the number of draw calls once every this many frames.
+    private static final int DRAW_CALL_LOG_INTERVAL = 600;
+
+    // Assume the usual refresh rate when counting dropped frames.
+    private static final long REFRESH_NANOS = 1000000000L / 60;
+    private static final long PROFILE_SUMMARY_NANOS = 10000000000L;
+
+    private static final float CAMERA_Z = 0.01f;
+
+    // Sort ids of the programs and meshes, for the render queue. Within a layer, lower programs
+    // are drawn first: the cubes are small and near, so they go before the floor they hide.
+    private static final int PROGRAM_CUBES = 0;
+    private static final int PROGRAM_FLOOR_PROCEDURAL = 1;
+    private static final int PROGRAM_FLOOR_TEXTURE = 2;
+    private static final int PROGRAM_PAINTING = 3;
+    private static final int MESH_FLOOR = 0;
+    private static final int MESH_PAINTING = 1;
+    // The cube's levels of detail take the ids from here on, so each level is drawn together.
+    private static final int MESH_CUBE = 2;
+    // Depths are quantized up to this far, a little beyond the far plane.
+    private static final float QUEUE_MAX_DEPTH = 128f;
+
+    // Where the floor and painting come in an eye's matrices from setEyeTransforms().
+    private static final int EYE_FLOOR = 0;
+    private static final int EYE_PAINTING = 1;
+    private static final int EYE_NODE_COUNT = 2;
+
+    // Adaptive resolution never draws the eyes at less than this fraction of their width.
+    private static final float RESOLUTION_MIN_SCALE = 0.5f;
+    // With a GPU timer, the eyes may take this much GPU time; the rest of the refresh period is
+    // left for the distortion pass.
+    private static final long RESOLUTION_GPU_BUDGET_NANOS = REFRESH_NANOS * 7 / 10;
+    // Without one, all there is to go on is the frame interval, which only shows frames that were
+    // dropped: one that made its vsync is at 80% of this, one that missed it at 160%.
+    private static final long RESOLUTION_INTERVAL_BUDGET_NANOS = REFRESH_NANOS * 5 / 4;
+
+    // Head pose prediction keeps this many head views, and works out the angular velocity over
+    // about the last frame and a half; a longer window smooths more but lags behind quick turns.
+    private static final int POSE_HISTORY = 8;
+    private static final long POSE_VELOCITY_WINDOW_NANOS = 25000000L;
+
+    // A cube's level of detail may be off by this many pixels from the full mesh, give or take
+    // the hysteresis that keeps cubes at their distance threshold from switching every frame.
+    private static final float LOD_TOLERANCE_PIXELS = 1f;
+    private static final float LOD_HYSTERESIS = 0.2f;
+
+    // The fill-rate benchmark gives each floor mode this many turns of measured frames, after
+    // leaving out the first frames of each turn.
+    private static final int BENCHMARK_WARMUP_FRAMES = 60;
+    private static final int BENCHMARK_MEASURED_FRAMES = 300;
+    private static final int BENCHMARK_ROUNDS = 3;
+    // Each eye draws the floor this many times over, to make shading the bulk of the work.
+    private static final int BENCHMARK_FLOOR_LAYERS = 4;
+    // The head is held looking this far down, where the floor fills the view.
+    private static final float BENCHMARK_PITCH_DEGREES = 60f;
+
+    // Uploading textures may take this long out of each frame.
+    private static final long TEXTURE_UPLOAD_NANOS = 2000000L;
+    private static final long TEXTURE_BUDGET_BYTES = 64L * 1024 * 1024;
+
+    // A painting hung on a wall behind the start, in world space, with the texture on it.
+    private static final String PAINTING_TEXTURE = "mona_lisa";
+    private static final float PAINTING_DISTANCE = 8f;
+    private static final float PAINTING_WIDTH = 2f;
+    private static final float PAINTING_HEIGHT = 3f;
+
+    private static final float YAW_LIMIT = 0.12f;
+    private static final float PITCH_LIMIT = 0.12f;
+
+    // We keep the light always position just above the user.
+    private final float[] mLightPosInWorldSpace = new float[] {0.0f, 2.0f, 0.0f, 1.0f};
+    private final float[] mLightPosInEyeSpace = new float[4];
+
+    private static final VertexFormat VERTEX_FORMAT = VertexFormat.COMPACT;
+
+    // Attribute locations shared by all programs, so that the enabled arrays suit each of them.
+    private static final String[] ATTRIBUTE_LOCATIONS = new String[] {
+        "a_Position", "a_Normal", "a_Color", "a_InstanceIndex", "a_TexCoordinate"};
+
+    // The highlight for the object being looked at. CUBE_FOUND_COLORS is this color throughout.
+    private static final float[] FOUND_COLOR = new float[] {1.0f, 0.6523f, 0.0f, 1.0f};
+
+    /**
+     * What the renderer needs from whatever is running it.
+     */
+    public interface Host extends TextureManager.Decoder {
+        /**
+         * @param name The name of a shader in res/raw, without its extension.
+         * @return The source of the shader.
+         */
+        String readShader(String name);
+
+        /**
+         * @param name The name of a file in assets.
+         * @return The whole file, mapped read-only.
+         */
+        ByteBuffer mapAsset(String name) throws IOException;
+
+        /**
+         * Called on the GL thread when a capture asked for with requestCapture() is complete.
+         */
+        void onCaptureFinished(byte[] capture);
+
+        /**
+         * @return A directory to keep linked programs in, or null to build them from source
+         *     every time.
+         */
+        File getProgramCacheDir();
+
+        /**
+         * @return Where to decode textures, with TextureManager.Decoder.decode(), and write
+         *     program binaries. A single background thread suits it.
+         */
+        Executor getDecodeExecutor();
+
+        /**
+         * Called on the GL thread when the surface is created.
+         * @return The font for the HUD.
+         */
+        GlyphAtlas createGlyphAtlas();
+    }
+
+    private final Host mHost;
+    private final Clock mClock;
+
+    private Mesh mFloor;
+    // One batch per level of detail, from the full mesh.
+    private InstancedBatch[] mCubes;
+    private LodSelector mCubeLod;
+
+    private LightingParams mFloorParams;
+    private ShaderProgram.Uniform mFloorIsFloorParam;
+    private LightingParams mFloorTextureParams;
+    private LightingParams mCubeParams;
+    private int mGridTexture;
+    // Set from any thread; mFrameFloorMode is what the current frame uses.
+    private volatile int mFloorMode = FLOOR_TEXTURE;
+    private int mFrameFloorMode;
+
+    private TextureManager mTextures;
+    private VertexBuffer mPainting;
+    private ShaderProgram mPaintingProgram;
+    private ShaderProgram.Attribute mPaintingPositionParam;
+    private ShaderProgram.Attribute mPaintingTexCoordParam;
+    private ShaderProgram.Uniform mPaintingMVPParam;
+    private ShaderProgram.Uniform mPaintingColorParam;
+
+    private HudRenderer mHud;
+
+    // Adaptive resolution. Set from any thread; mFrameAdaptiveResolution is what the current frame
+    // uses.
+    private volatile boolean mAdaptiveResolution;
+    private boolean mFrameAdaptiveResolution;
+    private ResolutionGovernor mResolutionGovernor;
+    private float mResolutionScale = 1f;
+    // Allocated for each eye when it's first drawn at a reduced scale.
+    private final EyeTarget[] mEyeTargets = new EyeTarget[2];
+    // The framebuffer Cardboard has bound for the eyes, read once a frame, by the first eye drawn
+    // at a reduced scale.
+    private final int[] mEyeFramebuffer = new int[1];
+    private boolean mEyeFramebufferKnown;
+
+    // Head pose prediction. Set from any thread; mFramePredicting is whether the current frame
+    // uses it.
+    private volatile long mPredictionNanos;
+    private boolean mFramePredicting;
+    private final PosePredictor mPosePredictor =
+            new PosePredictor(POSE_HISTORY, POSE_VELOCITY_WINDOW_NANOS);
+    // The head view from the head tracker. mHeadView is the one the frame is drawn from, which is
+    // a prediction of it when prediction is on.
+    private final float[] mSensorHeadView = new float[16];
+    // The predicted head view relative to the tracked one, inverse(mSensorHeadView) * mHeadView,
+    // which takes an eye view from the tracker to a predicted one.
+    private final float[] mPredictionDelta = new float[16];
+    private final float[] mTexRect = new float[4];
+    private VertexBuffer mUpscaleQuad;
+    private ShaderProgram mUpscaleProgram;
+    private ShaderProgram.Attribute mUpscalePositionParam;
+    private ShaderProgram.Uniform mUpscaleTexRectParam;
+
+    private ProgramCache mPrograms;
+    private final Map<String, String> mShaderSources = new HashMap<String, String>();
+    // Time spent building or loading programs since the surface was created.
+    private long mProgramNanos;
+    // Text for the HUD, handed over from other threads and picked up at the next frame.
+    private final AtomicReference<String> mToast = new AtomicReference<String>();
+
+    private final int mTreasureCount;
+    private final Simulation mSimulation;
+    private final float[] mObjectPosition = new float[3];
+    // The cubes are nodes 0 to mTreasureCount - 1, so their world matrices start the array, in
+    // the order InstancedBatch reads them. The floor and painting follow, next to each other so
+    // that an eye's matrices for them come out of one multiply().
+    private final TransformHierarchy mTransforms;
+    private final int mFloorNode;
+    private final int mPaintingNode;
+    private final float[] mEyeModelViews = new float[16 * EYE_NODE_COUNT];
+    private final float[] mEyeModelViewProjections = new float[16 * EYE_NODE_COUNT];
+    private final float[] mCubeInstances;
+    private int mLookedAtObject = -1;
+    private final float[] mCamera = new float[16];
+    private final float[] mView = new float[16];
+    private final float[] mHeadView = new float[16];
+    private final float[] mViewProjection = new float[16];
+
+    // Culling. The frusta of the eyes are predicted for each frame from the eye offsets and
+    // projections of the last frame, which only change when the viewer does, and their union is
+    // tested once. Each eye then only tests the objects that passed.
+    private final Frustum mUnionFrustum = new Frustum();
+    private final Frustum mEyeFrustum = new Frustum();
+    private final Frustum[] mPredictedFrusta = new Frustum[] {new Frustum(), new Frustum()};
+    private final float[] mEyeOffsets = new float[2 * 16];
+    private final float[] mEyePerspectives = new float[2 * 16];
+    private final int[] mEyeViewportHeights = new int[2];
+    private final int[] mEyeFrames = new int[] {-1, -1};
+    private final float[] mInverseHeadView = new float[16];
+    private final float[] mCullScratch = new float[2 * 16];
+    private final int[] mVisibleCubes;
+    private int mVisibleCubeCount;
+    private float mCubeRadius;
+    private final float[] mFloorMin = new float[3];
+    private final float[] mFloorMax = new float[3];
+    private boolean mFloorVisible;
+
+    private float mPaintingRadius;
+
+    // The draws of the eye being drawn, in the order to draw them.
+    private final RenderQueue mQueue;
+
+    private float mFloorDepth = 20f;
+
+    private int mDrawCalls;
+    private int mFrameCount;
+
+    // All GL calls go through mGl, which records them when a capture is requested, skips redundant
+    // state changes and then checks for errors as often as mErrorChecking says.
+    private final ErrorCheckingGL mErrorChecking;
+    private final StateCachingGL mStateCache;
+    private final CapturingGL mCapture;
+    private final GLApi mGl;
+
+    private final Tracer mTracer;
+    private final int mTraceNewFrame;
+    private final int mTraceLeftEye;
+    private final int mTraceRightEye;
+    private final int mTraceFinishFrame;
+    private final int mTraceTrigger;
+
+    private final FrameProfiler mFrameProfiler;
+    // mFrameProfiler, unless the fill-rate benchmark is running.
+    private FrameProfiler mProfiler;
+    // Null if the GPU can't be timed.
+    private GpuTimer mGpuTimer;
+
+    private volatile boolean mBenchmarkRequested;
+    // Null unless the fill-rate benchmark is running.
+    private FillRateBenchmark mBenchmark;
+    private final float[] mBenchmarkHeadView = new float[16];
+
+    private final GazeEvaluator mGaze;
+
+    /**
+     * A program built from light_vertex.shader and the handles used to draw with it.
+     */
+    private static final class LightingParams {
+        final ShaderProgram program;
+        final VertexFormat.Bindings vertex;
+        final ShaderProgram.Uniform modelViewProjection;
+        final ShaderProgram.Uniform lightPos;
+        final ShaderProgram.Uniform modelView;
+        final ShaderProgram.Uniform model;
+
+        LightingParams(ShaderProgram program) {
+            this.program = program;
+            vertex = new VertexFormat.Bindings(program);
+            modelViewProjection = program.getUniform("u_MVP");
+            lightPos = program.getUniform("u_LightPos");
+            modelView = program.getUniform("u_MVMatrix");
+            model = program.getUniform("u_Model");
+        }
+    }
+
+    /**
+     * Builds a program from shaders in res/raw, or loads it from the program cache.
+     * @param vertexName The name of the vertex shader in res/raw.
+     * @param vertexDefines Preprocessor lines to put in front of the vertex shader.
+     * @param fragmentName The name of the fragment shader in res/raw.
+     */
+    private ShaderProgram createProgram(String vertexName, String vertexDefines,
+            String fragmentName) {
+        long start = mClock.nanoTime();
+        ShaderProgram program = mPrograms.getProgram(vertexDefines + readShader(vertexName),
+                readShader(fragmentName), ATTRIBUTE_LOCATIONS);
+        mProgramNanos += mClock.nanoTime() - start;
+        return program;
+    }
+
+    /**
+     * Reads a shader from res/raw, once. The sources are kept for when the surface is created
+     * again, since the cache needs them to find the binaries.
+     */
+    private String readShader(String name) {
+        String source = mShaderSources.get(name);
+        if (source == null) {
+            source = mHost.readShader(name);
+            mShaderSources.put(name, source);
+        }
+        return source;
+    }
+
+    /**
+     * @param host Supplies the shaders and takes the GL captures.
+     * @param gl Where to make the GL calls.
+     * @param glErrorPolicy How often to check for GL errors, one of the ErrorCheckingGL policies.
+     * @param simulation The game to draw. The renderer only reads its state and passes on
+     *     triggers; starting and stopping it is up to the caller.
+     * @param clock The clock the simulation runs on, for drawing between its ticks. The frame
+     *     profiler and the fill-rate benchmark time frames with it too.
+     * @param tracer Records the phases of each frame.
+     */
+    public TreasureHuntRenderer(Host host, GLApi gl, int glErrorPolicy, Simulation simulation,
+            Clock clock, Tracer tracer) {
+        mHost = host;
+        mClock = clock;
+        mSimulation = simulation;
+        mFrameProfiler = new FrameProfiler(clock, REFRESH_NANOS, PROFILE_SUMMARY_NANOS);
+        mProfiler = mFrameProfiler;
+
+        mErrorChecking = new ErrorCheckingGL(gl, glErrorPolicy);
+        mStateCache = new StateCachingGL(mErrorChecking);
+        // The capture sees the calls before the cache, so that redundant ones show up in it.
+        mCapture = new CapturingGL(mStateCache);
+        mGl = mCapture;
+
+        mTracer = tracer;
+        mTraceNewFrame = mTracer.intern("onNewFrame");
+        mTraceLeftEye = mTracer.intern("leftEye");
+        mTraceRightEye = mTracer.intern("rightEye");
+        mTraceFinishFrame = mTracer.intern("onFinishFrame");
+        mTraceTrigger = mTracer.intern("trigger");
+
+        mTreasureCount = simulation.getObjectCount();
+        mTransforms = new TransformHierarchy(mTreasureCount + EYE_NODE_COUNT);
+        mGaze = new GazeEvaluator(YAW_LIMIT, PITCH_LIMIT, mTreasureCount);
+        for (int i = 0; i < mTreasureCount; i++) {
+            mTransforms.addNode(TransformHierarchy.NO_PARENT);
+        }
+        mFloorNode = mTransforms.addNode(TransformHierarchy.NO_PARENT);
+        mPaintingNode = mTransforms.addNode(TransformHierarchy.NO_PARENT);
+        mCubeInstances = new float[InstancedBatch.FLOATS_PER_INSTANCE * mTreasureCount];
+        mVisibleCubes = new int[mTreasureCount];
+        // Every cube, the floor and the painting.
+        mQueue = new RenderQueue(mTreasureCount + 2, QUEUE_MAX_DEPTH);
+    }
+
+    /**
+     * Asks for the GL calls of the next frames to be captured. The capture is handed to
+     * Host.onCaptureFinished() when it's done.
+     */
+    public void requestCapture(int frames) {
+        mCapture.requestCapture(frames);
+    }
+
+    /**
+     * Chooses how the floor grid is drawn. Call this from any thread.
+     * @param mode FLOOR_PROCEDURAL or FLOOR_TEXTURE.
+     */
+    public void setFloorMode(int mode) {
+        mFloorMode = mode;
+    }
+
+    /**
+     * Compares the floor modes on a scene of nothing but floor, for about half a minute, then logs
+     * the frame and GPU times of each. The user's view is held looking down until it's done. Call
+     * this from any thread.
+     */
+    public void startFillRateBenchmark() {
+        mBenchmarkRequested = true;
+    }
+
+    /**
+     * Turns adaptive resolution on or off. While it's on, the eyes are drawn offscreen at a scale
+     * that a ResolutionGovernor lowers when frames run over budget, then upscaled into their
+     * viewports. Call this from any thread.
+     */
+    public void setAdaptiveResolution(boolean enabled) {
+        mAdaptiveResolution = enabled;
+    }
+
+    /**
+     * Sets how far ahead of the head tracker to predict the head pose, to make up for the time a
+     * frame takes to reach the display. The tracker already predicts a little ahead of its latest
+     * sensor reading, so this is the time beyond that. Call this from any thread.
+     * @param nanos The prediction horizon, or 0 to draw the tracked pose. Horizons past
+     *     PosePredictor.MAX_HORIZON_NANOS are treated as that.
+     */
+    public void setPredictionHorizon(long nanos) {
+        mPredictionNanos = nanos;
+    }
+
+    /**
+     * Shows a message on the HUD, which fades out after a few seconds. Call this from any thread.
+     */
+    public void show3DToast(String message) {
+        mToast.set(message);
+    }
+
+    /**
+     * Passes a pull of the trigger on to the simulation. Call this from the UI thread.
+     * @return Whether the user was looking at an object.
+     */
+    public boolean onTrigger() {
+        mTracer.instant(mTraceTrigger);
+        int object = mGaze.getLookedAtObject();
+        if (object < 0) {
+            return false;
+        }
+        mSimulation.trigger(object);
+        return true;
+    }
+
+    @Override
+    public void onRendererShutdown() {
+        Log.i(TAG, "onRendererShutdown");
+    }
+
+    @Override
+    public void onSurfaceChanged(int width, int height) {
+        Log.i(TAG, "onSurfaceChanged " + width + "x" + height);
+        // The eyes' viewports have changed with the surface; their targets are allocated again
+        // at the new sizes when they're next needed.
+        releaseEyeTargets();
+    }
+
+    /**
+     * Creates the buffers we use to store information about the 3D world. OpenGL doesn't use Java
+     * arrays, but rather needs data in a format it can understand. Hence we upload the arrays into
+     * vertex buffer objects.
+     * @param config The EGL configuration used when creating the surface.
+     */
+    @Override
+    public void onSurfaceCreated(EGLConfig config) {
+        Log.i(TAG, "onSurfaceCreated");
+        // The context is new, and its programs may reuse the names of the old ones, so none of
+        // the cached state holds, not even the uniform values.
+        mStateCache.reset();
+        mGl.glClearColor(0.1f, 0.1f, 0.1f, 0.5f); // Dark background so text shows up well
+
+        // Upload the geometry into vertex buffer objects once, so that drawing doesn't copy it.
+        // MeshConverter has already indexed it, ordered it for the vertex cache and packed it into
+        // VertexFormat.COMPACT, which takes 16 bytes per vertex, so the mapped assets are uploaded
+        // as they are.
+        MeshFile floor = loadMesh("floor");
+        mFloor = new Mesh(mGl, floor);
+
+        mProgramNanos = 0;
+        mPrograms = new ProgramCache(mGl, mHost.getProgramCacheDir(), mHost.getDecodeExecutor());
+        mFloorParams = new LightingParams(createProgram("light_vertex",
+                VERTEX_FORMAT.getShaderDefines(), "grid_fragment"));
+        mFloorIsFloorParam = mFloorParams.program.getUniform("u_IsFloor");
+        // u_Grid keeps its default of texture unit 0.
+        mFloorTextureParams = new LightingParams(createProgram("light_vertex",
+                VERTEX_FORMAT.getShaderDefines() + "#define GRID_TEXTURE\n",
+                "grid_texture_fragment"));
+        mGridTexture = GridTexture.create(mGl);
+
+        // The cubes are drawn in batches, as many per draw call as the uniform space allows.
+        final int[] maxVertexUniformVectors = new int[1];
+        mGl.glGetIntegerv(GLES20.GL_MAX_VERTEX_UNIFORM_VECTORS, maxVertexUniformVectors, 0);
+        int instancesPerDraw = InstancedBatch.getInstancesPerDraw(maxVertexUniformVectors[0]);
+        ShaderProgram cubeProgram = createProgram("light_vertex", VERTEX_FORMAT.getShaderDefines()
+                + InstancedBatch.getShaderDefines(instancesPerDraw), "simple_fragment");
+        mCubeParams = new LightingParams(cubeProgram);
+        MeshFile cube = loadMesh("cube");
+        mCubes = new InstancedBatch[1 + cube.getLodCount()];
+        float[] cubeErrors = new float[mCubes.length];
+        mCubes[0] = new InstancedBatch(cube, instancesPerDraw, cubeProgram);
+        for (int level = 1; level < mCubes.length; level++) {
+            MeshFile lod = loadMesh(MeshFile.getLodName("cube", level));
+            mCubes[level] = new InstancedBatch(lod, instancesPerDraw, cubeProgram);
+            cubeErrors[level] = lod.getError();
+        }
+
+        createPainting();
+        createUpscale();
+
+        mHud = new HudRenderer(createProgram("hud_vertex", "", "hud_fragment"),
+                mHost.createGlyphAtlas(), mClock);
+        Log.i(TAG, "Programs: " + mPrograms.getLoadedCount() + " loaded from binaries, "
+                + mPrograms.getBuiltCount() + " built from source, in "
+                + mProgramNanos / 1000000 + " ms");
+
+        mGl.glEnable(GLES20.GL_DEPTH_TEST);
+
+        if (GpuTimer.isSupported(mGl)) {
+            mGpuTimer = new GpuTimer(mGl, mProfiler);
+        } else {
+            Log.i(TAG, "GPU timer queries are not supported; only CPU times will be profiled.");
+        }
+        mResolutionGovernor = new ResolutionGovernor(RESOLUTION_MIN_SCALE, 1f,
+                mGpuTimer != null ? RESOLUTION_GPU_BUDGET_NANOS : RESOLUTION_INTERVAL_BUDGET_NANOS);
+
+        float[] local = mTransforms.getLocal();
+        Matrix.setIdentityM(local, mFloorNode * 16);
+        Matrix.translateM(local, mFloorNode * 16, 0, -mFloorDepth, 0); // Floor appears below user
+        mTransforms.markDirty(mFloorNode);
+
+        // Bounds for culling. The cubes spin, so they get a sphere about their origin, through the
+        // corner of their box furthest from it. The floor is only translated, so its box is moved
+        // with it.
+        float[] cubeMin = cube.getBoundsMin();
+        float[] cubeMax = cube.getBoundsMax();
+        mCubeRadius = Matrix.length(Math.max(-cubeMin[0], cubeMax[0]),
+                Math.max(-cubeMin[1], cubeMax[1]), Math.max(-cubeMin[2], cubeMax[2]));
+        mCubeLod = new LodSelector(mCubeRadius, cubeErrors, LOD_TOLERANCE_PIXELS, LOD_HYSTERESIS,
+                mTreasureCount);
+        for (int c = 0; c < 3; c++) {
+            mFloorMin[c] = floor.getBoundsMin()[c] + local[mFloorNode * 16 + 12 + c];
+            mFloorMax[c] = floor.getBoundsMax()[c] + local[mFloorNode * 16 + 12 + c];
+        }
+
+        mErrorChecking.checkNow("onSurfaceCreated");
+    }
+
+    /**
+     * Creates the quad the painting is drawn on and the texture manager that loads its picture.
+     */
+    private void createPainting() {
+        // A new context means the old one, and the textures in it, are gone, so the old manager is
+        // dropped without deleting anything.
+        mTextures = new TextureManager(mGl, mHost, mHost.getDecodeExecutor(), mClock,
+                TEXTURE_BUDGET_BYTES);
+
+        // A triangle strip of x, y, z, u and v, facing +z.
+        float w = PAINTING_WIDTH / 2;
+        float h = PAINTING_HEIGHT / 2;
+        float[] vertices = new float[] {
+            -w, -h, 0f, 0f, 1f,
+            w, -h, 0f, 1f, 1f,
+            -w, h, 0f, 0f, 0f,
+            w, h, 0f, 1f, 0f,
+        };
+        ByteBuffer bb = ByteBuffer.allocateDirect(vertices.length * 4);
+        bb.order(ByteOrder.nativeOrder());
+        FloatBuffer data = bb.asFloatBuffer();
+        data.put(vertices);
+        data.position(0);
+        mPainting = new VertexBuffer(mGl, GLES20.GL_ARRAY_BUFFER, data, vertices.length * 4);
+
+        mPaintingProgram = createProgram("simple_image_vertex", "", "simple_image_fragment");
+        mPaintingPositionParam = mPaintingProgram.getAttribute("a_Position");
+        mPaintingTexCoordParam = mPaintingProgram.getAttribute("a_TexCoordinate");
+        mPaintingMVPParam = mPaintingProgram.getUniform("u_MVP");
+        mPaintingColorParam = mPaintingProgram.getUniform("u_Color");
+        // u_Texture keeps its default of texture unit 0.
+
+        // Turned to face the start.
+        float[] local = mTransforms.getLocal();
+        Matrix.setRotateM(local, mPaintingNode * 16, 180f, 0f, 1f, 0f);
+        local[mPaintingNode * 16 + 14] = PAINTING_DISTANCE;
+        mTransforms.markDirty(mPaintingNode);
+        mPaintingRadius = Matrix.length(w, h, 0f);
+    }
+
+    /**
+     * Creates the quad and program that stretch an EyeTarget over an eye's viewport.
+     */
+    private void createUpscale() {
+        // A new context means the old framebuffers are gone too.
+        mEyeTargets[0] = null;
+        mEyeTargets[1] = null;
+
+        // A triangle strip over the whole viewport, in clip space.
+        float[] vertices = new float[] {-1f, -1f, 1f, -1f, -1f, 1f, 1f, 1f};
+        ByteBuffer bb = ByteBuffer.allocateDirect(vertices.length * 4);
+        bb.order(ByteOrder.nativeOrder());
+        FloatBuffer data = bb.asFloatBuffer();
+        data.put(vertices);
+        data.position(0);
+        mUpscaleQuad = new VertexBuffer(mGl, GLES20.GL_ARRAY_BUFFER, data, vertices.length * 4);
+
+        mUpscaleProgram = createProgram("upscale_vertex", "", "upscale_fragment");
+        mUpscalePositionParam = mUpscaleProgram.getAttribute("a_Position");
+        mUpscaleTexRectParam = mUpscaleProgram.getUniform("u_TexRect");
+        // u_Texture keeps its default of texture unit 0.
+    }
+
+    /**
+     * Maps a mesh written by MeshConverter from assets.
+     * @param name The name of the asset, without its extension.
+     */
+    private MeshFile loadMesh(String name) {
+        MeshFile mesh;
+        try {
+            mesh = MeshFile.map(mHost.mapAsset(name + MeshFile.EXTENSION));
+        } catch (IOException e) {
+            throw new RuntimeException("Can't load mesh " + name, e);
+        }
+        // The programs are built for VERTEX_FORMAT.
+        if (!mesh.getFormat().equals(VERTEX_FORMAT)) {
+            throw new RuntimeException("Mesh " + name + " isn't in the renderer's vertex format.");
+        }
+        Log.i(TAG, "Mesh " + name + ": " + mesh.getVertexCount() + " vertices, "
+                + mesh.getIndexCount() + " indices");
+        return mesh;
+    }
+
+    /**
+     * Prepares OpenGL ES before we draw a frame.
+     * @param headTransform The head transformation in the new frame.
+     */
+    @Override
+    public void onNewFrame(HeadTransform headTransform) {
+        mTracer.begin(mTraceNewFrame);
+        updateBenchmark();
+        mProfiler.beginFrame();
+        // The distortion pass at the end of the last frame changed the GL state.
+        mStateCache.invalidate();
+        mEyeFramebufferKnown = false;
+        mCapture.beginFrame();
+        if (mGpuTimer != null) {
+            mGpuTimer.poll();
+        }
+        updateResolution();
+        mTextures.update(TEXTURE_UPLOAD_NANOS);
+        String toast = mToast.getAndSet(null);
+        if (toast != null) {
+            mHud.setText(toast);
+        }
+        mHud.beginFrame();
+
+        // The distortion pass at the end of each frame disables its own vertex attrib arrays, so
+        // ours are restored once per frame rather than once per eye. All programs share them.
+        mFloorParams.vertex.enable();
+
+        // Build the Model part of the ModelView matrix. The simulation runs at its own rate, so
+        // draw the objects part way between its last two ticks.
+        SceneState state = mSimulation.acquireState();
+        float blend = state.getBlend(mClock.nanoTime());
+        float[] local = mTransforms.getLocal();
+        for (int i = 0; i < mTreasureCount; i++) {
+            int m = i * 16;
+            Matrix.setRotateM(local, m, state.getAngle(i, blend), SceneState.SPIN_AXIS[0],
+                    SceneState.SPIN_AXIS[1], SceneState.SPIN_AXIS[2]);
+            state.getPosition(i, blend, mObjectPosition, 0);
+            local[m + 12] = mObjectPosition[0];
+            local[m + 13] = mObjectPosition[1];
+            local[m + 14] = mObjectPosition[2];
+            mTransforms.markDirty(i);
+            // The cubes have no parents, so this is their position in the world too. Only the
+            // ones that moved cost the gaze evaluator anything.
+            mGaze.setPosition(i, mObjectPosition[0], mObjectPosition[1], mObjectPosition[2]);
+        }
+        mTransforms.update();
+
+        // Build the camera matrix and apply it to the ModelView.
+        Matrix.setLookAtM(mCamera, 0, 0.0f, 0.0f, CAMERA_Z, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
+
+        headTransform.getHeadView(mSensorHeadView, 0);
+        Matrix.invertM(mInverseHeadView, 0, mSensorHeadView, 0);
+        long now = mClock.nanoTime();
+        mPosePredictor.addSample(now, mSensorHeadView, 0);
+        long horizon = mPredictionNanos;
+        mFramePredicting = horizon > 0;
+        if (mFramePredicting) {
+            // Draw the world as it will be seen when the frame is displayed.
+            mPosePredictor.predict(now + horizon, mHeadView, 0);
+            Matrix.multiplyMM(mPredictionDelta, 0, mInverseHeadView, 0, mHeadView, 0);
+        } else {
+            System.arraycopy(mSensorHeadView, 0, mHeadView, 0, 16);
+        }
+
+        // Work out once what the user is looking at, for both eyes and the trigger handler.
+        mLookedAtObject = mGaze.update(mHeadView, mTreasureCount);
+
+        cullScene();
+
+        mProfiler.end(FrameProfiler.PHASE_NEW_FRAME);
+        mTracer.end(mTraceNewFrame);
+    }
+
+    /**
+     * Starts, steps or finishes the fill-rate benchmark, and picks the floor mode and the profiler
+     * for the new frame.
+     */
+    private void updateBenchmark() {
+        if (mBenchmarkRequested && mBenchmark == null) {
+            mBenchmarkRequested = false;
+            mBenchmark = new FillRateBenchmark(mClock, REFRESH_NANOS, FLOOR_MODE_NAMES,
+                    BENCHMARK_WARMUP_FRAMES, BENCHMARK_MEASURED_FRAMES, BENCHMARK_ROUNDS);
+            Matrix.setRotateM(mBenchmarkHeadView, 0, BENCHMARK_PITCH_DEGREES, 1f, 0f, 0f);
+        }
+        mFrameFloorMode = mFloorMode;
+        if (mBenchmark == null) {
+            return;
+        }
+
+        int mode = mBenchmark.beginFrame();
+        if (mode >= 0) {
+            mFrameFloorMode = mode;
+            setProfiler(mBenchmark.getProfiler());
+            return;
+        }
+        Log.i(TAG, "Fill rate:" + mBenchmark.getReport());
+        mBenchmark = null;
+        mFrameProfiler.skipInterval();
+        setProfiler(mFrameProfiler);
+        show3DToast("Fill rate measured");
+    }
+
+    /**
+     * Picks the scale to draw the eyes at in the new frame, from the times of the frames before.
+     * The fill-rate benchmark always draws at full resolution.
+     */
+    private void updateResolution() {
+        mFrameAdaptiveResolution = mAdaptiveResolution && mBenchmark == null;
+        if (!mFrameAdaptiveResolution) {
+            mResolutionGovernor.reset();
+            mResolutionScale = 1f;
+            return;
+        }
+        long frameNanos;
+        if (mGpuTimer != null) {
+            long left = mProfiler.getLastGpu(FrameProfiler.PHASE_LEFT_EYE);
+            long right = mProfiler.getLastGpu(FrameProfiler.PHASE_RIGHT_EYE);
+            frameNanos = left > 0 && right > 0 ? left + right : 0;
+        } else {
+            frameNanos = mProfiler.getLastInterval();
+        }
+        mResolutionScale = mResolutionGovernor.update(frameNanos);
+    }
+
+    private void setProfiler(FrameProfiler profiler) {
+        mProfiler = profiler;
+        if (mGpuTimer != null) {
+            mGpuTimer.setProfiler(profiler);
+        }
+    }
+
+    /**
+     * Tests every object against the union of the frusta of the eyes and keeps the ones that
+     * might be seen by either of them.
+     */
+    private void cullScene() {
+        // Predict this frame's frusta: the eye view is the eye offset applied to the head view.
+        int predicted = 0;
+        for (int eye = 0; eye < 2; eye++) {
+            if (mEyeFrames[eye] != mFrameCount - 1) {
+                continue;
+            }
+            Matrix.multiplyMM(mCullScratch, 0, mEyeOffsets, eye * 16, mHeadView, 0);
+            Matrix.multiplyMM(mCullScratch, 16, mCullScratch, 0, mCamera, 0);
+            Matrix.multiplyMM(mCullScratch, 0, mEyePerspectives, eye * 16, mCullScratch, 16);
+            mPredictedFrusta[predicted++].set(mCullScratch, 0);
+        }
+        if (predicted == 2) {
+            mUnionFrustum.setUnion(mPredictedFrusta[0], mPredictedFrusta[1]);
+        } else if (predicted == 1) {
+            mUnionFrustum.set(mPredictedFrusta[0]);
+        } else {
+            mUnionFrustum.setInfinite();
+        }
+
+        float[] world = mTransforms.getWorld();
+        mVisibleCubeCount = 0;
+        for (int i = 0; i < mTreasureCount; i++) {
+            if (mUnionFrustum.intersectsSphere(world[i * 16 + 12], world[i * 16 + 13],
+                    world[i * 16 + 14], mCubeRadius)) {
+                mVisibleCubes[mVisibleCubeCount++] = i;
+            }
+        }
+        mFloorVisible = mUnionFrustum.intersectsBox(mFloorMin[0], mFloorMin[1], mFloorMin[2],
+                mFloorMax[0], mFloorMax[1], mFloorMax[2]);
+
+        if (mCubeLod.getLevelCount() > 1 && predicted > 0) {
+            selectCubeLevels();
+        }
+    }
+
+    /**
+     * Picks the level of detail of each visible cube. The levels are picked once for both eyes,
+     * from the point between them, so that the eyes never see different meshes.
+     */
+    private void selectCubeLevels() {
+        // The eyes have the same projection, up to their asymmetric frusta. Drawing at a reduced
+        // resolution makes everything fewer pixels, so coarser levels will do.
+        int eye = mEyeFrames[0] == mFrameCount - 1 ? 0 : 1;
+        mCubeLod.setProjection(mEyePerspectives, eye * 16,
+                mEyeViewportHeights[eye] * mResolutionScale);
+        Matrix.multiplyMM(mCullScratch, 0, mHeadView, 0, mCamera, 0);
+        float[] world = mTransforms.getWorld();
+        for (int v = 0; v < mVisibleCubeCount; v++) {
+            int i = mVisibleCubes[v];
+            float x = world[i * 16 + 12];
+            float y = world[i * 16 + 13];
+            float z = world[i * 16 + 14];
+            float depth = -(mCullScratch[2] * x + mCullScratch[6] * y + mCullScratch[10] * z
+                    + mCullScratch[14]);
+            mCubeLod.select(i, depth);
+        }
+    }
+
+    /**
+     * Remembers where an eye is relative to the head, to predict its frustum in the next frame.
+     */
+    private void cacheEye(EyeTransform transform) {
+        int eye = transform.getParams().getEye() == EyeParams.Eye.RIGHT ? 1 : 0;
+        Matrix.multiplyMM(mEyeOffsets, eye * 16, transform.getEyeView(), 0, mInverseHeadView, 0);
+        System.arraycopy(transform.getPerspective(), 0, mEyePerspectives, eye * 16, 16);
+        mEyeViewportHeights[eye] = transform.getParams().getViewport().height;
+        mEyeFrames[eye] = mFrameCount;
+    }
+
+    /**
+     * Draws a frame for an eye. The transformation for that eye (from the camera) is passed in as
+     * a parameter.
+     * @param transform The transformations to apply to render this eye.
+     */
+    @Override
+    public void onDrawEye(EyeTransform transform) {
+        int phase = transform.getParams().getEye() == EyeParams.Eye.RIGHT
+                ? FrameProfiler.PHASE_RIGHT_EYE : FrameProfiler.PHASE_LEFT_EYE;
+        int traceName = phase == FrameProfiler.PHASE_RIGHT_EYE ? mTraceRightEye : mTraceLeftEye;
+        mTracer.begin(traceName);
+        mProfiler.begin(phase);
+        if (mGpuTimer != null) {
+            mGpuTimer.begin(phase);
+        }
+
+        // At full scale there is nothing to gain from the offscreen pass.
+        Viewport viewport = transform.getParams().getViewport();
+        EyeTarget target = mFrameAdaptiveResolution && mResolutionScale < 1f
+                ? getEyeTarget(transform.getParams().getEye(), viewport) : null;
+        if (target != null) {
+            if (!mEyeFramebufferKnown) {
+                // Both eyes draw into the same one, and a glGet can stall the pipeline.
+                mGl.glGetIntegerv(GLES20.GL_FRAMEBUFFER_BINDING, mEyeFramebuffer, 0);
+                mEyeFramebufferKnown = true;
+            }
+            target.bind(mResolutionScale);
+        }
+
+        mGl.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        if (mBenchmark != null) {
+            drawFillRateScene(transform);
+        } else {
+            drawScene(transform);
+        }
+
+        if (target != null) {
+            mGl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mEyeFramebuffer[0]);
+            mGl.glViewport(viewport.x, viewport.y, viewport.width, viewport.height);
+            mGl.glScissor(viewport.x, viewport.y, viewport.width, viewport.height);
+            drawUpscaled(target);
+        }
+        if (mBenchmark == null) {
+            // The HUD goes over everything, at full resolution so that the text stays sharp.
+            mDrawCalls += mHud.draw(transform.getParams().getEye(), transform.getPerspective());
+        }
+
+        if (mGpuTimer != null) {
+            mGpuTimer.end();
+        }
+        mProfiler.end(phase);
+        mTracer.end(traceName);
+    }
+
+    /**
+     * Draws the world for an eye. Everything the eye can see goes into the render queue, which
+     * puts it in order; each draw sets all the state it needs, so the order is free to change.
+     */
+    private void drawScene(EyeTransform transform) {
+        // Apply the eye transformation to the camera. With prediction, the eye keeps its offset
+        // from the head, but the head is where it's predicted to be.
+        if (mFramePredicting) {
+            Matrix.multiplyMM(mCullScratch, 0, transform.getEyeView(), 0, mPredictionDelta, 0);
+            Matrix.multiplyMM(mView, 0, mCullScratch, 0, mCamera, 0);
+        } else {
+            Matrix.multiplyMM(mView, 0, transform.getEyeView(), 0, mCamera, 0);
+        }
+
+        // Set the position of the light
+        Matrix.multiplyMV(mLightPosInEyeSpace, 0, mView, 0, mLightPosInWorldSpace, 0);
+
+        setEyeTransforms(transform.getPerspective());
+        mEyeFrustum.set(mViewProjection, 0);
+        cacheEye(transform);
+
+        float[] world = mTransforms.getWorld();
+        mQueue.clear();
+        for (int v = 0; v < mVisibleCubeCount; v++) {
+            int i = mVisibleCubes[v];
+            float x = world[i * 16 + 12];
+            float y = world[i * 16 + 13];
+            float z = world[i * 16 + 14];
+            if (mEyeFrustum.intersectsSphere(x, y, z, mCubeRadius)) {
+                mQueue.submit(RenderQueue.LAYER_OPAQUE, PROGRAM_CUBES,
+                        MESH_CUBE + mCubeLod.getLevel(i), getViewDepth(x, y, z) - mCubeRadius, i);
+            }
+        }
+        if (mFloorVisible && mEyeFrustum.intersectsBox(mFloorMin[0], mFloorMin[1], mFloorMin[2],
+                mFloorMax[0], mFloorMax[1], mFloorMax[2])) {
+            mQueue.submit(RenderQueue.LAYER_OPAQUE, mFrameFloorMode == FLOOR_TEXTURE
+                    ? PROGRAM_FLOOR_TEXTURE : PROGRAM_FLOOR_PROCEDURAL, MESH_FLOOR,
+                    getFloorDepth(), 0);
+        }
+        // Until its texture has been streamed in there is nothing to draw, rather than a wait.
+        int painting = mPaintingNode * 16;
+        if (mEyeFrustum.intersectsSphere(world[painting + 12], world[painting + 13],
+                world[painting + 14], mPaintingRadius)
+                && mTextures.getTexture(PAINTING_TEXTURE) != 0) {
+            mQueue.submit(RenderQueue.LAYER_OPAQUE, PROGRAM_PAINTING, MESH_PAINTING,
+                    getViewDepth(world[painting + 12], world[painting + 13], world[painting + 14])
+                    - mPaintingRadius, 0);
+        }
+        mQueue.sort();
+
+        // Consecutive cubes of a level are gathered into instances and drawn together.
+        int cubes = 0;
+        int cubeLevel = 0;
+        for (int d = 0; d < mQueue.size(); d++) {
+            long key = mQueue.getKey(d);
+            int mesh = RenderQueue.getMesh(key);
+            if (mesh >= MESH_CUBE) {
+                if (mesh - MESH_CUBE != cubeLevel) {
+                    drawCubes(cubeLevel, cubes);
+                    cubes = 0;
+                    cubeLevel = mesh - MESH_CUBE;
+                }
+                int i = RenderQueue.getItem(key);
+                InstancedBatch.writeInstance(mCubeInstances, cubes++, world, i * 16,
+                        i == mLookedAtObject ? FOUND_COLOR : null);
+                continue;
+            }
+            drawCubes(cubeLevel, cubes);
+            cubes = 0;
+            if (mesh == MESH_FLOOR) {
+                drawFloor();
+            } else {
+                drawPainting();
+            }
+        }
+        drawCubes(cubeLevel, cubes);
+    }
+
+    /**
+     * Works out the view-projection matrix of the eye whose view is in mView, and the model-view
+     * and model-view-projection matrices of the floor and painting.
+     */
+    private void setEyeTransforms(float[] perspective) {
+        Matrix.multiplyMM(mViewProjection, 0, perspective, 0, mView, 0);
+        mTransforms.multiply(mView, 0, mFloorNode, EYE_NODE_COUNT, mEyeModelViews, 0);
+        mTransforms.multiply(mViewProjection, 0, mFloorNode, EYE_NODE_COUNT,
+                mEyeModelViewProjections, 0);
+    }
+
+    /**
+     * @return How far in front of the eye a point in world space is.
+     */
+    private float getViewDepth(float x, float y, float z) {
+        return -(mView[2] * x + mView[6] * y + mView[10] * z + mView[14]);
+    }
+
+    /**
+     * @return How far in front of the eye the nearest corner of the floor's box is.
+     */
+    private float getFloorDepth() {
+        float depth = getViewDepth((mFloorMin[0] + mFloorMax[0]) / 2,
+                (mFloorMin[1] + mFloorMax[1]) / 2, (mFloorMin[2] + mFloorMax[2]) / 2);
+        return depth - (Math.abs(mView[2]) * (mFloorMax[0] - mFloorMin[0])
+                + Math.abs(mView[6]) * (mFloorMax[1] - mFloorMin[1])
+                + Math.abs(mView[10]) * (mFloorMax[2] - mFloorMin[2])) / 2;
+    }
+
+    /**
+     * @param eye The EyeParams.Eye being drawn.
+     * @return The eye's offscreen target, allocated at the size of its viewport, or null if the
+     *     driver won't draw into one, in which case adaptive resolution is turned off.
+     */
+    private EyeTarget getEyeTarget(int eye, Viewport viewport) {
+        int index = eye == EyeParams.Eye.RIGHT ? 1 : 0;
+        EyeTarget target = mEyeTargets[index];
+        if (target != null && target.getWidth() == viewport.width
+                && target.getHeight() == viewport.height) {
+            return target;
+        }
+        if (target != null) {
+            target.release();
+        }
+        target = new EyeTarget(mGl, viewport.width, viewport.height);
+        if (!target.isComplete()) {
+            Log.w(TAG, "Can't draw the eyes offscreen; turning adaptive resolution off.");
+            target.release();
+            target = null;
+            mAdaptiveResolution = false;
+            mFrameAdaptiveResolution = false;
+        }
+        mEyeTargets[index] = target;
+        return target;
+    }
+
+    private void releaseEyeTargets() {
+        for (int i = 0; i < mEyeTargets.length; i++) {
+            if (mEyeTargets[i] != null) {
+                mEyeTargets[i].release();
+                mEyeTargets[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Stretches what was drawn into an eye target over the eye's viewport, which must be bound.
+     */
+    private void drawUpscaled(EyeTarget target) {
+        target.getTexRect(mTexRect);
+        mUpscaleProgram.use();
+        mUpscaleTexRectParam.set(mTexRect[0], mTexRect[1], mTexRect[2], mTexRect[3]);
+        mGl.glActiveTexture(GLES20.GL_TEXTURE0);
+        mGl.glBindTexture(GLES20.GL_TEXTURE_2D, target.getTexture());
+
+        mUpscaleQuad.bind();
+        mUpscalePositionParam.setPointer(2, GLES20.GL_FLOAT, false, 2 * 4, 0);
+        // Every pixel is covered once; there is nothing to test depth against.
+        mGl.glDisable(GLES20.GL_DEPTH_TEST);
+        mGl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        mGl.glEnable(GLES20.GL_DEPTH_TEST);
+        mDrawCalls++;
+    }
+
+    /**
+     * Draws the fill-rate benchmark for an eye: layers of floor that fill the view. The eye keeps
+     * its offset from the head, but the head is held looking down, so the view is all floor
+     * wherever the user looks.
+     */
+    private void drawFillRateScene(EyeTransform transform) {
+        cacheEye(transform);
+        int eye = transform.getParams().getEye() == EyeParams.Eye.RIGHT ? 1 : 0;
+        Matrix.multiplyMM(mCullScratch, 0, mEyeOffsets, eye * 16, mBenchmarkHeadView, 0);
+        Matrix.multiplyMM(mView, 0, mCullScratch, 0, mCamera, 0);
+        Matrix.multiplyMV(mLightPosInEyeSpace, 0, mView, 0, mLightPosInWorldSpace, 0);
+        setEyeTransforms(transform.getPerspective());
+
+        // Without the depth test every layer is shaded in full rather than rejected early.
+        mGl.glDisable(GLES20.GL_DEPTH_TEST);
+        for (int i = 0; i < BENCHMARK_FLOOR_LAYERS; i++) {
+            drawFloor();
+        }
+        mGl.glEnable(GLES20.GL_DEPTH_TEST);
+    }
+
+    @Override
+    public void onFinishFrame(Viewport viewport) {
+        mTracer.begin(mTraceFinishFrame);
+        mProfiler.begin(FrameProfiler.PHASE_FINISH_FRAME);
+        if (++mFrameCount % DRAW_CALL_LOG_INTERVAL == 0) {
+            Log.i(TAG, "Draw calls per frame: " + mDrawCalls + ", objects after culling: "
+                    + mVisibleCubeCount + "/" + mTreasureCount + ", state changes issued: "
+                    + mStateCache.getIssuedCount() + ", elided: " + mStateCache.getElidedCount()
+                    + ", texture bytes: " + mTextures.getResidentBytes() + ", evicted: "
+                    + mTextures.getEvictionCount() + ", resolution scale: " + mResolutionScale);
+        }
+        mStateCache.resetCounters();
+        mDrawCalls = 0;
+        mErrorChecking.endFrame();
+        if (mCapture.endFrame()) {
+            mHost.onCaptureFinished(mCapture.getCapture());
+        }
+        mProfiler.end(FrameProfiler.PHASE_FINISH_FRAME);
+        mTracer.end(mTraceFinishFrame);
+
+        String summary = mProfiler.pollSummary();
+        if (summary != null) {
+            Log.i(TAG, "Frame times: " + summary);
+        }
+    }
+
+    /**
+     * Draw the cubes. Their model matrices and highlight colors have been gathered into instances
+     * in the order to draw them; the view and projection go to the shader, as many cubes per draw
+     * call as fit.
+     * @param level The level of detail to draw them at.
+     * @param count The number of instances written.
+     */
+    public void drawCubes(int level, int count) {
+        if (count == 0) {
+            return;
+        }
+
+        mCubeParams.program.use();
+
+        mCubeParams.lightPos.set(mLightPosInEyeSpace[0], mLightPosInEyeSpace[1],
+                mLightPosInEyeSpace[2]);
+
+        // Set the View and ViewProjection matrices in the shader, used for lighting and position
+        mCubeParams.modelView.setMatrix4(mView);
+        mCubeParams.modelViewProjection.setMatrix4(mViewProjection);
+
+        mDrawCalls += mCubes[level].draw(mCubeParams.vertex, mCubeInstances, count);
+    }
+
+    /**
+     * Draw the floor. This feeds in data for the floor into the shader. Each program has its own
+     * copy of the light position, so it is set here as well. The eye's matrices for it come from
+     * setEyeTransforms().
+     */
+    public void drawFloor() {
+        LightingParams params;
+        if (mFrameFloorMode == FLOOR_TEXTURE) {
+            params = mFloorTextureParams;
+            params.program.use();
+            mGl.glActiveTexture(GLES20.GL_TEXTURE0);
+            mGl.glBindTexture(GLES20.GL_TEXTURE_2D, mGridTexture);
+        } else {
+            params = mFloorParams;
+            params.program.use();
+            // This is the floor!
+            mFloorIsFloorParam.set(1f);
+        }
+        params.lightPos.set(mLightPosInEyeSpace[0], mLightPosInEyeSpace[1],
+                mLightPosInEyeSpace[2]);
+
+        // Set ModelView, MVP, position, normals, and color
+        params.model.setMatrix4(mTransforms.getWorld(), mFloorNode * 16);
+        params.modelView.setMatrix4(mEyeModelViews, EYE_FLOOR * 16);
+        params.modelViewProjection.setMatrix4(mEyeModelViewProjections, EYE_FLOOR * 16);
+        mFloor.bind(params.vertex);
+        mFloor.draw();
+        mDrawCalls++;
+    }
+
+    /**
+     * Draws the painting, once its texture has been streamed in. Until then there is nothing to
+     * draw, rather than a wait for the texture.
+     */
+    public void drawPainting() {
+        int texture = mTextures.getTexture(PAINTING_TEXTURE);
+        if (texture == 0) {
+            return;
+        }
+        mPaintingProgram.use();
+        mPaintingMVPParam.setMatrix4(mEyeModelViewProjections, EYE_PAINTING * 16);
+        mPaintingColorParam.set(1f, 1f, 1f, 1f);
+        mGl.glActiveTexture(GLES20.GL_TEXTURE0);
+        mGl.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+
+        mPainting.bind();
+        mPaintingPositionParam.setPointer(3, GLES20.GL_FLOAT, false, 5 * 4, 0);
+        mPaintingTexCoordParam.setPointer(2, GLES20.GL_FLOAT, false, 5 * 4, 3 * 4);
+        // The other programs have no texture coordinates.
+        mPaintingTexCoordParam.enable();
+        mGl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        mPaintingTexCoordParam.disable();
+        mDrawCalls++;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands the latest of a stream of values from one writer thread to one reader thread without
+ * either of them ever waiting for the other.
+ *
+ * There are three slots. The writer fills the back slot and publishes it, which swaps it with the
+ * middle slot. The reader swaps the middle slot with its front slot when something new has been
+ * published. The swaps are a single atomic exchange, so each thread always owns one slot that the
+ * other can't touch, and values that are published faster than they are read are skipped.
+ *
+ * @param <T> The type of the values. They are reused, never copied.
+ */
+public class TripleBuffer<T> {
+    // Set in mMiddle when the middle slot holds a value the reader hasn't seen.
+    private static final int FRESH = 4;
+    private static final int INDEX_MASK = 3;
+
+    private final Object[] mSlots;
+    // The index of the middle slot, plus FRESH.
+    private final AtomicInteger mMiddle = new AtomicInteger(1);
+    // Only touched by the writer.
+    private int mBack = 0;
+    // Only touched by the reader.
+    private int mFront = 2;
+
+    /**
+     * @param back The slot the writer fills first.
+     * @param middle A spare slot.
+     * @param front The slot the reader sees until the first value is published.
+     */
+    public TripleBuffer(T back, T middle, T front) {
+        mSlots = new Object[] {back, middle, front};
+    }
+
+    /**
+     * @return The slot for the writer to fill. It stays the same until publish() is called.
+     */
+    @SuppressWarnings("unchecked")
+    public T getWriteBuffer() {
+        return (T) mSlots[mBack];
+    }
+
+    /**
+     * Makes the write buffer available to the reader and hands the writer a new one. Only call
+     * this from the writer thread.
+     */
+    public void publish() {
+        mBack = mMiddle.getAndSet(mBack | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * Picks up the most recently published value, if it hasn't been picked up yet. Only call this
+     * from the reader thread.
+     * @return The latest value. It isn't changed by the writer until the next call.
+     */
+    @SuppressWarnings("unchecked")
+    public T acquire() {
+        if ((mMiddle.get() & FRESH) != 0) {
+            mFront = mMiddle.getAndSet(mFront) & INDEX_MASK;
+        }
+        return (T) mSlots[mFront];
+    }
+}
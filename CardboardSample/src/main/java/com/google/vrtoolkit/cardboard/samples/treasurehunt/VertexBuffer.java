@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+
+/**
+ * A buffer object that lives in GPU memory and is filled once, for geometry that never changes.
+ */
+public class VertexBuffer {
+    private final GLApi mGl;
+    private final int mTarget;
+    private final int mSizeInBytes;
+    private int mBuffer;
+
+    /**
+     * Creates a buffer object and uploads data into it.
+     * @param gl Where to make the GL calls.
+     * @param target GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER.
+     * @param data The data to upload, starting at its current position.
+     * @param sizeInBytes The number of bytes to upload.
+     */
+    public VertexBuffer(GLApi gl, int target, Buffer data, int sizeInBytes) {
+        mGl = gl;
+        mTarget = target;
+        mSizeInBytes = sizeInBytes;
+
+        final int[] buffers = new int[1];
+        mGl.glGenBuffers(1, buffers, 0);
+        mBuffer = buffers[0];
+
+        mGl.glBindBuffer(mTarget, mBuffer);
+        mGl.glBufferData(mTarget, sizeInBytes, data, GLES20.GL_STATIC_DRAW);
+        mGl.glBindBuffer(mTarget, 0);
+    }
+
+    public void bind() {
+        mGl.glBindBuffer(mTarget, mBuffer);
+    }
+
+    public int getSizeInBytes() {
+        return mSizeInBytes;
+    }
+
+    /**
+     * Frees the GPU memory. The buffer can't be used afterwards.
+     */
+    public void release() {
+        if (mBuffer != 0) {
+            mGl.glDeleteBuffers(1, new int[] {mBuffer}, 0);
+            mBuffer = 0;
+        }
+    }
+}
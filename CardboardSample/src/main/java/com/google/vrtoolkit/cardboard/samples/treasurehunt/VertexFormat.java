@@ -0,0 +1,245 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.GLES20;
+
+/**
+ * Describes how the position, normal and color of a vertex are packed into a vertex buffer.
+ *
+ * The compact encodings are:
+ * <ul>
+ * <li>Positions as unsigned normalized 16-bit integers relative to the mesh bounds. The shader
+ * maps them back with u_PositionScale and u_PositionOffset. Half floats are also available where
+ * GL_OES_vertex_half_float is supported.</li>
+ * <li>Normals as signed normalized 16-bit integers, or as two of them holding an octahedral
+ * projection of the unit sphere.</li>
+ * <li>Colors as unsigned normalized bytes.</li>
+ * </ul>
+ * Every attribute starts on a four byte boundary. MeshPacker encodes meshes into a format offline.
+ */
+public final class VertexFormat {
+    public static final int POSITION_FLOAT = 0;
+    public static final int POSITION_HALF_FLOAT = 1;
+    public static final int POSITION_UNORM16 = 2;
+
+    public static final int NORMAL_FLOAT = 0;
+    public static final int NORMAL_SNORM16 = 1;
+    public static final int NORMAL_OCTAHEDRAL = 2;
+
+    public static final int COLOR_FLOAT = 0;
+    public static final int COLOR_UNORM8 = 1;
+
+    // The attributes of a vertex, in the order they are laid out.
+    public static final int ATTRIBUTE_POSITION = 0;
+    public static final int ATTRIBUTE_NORMAL = 1;
+    public static final int ATTRIBUTE_COLOR = 2;
+    public static final int ATTRIBUTE_COUNT = 3;
+
+    /** The layout the sample uses: 16 bytes per vertex instead of 40. */
+    public static final VertexFormat COMPACT =
+            new VertexFormat(POSITION_UNORM16, NORMAL_OCTAHEDRAL, COLOR_UNORM8);
+
+    /** Vertex attribute type from GL_OES_vertex_half_float. */
+    public static final int GL_HALF_FLOAT_OES = 0x8D61;
+
+    private final int mPositionEncoding;
+    private final int mNormalEncoding;
+    private final int mColorEncoding;
+
+    private final int mPositionOffset;
+    private final int mNormalOffset;
+    private final int mColorOffset;
+    private final int mStride;
+
+    /**
+     * The attribute and uniform handles a program exposes for meshes in this format.
+     */
+    public static final class Bindings {
+        public final ShaderProgram.Attribute position;
+        public final ShaderProgram.Attribute normal;
+        public final ShaderProgram.Attribute color;
+        public final ShaderProgram.Uniform positionScale;
+        public final ShaderProgram.Uniform positionOffset;
+
+        public Bindings(ShaderProgram program) {
+            position = program.getAttribute("a_Position");
+            normal = program.getAttribute("a_Normal");
+            color = program.getAttribute("a_Color");
+            positionScale = program.getUniform("u_PositionScale");
+            positionOffset = program.getUniform("u_PositionOffset");
+        }
+
+        public void enable() {
+            position.enable();
+            normal.enable();
+            color.enable();
+        }
+    }
+
+    public VertexFormat(int positionEncoding, int normalEncoding, int colorEncoding) {
+        mPositionEncoding = positionEncoding;
+        mNormalEncoding = normalEncoding;
+        mColorEncoding = colorEncoding;
+
+        mPositionOffset = 0;
+        mNormalOffset = mPositionOffset + positionBytes(positionEncoding);
+        mColorOffset = mNormalOffset + normalBytes(normalEncoding);
+        mStride = mColorOffset + colorBytes(colorEncoding);
+    }
+
+    private static int positionBytes(int encoding) {
+        // Three 16-bit values are padded to four to keep the next attribute aligned.
+        return encoding == POSITION_FLOAT ? 12 : 8;
+    }
+
+    private static int normalBytes(int encoding) {
+        switch (encoding) {
+            case NORMAL_FLOAT:
+                return 12;
+            case NORMAL_SNORM16:
+                return 8;
+            default:
+                return 4;
+        }
+    }
+
+    private static int colorBytes(int encoding) {
+        return encoding == COLOR_FLOAT ? 16 : 4;
+    }
+
+    /**
+     * @return The number of bytes per vertex.
+     */
+    public int getStride() {
+        return mStride;
+    }
+
+    public int getPositionEncoding() {
+        return mPositionEncoding;
+    }
+
+    public int getNormalEncoding() {
+        return mNormalEncoding;
+    }
+
+    public int getColorEncoding() {
+        return mColorEncoding;
+    }
+
+    /**
+     * @return Preprocessor lines to put in front of the vertex shader source so that it decodes
+     *     this format.
+     */
+    public String getShaderDefines() {
+        return mNormalEncoding == NORMAL_OCTAHEDRAL ? "#define NORMAL_OCTAHEDRAL\n" : "";
+    }
+
+    /**
+     * @param attribute One of the ATTRIBUTE_ constants.
+     * @return The number of components glVertexAttribPointer reads for the attribute.
+     */
+    public int getComponentCount(int attribute) {
+        switch (attribute) {
+            case ATTRIBUTE_POSITION:
+                return 3;
+            case ATTRIBUTE_NORMAL:
+                return mNormalEncoding == NORMAL_OCTAHEDRAL ? 2 : 3;
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * @param attribute One of the ATTRIBUTE_ constants.
+     * @return The GL type of the attribute's components.
+     */
+    public int getComponentType(int attribute) {
+        switch (attribute) {
+            case ATTRIBUTE_POSITION:
+                switch (mPositionEncoding) {
+                    case POSITION_FLOAT:
+                        return GLES20.GL_FLOAT;
+                    case POSITION_HALF_FLOAT:
+                        return GL_HALF_FLOAT_OES;
+                    default:
+                        return GLES20.GL_UNSIGNED_SHORT;
+                }
+            case ATTRIBUTE_NORMAL:
+                return mNormalEncoding == NORMAL_FLOAT ? GLES20.GL_FLOAT : GLES20.GL_SHORT;
+            default:
+                return mColorEncoding == COLOR_FLOAT ? GLES20.GL_FLOAT : GLES20.GL_UNSIGNED_BYTE;
+        }
+    }
+
+    /**
+     * @param attribute One of the ATTRIBUTE_ constants.
+     * @return Whether integer components are mapped to [0, 1] or [-1, 1].
+     */
+    public boolean isNormalized(int attribute) {
+        return getComponentType(attribute) != GLES20.GL_FLOAT
+                && getComponentType(attribute) != GL_HALF_FLOAT_OES;
+    }
+
+    /**
+     * @param attribute One of the ATTRIBUTE_ constants.
+     * @return The byte offset of the attribute inside a vertex.
+     */
+    public int getOffset(int attribute) {
+        switch (attribute) {
+            case ATTRIBUTE_POSITION:
+                return mPositionOffset;
+            case ATTRIBUTE_NORMAL:
+                return mNormalOffset;
+            default:
+                return mColorOffset;
+        }
+    }
+
+    /**
+     * Points the attributes of a program at a bound vertex buffer in this format.
+     * @param bindings The handles of the program.
+     * @param baseOffset The byte offset of the first vertex inside the buffer.
+     */
+    public void setAttributePointers(Bindings bindings, int baseOffset) {
+        setAttributePointer(bindings.position, ATTRIBUTE_POSITION, baseOffset);
+        setAttributePointer(bindings.normal, ATTRIBUTE_NORMAL, baseOffset);
+        setAttributePointer(bindings.color, ATTRIBUTE_COLOR, baseOffset);
+    }
+
+    private void setAttributePointer(ShaderProgram.Attribute handle, int attribute,
+            int baseOffset) {
+        handle.setPointer(getComponentCount(attribute), getComponentType(attribute),
+                isNormalized(attribute), mStride, baseOffset + getOffset(attribute));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof VertexFormat)) {
+            return false;
+        }
+        VertexFormat other = (VertexFormat) o;
+        return mPositionEncoding == other.mPositionEncoding
+                && mNormalEncoding == other.mNormalEncoding
+                && mColorEncoding == other.mColorEncoding;
+    }
+
+    @Override
+    public int hashCode() {
+        return (mPositionEncoding * 31 + mNormalEncoding) * 31 + mColorEncoding;
+    }
+}
@@ -0,0 +1,11 @@
+precision mediump float;
+uniform sampler2D u_Grid;
+varying vec4 v_Color;
+varying vec2 v_GridCoord;
+varying float v_GridFade;
+
+void main() {
+    // The lines fade to the floor color with distance, as in grid_fragment.shader.
+    float line = texture2D(u_Grid, v_GridCoord).r * clamp(v_GridFade, 0.0, 1.0);
+    gl_FragColor = mix(v_Color, vec4(1.0, 1.0, 1.0, 1.0), line);
+}
\ No newline at end of file
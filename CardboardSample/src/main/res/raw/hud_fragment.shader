@@ -0,0 +1,10 @@
+precision mediump float;
+
+uniform vec4 u_Color;
+uniform sampler2D u_Texture;    // The glyph atlas, coverage in alpha.
+varying vec2 v_TexCoordinate;
+
+void main() {
+  // u_Color.a fades the whole HUD.
+  gl_FragColor = vec4(u_Color.rgb, u_Color.a * texture2D(u_Texture, v_TexCoordinate).a);
+}
@@ -0,0 +1,10 @@
+uniform vec4 u_Transform;       // x and y scale, then x and y offset.
+attribute vec4 a_Position;
+attribute vec2 a_TexCoordinate;
+varying vec2 v_TexCoordinate;
+
+void main() {
+  // The text is laid out in lines; place it on the eye's half of the screen.
+  gl_Position = vec4(a_Position.xy * u_Transform.xy + u_Transform.zw, 0.0, 1.0);
+  v_TexCoordinate = a_TexCoordinate;
+}
@@ -3,26 +3,82 @@ uniform mat4 u_MVMatrix;
 uniform mat4 u_Model;
 uniform vec3 u_LightPos;
 uniform float u_IsFloor;
+uniform vec3 u_PositionScale;
+uniform vec3 u_PositionOffset;
 attribute vec4 a_Position;
 attribute vec4 a_Color;
+#ifdef NORMAL_OCTAHEDRAL
+attribute vec2 a_Normal;
+#else
 attribute vec3 a_Normal;
+#endif
+#ifdef INSTANCED
+// Per instance: the first three rows of its model matrix, then its highlight color.
+uniform vec4 u_Instances[INSTANCE_VECTORS];
+attribute float a_InstanceIndex;
+#endif
 varying vec4 v_Color;
+#ifdef GRID_TEXTURE
+varying vec2 v_GridCoord;
+varying float v_GridFade;
+#else
 varying vec3 v_Grid;
 varying float v_isFloor;
+#endif
+
+vec3 decodeNormal()
+{
+#ifdef NORMAL_OCTAHEDRAL
+   // Unfold the octahedral projection back onto the unit sphere.
+   vec3 n = vec3(a_Normal, 1.0 - abs(a_Normal.x) - abs(a_Normal.y));
+   if (n.z < 0.0) {
+      n.xy = (1.0 - abs(n.yx)) * (step(0.0, n.xy) * 2.0 - 1.0);
+   }
+   return normalize(n);
+#else
+   return a_Normal;
+#endif
+}
 
 void main()
 {
-   vec3 modelVertex = vec3(u_Model * a_Position);
-   v_Grid = modelVertex;
+   // Positions arrive quantized to the mesh bounds.
+   vec4 position = vec4(a_Position.xyz * u_PositionScale + u_PositionOffset, 1.0);
+   vec3 normal = decodeNormal();
+   vec4 color = a_Color;
 
-   vec3 modelViewVertex = vec3(u_MVMatrix * a_Position);
-   vec3 modelViewNormal = vec3(u_MVMatrix * vec4(a_Normal, 0.0));
+#ifdef INSTANCED
+   // The model matrix comes from the instance data, so u_MVMatrix and u_MVP only hold the view
+   // and view-projection matrices.
+   int base = int(a_InstanceIndex + 0.5) * 4;
+   vec4 row0 = u_Instances[base];
+   vec4 row1 = u_Instances[base + 1];
+   vec4 row2 = u_Instances[base + 2];
+   vec4 highlight = u_Instances[base + 3];
+   position = vec4(dot(row0, position), dot(row1, position), dot(row2, position), 1.0);
+   normal = vec3(dot(row0.xyz, normal), dot(row1.xyz, normal), dot(row2.xyz, normal));
+   color = vec4(mix(a_Color.rgb, highlight.rgb, highlight.a), a_Color.a);
+   vec3 modelVertex = position.xyz;
+#else
+   vec3 modelVertex = vec3(u_Model * position);
+#endif
+   vec3 modelViewVertex = vec3(u_MVMatrix * position);
+   vec3 modelViewNormal = vec3(u_MVMatrix * vec4(normal, 0.0));
    float distance = length(u_LightPos - modelViewVertex);
    vec3 lightVector = normalize(u_LightPos - modelViewVertex);
    float diffuse = max(dot(modelViewNormal, lightVector), 0.5   );
    diffuse = diffuse * (1.0 / (1.0 + (0.00001 * distance * distance)));
-   v_Color = a_Color * diffuse;
-   gl_Position = u_MVP * a_Position;
+   v_Color = color * diffuse;
+   gl_Position = u_MVP * position;
 
+#ifdef GRID_TEXTURE
+   // One repeat of the grid texture per 10 units. The fade uses the same depth as
+   // grid_fragment.shader, gl_FragCoord.z / gl_FragCoord.w, which is linear in the position and
+   // so interpolates exactly; only the clamp has to wait for the fragment.
+   v_GridCoord = modelVertex.xz * 0.1;
+   v_GridFade = (90.0 - 0.5 * (gl_Position.z + gl_Position.w)) / 90.0;
+#else
+   v_Grid = modelVertex;
    v_isFloor = u_IsFloor;
+#endif
 }
\ No newline at end of file
@@ -0,0 +1,9 @@
+precision mediump float;
+
+uniform sampler2D u_Texture;    // The eye, drawn at a lower resolution.
+varying vec2 v_TexCoordinate;
+
+void main() {
+  // Linear filtering does the upscale.
+  gl_FragColor = texture2D(u_Texture, v_TexCoordinate);
+}
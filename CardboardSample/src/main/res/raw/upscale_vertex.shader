@@ -0,0 +1,10 @@
+uniform vec4 u_TexRect;         // x and y offset, then x and y extent, in texture coordinates.
+attribute vec4 a_Position;      // Corners of the viewport, in clip space.
+varying vec2 v_TexCoordinate;
+
+void main() {
+  gl_Position = a_Position;
+
+  // Only part of the eye target was drawn; stretch that part over the viewport.
+  v_TexCoordinate = u_TexRect.xy + (a_Position.xy * 0.5 + 0.5) * u_TexRect.zw;
+}
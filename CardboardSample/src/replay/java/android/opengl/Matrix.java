@@ -0,0 +1,237 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.opengl;
+
+/**
+ * The part of android.opengl.Matrix that the renderer and the Cardboard library use, in plain
+ * Java, for replaying on a desktop JVM. On Android the framework class is used instead, and some
+ * of its methods are native, so the stubs in android.jar can't stand in for it.
+ *
+ * Matrices are column-major float arrays, as in the framework class.
+ */
+public class Matrix {
+    private Matrix() {
+    }
+
+    public static void setIdentityM(float[] sm, int smOffset) {
+        for (int i = 0; i < 16; i++) {
+            sm[smOffset + i] = i % 5 == 0 ? 1f : 0f;
+        }
+    }
+
+    /**
+     * Multiplies two 4x4 matrices. The result must not overlap either of them.
+     */
+    public static void multiplyMM(float[] result, int resultOffset, float[] lhs, int lhsOffset,
+            float[] rhs, int rhsOffset) {
+        for (int col = 0; col < 4; col++) {
+            float x = rhs[rhsOffset + col * 4];
+            float y = rhs[rhsOffset + col * 4 + 1];
+            float z = rhs[rhsOffset + col * 4 + 2];
+            float w = rhs[rhsOffset + col * 4 + 3];
+            for (int row = 0; row < 4; row++) {
+                result[resultOffset + col * 4 + row] = lhs[lhsOffset + row] * x
+                        + lhs[lhsOffset + 4 + row] * y + lhs[lhsOffset + 8 + row] * z
+                        + lhs[lhsOffset + 12 + row] * w;
+            }
+        }
+    }
+
+    /**
+     * Multiplies a 4-vector by a 4x4 matrix. The result must not overlap either of them.
+     */
+    public static void multiplyMV(float[] resultVec, int resultVecOffset, float[] lhsMat,
+            int lhsMatOffset, float[] rhsVec, int rhsVecOffset) {
+        float x = rhsVec[rhsVecOffset];
+        float y = rhsVec[rhsVecOffset + 1];
+        float z = rhsVec[rhsVecOffset + 2];
+        float w = rhsVec[rhsVecOffset + 3];
+        for (int row = 0; row < 4; row++) {
+            resultVec[resultVecOffset + row] = lhsMat[lhsMatOffset + row] * x
+                    + lhsMat[lhsMatOffset + 4 + row] * y + lhsMat[lhsMatOffset + 8 + row] * z
+                    + lhsMat[lhsMatOffset + 12 + row] * w;
+        }
+    }
+
+    /**
+     * Inverts a 4x4 matrix by cofactors.
+     * @return False if the matrix can't be inverted, in which case mInv is unchanged.
+     */
+    public static boolean invertM(float[] mInv, int mInvOffset, float[] m, int mOffset) {
+        // Copied into locals so that mInv may be m, and nothing is allocated.
+        float a0 = m[mOffset], a1 = m[mOffset + 1];
+        float a2 = m[mOffset + 2], a3 = m[mOffset + 3];
+        float a4 = m[mOffset + 4], a5 = m[mOffset + 5];
+        float a6 = m[mOffset + 6], a7 = m[mOffset + 7];
+        float a8 = m[mOffset + 8], a9 = m[mOffset + 9];
+        float a10 = m[mOffset + 10], a11 = m[mOffset + 11];
+        float a12 = m[mOffset + 12], a13 = m[mOffset + 13];
+        float a14 = m[mOffset + 14], a15 = m[mOffset + 15];
+        float i0 = a5 * a10 * a15 - a5 * a11 * a14 - a9 * a6 * a15
+                + a9 * a7 * a14 + a13 * a6 * a11 - a13 * a7 * a10;
+        float i4 = -a4 * a10 * a15 + a4 * a11 * a14 + a8 * a6 * a15
+                - a8 * a7 * a14 - a12 * a6 * a11 + a12 * a7 * a10;
+        float i8 = a4 * a9 * a15 - a4 * a11 * a13 - a8 * a5 * a15
+                + a8 * a7 * a13 + a12 * a5 * a11 - a12 * a7 * a9;
+        float i12 = -a4 * a9 * a14 + a4 * a10 * a13 + a8 * a5 * a14
+                - a8 * a6 * a13 - a12 * a5 * a10 + a12 * a6 * a9;
+        float i1 = -a1 * a10 * a15 + a1 * a11 * a14 + a9 * a2 * a15
+                - a9 * a3 * a14 - a13 * a2 * a11 + a13 * a3 * a10;
+        float i5 = a0 * a10 * a15 - a0 * a11 * a14 - a8 * a2 * a15
+                + a8 * a3 * a14 + a12 * a2 * a11 - a12 * a3 * a10;
+        float i9 = -a0 * a9 * a15 + a0 * a11 * a13 + a8 * a1 * a15
+                - a8 * a3 * a13 - a12 * a1 * a11 + a12 * a3 * a9;
+        float i13 = a0 * a9 * a14 - a0 * a10 * a13 - a8 * a1 * a14
+                + a8 * a2 * a13 + a12 * a1 * a10 - a12 * a2 * a9;
+        float i2 = a1 * a6 * a15 - a1 * a7 * a14 - a5 * a2 * a15
+                + a5 * a3 * a14 + a13 * a2 * a7 - a13 * a3 * a6;
+        float i6 = -a0 * a6 * a15 + a0 * a7 * a14 + a4 * a2 * a15
+                - a4 * a3 * a14 - a12 * a2 * a7 + a12 * a3 * a6;
+        float i10 = a0 * a5 * a15 - a0 * a7 * a13 - a4 * a1 * a15
+                + a4 * a3 * a13 + a12 * a1 * a7 - a12 * a3 * a5;
+        float i14 = -a0 * a5 * a14 + a0 * a6 * a13 + a4 * a1 * a14
+                - a4 * a2 * a13 - a12 * a1 * a6 + a12 * a2 * a5;
+        float i3 = -a1 * a6 * a11 + a1 * a7 * a10 + a5 * a2 * a11
+                - a5 * a3 * a10 - a9 * a2 * a7 + a9 * a3 * a6;
+        float i7 = a0 * a6 * a11 - a0 * a7 * a10 - a4 * a2 * a11
+                + a4 * a3 * a10 + a8 * a2 * a7 - a8 * a3 * a6;
+        float i11 = -a0 * a5 * a11 + a0 * a7 * a9 + a4 * a1 * a11
+                - a4 * a3 * a9 - a8 * a1 * a7 + a8 * a3 * a5;
+        float i15 = a0 * a5 * a10 - a0 * a6 * a9 - a4 * a1 * a10
+                + a4 * a2 * a9 + a8 * a1 * a6 - a8 * a2 * a5;
+
+        float det = a0 * i0 + a1 * i4 + a2 * i8 + a3 * i12;
+        if (det == 0f) {
+            return false;
+        }
+        mInv[mInvOffset] = i0 / det;
+        mInv[mInvOffset + 1] = i1 / det;
+        mInv[mInvOffset + 2] = i2 / det;
+        mInv[mInvOffset + 3] = i3 / det;
+        mInv[mInvOffset + 4] = i4 / det;
+        mInv[mInvOffset + 5] = i5 / det;
+        mInv[mInvOffset + 6] = i6 / det;
+        mInv[mInvOffset + 7] = i7 / det;
+        mInv[mInvOffset + 8] = i8 / det;
+        mInv[mInvOffset + 9] = i9 / det;
+        mInv[mInvOffset + 10] = i10 / det;
+        mInv[mInvOffset + 11] = i11 / det;
+        mInv[mInvOffset + 12] = i12 / det;
+        mInv[mInvOffset + 13] = i13 / det;
+        mInv[mInvOffset + 14] = i14 / det;
+        mInv[mInvOffset + 15] = i15 / det;
+        return true;
+    }
+
+    public static void translateM(float[] m, int mOffset, float x, float y, float z) {
+        for (int i = 0; i < 4; i++) {
+            m[mOffset + 12 + i] += m[mOffset + i] * x + m[mOffset + 4 + i] * y
+                    + m[mOffset + 8 + i] * z;
+        }
+    }
+
+    /**
+     * Sets a rotation by an angle in degrees about an axis.
+     */
+    public static void setRotateM(float[] rm, int rmOffset, float a, float x, float y, float z) {
+        setIdentityM(rm, rmOffset);
+        float length = length(x, y, z);
+        if (length == 0f) {
+            return;
+        }
+        x /= length;
+        y /= length;
+        z /= length;
+        double radians = Math.toRadians(a);
+        float s = (float) Math.sin(radians);
+        float c = (float) Math.cos(radians);
+        float nc = 1f - c;
+        rm[rmOffset] = x * x * nc + c;
+        rm[rmOffset + 1] = y * x * nc + z * s;
+        rm[rmOffset + 2] = x * z * nc - y * s;
+        rm[rmOffset + 4] = x * y * nc - z * s;
+        rm[rmOffset + 5] = y * y * nc + c;
+        rm[rmOffset + 6] = y * z * nc + x * s;
+        rm[rmOffset + 8] = x * z * nc + y * s;
+        rm[rmOffset + 9] = y * z * nc - x * s;
+        rm[rmOffset + 10] = z * z * nc + c;
+    }
+
+    public static void setLookAtM(float[] rm, int rmOffset, float eyeX, float eyeY, float eyeZ,
+            float centerX, float centerY, float centerZ, float upX, float upY, float upZ) {
+        float fx = centerX - eyeX;
+        float fy = centerY - eyeY;
+        float fz = centerZ - eyeZ;
+        float rlf = 1f / length(fx, fy, fz);
+        fx *= rlf;
+        fy *= rlf;
+        fz *= rlf;
+
+        // s = f x up
+        float sx = fy * upZ - fz * upY;
+        float sy = fz * upX - fx * upZ;
+        float sz = fx * upY - fy * upX;
+        float rls = 1f / length(sx, sy, sz);
+        sx *= rls;
+        sy *= rls;
+        sz *= rls;
+
+        // u = s x f
+        float ux = sy * fz - sz * fy;
+        float uy = sz * fx - sx * fz;
+        float uz = sx * fy - sy * fx;
+
+        rm[rmOffset] = sx;
+        rm[rmOffset + 1] = ux;
+        rm[rmOffset + 2] = -fx;
+        rm[rmOffset + 3] = 0f;
+        rm[rmOffset + 4] = sy;
+        rm[rmOffset + 5] = uy;
+        rm[rmOffset + 6] = -fy;
+        rm[rmOffset + 7] = 0f;
+        rm[rmOffset + 8] = sz;
+        rm[rmOffset + 9] = uz;
+        rm[rmOffset + 10] = -fz;
+        rm[rmOffset + 11] = 0f;
+        rm[rmOffset + 12] = 0f;
+        rm[rmOffset + 13] = 0f;
+        rm[rmOffset + 14] = 0f;
+        rm[rmOffset + 15] = 1f;
+        translateM(rm, rmOffset, -eyeX, -eyeY, -eyeZ);
+    }
+
+    public static void frustumM(float[] m, int offset, float left, float right, float bottom,
+            float top, float near, float far) {
+        float rWidth = 1f / (right - left);
+        float rHeight = 1f / (top - bottom);
+        float rDepth = 1f / (near - far);
+        for (int i = 0; i < 16; i++) {
+            m[offset + i] = 0f;
+        }
+        m[offset] = 2f * near * rWidth;
+        m[offset + 5] = 2f * near * rHeight;
+        m[offset + 8] = (right + left) * rWidth;
+        m[offset + 9] = (top + bottom) * rHeight;
+        m[offset + 10] = (far + near) * rDepth;
+        m[offset + 11] = -1f;
+        m[offset + 14] = 2f * far * near * rDepth;
+    }
+
+    public static float length(float x, float y, float z) {
+        return (float) Math.sqrt(x * x + y * y + z * z);
+    }
+}
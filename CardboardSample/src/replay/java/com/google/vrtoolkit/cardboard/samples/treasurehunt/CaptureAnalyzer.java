@@ -0,0 +1,435 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Turns captures written by CapturingGL into per-frame statistics, and compares two captures.
+ *
+ * This runs on a desktop JVM, not on the device. From the CardboardSample directory, compiled as
+ * for ReplayBenchmark:
+ * <pre>
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.CaptureAnalyzer capture.bin
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.CaptureAnalyzer \
+ *     diff before.bin after.bin [threshold]
+ * </pre>
+ * The diff exits with status 1 if any average in the second capture is worse than in the first
+ * by more than the threshold, 5% by default.
+ *
+ * A call counts as redundant if it sets state to what it already was. Cardboard's distortion pass
+ * changes the state between frames, so only uniform values are carried from one frame to the
+ * next. Vertex bytes are an upper bound: indexed draws are counted as fetching every index, as if
+ * there were no vertex cache. Texture bytes only count glTexSubImage2D, since the pixels of
+ * glTexImage2D aren't captured and TextureManager only allocates with it.
+ */
+public class CaptureAnalyzer {
+    static final int METRIC_CALLS = 0;
+    static final int METRIC_DRAW_CALLS = 1;
+    static final int METRIC_STATE_CHANGES = 2;
+    static final int METRIC_REDUNDANT_CALLS = 3;
+    static final int METRIC_UNIFORM_UPLOADS = 4;
+    static final int METRIC_UNIFORM_BYTES = 5;
+    static final int METRIC_BUFFER_BYTES = 6;
+    static final int METRIC_VERTEX_BYTES = 7;
+    static final int METRIC_INDEX_BYTES = 8;
+    static final int METRIC_TEXTURE_BYTES = 9;
+    static final int METRIC_COUNT = 10;
+    static final String[] METRIC_NAMES = new String[] {"calls", "drawCalls", "stateChanges",
+            "redundantCalls", "uniformUploads", "uniformBytes", "bufferBytes", "vertexBytes",
+            "indexBytes", "textureBytes"};
+
+    private static final double DEFAULT_THRESHOLD = 0.05;
+
+    // GL enums, so that this doesn't need the Android classes.
+    private static final int GL_TEXTURE0 = 0x84C0;
+    private static final int GL_BYTE = 0x1400;
+    private static final int GL_UNSIGNED_BYTE = 0x1401;
+    private static final int GL_SHORT = 0x1402;
+    private static final int GL_UNSIGNED_SHORT = 0x1403;
+    private static final int GL_UNSIGNED_INT = 0x1405;
+    private static final int GL_HALF_FLOAT_OES = 0x8D61;
+    private static final int GL_ALPHA = 0x1906;
+    private static final int GL_RGB = 0x1907;
+    private static final int GL_RGBA = 0x1908;
+    private static final int GL_LUMINANCE = 0x1909;
+    private static final int GL_LUMINANCE_ALPHA = 0x190A;
+
+    /**
+     * The statistics of one frame.
+     */
+    static final class Frame {
+        final long[] metrics = new long[METRIC_COUNT];
+        final Map<String, Integer> callCounts = new TreeMap<String, Integer>();
+    }
+
+    /**
+     * One decoded call. Ints and booleans are in ints, in order, and so on for each type.
+     */
+    private static final class Call {
+        String name;
+        final List<Integer> ints = new ArrayList<Integer>();
+        final List<Float> floats = new ArrayList<Float>();
+        final List<int[]> intArrays = new ArrayList<int[]>();
+        final List<float[]> floatArrays = new ArrayList<float[]>();
+    }
+
+    // The state of the context as far as the capture shows, for spotting redundant calls.
+    private int mProgram = -1;
+    private final Map<Integer, Integer> mBuffers = new HashMap<Integer, Integer>();
+    private final Map<Integer, Boolean> mCapabilities = new HashMap<Integer, Boolean>();
+    private final Map<Integer, Boolean> mArrays = new HashMap<Integer, Boolean>();
+    private final Map<Integer, Integer> mAttribBytes = new HashMap<Integer, Integer>();
+    private final Map<Integer, Integer> mTextures = new HashMap<Integer, Integer>();
+    private int mActiveTexture = -1;
+    private long mBlendFunc = -1;
+    private final Map<String, float[]> mUniforms = new HashMap<String, float[]>();
+
+    /**
+     * Reads a capture.
+     * @return The statistics of each frame in it.
+     */
+    public List<Frame> analyze(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        if (in.readInt() != CapturingGL.MAGIC) {
+            throw new IOException("Not a GL capture.");
+        }
+        int version = in.readInt();
+        if (version != CapturingGL.VERSION) {
+            throw new IOException("Unsupported capture version " + version);
+        }
+        int opCount = in.readInt();
+        String[] names = new String[opCount];
+        String[] types = new String[opCount];
+        for (int i = 0; i < opCount; i++) {
+            names[i] = readString(in);
+            types[i] = readString(in);
+        }
+
+        List<Frame> frames = new ArrayList<Frame>();
+        Frame frame = new Frame();
+        startFrame();
+        while (true) {
+            int op;
+            try {
+                op = in.readShort();
+            } catch (EOFException e) {
+                break;
+            }
+            if (op == CapturingGL.OP_END_FRAME) {
+                frames.add(frame);
+                frame = new Frame();
+                startFrame();
+                continue;
+            }
+            if (op < 0 || op >= opCount) {
+                throw new IOException("Bad opcode " + op);
+            }
+            Call call = readCall(in, names[op], types[op]);
+            count(frame, call);
+        }
+        return frames;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static Call readCall(DataInputStream in, String name, String types)
+            throws IOException {
+        Call call = new Call();
+        call.name = name;
+        for (int i = 0; i < types.length(); i++) {
+            switch (types.charAt(i)) {
+                case 'i':
+                    call.ints.add(in.readInt());
+                    break;
+                case 'z':
+                    call.ints.add(in.readBoolean() ? 1 : 0);
+                    break;
+                case 'f':
+                    call.floats.add(in.readFloat());
+                    break;
+                case 's':
+                    readString(in);
+                    break;
+                case 'I': {
+                    int[] values = new int[in.readInt()];
+                    for (int j = 0; j < values.length; j++) {
+                        values[j] = in.readInt();
+                    }
+                    call.intArrays.add(values);
+                    break;
+                }
+                case 'F': {
+                    float[] values = new float[in.readInt()];
+                    for (int j = 0; j < values.length; j++) {
+                        values[j] = in.readFloat();
+                    }
+                    call.floatArrays.add(values);
+                    break;
+                }
+                default:
+                    throw new IOException("Bad argument type " + types.charAt(i));
+            }
+        }
+        return call;
+    }
+
+    private void startFrame() {
+        mProgram = -1;
+        mBuffers.clear();
+        mCapabilities.clear();
+        mArrays.clear();
+        mTextures.clear();
+        mActiveTexture = -1;
+        mBlendFunc = -1;
+    }
+
+    private void count(Frame frame, Call call) {
+        long[] m = frame.metrics;
+        m[METRIC_CALLS]++;
+        Integer calls = frame.callCounts.get(call.name);
+        frame.callCounts.put(call.name, calls == null ? 1 : calls + 1);
+
+        String name = call.name;
+        List<Integer> ints = call.ints;
+        if (name.equals("glUseProgram")) {
+            state(m, mProgram == ints.get(0));
+            mProgram = ints.get(0);
+        } else if (name.equals("glBindBuffer")) {
+            state(m, ints.get(1).equals(mBuffers.put(ints.get(0), ints.get(1))));
+        } else if (name.equals("glEnable") || name.equals("glDisable")) {
+            Boolean enable = name.equals("glEnable");
+            state(m, enable.equals(mCapabilities.put(ints.get(0), enable)));
+        } else if (name.equals("glEnableVertexAttribArray")
+                || name.equals("glDisableVertexAttribArray")) {
+            Boolean enable = name.equals("glEnableVertexAttribArray");
+            state(m, enable.equals(mArrays.put(ints.get(0), enable)));
+        } else if (name.equals("glActiveTexture")) {
+            state(m, mActiveTexture == ints.get(0));
+            mActiveTexture = ints.get(0);
+        } else if (name.equals("glBlendFunc")) {
+            long blendFunc = ((long) ints.get(0) << 32) | ints.get(1);
+            state(m, mBlendFunc == blendFunc);
+            mBlendFunc = blendFunc;
+        } else if (name.equals("glBindTexture")) {
+            Integer unit = (mActiveTexture - GL_TEXTURE0) * 0x10000 + ints.get(0);
+            state(m, ints.get(1).equals(mTextures.put(unit, ints.get(1))));
+        } else if (name.startsWith("glUniform")) {
+            float[] values;
+            if (call.floatArrays.isEmpty()) {
+                values = new float[call.floats.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = call.floats.get(i);
+                }
+            } else {
+                values = call.floatArrays.get(0);
+            }
+            m[METRIC_UNIFORM_UPLOADS]++;
+            m[METRIC_UNIFORM_BYTES] += values.length * 4;
+            String key = mProgram + ":" + ints.get(0);
+            state(m, Arrays.equals(values, mUniforms.put(key, values)));
+        } else if (name.equals("glLinkProgram") || name.equals("glDeleteProgram")) {
+            String prefix = ints.get(0) + ":";
+            for (Iterator<String> keys = mUniforms.keySet().iterator(); keys.hasNext(); ) {
+                if (keys.next().startsWith(prefix)) {
+                    keys.remove();
+                }
+            }
+        } else if (name.equals("glBufferData") || name.equals("glBufferSubData")) {
+            m[METRIC_BUFFER_BYTES] += name.equals("glBufferData") ? ints.get(1) : ints.get(2);
+        } else if (name.equals("glTexSubImage2D")) {
+            // target, level, xoffset, yoffset, width, height, format, type
+            m[METRIC_TEXTURE_BYTES] += (long) ints.get(4) * ints.get(5)
+                    * getPixelSize(ints.get(6), ints.get(7));
+        } else if (name.equals("glVertexAttribPointer")) {
+            // index, size, type, normalized, stride, offset
+            mAttribBytes.put(ints.get(0), ints.get(1) * getTypeSize(ints.get(2)));
+        } else if (name.equals("glDrawArrays")) {
+            m[METRIC_DRAW_CALLS]++;
+            m[METRIC_VERTEX_BYTES] += (long) ints.get(2) * getVertexBytes();
+        } else if (name.equals("glDrawElements")) {
+            m[METRIC_DRAW_CALLS]++;
+            m[METRIC_VERTEX_BYTES] += (long) ints.get(1) * getVertexBytes();
+            m[METRIC_INDEX_BYTES] += (long) ints.get(1) * getTypeSize(ints.get(2));
+        }
+    }
+
+    private static void state(long[] metrics, boolean redundant) {
+        metrics[METRIC_STATE_CHANGES]++;
+        if (redundant) {
+            metrics[METRIC_REDUNDANT_CALLS]++;
+        }
+    }
+
+    private int getVertexBytes() {
+        int bytes = 0;
+        for (Map.Entry<Integer, Boolean> array : mArrays.entrySet()) {
+            Integer size = mAttribBytes.get(array.getKey());
+            if (array.getValue() && size != null) {
+                bytes += size;
+            }
+        }
+        return bytes;
+    }
+
+    private static int getPixelSize(int format, int type) {
+        if (type != GL_UNSIGNED_BYTE) {
+            // The packed 16-bit types.
+            return 2;
+        }
+        switch (format) {
+            case GL_ALPHA:
+            case GL_LUMINANCE:
+                return 1;
+            case GL_LUMINANCE_ALPHA:
+                return 2;
+            case GL_RGB:
+                return 3;
+            case GL_RGBA:
+            default:
+                return 4;
+        }
+    }
+
+    private static int getTypeSize(int type) {
+        switch (type) {
+            case GL_BYTE:
+            case GL_UNSIGNED_BYTE:
+                return 1;
+            case GL_SHORT:
+            case GL_UNSIGNED_SHORT:
+            case GL_HALF_FLOAT_OES:
+                return 2;
+            case GL_UNSIGNED_INT:
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * @return The average of each metric over the frames.
+     */
+    static double[] average(List<Frame> frames) {
+        double[] averages = new double[METRIC_COUNT];
+        for (Frame frame : frames) {
+            for (int i = 0; i < METRIC_COUNT; i++) {
+                averages[i] += frame.metrics[i];
+            }
+        }
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            averages[i] /= Math.max(1, frames.size());
+        }
+        return averages;
+    }
+
+    private static List<Frame> analyzeFile(String path) throws IOException {
+        InputStream in = new FileInputStream(path);
+        try {
+            return new CaptureAnalyzer().analyze(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void printFrames(List<Frame> frames) {
+        StringBuilder sb = new StringBuilder("frame");
+        for (String name : METRIC_NAMES) {
+            sb.append('\t').append(name);
+        }
+        System.out.println(sb);
+        for (int f = 0; f < frames.size(); f++) {
+            sb.setLength(0);
+            sb.append(f);
+            for (long value : frames.get(f).metrics) {
+                sb.append('\t').append(value);
+            }
+            System.out.println(sb);
+        }
+
+        double[] averages = average(frames);
+        System.out.println();
+        System.out.println("Averages over " + frames.size() + " frames:");
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            System.out.println(String.format("  %-16s %12.1f", METRIC_NAMES[i], averages[i]));
+        }
+
+        Map<String, Integer> totals = new TreeMap<String, Integer>();
+        for (Frame frame : frames) {
+            for (Map.Entry<String, Integer> e : frame.callCounts.entrySet()) {
+                Integer total = totals.get(e.getKey());
+                totals.put(e.getKey(), (total == null ? 0 : total) + e.getValue());
+            }
+        }
+        System.out.println("Calls per frame:");
+        for (Map.Entry<String, Integer> e : totals.entrySet()) {
+            System.out.println(String.format("  %-28s %10.1f", e.getKey(),
+                    e.getValue() / (double) Math.max(1, frames.size())));
+        }
+    }
+
+    /**
+     * @return Whether the second set of averages is worse than the first by more than the
+     *     threshold in any metric.
+     */
+    private static boolean printDiff(double[] before, double[] after, double threshold) {
+        boolean regressed = false;
+        System.out.println(String.format("%-16s %12s %12s %9s", "metric", "before", "after",
+                "change"));
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            double change = before[i] == 0 ? (after[i] == 0 ? 0 : Double.POSITIVE_INFINITY)
+                    : (after[i] - before[i]) / before[i];
+            boolean worse = change > threshold;
+            regressed |= worse;
+            System.out.println(String.format("%-16s %12.1f %12.1f %+8.1f%%%s", METRIC_NAMES[i],
+                    before[i], after[i], change * 100, worse ? "  REGRESSION" : ""));
+        }
+        return regressed;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 1) {
+            printFrames(analyzeFile(args[0]));
+        } else if ((args.length == 3 || args.length == 4) && args[0].equals("diff")) {
+            double threshold = args.length == 4 ? Double.parseDouble(args[3]) : DEFAULT_THRESHOLD;
+            boolean regressed = printDiff(average(analyzeFile(args[1])),
+                    average(analyzeFile(args[2])), threshold);
+            System.exit(regressed ? 1 : 0);
+        } else {
+            System.err.println("Usage: CaptureAnalyzer <capture>");
+            System.err.println("       CaptureAnalyzer diff <before> <after> [threshold]");
+            System.exit(2);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.GLES20;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Checks CapturingGL and CaptureAnalyzer together on a desktop JVM, over NoOpGL.
+ *
+ * Two frames of known calls are captured, and the analyzer must read back exactly the metrics
+ * worked out by hand for them: redundant state in a frame, uniform values carried over to the
+ * next frame until the program is linked again, and the bytes of buffers, vertices, indices and
+ * texture uploads. Calls outside the requested frames must not be captured. From the
+ * CardboardSample directory, compiled as for ReplayBenchmark:
+ * <pre>
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.CaptureAnalyzerCheck
+ * </pre>
+ */
+public class CaptureAnalyzerCheck extends Check {
+    private static final int PROGRAM = 3;
+    private static final int LOCATION = 2;
+
+    // In the order of CaptureAnalyzer.METRIC_NAMES.
+    private static final long[] FIRST_FRAME = {14, 2, 8, 3, 2, 32, 96, 216, 24, 96};
+    private static final long[] SECOND_FRAME = {5, 0, 3, 1, 2, 32, 0, 0, 0, 64};
+
+    /**
+     * Makes the calls of the first frame.
+     */
+    private static void drawFirstFrame(GLApi gl) {
+        // One redundant call each.
+        gl.glUseProgram(PROGRAM);
+        gl.glUseProgram(PROGRAM);
+        gl.glEnable(GLES20.GL_DEPTH_TEST);
+        gl.glEnable(GLES20.GL_DEPTH_TEST);
+        gl.glUniform4f(LOCATION, 1f, 2f, 3f, 4f);
+        gl.glUniform4f(LOCATION, 1f, 2f, 3f, 4f);
+
+        gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 5);
+        gl.glBufferData(GLES20.GL_ARRAY_BUFFER, 96, null, GLES20.GL_STATIC_DRAW);
+        // 12 bytes a vertex, from the one enabled array.
+        gl.glVertexAttribPointer(0, 3, GLES20.GL_FLOAT, false, 0, 0);
+        gl.glEnableVertexAttribArray(0);
+        gl.glVertexAttribPointer(1, 4, GLES20.GL_UNSIGNED_BYTE, true, 0, 0);
+        gl.glDrawArrays(GLES20.GL_TRIANGLES, 0, 6);
+        gl.glDrawElements(GLES20.GL_TRIANGLES, 12, GLES20.GL_UNSIGNED_SHORT, 0);
+
+        // 8 by 4 at 3 bytes a pixel.
+        gl.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, 8, 4, GLES20.GL_RGB,
+                GLES20.GL_UNSIGNED_BYTE, null);
+    }
+
+    /**
+     * Makes the calls of the second frame.
+     */
+    private static void drawSecondFrame(GLApi gl) {
+        gl.glUseProgram(PROGRAM);
+        // The same value as last frame, then again after linking.
+        gl.glUniform4f(LOCATION, 1f, 2f, 3f, 4f);
+        gl.glLinkProgram(PROGRAM);
+        gl.glUniform4f(LOCATION, 1f, 2f, 3f, 4f);
+        // 8 by 4 at 2 bytes a pixel.
+        gl.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, 8, 4, GLES20.GL_RGB,
+                GLES20.GL_UNSIGNED_SHORT_5_6_5, null);
+    }
+
+    @Override
+    protected void run() throws IOException {
+        CapturingGL gl = new CapturingGL(new NoOpGL());
+        gl.beginFrame();
+        gl.glUseProgram(PROGRAM);
+        expect("Nothing is captured until asked for", !gl.endFrame() && !gl.isCapturing());
+
+        gl.requestCapture(2);
+        gl.beginFrame();
+        drawFirstFrame(gl);
+        boolean complete = gl.endFrame();
+        gl.beginFrame();
+        drawSecondFrame(gl);
+        complete |= gl.endFrame();
+        gl.beginFrame();
+        gl.glUseProgram(PROGRAM);
+        gl.endFrame();
+        expect("The capture is complete after the requested frames",
+                complete && !gl.isCapturing() && gl.getCapture() != null);
+
+        List<CaptureAnalyzer.Frame> frames = new CaptureAnalyzer().analyze(
+                new ByteArrayInputStream(gl.getCapture()));
+        expect("Only the requested frames are in the capture", frames.size() == 2);
+        if (frames.size() != 2) {
+            return;
+        }
+        checkMetrics("first", frames.get(0).metrics, FIRST_FRAME);
+        checkMetrics("second", frames.get(1).metrics, SECOND_FRAME);
+        expect("Calls are counted by name",
+                frames.get(0).callCounts.get("glUseProgram") == 2
+                && frames.get(1).callCounts.get("glLinkProgram") == 1);
+    }
+
+    private void checkMetrics(String frame, long[] metrics, long[] expected) {
+        System.out.println("Metrics of the " + frame + " frame:");
+        for (int i = 0; i < CaptureAnalyzer.METRIC_COUNT; i++) {
+            expect(String.format("  %-16s %6d", CaptureAnalyzer.METRIC_NAMES[i], metrics[i]),
+                    metrics[i] == expected[i]);
+        }
+    }
+
+    public static void main(String[] args) {
+        main(new CaptureAnalyzerCheck(), args);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+/**
+ * One of the desktop checks of the game code in src/replay.
+ *
+ * A check does its work in run(), reporting each result as a line through expect(), which marks
+ * the lines that failed and counts them. ReplayChecks runs every check, and ./gradlew
+ * replayChecks builds and runs that; each check's own main() runs it alone.
+ */
+public abstract class Check {
+    private int mFailures;
+
+    /**
+     * Runs the checks, reporting each through expect().
+     */
+    protected abstract void run() throws Exception;
+
+    /**
+     * Prints a line of the report, marked as failed unless the check passed.
+     */
+    protected void expect(String report, boolean passed) {
+        System.out.println(report + (passed ? "" : "  FAILED"));
+        if (!passed) {
+            mFailures++;
+        }
+    }
+
+    /**
+     * Runs the checks, counting an exception out of them as one more failure.
+     * @return The number that failed.
+     */
+    final int runChecks() {
+        mFailures = 0;
+        try {
+            run();
+        } catch (Exception e) {
+            e.printStackTrace();
+            expect(getClass().getSimpleName() + " threw " + e, false);
+        }
+        return mFailures;
+    }
+
+    /**
+     * Runs a check on its own, for its main().
+     */
+    protected static void main(Check check, String[] args) {
+        if (args.length != 0) {
+            System.err.println("Usage: " + check.getClass().getSimpleName());
+            System.exit(2);
+        }
+        exit(check.runChecks());
+    }
+
+    /**
+     * Ends the process with status 1 if any checks failed.
+     */
+    static void exit(int failures) {
+        if (failures > 0) {
+            System.err.println(failures + " checks failed.");
+            System.exit(1);
+        }
+    }
+}
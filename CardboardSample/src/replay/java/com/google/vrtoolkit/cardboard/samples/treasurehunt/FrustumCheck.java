@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.Matrix;
+
+import java.util.Random;
+
+/**
+ * Checks Frustum.setUnion() on a desktop JVM, for pairs of eye frusta like a viewer's.
+ *
+ * Each pair has the two eyes an interpupillary distance apart, with asymmetric projections that
+ * lean towards the nose, under a random head rotation. The corners of both eye frusta are found
+ * independently of Frustum, by taking the corners of the clip space cube back through the inverse
+ * of each view-projection matrix, and every one of them must be inside every plane of the union.
+ * So must random points inside either eye's frustum. The union must still cull something, though:
+ * a point behind the head and one far beyond the far plane must both be outside it. From the
+ * CardboardSample directory, compiled as for ReplayBenchmark:
+ * <pre>
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.FrustumCheck
+ * </pre>
+ */
+public class FrustumCheck extends Check {
+    private static final long SEED = 1;
+    private static final int PAIRS = 10000;
+    private static final int POINTS_PER_EYE = 100;
+    private static final float HALF_IPD = 0.03f;
+    private static final float Z_NEAR = 0.1f;
+    private static final float Z_FAR = 100f;
+    // Float rounding in the planes and corners. It is worst at the far plane, whose distance
+    // comes from a badly conditioned difference of two rows of the matrix.
+    private static final float TOLERANCE = 1e-3f * Z_FAR;
+
+    private final Random mRandom = new Random(SEED);
+    private final float[][] mViewProjections = new float[2][16];
+    private final float[] mHeadView = new float[16];
+    private final float[] mEye = new float[16];
+    private final float[] mEyeView = new float[16];
+    private final float[] mProjection = new float[16];
+    private final float[] mInverse = new float[16];
+    private final float[] mClip = new float[4];
+    private final float[] mWorld = new float[4];
+    private final float[] mPlane = new float[4];
+
+    /**
+     * Sets up both eyes' view-projection matrices for a random head rotation.
+     */
+    void randomizeEyes() {
+        Matrix.setRotateM(mHeadView, 0, mRandom.nextFloat() * 360f,
+                mRandom.nextFloat() - 0.5f, mRandom.nextFloat() - 0.5f, mRandom.nextFloat() - 0.5f);
+        // About 40 degrees each way from the eye's center, a little less towards the nose.
+        float outer = Z_NEAR * (0.8f + mRandom.nextFloat() * 0.2f);
+        float inner = Z_NEAR * (0.6f + mRandom.nextFloat() * 0.2f);
+        float vertical = Z_NEAR * (0.7f + mRandom.nextFloat() * 0.3f);
+        for (int eye = 0; eye < 2; eye++) {
+            float side = eye == 0 ? 1f : -1f;
+            Matrix.setIdentityM(mEye, 0);
+            Matrix.translateM(mEye, 0, side * HALF_IPD, 0f, 0f);
+            Matrix.multiplyMM(mEyeView, 0, mEye, 0, mHeadView, 0);
+            if (eye == 0) {
+                Matrix.frustumM(mProjection, 0, -outer, inner, -vertical, vertical, Z_NEAR, Z_FAR);
+            } else {
+                Matrix.frustumM(mProjection, 0, -inner, outer, -vertical, vertical, Z_NEAR, Z_FAR);
+            }
+            Matrix.multiplyMM(mViewProjections[eye], 0, mProjection, 0, mEyeView, 0);
+        }
+    }
+
+    /**
+     * Takes a clip space point back to world space.
+     */
+    private void unproject(float[] viewProjection, float x, float y, float z) {
+        Matrix.invertM(mInverse, 0, viewProjection, 0);
+        mClip[0] = x;
+        mClip[1] = y;
+        mClip[2] = z;
+        mClip[3] = 1f;
+        Matrix.multiplyMV(mWorld, 0, mInverse, 0, mClip, 0);
+        mWorld[0] /= mWorld[3];
+        mWorld[1] /= mWorld[3];
+        mWorld[2] /= mWorld[3];
+    }
+
+    /**
+     * @return How far the point in mWorld is outside the frustum, or 0 if it's inside.
+     */
+    private float outside(Frustum frustum) {
+        float worst = 0f;
+        for (int p = 0; p < Frustum.PLANE_COUNT; p++) {
+            frustum.getPlane(p, mPlane, 0);
+            float d = mPlane[0] * mWorld[0] + mPlane[1] * mWorld[1] + mPlane[2] * mWorld[2]
+                    + mPlane[3];
+            worst = Math.max(worst, -d);
+        }
+        return worst;
+    }
+
+    @Override
+    protected void run() {
+        Frustum[] eyes = {new Frustum(), new Frustum()};
+        Frustum union = new Frustum();
+        int invalid = 0;
+        int cornersOutside = 0;
+        int pointsOutside = 0;
+        int notCulled = 0;
+        float worst = 0f;
+        for (int pair = 0; pair < PAIRS; pair++) {
+            randomizeEyes();
+            eyes[0].set(mViewProjections[0], 0);
+            eyes[1].set(mViewProjections[1], 0);
+            union.setUnion(eyes[0], eyes[1]);
+            if (!union.isValid()) {
+                invalid++;
+                continue;
+            }
+            for (int eye = 0; eye < 2; eye++) {
+                for (int corner = 0; corner < 8; corner++) {
+                    unproject(mViewProjections[eye], (corner & 1) == 0 ? -1f : 1f,
+                            (corner & 2) == 0 ? -1f : 1f, (corner & 4) == 0 ? -1f : 1f);
+                    float distance = outside(union);
+                    worst = Math.max(worst, distance);
+                    if (distance > TOLERANCE) {
+                        cornersOutside++;
+                    }
+                }
+                for (int i = 0; i < POINTS_PER_EYE; i++) {
+                    unproject(mViewProjections[eye], mRandom.nextFloat() * 2f - 1f,
+                            mRandom.nextFloat() * 2f - 1f, mRandom.nextFloat() * 2f - 1f);
+                    if (outside(union) > TOLERANCE) {
+                        pointsOutside++;
+                    }
+                }
+            }
+
+            // Behind the head, and well past the far plane straight ahead.
+            Matrix.invertM(mInverse, 0, mHeadView, 0);
+            for (int i = 0; i < 2; i++) {
+                mClip[0] = 0f;
+                mClip[1] = 0f;
+                mClip[2] = i == 0 ? 1f : -2f * Z_FAR;
+                mClip[3] = 1f;
+                Matrix.multiplyMV(mWorld, 0, mInverse, 0, mClip, 0);
+                if (outside(union) <= TOLERANCE) {
+                    notCulled++;
+                }
+            }
+        }
+
+        System.out.println(String.format("%d pairs of eyes, furthest corner outside the union "
+                + "%.2g", PAIRS, worst));
+        expectNone("unions that couldn't be set up", invalid);
+        expectNone("eye frustum corners outside the union", cornersOutside);
+        expectNone("points inside an eye outside the union", pointsOutside);
+        expectNone("points outside both eyes not culled", notCulled);
+    }
+
+    private void expectNone(String name, int count) {
+        expect(String.format("  %-40s %d", name, count), count == 0);
+    }
+
+    public static void main(String[] args) {
+        main(new FrustumCheck(), args);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.Matrix;
+
+import java.util.Random;
+
+/**
+ * Compares GazeEvaluator's search through a GazeBvh with its test of every object, on a desktop
+ * JVM, for scenes far bigger than the game uses.
+ *
+ * The objects are spread around the user as Simulation hides them, 5 to 20 units away and up to
+ * 40 degrees above or below, and every frame one of them jumps somewhere else, far more often
+ * than anyone finds treasure. The test of every object is given all the model matrices each
+ * frame, and the tree only the position that changed, as the renderer's loop over the objects
+ * gives it. Both see the same head poses and scenes, and their answers are checked against each
+ * other. From the CardboardSample directory, compiled as for
+ * ReplayBenchmark:
+ * <pre>
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.GazeBenchmark [objects...]
+ * </pre>
+ * The default sizes are 1000, 10000 and 100000 objects.
+ */
+public class GazeBenchmark {
+    private static final long SEED = 1;
+    private static final int[] DEFAULT_SIZES = {1000, 10000, 100000};
+    // The renderer's limits.
+    private static final float YAW_LIMIT = 0.12f;
+    private static final float PITCH_LIMIT = 0.12f;
+    private static final int POSE_COUNT = 256;
+    private static final int WARMUP_FRAMES = 1000;
+    private static final int FRAMES = 2000;
+
+    private final int mCount;
+    private final float[] mModels;
+    private final float[][] mHeadViews = new float[POSE_COUNT][16];
+    private final Random mRandom = new Random(SEED);
+
+    private long mBruteNanos;
+    private long mBvhNanos;
+    private long mBvhMaxNanos;
+    private int mRebuilds;
+    private int mHits;
+    private int mMismatches;
+
+    GazeBenchmark(int count) {
+        mCount = count;
+        mModels = new float[count * 16];
+        for (int i = 0; i < count; i++) {
+            Matrix.setIdentityM(mModels, i * 16);
+            place(i);
+        }
+        // Looking anywhere around, and up or down as far as the objects go.
+        float[] yaw = new float[16];
+        float[] pitch = new float[16];
+        for (float[] headView : mHeadViews) {
+            Matrix.setRotateM(yaw, 0, mRandom.nextFloat() * 360f, 0f, 1f, 0f);
+            Matrix.setRotateM(pitch, 0, mRandom.nextFloat() * 80f - 40f, 1f, 0f, 0f);
+            Matrix.multiplyMM(headView, 0, pitch, 0, yaw, 0);
+        }
+    }
+
+    private int place(int object) {
+        double angleXZ = mRandom.nextDouble() * 2.0 * Math.PI;
+        float distance = mRandom.nextFloat() * 15f + 5f;
+        double angleY = Math.toRadians(mRandom.nextFloat() * 80f - 40f);
+        int m = object * 16;
+        mModels[m + 12] = (float) Math.cos(angleXZ) * distance;
+        mModels[m + 13] = (float) Math.tan(angleY) * distance;
+        mModels[m + 14] = (float) Math.sin(angleXZ) * distance;
+        return object;
+    }
+
+    private void setPosition(GazeBvh bvh, int object) {
+        int m = object * 16;
+        bvh.setPosition(object, mModels[m + 12], mModels[m + 13], mModels[m + 14]);
+    }
+
+    /**
+     * @return A GazeBvh over the scene.
+     */
+    GazeBvh build() {
+        GazeBvh bvh = new GazeBvh(mCount);
+        for (int i = 0; i < mCount; i++) {
+            setPosition(bvh, i);
+        }
+        bvh.build(mCount);
+        return bvh;
+    }
+
+    /**
+     * Runs both searches over a number of frames, moving an object before each.
+     * @param measure Whether to add up the times, or just warm up.
+     */
+    void run(GazeEvaluator brute, GazeBvh bvh, int frames, boolean measure) {
+        float tanYawLimit = (float) Math.tan(YAW_LIMIT);
+        float tanPitchLimit = (float) Math.tan(PITCH_LIMIT);
+        for (int frame = 0; frame < frames; frame++) {
+            int moved = place(mRandom.nextInt(mCount));
+            float[] headView = mHeadViews[frame % POSE_COUNT];
+
+            long start = System.nanoTime();
+            int expected = brute.update(headView, mModels, mCount);
+            long middle = System.nanoTime();
+            // What GazeEvaluator.update(float[], int) does with the tree.
+            setPosition(bvh, moved);
+            boolean rebuilt = bvh.refit();
+            int actual = bvh.pick(headView, tanYawLimit, tanPitchLimit);
+            long end = System.nanoTime();
+
+            if (actual != expected) {
+                mMismatches++;
+            }
+            if (measure) {
+                mBruteNanos += middle - start;
+                mBvhNanos += end - middle;
+                mBvhMaxNanos = Math.max(mBvhMaxNanos, end - middle);
+                if (rebuilt) {
+                    mRebuilds++;
+                }
+                if (expected >= 0) {
+                    mHits++;
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = DEFAULT_SIZES;
+        try {
+            if (args.length > 0) {
+                sizes = new int[args.length];
+                for (int i = 0; i < args.length; i++) {
+                    sizes[i] = Integer.parseInt(args[i]);
+                }
+            }
+        } catch (NumberFormatException e) {
+            sizes = null;
+        }
+        if (sizes == null) {
+            System.err.println("Usage: GazeBenchmark [objects...]");
+            System.exit(2);
+        }
+
+        System.out.println(FRAMES + " frames per size after " + WARMUP_FRAMES
+                + " warm-up frames, one object moved per frame.");
+        System.out.println(String.format("%8s %6s %10s %12s %10s %12s %8s %8s %6s %10s",
+                "objects", "nodes", "build ms", "brute ns", "bvh ns", "bvh max ns", "speedup",
+                "rebuilds", "hits", "mismatches"));
+        int mismatches = 0;
+        for (int count : sizes) {
+            GazeBenchmark benchmark = new GazeBenchmark(count);
+            GazeEvaluator brute = new GazeEvaluator(YAW_LIMIT, PITCH_LIMIT);
+            GazeBvh bvh = benchmark.build();
+            benchmark.run(brute, bvh, WARMUP_FRAMES, false);
+            benchmark.run(brute, bvh, FRAMES, true);
+            // Warmed up by now.
+            long start = System.nanoTime();
+            benchmark.build();
+            long buildNanos = System.nanoTime() - start;
+            System.out.println(String.format("%8d %6d %10.2f %12d %10d %12d %8.1f %8d %6d %10d",
+                    count, bvh.getNodeCount(), buildNanos / 1e6, benchmark.mBruteNanos / FRAMES,
+                    benchmark.mBvhNanos / FRAMES, benchmark.mBvhMaxNanos,
+                    benchmark.mBruteNanos / (double) benchmark.mBvhNanos, benchmark.mRebuilds,
+                    benchmark.mHits, benchmark.mMismatches));
+            mismatches += benchmark.mMismatches;
+        }
+        if (mismatches > 0) {
+            System.err.println("The searches disagreed on " + mismatches + " frames.");
+            System.exit(1);
+        }
+    }
+}
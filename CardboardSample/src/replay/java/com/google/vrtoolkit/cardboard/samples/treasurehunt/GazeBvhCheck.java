@@ -0,0 +1,172 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.Matrix;
+
+import java.util.Random;
+
+/**
+ * Checks that GazeBvh.pick() gives the same answer as GazeEvaluator's test of every object, on a
+ * desktop JVM.
+ *
+ * Objects are scattered around the user, and every frame some of them move: a little, so that
+ * they are refitted in their leaves; anywhere, so that they change leaves, fill them and spill
+ * onto the loose list until the tree is rebuilt; or to just inside or outside the gaze limits of
+ * the frame's head pose, or onto another object, so that the answer turns on the edges and on
+ * ties. Part way through more objects are added, and the tree is built again. Every frame the
+ * tree and the test of every object must pick the same object. From the CardboardSample
+ * directory, compiled as for ReplayBenchmark:
+ * <pre>
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.GazeBvhCheck
+ * </pre>
+ */
+public class GazeBvhCheck extends Check {
+    private static final long SEED = 1;
+    // The renderer's limits.
+    private static final float YAW_LIMIT = 0.12f;
+    private static final float PITCH_LIMIT = 0.12f;
+    private static final int CAPACITY = 500;
+    private static final int FIRST_COUNT = 400;
+    private static final int FRAMES = 4000;
+    // The frame at which the rest of the objects are added.
+    private static final int GROW_FRAME = FRAMES / 2;
+    private static final int MOVES_PER_FRAME = 8;
+
+    private final Random mRandom = new Random(SEED);
+    private final float[] mModels = new float[CAPACITY * 16];
+    private final float[] mHeadView = new float[16];
+    private final float[] mInverse = new float[16];
+    private final float[] mYaw = new float[16];
+    private final float[] mPitch = new float[16];
+    private final float[] mPosition = new float[4];
+    private final float[] mWorldPosition = new float[4];
+    private final GazeEvaluator mEveryObject = new GazeEvaluator(YAW_LIMIT, PITCH_LIMIT);
+    private final GazeBvh mBvh = new GazeBvh(CAPACITY);
+
+    private void look() {
+        Matrix.setRotateM(mYaw, 0, mRandom.nextFloat() * 360f, 0f, 1f, 0f);
+        Matrix.setRotateM(mPitch, 0, mRandom.nextFloat() * 80f - 40f, 1f, 0f, 0f);
+        Matrix.multiplyMM(mHeadView, 0, mPitch, 0, mYaw, 0);
+        Matrix.invertM(mInverse, 0, mHeadView, 0);
+    }
+
+    private void move(int object, float x, float y, float z) {
+        Matrix.setIdentityM(mModels, object * 16);
+        mModels[object * 16 + 12] = x;
+        mModels[object * 16 + 13] = y;
+        mModels[object * 16 + 14] = z;
+        mBvh.setPosition(object, x, y, z);
+    }
+
+    /**
+     * Puts an object anywhere around the user, as Simulation hides treasure.
+     */
+    private void place(int object) {
+        float distance = mRandom.nextFloat() * 15f + 5f;
+        double angleXZ = mRandom.nextDouble() * 2.0 * Math.PI;
+        double angleY = Math.toRadians(mRandom.nextFloat() * 80f - 40f);
+        move(object, (float) Math.cos(angleXZ) * distance, (float) Math.tan(angleY) * distance,
+                (float) Math.sin(angleXZ) * distance);
+    }
+
+    /**
+     * Puts an object up to twice the limits off the current line of sight.
+     */
+    private void placeInSight(int object) {
+        float distance = mRandom.nextFloat() * 15f + 5f;
+        double yaw = (mRandom.nextDouble() * 4.0 - 2.0) * YAW_LIMIT;
+        double pitch = (mRandom.nextDouble() * 4.0 - 2.0) * PITCH_LIMIT;
+        mPosition[0] = (float) (Math.tan(yaw) * distance);
+        mPosition[1] = (float) (Math.tan(pitch) * distance);
+        mPosition[2] = -distance;
+        mPosition[3] = 1f;
+        Matrix.multiplyMV(mWorldPosition, 0, mInverse, 0, mPosition, 0);
+        move(object, mWorldPosition[0], mWorldPosition[1], mWorldPosition[2]);
+    }
+
+    private void moveSome(int count) {
+        for (int i = 0; i < MOVES_PER_FRAME; i++) {
+            int object = mRandom.nextInt(count);
+            int m = object * 16;
+            switch (mRandom.nextInt(4)) {
+                case 0:
+                    move(object, mModels[m + 12] + (mRandom.nextFloat() - 0.5f) * 0.1f,
+                            mModels[m + 13] + (mRandom.nextFloat() - 0.5f) * 0.1f,
+                            mModels[m + 14] + (mRandom.nextFloat() - 0.5f) * 0.1f);
+                    break;
+                case 1:
+                    place(object);
+                    break;
+                case 2:
+                    placeInSight(object);
+                    break;
+                default:
+                    int other = mRandom.nextInt(count) * 16;
+                    move(object, mModels[other + 12], mModels[other + 13], mModels[other + 14]);
+                    break;
+            }
+        }
+    }
+
+    @Override
+    protected void run() {
+        float tanYawLimit = (float) Math.tan(YAW_LIMIT);
+        float tanPitchLimit = (float) Math.tan(PITCH_LIMIT);
+
+        mBvh.build(0);
+        look();
+        expect("An empty tree picks nothing",
+                mBvh.pick(mHeadView, tanYawLimit, tanPitchLimit) == -1);
+
+        look();
+        for (int i = 0; i < CAPACITY; i++) {
+            if (i % 2 == 0) {
+                place(i);
+            } else {
+                placeInSight(i);
+            }
+        }
+        int count = FIRST_COUNT;
+        mBvh.build(count);
+        int hits = 0;
+        int mismatches = 0;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            look();
+            if (frame == GROW_FRAME) {
+                count = CAPACITY;
+                mBvh.build(count);
+            } else {
+                moveSome(count);
+                mBvh.refit();
+            }
+            int expected = mEveryObject.update(mHeadView, mModels, count);
+            if (mBvh.pick(mHeadView, tanYawLimit, tanPitchLimit) != expected) {
+                mismatches++;
+            }
+            hits += expected >= 0 ? 1 : 0;
+        }
+        expect(String.format("Against testing every object: %d frames, %d looking at an object, "
+                + "%d rebuilds, %d mismatches", FRAMES, hits, mBvh.getRebuildCount(), mismatches),
+                mismatches == 0 && hits > FRAMES / 4 && mBvh.getRebuildCount() > 0);
+    }
+
+    public static void main(String[] args) {
+        main(new GazeBvhCheck(), args);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.Matrix;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Checks GazeEvaluator.update(float[], float[], int) on a desktop JVM, against the test the game
+ * used to run and for allocation.
+ *
+ * The old test multiplied out each object's model view matrix, took the atan2 of its head space
+ * position for a yaw and a pitch, and compared those with the limits. Both are given the same
+ * random head views and scenes, with objects scattered all around the user and a good share of
+ * them just inside or just outside the limits, and must pick the same object. Once the JIT has
+ * warmed up, update() is then timed over many frames, and must not allocate anything at all.
+ * From the CardboardSample directory, compiled as for ReplayBenchmark:
+ * <pre>
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.GazeEvaluatorCheck
+ * </pre>
+ */
+public class GazeEvaluatorCheck extends Check {
+    private static final long SEED = 1;
+    // The renderer's limits.
+    private static final float YAW_LIMIT = 0.12f;
+    private static final float PITCH_LIMIT = 0.12f;
+    private static final int OBJECTS = 16;
+    private static final int SCENES = 20000;
+    private static final int WARMUP_FRAMES = 100000;
+    private static final int FRAMES = 1000000;
+
+    private final Random mRandom = new Random(SEED);
+    private final float[] mModels = new float[OBJECTS * 16];
+    private final float[] mHeadView = new float[16];
+    private final float[] mYaw = new float[16];
+    private final float[] mPitch = new float[16];
+    private final float[] mModelView = new float[16];
+    private final float[] mPosition = new float[4];
+
+    /**
+     * Looks somewhere at random, and scatters the objects around. Every other object is put close
+     * to where the user is looking, so that many of them land near the edges of the limits.
+     */
+    void randomize() {
+        Matrix.setRotateM(mYaw, 0, mRandom.nextFloat() * 360f, 0f, 1f, 0f);
+        Matrix.setRotateM(mPitch, 0, mRandom.nextFloat() * 80f - 40f, 1f, 0f, 0f);
+        Matrix.multiplyMM(mHeadView, 0, mPitch, 0, mYaw, 0);
+        float[] inverse = mModelView;
+        Matrix.invertM(inverse, 0, mHeadView, 0);
+        for (int i = 0; i < OBJECTS; i++) {
+            int m = i * 16;
+            Matrix.setIdentityM(mModels, m);
+            float distance = mRandom.nextFloat() * 15f + 5f;
+            if (i % 2 == 0) {
+                // Anywhere around the user.
+                double angleXZ = mRandom.nextDouble() * 2.0 * Math.PI;
+                double angleY = Math.toRadians(mRandom.nextFloat() * 80f - 40f);
+                mModels[m + 12] = (float) Math.cos(angleXZ) * distance;
+                mModels[m + 13] = (float) Math.tan(angleY) * distance;
+                mModels[m + 14] = (float) Math.sin(angleXZ) * distance;
+            } else {
+                // Up to twice the limits off the line of sight, in head space.
+                double yaw = (mRandom.nextDouble() * 4.0 - 2.0) * YAW_LIMIT;
+                double pitch = (mRandom.nextDouble() * 4.0 - 2.0) * PITCH_LIMIT;
+                mPosition[0] = (float) (Math.tan(yaw) * distance);
+                mPosition[1] = (float) (Math.tan(pitch) * distance);
+                mPosition[2] = -distance;
+                mPosition[3] = 1f;
+                Matrix.multiplyMV(mModels, m + 12, inverse, 0, mPosition, 0);
+                mModels[m + 15] = 1f;
+            }
+        }
+    }
+
+    /**
+     * The game's old test, run on every object, keeping the nearest that passes.
+     */
+    int updateWithAtan2() {
+        int nearest = -1;
+        float nearestDepth = Float.POSITIVE_INFINITY;
+        float[] origin = {0f, 0f, 0f, 1f};
+        for (int i = 0; i < OBJECTS; i++) {
+            Matrix.multiplyMM(mModelView, 0, mHeadView, 0, mModels, i * 16);
+            Matrix.multiplyMV(mPosition, 0, mModelView, 0, origin, 0);
+            float pitch = (float) Math.atan2(mPosition[1], -mPosition[2]);
+            float yaw = (float) Math.atan2(mPosition[0], -mPosition[2]);
+            if (Math.abs(pitch) < PITCH_LIMIT && Math.abs(yaw) < YAW_LIMIT
+                    && -mPosition[2] < nearestDepth) {
+                nearest = i;
+                nearestDepth = -mPosition[2];
+            }
+        }
+        return nearest;
+    }
+
+    void checkAgreement(GazeEvaluator gaze) {
+        int hits = 0;
+        int mismatches = 0;
+        for (int scene = 0; scene < SCENES; scene++) {
+            randomize();
+            int expected = updateWithAtan2();
+            int actual = gaze.update(mHeadView, mModels, OBJECTS);
+            if (actual != expected || gaze.getLookedAtObject() != expected) {
+                mismatches++;
+            }
+            hits += expected >= 0 ? 1 : 0;
+        }
+        expect(String.format("Against atan2: %d scenes, %d looking at an object, %d mismatches",
+                SCENES, hits, mismatches), mismatches == 0);
+    }
+
+    void checkAllocation(GazeEvaluator gaze) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+        // What reading the allocation counter allocates itself.
+        long overhead = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            long before = threads.getThreadAllocatedBytes(threadId);
+            long after = threads.getThreadAllocatedBytes(threadId);
+            overhead = Math.min(overhead, after - before);
+        }
+
+        randomize();
+        int found = 0;
+        for (int frame = 0; frame < WARMUP_FRAMES; frame++) {
+            found += gaze.update(mHeadView, mModels, OBJECTS);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int frame = 0; frame < FRAMES; frame++) {
+            found += gaze.update(mHeadView, mModels, OBJECTS);
+        }
+        long nanos = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated - overhead;
+        expect(String.format("update() with %d objects: %.1f ns, %d bytes allocated over %d "
+                + "frames", OBJECTS, nanos / (double) FRAMES, allocated, FRAMES), allocated == 0);
+        // Keeps the loop from being optimized away.
+        if (found == Integer.MIN_VALUE) {
+            System.out.println();
+        }
+    }
+
+    @Override
+    protected void run() {
+        GazeEvaluator gaze = new GazeEvaluator(YAW_LIMIT, PITCH_LIMIT);
+        checkAgreement(gaze);
+        checkAllocation(gaze);
+    }
+
+    public static void main(String[] args) {
+        main(new GazeEvaluatorCheck(), args);
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Checks GridTexture and FillRateBenchmark on a desktop JVM.
+ *
+ * The grid texture must draw the lines grid_fragment.shader draws: at the top level, texels
+ * wholly on a line must be white and texels wholly off both lines black. Every level, down to 1x1,
+ * must keep the lines' average brightness to within rounding, and have its rows padded for the
+ * default unpack alignment. create() must upload every level, and ask for anisotropic filtering
+ * only where the extension is, no more than the GL allows.
+ *
+ * The benchmark, driven with a fake clock, must give the modes turns of the same length, each
+ * measuring the same number of frames, none of which count the time between turns as dropped
+ * frames, and then end. From the CardboardSample directory, compiled as for ReplayBenchmark:
+ * <pre>
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.GridTextureCheck
+ * </pre>
+ */
+public class GridTextureCheck extends Check {
+    private static final int GL_TEXTURE_MAX_ANISOTROPY_EXT = 0x84FE;
+    private static final int GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT = 0x84FF;
+    private static final long REFRESH_NANOS = 16666667L;
+    private static final String[] MODES = new String[] {"procedural", "texture"};
+    private static final int WARMUP_FRAMES = 5;
+    private static final int MEASURED_FRAMES = 20;
+    private static final int ROUNDS = 3;
+
+    /**
+     * A clock that only moves when it's told to.
+     */
+    private static final class FakeClock implements Clock {
+        long time = 1000000000L;
+
+        @Override
+        public long nanoTime() {
+            return time;
+        }
+    }
+
+    /**
+     * Reports the given extensions and maximum anisotropy, and keeps what create() sets.
+     */
+    private static final class TextureGL extends NoOpGL {
+        String extensions = "";
+        int maxAnisotropy;
+        int levels;
+        boolean sizesRight = true;
+        int anisotropy;
+
+        @Override
+        public String glGetString(int name) {
+            return name == GLES20.GL_EXTENSIONS ? extensions : super.glGetString(name);
+        }
+
+        @Override
+        public void glGetIntegerv(int pname, int[] params, int offset) {
+            if (pname == GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT) {
+                params[offset] = maxAnisotropy;
+            } else {
+                super.glGetIntegerv(pname, params, offset);
+            }
+        }
+
+        @Override
+        public void glTexImage2D(int target, int level, int internalformat, int width,
+                int height, int border, int format, int type, Buffer pixels) {
+            int side = GridTexture.SIZE >> level;
+            sizesRight &= width == side && height == side && format == GLES20.GL_LUMINANCE
+                    && pixels.capacity() >= ((side + 3) & ~3) * side;
+            levels++;
+        }
+
+        @Override
+        public void glTexParameteri(int target, int pname, int param) {
+            if (pname == GL_TEXTURE_MAX_ANISOTROPY_EXT) {
+                anisotropy = param;
+            }
+        }
+    }
+
+    void checkLevels() {
+        expect("The texture repeats at the spacing of the shader's lines, as wide as its lines",
+                GridTexture.CELL_SIZE == 10f
+                && Math.abs(GridTexture.LINE_WIDTH * GridTexture.CELL_SIZE - 0.1f) < 1e-6f);
+
+        int size = GridTexture.SIZE;
+        ByteBuffer[] levels = GridTexture.generate(size, GridTexture.LINE_WIDTH);
+        expect("There is a level for every halving down to 1x1",
+                levels.length == Integer.numberOfTrailingZeros(size) + 1);
+
+        // Texels wholly on or off the lines, at the top level.
+        int rowBytes = (size + 3) & ~3;
+        boolean sharp = true;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int value = levels[0].get(y * rowBytes + x) & 0xff;
+                boolean on = (x + 1f) / size <= GridTexture.LINE_WIDTH
+                        || (y + 1f) / size <= GridTexture.LINE_WIDTH;
+                boolean off = x / (float) size >= GridTexture.LINE_WIDTH
+                        && y / (float) size >= GridTexture.LINE_WIDTH;
+                sharp &= !on || value == 255;
+                sharp &= !off || value == 0;
+            }
+        }
+        expect("Texels wholly on a line are white, and wholly off them black", sharp);
+
+        // The lines cover this much of a cell, counting their crossing once.
+        double expected = 1 - (1 - GridTexture.LINE_WIDTH) * (1 - GridTexture.LINE_WIDTH);
+        double worst = 0;
+        boolean padded = true;
+        for (int level = 0; level < levels.length; level++) {
+            int side = size >> level;
+            int stride = (side + 3) & ~3;
+            padded &= levels[level].capacity() == stride * side;
+            long sum = 0;
+            for (int y = 0; y < side; y++) {
+                for (int x = 0; x < side; x++) {
+                    sum += levels[level].get(y * stride + x) & 0xff;
+                }
+            }
+            double mean = sum / (255.0 * side * side);
+            worst = Math.max(worst, Math.abs(mean - expected));
+        }
+        expect(String.format("Every level keeps the lines' brightness, to within %.2g", worst),
+                worst <= 0.5 / 255);
+        expect("Rows are padded to four bytes", padded);
+    }
+
+    void checkCreate() {
+        TextureGL gl = new TextureGL();
+        int texture = GridTexture.create(gl);
+        expect("create() uploads every level", texture != 0 && gl.sizesRight
+                && gl.levels == Integer.numberOfTrailingZeros(GridTexture.SIZE) + 1);
+        expect("No anisotropic filtering without the extension", gl.anisotropy == 0);
+
+        gl = new TextureGL();
+        gl.extensions = "GL_OES_rgb8_rgba8 GL_EXT_texture_filter_anisotropic";
+        gl.maxAnisotropy = 16;
+        GridTexture.create(gl);
+        boolean capped = gl.anisotropy == 8;
+        gl = new TextureGL();
+        gl.extensions = "GL_EXT_texture_filter_anisotropic";
+        gl.maxAnisotropy = 2;
+        GridTexture.create(gl);
+        expect("Anisotropic filtering is asked for with the extension, up to what the GL allows",
+                capped && gl.anisotropy == 2);
+    }
+
+    void checkBenchmark() {
+        FakeClock clock = new FakeClock();
+        FillRateBenchmark benchmark = new FillRateBenchmark(clock, REFRESH_NANOS, MODES,
+                WARMUP_FRAMES, MEASURED_FRAMES, ROUNDS);
+        FrameProfiler[] profilers = new FrameProfiler[MODES.length];
+        int[] frames = new int[MODES.length];
+        int switches = 0;
+        int lastMode = -1;
+        int total = 0;
+        boolean onePerMode = true;
+        int mode;
+        while ((mode = benchmark.beginFrame()) >= 0 && total < 10000) {
+            if (mode != lastMode) {
+                switches++;
+                lastMode = mode;
+            }
+            FrameProfiler profiler = benchmark.getProfiler();
+            if ((total % (WARMUP_FRAMES + MEASURED_FRAMES)) >= WARMUP_FRAMES) {
+                if (profilers[mode] == null) {
+                    profilers[mode] = profiler;
+                }
+                onePerMode &= profilers[mode] == profiler;
+                frames[mode]++;
+            }
+            profiler.beginFrame();
+            clock.time += REFRESH_NANOS;
+            total++;
+        }
+        expect("The benchmark ends after every turn",
+                total == (WARMUP_FRAMES + MEASURED_FRAMES) * MODES.length * ROUNDS
+                && benchmark.beginFrame() < 0);
+        expect("The modes take turns", switches == MODES.length * ROUNDS);
+        boolean measured = onePerMode && profilers[0] != profilers[1];
+        for (int m = 0; m < MODES.length; m++) {
+            // The first frame of each turn starts an interval rather than ending one.
+            measured &= frames[m] == MEASURED_FRAMES * ROUNDS
+                    && profilers[m].getFrameCount() == (MEASURED_FRAMES - 1) * ROUNDS
+                    && profilers[m].getDroppedFrames() == 0;
+        }
+        expect("Each mode measures its own frames, without the gaps between turns", measured);
+        String summary = benchmark.getReport();
+        expect("The report has every mode", summary.contains("\nprocedural: ")
+                && summary.contains("\ntexture: "));
+    }
+
+    @Override
+    protected void run() {
+        checkLevels();
+        checkCreate();
+        checkBenchmark();
+    }
+
+    public static void main(String[] args) {
+        main(new GridTextureCheck(), args);
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.Matrix;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks QuadricSimplifier and LodSelector on a desktop JVM.
+ *
+ * A few meshes are simplified into chains of levels of detail: a bumpy sphere with smooth normals,
+ * the same with a hole cut in it to give it an open edge, and the world's cube, whose hard edges
+ * leave nothing to simplify. For every level it reports the triangles, the error the simplifier
+ * claims and the deviation actually measured, the furthest any vertex of the source is from the
+ * level's surface. A level fails if its error is over the limit, if the measured deviation is over
+ * its error, if it doesn't have noticeably fewer triangles than the level before, or if it has a
+ * vertex that isn't one of the source's, attributes and all.
+ *
+ * LodSelector is then given a cube approaching from far away, which has to pass through every
+ * level in order, and a cube wobbling back and forth across a threshold, by less than the
+ * hysteresis, which must not switch at all. From the CardboardSample directory, compiled as for
+ * ReplayBenchmark:
+ * <pre>
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.LodEvaluator
+ * </pre>
+ */
+public class LodEvaluator {
+    private static final int LEVELS = 6;
+    private static final float RATIO = 0.5f;
+    private static final float MAX_ERROR = 0.05f;
+    // As in MeshConverter's chains.
+    private static final float MIN_REDUCTION = 0.9f;
+    // Rounding in the deviation's float positions.
+    private static final double TOLERANCE = 1e-5;
+    private static final int RINGS = 32;
+    private static final int SEGMENTS = 48;
+
+    private static final float VIEWPORT_HEIGHT = 1080f;
+    private static final float TOLERANCE_PIXELS = 1f;
+    private static final float HYSTERESIS = 0.2f;
+
+    private int mFailures;
+
+    /**
+     * Makes a unit sphere with bumps, and smooth normals, so that every position has one vertex.
+     * @param openRings How many rings of triangles around the top to leave out.
+     */
+    static MeshData createSphere(int openRings) {
+        // The poles are single vertices, between them are rings of SEGMENTS vertices.
+        int vertexCount = 2 + (RINGS - 1) * SEGMENTS;
+        float[] positions = new float[vertexCount * 3];
+        float[] normals = new float[vertexCount * 3];
+        float[] colors = new float[vertexCount * 4];
+        Arrays.fill(colors, 1f);
+        setVertex(positions, normals, 0, 0.0, 0.0);
+        setVertex(positions, normals, vertexCount - 1, Math.PI, 0.0);
+        for (int r = 1; r < RINGS; r++) {
+            for (int s = 0; s < SEGMENTS; s++) {
+                setVertex(positions, normals, ringVertex(r, s), Math.PI * r / RINGS,
+                        2.0 * Math.PI * s / SEGMENTS);
+            }
+        }
+
+        short[] indices = new short[(RINGS - openRings) * SEGMENTS * 6];
+        int next = 0;
+        for (int r = openRings; r < RINGS; r++) {
+            for (int s = 0; s < SEGMENTS; s++) {
+                int a = ringVertex(r, s);
+                int b = ringVertex(r, s + 1);
+                int c = ringVertex(r + 1, s);
+                int d = ringVertex(r + 1, s + 1);
+                if (r > 0) {
+                    next = addTriangle(indices, next, a, c, b);
+                }
+                if (r < RINGS - 1) {
+                    next = addTriangle(indices, next, b, c, d);
+                }
+            }
+        }
+        return new MeshData(positions, normals, colors, Arrays.copyOf(indices, next));
+    }
+
+    private static int ringVertex(int ring, int segment) {
+        if (ring == 0) {
+            return 0;
+        }
+        if (ring == RINGS) {
+            return 1 + (RINGS - 1) * SEGMENTS;
+        }
+        return 1 + (ring - 1) * SEGMENTS + segment % SEGMENTS;
+    }
+
+    private static int addTriangle(short[] indices, int next, int a, int b, int c) {
+        indices[next] = (short) a;
+        indices[next + 1] = (short) b;
+        indices[next + 2] = (short) c;
+        return next + 3;
+    }
+
+    private static void setVertex(float[] positions, float[] normals, int vertex, double theta,
+            double phi) {
+        double bump = 1.0 + 0.05 * Math.sin(5.0 * phi) * Math.sin(3.0 * theta);
+        double x = Math.sin(theta) * Math.cos(phi);
+        double y = Math.cos(theta);
+        double z = Math.sin(theta) * Math.sin(phi);
+        positions[vertex * 3] = (float) (bump * x);
+        positions[vertex * 3 + 1] = (float) (bump * y);
+        positions[vertex * 3 + 2] = (float) (bump * z);
+        normals[vertex * 3] = (float) x;
+        normals[vertex * 3 + 1] = (float) y;
+        normals[vertex * 3 + 2] = (float) z;
+    }
+
+    void checkChain(String name, MeshData source, int expectedLevels) {
+        List<QuadricSimplifier.Level> levels =
+                QuadricSimplifier.simplifyChain(source, LEVELS, RATIO, MAX_ERROR);
+        Set<String> sourceVertices = new HashSet<String>();
+        for (int v = 0; v < source.getVertexCount(); v++) {
+            sourceVertices.add(describeVertex(source, v));
+        }
+        System.out.println(name + ": " + source.getTriangleCount() + " triangles");
+        int previous = source.getTriangleCount();
+        for (int i = 0; i < levels.size(); i++) {
+            QuadricSimplifier.Level level = levels.get(i);
+            MeshData mesh = level.mesh;
+            double deviation = measureDeviation(source, mesh);
+            boolean reduced = i == 0 ? mesh.getTriangleCount() == previous
+                    : mesh.getTriangleCount() <= previous * MIN_REDUCTION;
+            boolean bounded = level.error <= MAX_ERROR && deviation <= level.error + TOLERANCE;
+            boolean kept = true;
+            for (int v = 0; v < mesh.getVertexCount(); v++) {
+                kept &= sourceVertices.contains(describeVertex(mesh, v));
+            }
+            System.out.println(String.format("  level %d: %5d triangles (%.2f of the last), "
+                    + "error %.5f, deviation %.5f%s", i, mesh.getTriangleCount(),
+                    mesh.getTriangleCount() / (double) previous, level.error, deviation,
+                    reduced && bounded && kept ? "" : "  FAILED"));
+            if (!reduced || !bounded || !kept) {
+                mFailures++;
+            }
+            previous = mesh.getTriangleCount();
+        }
+        if (levels.size() != expectedLevels) {
+            System.out.println("  expected " + expectedLevels + " levels  FAILED");
+            mFailures++;
+        }
+    }
+
+    private static String describeVertex(MeshData mesh, int v) {
+        return Arrays.toString(Arrays.copyOfRange(mesh.positions, v * 3, v * 3 + 3))
+                + Arrays.toString(Arrays.copyOfRange(mesh.normals, v * 3, v * 3 + 3))
+                + Arrays.toString(Arrays.copyOfRange(mesh.colors, v * 4, v * 4 + 4));
+    }
+
+    /**
+     * @return The furthest any vertex of the source that a triangle uses is from the surface of
+     *     the simplified mesh.
+     */
+    static double measureDeviation(MeshData source, MeshData simplified) {
+        boolean[] used = new boolean[source.getVertexCount()];
+        for (short index : source.indices) {
+            used[index & 0xffff] = true;
+        }
+        double[] p = new double[3];
+        double[][] corners = new double[3][3];
+        double worst = 0.0;
+        for (int v = 0; v < used.length; v++) {
+            if (!used[v]) {
+                continue;
+            }
+            getPosition(source, v, p);
+            double nearest = Double.POSITIVE_INFINITY;
+            for (int t = 0; t < simplified.indices.length; t += 3) {
+                for (int k = 0; k < 3; k++) {
+                    getPosition(simplified, simplified.indices[t + k] & 0xffff, corners[k]);
+                }
+                nearest = Math.min(nearest,
+                        distanceToTriangle(p, corners[0], corners[1], corners[2]));
+            }
+            worst = Math.max(worst, nearest);
+        }
+        return worst;
+    }
+
+    private static void getPosition(MeshData mesh, int vertex, double[] out) {
+        for (int c = 0; c < 3; c++) {
+            out[c] = mesh.positions[vertex * 3 + c];
+        }
+    }
+
+    /**
+     * The closest point on a triangle, from Ericson's Real-Time Collision Detection.
+     */
+    private static double distanceToTriangle(double[] p, double[] a, double[] b, double[] c) {
+        double[] ab = subtract(b, a);
+        double[] ac = subtract(c, a);
+        double[] ap = subtract(p, a);
+        double d1 = dot(ab, ap);
+        double d2 = dot(ac, ap);
+        if (d1 <= 0.0 && d2 <= 0.0) {
+            return length(ap);
+        }
+        double[] bp = subtract(p, b);
+        double d3 = dot(ab, bp);
+        double d4 = dot(ac, bp);
+        if (d3 >= 0.0 && d4 <= d3) {
+            return length(bp);
+        }
+        double vc = d1 * d4 - d3 * d2;
+        if (vc <= 0.0 && d1 >= 0.0 && d3 <= 0.0) {
+            return distanceTo(p, a, ab, d1 / (d1 - d3), ac, 0.0);
+        }
+        double[] cp = subtract(p, c);
+        double d5 = dot(ab, cp);
+        double d6 = dot(ac, cp);
+        if (d6 >= 0.0 && d5 <= d6) {
+            return length(cp);
+        }
+        double vb = d5 * d2 - d1 * d6;
+        if (vb <= 0.0 && d2 >= 0.0 && d6 <= 0.0) {
+            return distanceTo(p, a, ab, 0.0, ac, d2 / (d2 - d6));
+        }
+        double va = d3 * d6 - d5 * d4;
+        if (va <= 0.0 && d4 - d3 >= 0.0 && d5 - d6 >= 0.0) {
+            double w = (d4 - d3) / ((d4 - d3) + (d5 - d6));
+            return distanceTo(p, a, ab, 1.0 - w, ac, w);
+        }
+        double denominator = 1.0 / (va + vb + vc);
+        return distanceTo(p, a, ab, vb * denominator, ac, vc * denominator);
+    }
+
+    /**
+     * @return The distance from p to a + ab * u + ac * v.
+     */
+    private static double distanceTo(double[] p, double[] a, double[] ab, double u, double[] ac,
+            double v) {
+        double[] q = new double[3];
+        for (int c = 0; c < 3; c++) {
+            q[c] = a[c] + ab[c] * u + ac[c] * v;
+        }
+        return length(subtract(p, q));
+    }
+
+    private static double[] subtract(double[] a, double[] b) {
+        return new double[] {a[0] - b[0], a[1] - b[1], a[2] - b[2]};
+    }
+
+    private static double dot(double[] a, double[] b) {
+        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+    }
+
+    private static double length(double[] a) {
+        return Math.sqrt(dot(a, a));
+    }
+
+    void checkSelector() {
+        float[] perspective = new float[16];
+        // 90 degrees high, about what a Cardboard viewer shows each eye.
+        Matrix.frustumM(perspective, 0, -0.1f, 0.1f, -0.1f, 0.1f, 0.1f, 100f);
+        float radius = (float) Math.sqrt(3.0);
+        float[] errors = {0f, 0.01f, 0.03f, 0.1f};
+        LodSelector selector = new LodSelector(radius, errors, TOLERANCE_PIXELS, HYSTERESIS, 2);
+        selector.setProjection(perspective, 0, VIEWPORT_HEIGHT);
+
+        // Approaching from far away, the levels only ever get finer, one at a time.
+        int level = selector.select(0, 1000f);
+        boolean ordered = level == errors.length - 1;
+        int switches = 0;
+        for (float depth = 1000f; depth > 1f; depth *= 0.99f) {
+            int next = selector.select(0, depth);
+            ordered &= next == level || next == level - 1;
+            switches += next != level ? 1 : 0;
+            level = next;
+        }
+        ordered &= level == 0;
+        System.out.println("Approach: " + switches + " switches" + (ordered ? "" : "  FAILED"));
+        if (!ordered) {
+            mFailures++;
+        }
+
+        // The depth at which the projected size is level 1's limit, and a wobble around it.
+        float threshold = radius * perspective[5] * VIEWPORT_HEIGHT * 0.5f
+                / (TOLERANCE_PIXELS * radius / errors[1]);
+        selector.select(1, threshold * 0.5f);
+        int wobbleSwitches = 0;
+        level = selector.select(1, threshold);
+        for (int frame = 0; frame < 1000; frame++) {
+            float depth = threshold * (1f + 0.9f * HYSTERESIS * (float) Math.sin(frame * 0.1));
+            int next = selector.select(1, depth);
+            wobbleSwitches += next != level ? 1 : 0;
+            level = next;
+        }
+        System.out.println("Wobble across a threshold: " + wobbleSwitches + " switches"
+                + (wobbleSwitches == 0 ? "" : "  FAILED"));
+        if (wobbleSwitches != 0) {
+            mFailures++;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 0) {
+            System.err.println("Usage: LodEvaluator");
+            System.exit(2);
+        }
+        LodEvaluator evaluator = new LodEvaluator();
+        evaluator.checkChain("Sphere", createSphere(0), 3);
+        evaluator.checkChain("Open sphere", createSphere(RINGS / 4), 3);
+        evaluator.checkChain("Cube", MeshOptimizer.deduplicate(new MeshData(
+                WorldLayoutData.CUBE_COORDS, WorldLayoutData.CUBE_NORMALS,
+                WorldLayoutData.CUBE_COLORS, null)), 1);
+        evaluator.checkSelector();
+        if (evaluator.mFailures > 0) {
+            System.err.println(evaluator.mFailures + " checks failed.");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts meshes into the .mesh files that the renderer maps from assets, with MeshFile.
+ *
+ * This runs on a desktop JVM, not on the device. From the CardboardSample directory, compiled as
+ * for ReplayBenchmark:
+ * <pre>
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.MeshConverter \
+ *     input.obj output.mesh [lodLevels]
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.MeshConverter world src/main/assets
+ * </pre>
+ * The first form reads a Wavefront OBJ file. Only triangles and polygons made of v and vn lines
+ * are read; a v line may carry an RGB color after the position, and faces without normals get
+ * flat ones. The second form writes floor.mesh and cube.mesh from WorldLayoutData.
+ *
+ * Either way the triangles are indexed and reordered with MeshOptimizer, then packed into
+ * VertexFormat.COMPACT, so the device does none of this work when it loads them.
+ *
+ * QuadricSimplifier also makes up to lodLevels levels of detail, DEFAULT_LOD_LEVELS by default,
+ * each with about half the triangles of the one before, as long as none is further than
+ * MAX_LOD_ERROR of the mesh's size from it. They are written next to the output, named by
+ * MeshFile.getLodName(), and the converter prints the triangle count and error of each. Meshes
+ * with hard edges or flat-shaded faces everywhere, such as the world's cube, have no vertex the
+ * simplifier may move, and get none.
+ */
+public class MeshConverter {
+    private static final VertexFormat FORMAT = VertexFormat.COMPACT;
+    private static final int DEFAULT_LOD_LEVELS = 3;
+    // Each level of detail keeps this fraction of the triangles of the one before.
+    private static final float LOD_RATIO = 0.5f;
+    // The largest error of a level of detail, as a fraction of the diagonal of the mesh's bounds.
+    private static final float MAX_LOD_ERROR = 0.02f;
+
+    /**
+     * Optimizes and packs a triangle list and its levels of detail and writes them to files.
+     * @param source A non-indexed triangle list.
+     * @param out The file for the full mesh, whose name ends in MeshFile.EXTENSION.
+     * @param lodLevels How many levels of detail to make at most.
+     */
+    static void convert(MeshData source, File out, int lodLevels) throws IOException {
+        float[] min = new float[3];
+        float[] max = new float[3];
+        MeshPacker.computeBounds(source.positions, min, max);
+        float maxError = MAX_LOD_ERROR
+                * (float) Math.sqrt(square(max[0] - min[0]) + square(max[1] - min[1])
+                        + square(max[2] - min[2]));
+        List<QuadricSimplifier.Level> levels =
+                QuadricSimplifier.simplifyChain(source, lodLevels, LOD_RATIO, maxError);
+
+        // Level 0 is the source, only optimized.
+        MeshData optimized = levels.get(0).mesh;
+        write(MeshPacker.pack(FORMAT, optimized, 0f, levels.size() - 1), out);
+        System.out.println(out + ": " + source.getVertexCount() + " -> "
+                + optimized.getVertexCount() + " vertices, ACMR "
+                + MeshOptimizer.computeAcmr(source, MeshOptimizer.DEFAULT_CACHE_SIZE) + " -> "
+                + MeshOptimizer.computeAcmr(optimized, MeshOptimizer.DEFAULT_CACHE_SIZE) + ", "
+                + out.length() + " bytes, " + (levels.size() - 1) + " levels of detail");
+
+        String name = out.getName();
+        if (name.endsWith(MeshFile.EXTENSION)) {
+            name = name.substring(0, name.length() - MeshFile.EXTENSION.length());
+        }
+        for (int i = 1; i < levels.size(); i++) {
+            QuadricSimplifier.Level level = levels.get(i);
+            File file = new File(out.getParentFile(),
+                    MeshFile.getLodName(name, i) + MeshFile.EXTENSION);
+            write(MeshPacker.pack(FORMAT, level.mesh, level.error, 0), file);
+            System.out.println(file + ": " + optimized.getTriangleCount() + " -> "
+                    + level.mesh.getTriangleCount() + " triangles, error " + level.error
+                    + " of at most " + maxError + ", " + file.length() + " bytes");
+        }
+    }
+
+    private static float square(float x) {
+        return x * x;
+    }
+
+    private static void write(MeshFile mesh, File out) throws IOException {
+        FileOutputStream stream = new FileOutputStream(out);
+        try {
+            mesh.write(stream.getChannel());
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Reads a Wavefront OBJ file into a triangle list.
+     */
+    static MeshData readObj(File file) throws IOException {
+        List<float[]> vertices = new ArrayList<float[]>();
+        List<float[]> normals = new ArrayList<float[]>();
+        List<Float> positionsOut = new ArrayList<Float>();
+        List<Float> normalsOut = new ArrayList<Float>();
+        List<Float> colorsOut = new ArrayList<Float>();
+
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                String[] tokens = line.trim().split("\\s+");
+                if (tokens[0].equals("v")) {
+                    // x, y, z, then r, g and b, which default to white.
+                    float[] v = new float[] {0f, 0f, 0f, 1f, 1f, 1f};
+                    for (int i = 1; i < tokens.length && i <= v.length; i++) {
+                        v[i - 1] = Float.parseFloat(tokens[i]);
+                    }
+                    vertices.add(v);
+                } else if (tokens[0].equals("vn")) {
+                    normals.add(new float[] {Float.parseFloat(tokens[1]),
+                            Float.parseFloat(tokens[2]), Float.parseFloat(tokens[3])});
+                } else if (tokens[0].equals("f")) {
+                    int corners = tokens.length - 1;
+                    if (corners < 3) {
+                        throw new IOException(file + ":" + lineNumber + ": face with "
+                                + corners + " corners");
+                    }
+                    float[][] p = new float[corners][];
+                    float[][] n = new float[corners][];
+                    for (int i = 0; i < corners; i++) {
+                        String[] refs = tokens[i + 1].split("/");
+                        p[i] = vertices.get(resolve(refs[0], vertices.size()));
+                        if (refs.length > 2 && !refs[2].isEmpty()) {
+                            n[i] = normals.get(resolve(refs[2], normals.size()));
+                        }
+                    }
+                    // A fan, which is right for the convex polygons OBJ exporters write.
+                    for (int i = 1; i + 1 < corners; i++) {
+                        addTriangle(p[0], n[0], p[i], n[i], p[i + 1], n[i + 1], positionsOut,
+                                normalsOut, colorsOut);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return new MeshData(toArray(positionsOut), toArray(normalsOut), toArray(colorsOut), null);
+    }
+
+    /**
+     * Turns a one-based or negative, relative OBJ reference into a list index.
+     */
+    private static int resolve(String ref, int count) {
+        int index = Integer.parseInt(ref);
+        return index < 0 ? count + index : index - 1;
+    }
+
+    private static void addTriangle(float[] p0, float[] n0, float[] p1, float[] n1, float[] p2,
+            float[] n2, List<Float> positions, List<Float> normals, List<Float> colors) {
+        float[] flat = null;
+        if (n0 == null || n1 == null || n2 == null) {
+            flat = new float[3];
+            float ax = p1[0] - p0[0];
+            float ay = p1[1] - p0[1];
+            float az = p1[2] - p0[2];
+            float bx = p2[0] - p0[0];
+            float by = p2[1] - p0[1];
+            float bz = p2[2] - p0[2];
+            flat[0] = ay * bz - az * by;
+            flat[1] = az * bx - ax * bz;
+            flat[2] = ax * by - ay * bx;
+            float length = (float) Math.sqrt(flat[0] * flat[0] + flat[1] * flat[1]
+                    + flat[2] * flat[2]);
+            for (int c = 0; c < 3; c++) {
+                flat[c] = length > 0f ? flat[c] / length : (c == 1 ? 1f : 0f);
+            }
+        }
+        addCorner(p0, flat != null ? flat : n0, positions, normals, colors);
+        addCorner(p1, flat != null ? flat : n1, positions, normals, colors);
+        addCorner(p2, flat != null ? flat : n2, positions, normals, colors);
+    }
+
+    private static void addCorner(float[] p, float[] n, List<Float> positions,
+            List<Float> normals, List<Float> colors) {
+        for (int c = 0; c < 3; c++) {
+            positions.add(p[c]);
+            normals.add(n[c]);
+            colors.add(p[3 + c]);
+        }
+        colors.add(1f);
+    }
+
+    private static float[] toArray(List<Float> values) {
+        float[] array = new float[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int lodLevels = -1;
+        try {
+            lodLevels = args.length == 3 ? Integer.parseInt(args[2]) : DEFAULT_LOD_LEVELS;
+        } catch (NumberFormatException e) {
+            // Reported with the usage below.
+        }
+        if (args.length == 2 && args[0].equals("world")) {
+            File dir = new File(args[1]);
+            convert(new MeshData(WorldLayoutData.FLOOR_COORDS, WorldLayoutData.FLOOR_NORMALS,
+                    WorldLayoutData.FLOOR_COLORS, null),
+                    new File(dir, "floor" + MeshFile.EXTENSION), DEFAULT_LOD_LEVELS);
+            convert(new MeshData(WorldLayoutData.CUBE_COORDS, WorldLayoutData.CUBE_NORMALS,
+                    WorldLayoutData.CUBE_COLORS, null),
+                    new File(dir, "cube" + MeshFile.EXTENSION), DEFAULT_LOD_LEVELS);
+        } else if ((args.length == 2 || args.length == 3) && lodLevels >= 0) {
+            convert(readObj(new File(args[0])), new File(args[1]), lodLevels);
+        } else {
+            System.err.println("Usage: MeshConverter <input.obj> <output.mesh> [lodLevels]");
+            System.err.println("       MeshConverter world <assetsDir>");
+            System.exit(2);
+        }
+    }
+}
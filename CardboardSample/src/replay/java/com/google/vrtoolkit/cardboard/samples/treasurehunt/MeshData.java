@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+/**
+ * Triangle mesh data on the CPU side, as separate float arrays per attribute and an optional
+ * index list. Without indices every three vertices form a triangle.
+ */
+public final class MeshData {
+    public final float[] positions;
+    public final float[] normals;
+    public final float[] colors;
+    public final short[] indices;
+
+    /**
+     * @param positions Three floats per vertex.
+     * @param normals Three floats per vertex.
+     * @param colors Four floats per vertex.
+     * @param indices Three indices per triangle, or null for a non-indexed triangle list.
+     */
+    public MeshData(float[] positions, float[] normals, float[] colors, short[] indices) {
+        if (normals.length != positions.length || colors.length * 3 != positions.length * 4) {
+            throw new IllegalArgumentException("Attribute arrays have different vertex counts.");
+        }
+        this.positions = positions;
+        this.normals = normals;
+        this.colors = colors;
+        this.indices = indices;
+    }
+
+    public int getVertexCount() {
+        return positions.length / 3;
+    }
+
+    public int getTriangleCount() {
+        return (indices != null ? indices.length : getVertexCount()) / 3;
+    }
+
+    public boolean isIndexed() {
+        return indices != null;
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Turns triangle lists into indexed meshes that are cheap for the GPU to draw.
+ *
+ * optimize() runs three passes:
+ * <ol>
+ * <li>Vertices that are identical in every attribute are merged, producing an index list.</li>
+ * <li>Triangles are reordered so that vertices are reused while they are still in the GPU's
+ * post-transform cache, using Tom Forsyth's linear-speed vertex cache optimisation.</li>
+ * <li>Vertices are renumbered in the order the triangles first use them, so that vertex fetch
+ * walks memory forwards.</li>
+ * </ol>
+ * The average cache miss ratio (ACMR, transformed vertices per triangle) measures the result: 3.0
+ * means no reuse at all, and well-ordered regular meshes get close to 0.5.
+ */
+public final class MeshOptimizer {
+    /** Cache size used when measuring ACMR. Mobile GPUs have between 8 and 32 entries. */
+    public static final int DEFAULT_CACHE_SIZE = 16;
+
+    // Tuning constants from Forsyth's paper.
+    private static final int MODEL_CACHE_SIZE = 32;
+    private static final float CACHE_DECAY_POWER = 1.5f;
+    private static final float LAST_TRIANGLE_SCORE = 0.75f;
+    private static final float VALENCE_BOOST_SCALE = 2.0f;
+    private static final float VALENCE_BOOST_POWER = 0.5f;
+
+    private MeshOptimizer() {
+    }
+
+    /**
+     * Runs all passes over a mesh.
+     * @param mesh A non-indexed or indexed mesh.
+     * @return An indexed mesh that draws the same triangles.
+     */
+    public static MeshData optimize(MeshData mesh) {
+        MeshData indexed = mesh.isIndexed() ? mesh : deduplicate(mesh);
+        short[] indices = indexed.indices.clone();
+        optimizeVertexCache(indices, indexed.getVertexCount());
+        return optimizeVertexFetch(new MeshData(indexed.positions, indexed.normals,
+                indexed.colors, indices));
+    }
+
+    /**
+     * Merges vertices that are identical in every attribute.
+     * @param mesh A non-indexed mesh.
+     * @return An indexed mesh with one copy of each distinct vertex.
+     */
+    public static MeshData deduplicate(MeshData mesh) {
+        int vertexCount = mesh.getVertexCount();
+        Map<VertexKey, Integer> unique = new HashMap<VertexKey, Integer>();
+        short[] indices = new short[vertexCount];
+        int[] firstOccurrence = new int[vertexCount];
+
+        for (int i = 0; i < vertexCount; i++) {
+            VertexKey key = new VertexKey(mesh, i);
+            Integer index = unique.get(key);
+            if (index == null) {
+                index = unique.size();
+                if (index > 0xffff) {
+                    throw new IllegalArgumentException("Too many vertices for 16-bit indices.");
+                }
+                unique.put(key, index);
+                firstOccurrence[index] = i;
+            }
+            indices[i] = (short) (int) index;
+        }
+
+        int uniqueCount = unique.size();
+        float[] positions = new float[uniqueCount * 3];
+        float[] normals = new float[uniqueCount * 3];
+        float[] colors = new float[uniqueCount * 4];
+        for (int i = 0; i < uniqueCount; i++) {
+            int source = firstOccurrence[i];
+            System.arraycopy(mesh.positions, source * 3, positions, i * 3, 3);
+            System.arraycopy(mesh.normals, source * 3, normals, i * 3, 3);
+            System.arraycopy(mesh.colors, source * 4, colors, i * 4, 4);
+        }
+        return new MeshData(positions, normals, colors, indices);
+    }
+
+    /**
+     * All attributes of one vertex, compared bit for bit.
+     */
+    private static final class VertexKey {
+        private final int[] mBits = new int[10];
+        private final int mHash;
+
+        VertexKey(MeshData mesh, int vertex) {
+            for (int c = 0; c < 3; c++) {
+                mBits[c] = Float.floatToIntBits(mesh.positions[vertex * 3 + c]);
+                mBits[3 + c] = Float.floatToIntBits(mesh.normals[vertex * 3 + c]);
+            }
+            for (int c = 0; c < 4; c++) {
+                mBits[6 + c] = Float.floatToIntBits(mesh.colors[vertex * 4 + c]);
+            }
+            mHash = Arrays.hashCode(mBits);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof VertexKey && Arrays.equals(mBits, ((VertexKey) o).mBits);
+        }
+    }
+
+    /**
+     * Reorders triangles, in place, to make the best use of the post-transform vertex cache.
+     * @param indices Three indices per triangle.
+     * @param vertexCount The number of vertices the indices refer to.
+     */
+    public static void optimizeVertexCache(short[] indices, int vertexCount) {
+        int triangleCount = indices.length / 3;
+        if (triangleCount == 0) {
+            return;
+        }
+
+        // Build the list of triangles that use each vertex.
+        int[] valence = new int[vertexCount];
+        for (short index : indices) {
+            valence[index & 0xffff]++;
+        }
+        int[] adjacencyStart = new int[vertexCount + 1];
+        for (int v = 0; v < vertexCount; v++) {
+            adjacencyStart[v + 1] = adjacencyStart[v] + valence[v];
+        }
+        int[] adjacency = new int[indices.length];
+        int[] fill = adjacencyStart.clone();
+        for (int t = 0; t < triangleCount; t++) {
+            for (int k = 0; k < 3; k++) {
+                adjacency[fill[indices[t * 3 + k] & 0xffff]++] = t;
+            }
+        }
+
+        // remaining[v] counts the triangles using v that have not been emitted yet.
+        int[] remaining = valence.clone();
+        int[] cachePosition = new int[vertexCount];
+        Arrays.fill(cachePosition, -1);
+        float[] vertexScore = new float[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            vertexScore[v] = vertexScore(-1, remaining[v]);
+        }
+        float[] triangleScore = new float[triangleCount];
+        boolean[] emitted = new boolean[triangleCount];
+        for (int t = 0; t < triangleCount; t++) {
+            triangleScore[t] = vertexScore[indices[t * 3] & 0xffff]
+                    + vertexScore[indices[t * 3 + 1] & 0xffff]
+                    + vertexScore[indices[t * 3 + 2] & 0xffff];
+        }
+
+        // The modelled LRU cache. It briefly holds three extra entries while a triangle is added.
+        int[] cache = new int[MODEL_CACHE_SIZE + 3];
+        int[] newCache = new int[MODEL_CACHE_SIZE + 3];
+        int cacheCount = 0;
+
+        short[] output = new short[indices.length];
+        int bestTriangle = -1;
+        for (int emittedCount = 0; emittedCount < triangleCount; emittedCount++) {
+            if (bestTriangle < 0) {
+                // Nothing in the cache is worth drawing, so fall back to a full scan.
+                float bestScore = -1f;
+                for (int t = 0; t < triangleCount; t++) {
+                    if (!emitted[t] && triangleScore[t] > bestScore) {
+                        bestScore = triangleScore[t];
+                        bestTriangle = t;
+                    }
+                }
+            }
+
+            emitted[bestTriangle] = true;
+            System.arraycopy(indices, bestTriangle * 3, output, emittedCount * 3, 3);
+
+            // Move the triangle's vertices to the front of the cache and push the others back.
+            int newCount = 0;
+            for (int k = 0; k < 3; k++) {
+                int v = indices[bestTriangle * 3 + k] & 0xffff;
+                newCache[newCount++] = v;
+                remaining[v]--;
+            }
+            for (int i = 0; i < cacheCount; i++) {
+                int v = cache[i];
+                if (v != newCache[0] && v != newCache[1] && v != newCache[2]) {
+                    newCache[newCount++] = v;
+                }
+            }
+            int[] swap = cache;
+            cache = newCache;
+            newCache = swap;
+            cacheCount = newCount;
+
+            // Rescore everything touched, including vertices that just fell out of the cache.
+            for (int i = 0; i < cacheCount; i++) {
+                int v = cache[i];
+                int position = i < MODEL_CACHE_SIZE ? i : -1;
+                cachePosition[v] = position;
+                vertexScore[v] = vertexScore(position, remaining[v]);
+            }
+            bestTriangle = -1;
+            float bestScore = -1f;
+            for (int i = 0; i < cacheCount; i++) {
+                int v = cache[i];
+                for (int a = adjacencyStart[v]; a < adjacencyStart[v + 1]; a++) {
+                    int t = adjacency[a];
+                    if (emitted[t]) {
+                        continue;
+                    }
+                    float score = vertexScore[indices[t * 3] & 0xffff]
+                            + vertexScore[indices[t * 3 + 1] & 0xffff]
+                            + vertexScore[indices[t * 3 + 2] & 0xffff];
+                    triangleScore[t] = score;
+                    if (score > bestScore) {
+                        bestScore = score;
+                        bestTriangle = t;
+                    }
+                }
+            }
+            if (cacheCount > MODEL_CACHE_SIZE) {
+                cacheCount = MODEL_CACHE_SIZE;
+            }
+        }
+
+        System.arraycopy(output, 0, indices, 0, indices.length);
+    }
+
+    private static float vertexScore(int cachePosition, int remainingValence) {
+        if (remainingValence == 0) {
+            // No triangle needs this vertex any more.
+            return -1f;
+        }
+
+        float score = 0f;
+        if (cachePosition >= 0) {
+            if (cachePosition < 3) {
+                // The vertex was used by the last triangle. Don't favour it over the rest of the
+                // cache, or the order degenerates into long thin strips.
+                score = LAST_TRIANGLE_SCORE;
+            } else {
+                float scale = 1f / (MODEL_CACHE_SIZE - 3);
+                score = (float) Math.pow(1f - (cachePosition - 3) * scale, CACHE_DECAY_POWER);
+            }
+        }
+
+        // Prefer vertices with few triangles left, so that lone triangles don't get stranded.
+        score += VALENCE_BOOST_SCALE * (float) Math.pow(remainingValence, -VALENCE_BOOST_POWER);
+        return score;
+    }
+
+    /**
+     * Renumbers vertices in the order the index list first uses them, and drops vertices that no
+     * triangle uses.
+     * @param mesh An indexed mesh.
+     * @return The renumbered mesh.
+     */
+    public static MeshData optimizeVertexFetch(MeshData mesh) {
+        int vertexCount = mesh.getVertexCount();
+        int[] remap = new int[vertexCount];
+        Arrays.fill(remap, -1);
+        short[] indices = new short[mesh.indices.length];
+        int next = 0;
+        for (int i = 0; i < indices.length; i++) {
+            int v = mesh.indices[i] & 0xffff;
+            if (remap[v] < 0) {
+                remap[v] = next++;
+            }
+            indices[i] = (short) remap[v];
+        }
+
+        float[] positions = new float[next * 3];
+        float[] normals = new float[next * 3];
+        float[] colors = new float[next * 4];
+        for (int v = 0; v < vertexCount; v++) {
+            int target = remap[v];
+            if (target >= 0) {
+                System.arraycopy(mesh.positions, v * 3, positions, target * 3, 3);
+                System.arraycopy(mesh.normals, v * 3, normals, target * 3, 3);
+                System.arraycopy(mesh.colors, v * 4, colors, target * 4, 4);
+            }
+        }
+        return new MeshData(positions, normals, colors, indices);
+    }
+
+    /**
+     * Measures the average cache miss ratio of a mesh against a FIFO post-transform cache.
+     * @param mesh An indexed or non-indexed mesh.
+     * @param cacheSize The number of cache entries to model.
+     * @return The number of vertices transformed per triangle.
+     */
+    public static float computeAcmr(MeshData mesh, int cacheSize) {
+        int triangleCount = mesh.getTriangleCount();
+        if (triangleCount == 0) {
+            return 0f;
+        }
+        if (!mesh.isIndexed()) {
+            // Without indices the GPU cannot tell that two vertices are the same.
+            return 3f;
+        }
+
+        int[] fifo = new int[cacheSize];
+        Arrays.fill(fifo, -1);
+        int head = 0;
+        int misses = 0;
+        for (short index : mesh.indices) {
+            int v = index & 0xffff;
+            boolean hit = false;
+            for (int entry : fifo) {
+                if (entry == v) {
+                    hit = true;
+                    break;
+                }
+            }
+            if (!hit) {
+                misses++;
+                fifo[head] = v;
+                head = (head + 1) % cacheSize;
+            }
+        }
+        return (float) misses / triangleCount;
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Packs float mesh data into a VertexFormat, offline, for MeshConverter to write out as MeshFiles.
+ * The device only maps the results.
+ *
+ * The encoding and decoding helpers are plain Java so that round-trip error can be measured off
+ * the device.
+ */
+public final class MeshPacker {
+    /**
+     * Vertices packed by encode(), together with what the shader needs to unpack the positions.
+     */
+    public static final class PackedVertices {
+        public final ByteBuffer data;
+        public final int vertexCount;
+        public final float[] positionScale;
+        public final float[] positionOffset;
+
+        private PackedVertices(ByteBuffer data, int vertexCount, float[] positionScale,
+                float[] positionOffset) {
+            this.data = data;
+            this.vertexCount = vertexCount;
+            this.positionScale = positionScale;
+            this.positionOffset = positionOffset;
+        }
+    }
+
+    private MeshPacker() {
+    }
+
+    /**
+     * Packs a mesh that has levels of detail, or is one, in memory.
+     * @param format The layout to pack the vertices into.
+     * @param data The mesh.
+     * @param error For a level of detail, its QuadricSimplifier.Level error; otherwise 0.
+     * @param lodCount For the full mesh, the number of levels of detail that go with it;
+     *     otherwise 0.
+     */
+    public static MeshFile pack(VertexFormat format, MeshData data, float error, int lodCount) {
+        PackedVertices packed = encode(format, data.positions, data.normals, data.colors);
+        float[] min = new float[3];
+        float[] max = new float[3];
+        computeBounds(data.positions, min, max);
+
+        ByteBuffer indices = null;
+        int indexCount = 0;
+        if (data.isIndexed()) {
+            indexCount = data.indices.length;
+            indices = ByteBuffer.allocateDirect(indexCount * 2);
+            indices.order(ByteOrder.nativeOrder());
+            indices.asShortBuffer().put(data.indices);
+        }
+        return new MeshFile(format, packed.data, packed.vertexCount, indices, indexCount, min, max,
+                packed.positionScale, packed.positionOffset, error, lodCount);
+    }
+
+    /**
+     * Packs separate float attribute arrays, such as those in WorldLayoutData, into a format.
+     * @param positions Three floats per vertex.
+     * @param normals Three floats per vertex, of unit length.
+     * @param colors Four floats per vertex, each between 0 and 1.
+     */
+    public static PackedVertices encode(VertexFormat format, float[] positions, float[] normals,
+            float[] colors) {
+        int stride = format.getStride();
+        int positionEncoding = format.getPositionEncoding();
+        int normalEncoding = format.getNormalEncoding();
+        int colorEncoding = format.getColorEncoding();
+        int vertexCount = positions.length / 3;
+        if (normals.length != vertexCount * 3 || colors.length != vertexCount * 4) {
+            throw new IllegalArgumentException("Attribute arrays have different vertex counts.");
+        }
+
+        float[] scale = new float[] {1f, 1f, 1f};
+        float[] offset = new float[3];
+        if (positionEncoding == VertexFormat.POSITION_UNORM16) {
+            computeBounds(positions, offset, scale);
+            // scale holds the maximum corner; turn it into the extent.
+            for (int c = 0; c < 3; c++) {
+                scale[c] -= offset[c];
+            }
+        }
+
+        ByteBuffer data = ByteBuffer.allocateDirect(vertexCount * stride);
+        data.order(ByteOrder.nativeOrder());
+        short[] oct = new short[2];
+        for (int i = 0; i < vertexCount; i++) {
+            int base = i * stride;
+
+            data.position(base + format.getOffset(VertexFormat.ATTRIBUTE_POSITION));
+            for (int c = 0; c < 3; c++) {
+                float p = positions[i * 3 + c];
+                switch (positionEncoding) {
+                    case VertexFormat.POSITION_FLOAT:
+                        data.putFloat(p);
+                        break;
+                    case VertexFormat.POSITION_HALF_FLOAT:
+                        data.putShort(floatToHalf(p));
+                        break;
+                    default:
+                        data.putShort(encodeUnorm16(p, offset[c], scale[c]));
+                        break;
+                }
+            }
+
+            data.position(base + format.getOffset(VertexFormat.ATTRIBUTE_NORMAL));
+            float nx = normals[i * 3];
+            float ny = normals[i * 3 + 1];
+            float nz = normals[i * 3 + 2];
+            switch (normalEncoding) {
+                case VertexFormat.NORMAL_FLOAT:
+                    data.putFloat(nx).putFloat(ny).putFloat(nz);
+                    break;
+                case VertexFormat.NORMAL_SNORM16:
+                    data.putShort(encodeSnorm16(nx)).putShort(encodeSnorm16(ny))
+                            .putShort(encodeSnorm16(nz));
+                    break;
+                default:
+                    encodeOctahedral(nx, ny, nz, oct, 0);
+                    data.putShort(oct[0]).putShort(oct[1]);
+                    break;
+            }
+
+            data.position(base + format.getOffset(VertexFormat.ATTRIBUTE_COLOR));
+            for (int c = 0; c < 4; c++) {
+                float v = colors[i * 4 + c];
+                if (colorEncoding == VertexFormat.COLOR_FLOAT) {
+                    data.putFloat(v);
+                } else {
+                    data.put(encodeUnorm8(v));
+                }
+            }
+        }
+        data.position(0);
+        return new PackedVertices(data, vertexCount, scale, offset);
+    }
+
+    /**
+     * Finds the axis-aligned bounds of a position array.
+     * @param positions Three floats per vertex.
+     * @param min Receives the minimum corner.
+     * @param max Receives the maximum corner.
+     */
+    public static void computeBounds(float[] positions, float[] min, float[] max) {
+        for (int c = 0; c < 3; c++) {
+            min[c] = Float.POSITIVE_INFINITY;
+            max[c] = Float.NEGATIVE_INFINITY;
+        }
+        for (int i = 0; i < positions.length; i += 3) {
+            for (int c = 0; c < 3; c++) {
+                min[c] = Math.min(min[c], positions[i + c]);
+                max[c] = Math.max(max[c], positions[i + c]);
+            }
+        }
+    }
+
+    /**
+     * Quantizes a value inside [offset, offset + scale] to 16 bits.
+     */
+    public static short encodeUnorm16(float value, float offset, float scale) {
+        if (scale == 0f) {
+            return 0;
+        }
+        float t = (value - offset) / scale;
+        t = Math.max(0f, Math.min(1f, t));
+        return (short) Math.round(t * 65535f);
+    }
+
+    public static float decodeUnorm16(short value, float offset, float scale) {
+        return offset + (value & 0xffff) / 65535f * scale;
+    }
+
+    public static short encodeSnorm16(float value) {
+        return (short) Math.round(Math.max(-1f, Math.min(1f, value)) * 32767f);
+    }
+
+    /**
+     * Maps a signed normalized 16-bit value back to [-1, 1] as ES 3.0 does, c / 32767, so that 0
+     * stays exactly 0. ES 2.0 specifies (2c + 1) / 65535 instead, which reads every value but
+     * 32767 and -32768 higher than this, by up to 2 / 65535 near -1, and never gives exactly 0.
+     * On a GPU that follows it, the normals the shader sees are off by that much more than this
+     * decode suggests.
+     */
+    public static float decodeSnorm16(short value) {
+        return Math.max(value / 32767f, -1f);
+    }
+
+    public static byte encodeUnorm8(float value) {
+        return (byte) Math.round(Math.max(0f, Math.min(1f, value)) * 255f);
+    }
+
+    public static float decodeUnorm8(byte value) {
+        return (value & 0xff) / 255f;
+    }
+
+    /**
+     * Projects a unit vector onto the octahedron, unfolds it into a square, and quantizes the two
+     * coordinates to 16 bits each.
+     * @param out Receives the two encoded values.
+     */
+    public static void encodeOctahedral(float x, float y, float z, short[] out, int offset) {
+        float invL1 = 1f / (Math.abs(x) + Math.abs(y) + Math.abs(z));
+        float u = x * invL1;
+        float v = y * invL1;
+        if (z < 0f) {
+            // Fold the lower hemisphere over the diagonals.
+            float foldedU = (1f - Math.abs(v)) * signNotZero(u);
+            float foldedV = (1f - Math.abs(u)) * signNotZero(v);
+            u = foldedU;
+            v = foldedV;
+        }
+        out[offset] = encodeSnorm16(u);
+        out[offset + 1] = encodeSnorm16(v);
+    }
+
+    /**
+     * The inverse of encodeOctahedral, matching the decode in light_vertex.shader.
+     * @param out Receives the unit vector.
+     */
+    public static void decodeOctahedral(short encodedU, short encodedV, float[] out, int offset) {
+        float u = decodeSnorm16(encodedU);
+        float v = decodeSnorm16(encodedV);
+        float z = 1f - Math.abs(u) - Math.abs(v);
+        if (z < 0f) {
+            float unfoldedU = (1f - Math.abs(v)) * signNotZero(u);
+            float unfoldedV = (1f - Math.abs(u)) * signNotZero(v);
+            u = unfoldedU;
+            v = unfoldedV;
+        }
+        float invLength = 1f / (float) Math.sqrt(u * u + v * v + z * z);
+        out[offset] = u * invLength;
+        out[offset + 1] = v * invLength;
+        out[offset + 2] = z * invLength;
+    }
+
+    private static float signNotZero(float value) {
+        return value >= 0f ? 1f : -1f;
+    }
+
+    /**
+     * Converts a float to an IEEE 754 half float, rounding to nearest.
+     */
+    public static short floatToHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int magnitude = bits & 0x7fffffff;
+        int rounded = magnitude + 0x1000;
+
+        if (rounded >= 0x47800000) {
+            if (magnitude >= 0x47800000) {
+                if (magnitude < 0x7f800000) {
+                    return (short) (sign | 0x7c00);  // Too large: infinity.
+                }
+                return (short) (sign | 0x7c00 | ((bits & 0x007fffff) >>> 13));  // Inf or NaN.
+            }
+            return (short) (sign | 0x7bff);  // Rounds up past the largest half: clamp.
+        }
+        if (rounded >= 0x38800000) {
+            return (short) (sign | ((rounded - 0x38000000) >>> 13));  // Normal.
+        }
+        if (rounded < 0x33000000) {
+            return (short) sign;  // Too small: signed zero.
+        }
+        // Subnormal.
+        int exponent = magnitude >>> 23;
+        return (short) (sign | ((((bits & 0x7fffff) | 0x800000)
+                + (0x800000 >>> (exponent - 102))) >>> (126 - exponent)));
+    }
+
+    public static float halfToFloat(short half) {
+        int h = half & 0xffff;
+        int sign = (h & 0x8000) << 16;
+        int exponent = (h >>> 10) & 0x1f;
+        int mantissa = h & 0x3ff;
+
+        if (exponent == 0) {
+            // Zero or subnormal.
+            float f = mantissa / 1024f / 16384f;
+            return sign != 0 ? -f : f;
+        }
+        if (exponent == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+    }
+}
@@ -0,0 +1,500 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A GLApi that draws nothing, for running the renderer on a desktop JVM.
+ *
+ * It does just enough to get through setup: shaders always compile, and linking a program finds
+ * the attributes and uniforms declared in its sources, so that ShaderProgram sees them as active.
+ * The declarations are found without preprocessing, so ones inside #ifdef blocks are reported
+ * too. Everything else is ignored, and nothing called while drawing allocates.
+ */
+public class NoOpGL implements GLApi {
+    private static final int MAX_VERTEX_UNIFORM_VECTORS = 256;
+    private static final int MAX_NAME_LENGTH = 64;
+
+    private static final Pattern DECLARATION = Pattern.compile(
+            "\\b(attribute|uniform)\\s+(?:(?:lowp|mediump|highp)\\s+)?(\\w+)\\s+(\\w+)"
+            + "\\s*(?:\\[\\s*(\\w+)\\s*\\])?\\s*;");
+
+    private final Map<Integer, Shader> mShaders = new HashMap<Integer, Shader>();
+    private final Map<Integer, Program> mPrograms = new HashMap<Integer, Program>();
+    private int mNextName = 1;
+
+    private static final class Shader {
+        String source = "";
+    }
+
+    private static final class Variable {
+        final String name;
+        final int type;
+        final int size;
+
+        Variable(String name, int type, int size) {
+            this.name = name;
+            this.type = type;
+            this.size = size;
+        }
+    }
+
+    private static final class Program {
+        final List<Shader> shaders = new ArrayList<Shader>();
+        final Map<String, Integer> boundLocations = new HashMap<String, Integer>();
+        final List<Variable> attributes = new ArrayList<Variable>();
+        final List<Variable> uniforms = new ArrayList<Variable>();
+
+        void link() {
+            attributes.clear();
+            uniforms.clear();
+            for (Shader shader : shaders) {
+                Matcher m = DECLARATION.matcher(shader.source);
+                while (m.find()) {
+                    boolean attribute = m.group(1).equals("attribute");
+                    List<Variable> variables = attribute ? attributes : uniforms;
+                    String name = m.group(3);
+                    int size = 1;
+                    if (m.group(4) != null) {
+                        // Array sizes are often macros, which don't matter here.
+                        size = m.group(4).matches("\\d+") ? Integer.parseInt(m.group(4)) : 1;
+                        name += "[0]";
+                    }
+                    if (find(variables, name) < 0) {
+                        variables.add(new Variable(name, getType(m.group(2)), size));
+                    }
+                }
+            }
+        }
+
+        int getAttribLocation(String name) {
+            Integer bound = boundLocations.get(name);
+            if (bound != null) {
+                return bound;
+            }
+            // Keep clear of the bound locations.
+            int index = find(attributes, name);
+            return index < 0 ? -1 : boundLocations.size() + index;
+        }
+
+        int getUniformLocation(String name) {
+            int index = find(uniforms, name);
+            return index >= 0 ? index : find(uniforms, name + "[0]");
+        }
+
+        private static int find(List<Variable> variables, String name) {
+            for (int i = 0; i < variables.size(); i++) {
+                if (variables.get(i).name.equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static int getType(String glslType) {
+        if (glslType.equals("vec2")) {
+            return GLES20.GL_FLOAT_VEC2;
+        } else if (glslType.equals("vec3")) {
+            return GLES20.GL_FLOAT_VEC3;
+        } else if (glslType.equals("vec4")) {
+            return GLES20.GL_FLOAT_VEC4;
+        } else if (glslType.equals("mat4")) {
+            return GLES20.GL_FLOAT_MAT4;
+        } else if (glslType.equals("sampler2D")) {
+            return GLES20.GL_SAMPLER_2D;
+        }
+        return GLES20.GL_FLOAT;
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        Program p = mPrograms.get(program);
+        Shader s = mShaders.get(shader);
+        if (p != null && s != null) {
+            p.shaders.add(s);
+        }
+    }
+
+    @Override
+    public void glBindAttribLocation(int program, int index, String name) {
+        Program p = mPrograms.get(program);
+        if (p != null) {
+            p.boundLocations.put(name, index);
+        }
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+    }
+
+    @Override
+    public void glBlendFunc(int sfactor, int dfactor) {
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+    }
+
+    @Override
+    public void glClear(int mask) {
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+    }
+
+    @Override
+    public int glCreateProgram() {
+        int name = mNextName++;
+        mPrograms.put(name, new Program());
+        return name;
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        int name = mNextName++;
+        mShaders.put(name, new Shader());
+        return name;
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        mPrograms.remove(program);
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        mShaders.remove(shader);
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+    }
+
+    @Override
+    public void glDisable(int cap) {
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+    }
+
+    @Override
+    public void glEnable(int cap) {
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        for (int i = 0; i < n; i++) {
+            buffers[offset + i] = mNextName++;
+        }
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        for (int i = 0; i < n; i++) {
+            textures[offset + i] = mNextName++;
+        }
+    }
+
+    @Override
+    public void glGetActiveAttrib(int program, int index, int bufsize, int[] length,
+            int lengthOffset, int[] size, int sizeOffset, int[] type, int typeOffset, byte[] name,
+            int nameOffset) {
+        Variable v = mPrograms.get(program).attributes.get(index);
+        byte[] bytes = v.name.getBytes();
+        int count = Math.min(bytes.length, bufsize - 1);
+        System.arraycopy(bytes, 0, name, nameOffset, count);
+        length[lengthOffset] = count;
+        size[sizeOffset] = v.size;
+        type[typeOffset] = v.type;
+    }
+
+    @Override
+    public void glGetActiveUniform(int program, int index, int bufsize, int[] length,
+            int lengthOffset, int[] size, int sizeOffset, int[] type, int typeOffset, byte[] name,
+            int nameOffset) {
+        Variable v = mPrograms.get(program).uniforms.get(index);
+        byte[] bytes = v.name.getBytes();
+        int count = Math.min(bytes.length, bufsize - 1);
+        System.arraycopy(bytes, 0, name, nameOffset, count);
+        length[lengthOffset] = count;
+        size[sizeOffset] = v.size;
+        type[typeOffset] = v.type;
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        Program p = mPrograms.get(program);
+        return p == null ? -1 : p.getAttribLocation(name);
+    }
+
+    @Override
+    public int glGetError() {
+        return 0;
+    }
+
+    @Override
+    public void glGetIntegerv(int pname, int[] params, int offset) {
+        params[offset] = pname == GLES20.GL_MAX_VERTEX_UNIFORM_VECTORS
+                ? MAX_VERTEX_UNIFORM_VECTORS : 0;
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        return "";
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        Program p = mPrograms.get(program);
+        switch (pname) {
+            case GLES20.GL_LINK_STATUS:
+                params[offset] = p != null ? 1 : 0;
+                break;
+            case GLES20.GL_ACTIVE_ATTRIBUTES:
+                params[offset] = p.attributes.size();
+                break;
+            case GLES20.GL_ACTIVE_UNIFORMS:
+                params[offset] = p.uniforms.size();
+                break;
+            case GLES20.GL_ACTIVE_ATTRIBUTE_MAX_LENGTH:
+            case GLES20.GL_ACTIVE_UNIFORM_MAX_LENGTH:
+                params[offset] = MAX_NAME_LENGTH;
+                break;
+            default:
+                params[offset] = 0;
+        }
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        return "";
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        params[offset] = pname == GLES20.GL_COMPILE_STATUS && mShaders.containsKey(shader) ? 1 : 0;
+    }
+
+    @Override
+    public String glGetString(int name) {
+        return null;
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        Program p = mPrograms.get(program);
+        return p == null ? -1 : p.getUniformLocation(name);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        Program p = mPrograms.get(program);
+        if (p != null) {
+            p.link();
+        }
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string) {
+        Shader s = mShaders.get(shader);
+        if (s != null) {
+            s.source = string;
+        }
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height,
+            int border, int format, int type, Buffer pixels) {
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+    }
+
+    @Override
+    public void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width,
+            int height, int format, int type, Buffer pixels) {
+    }
+
+    @Override
+    public void glUniform1f(int location, float x) {
+    }
+
+    @Override
+    public void glUniform3f(int location, float x, float y, float z) {
+    }
+
+    @Override
+    public void glUniform4f(int location, float x, float y, float z, float w) {
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+            int offset) {
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+            int offset) {
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+    }
+
+    @Override
+    public void glBeginQuery(int target, int id) {
+    }
+
+    @Override
+    public void glDeleteQueries(int n, int[] ids, int offset) {
+    }
+
+    @Override
+    public void glEndQuery(int target) {
+    }
+
+    @Override
+    public void glGenQueries(int n, int[] ids, int offset) {
+        for (int i = 0; i < n; i++) {
+            ids[offset + i] = mNextName++;
+        }
+    }
+
+    @Override
+    public void glGetQueryObjectuiv(int id, int pname, int[] params, int offset) {
+    }
+
+    @Override
+    public void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+            int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+        length[lengthOffset] = 0;
+    }
+
+    @Override
+    public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+    }
+
+    @Override
+    public void glProgramParameteri(int program, int pname, int value) {
+    }
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer) {
+    }
+
+    @Override
+    public void glBindRenderbuffer(int target, int renderbuffer) {
+    }
+
+    @Override
+    public int glCheckFramebufferStatus(int target) {
+        return GLES20.GL_FRAMEBUFFER_COMPLETE;
+    }
+
+    @Override
+    public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+    }
+
+    @Override
+    public void glDeleteRenderbuffers(int n, int[] renderbuffers, int offset) {
+    }
+
+    @Override
+    public void glFramebufferRenderbuffer(int target, int attachment, int renderbuffertarget,
+            int renderbuffer) {
+    }
+
+    @Override
+    public void glFramebufferTexture2D(int target, int attachment, int textarget, int texture,
+            int level) {
+    }
+
+    @Override
+    public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+        for (int i = 0; i < n; i++) {
+            framebuffers[offset + i] = mNextName++;
+        }
+    }
+
+    @Override
+    public void glGenRenderbuffers(int n, int[] renderbuffers, int offset) {
+        for (int i = 0; i < n; i++) {
+            renderbuffers[offset + i] = mNextName++;
+        }
+    }
+
+    @Override
+    public void glRenderbufferStorage(int target, int internalformat, int width, int height) {
+    }
+
+    @Override
+    public void glScissor(int x, int y, int width, int height) {
+    }
+
+}
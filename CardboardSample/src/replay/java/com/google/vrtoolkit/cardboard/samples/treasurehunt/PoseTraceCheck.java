@@ -0,0 +1,277 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import com.google.vrtoolkit.cardboard.CardboardView;
+import com.google.vrtoolkit.cardboard.EyeParams;
+import com.google.vrtoolkit.cardboard.EyeTransform;
+import com.google.vrtoolkit.cardboard.HeadTransform;
+import com.google.vrtoolkit.cardboard.Viewport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.microedition.khronos.egl.EGLConfig;
+
+/**
+ * Checks PoseRecorder and PoseTrace on a desktop JVM.
+ *
+ * Frames of random poses are passed through a PoseRecorder, with trigger pulls between them and
+ * one frame drawing more eyes than a trace holds. Every callback must reach the renderer behind
+ * it unchanged, even once the trace is full, and the trace must hold exactly what was passed in.
+ * The trace is then written out and read back, and must come back bit for bit. Streams that
+ * aren't traces, or are of another version or a bad frame or eye count, must be refused. From
+ * the CardboardSample directory, compiled as for ReplayBenchmark:
+ * <pre>
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.PoseTraceCheck
+ * </pre>
+ */
+public class PoseTraceCheck extends Check {
+    private static final long SEED = 1;
+    private static final int CAPACITY = 50;
+    // More than fit, so that recording stops part way through.
+    private static final int FRAMES = 60;
+    private static final long FRAME_NANOS = 16666667L;
+    // Draws three eyes, one more than a trace holds.
+    private static final int EXTRA_EYE_FRAME = 7;
+
+    /**
+     * A clock that only moves when it's told to.
+     */
+    private static final class FakeClock implements Clock {
+        long time = 3000000000L;
+
+        @Override
+        public long nanoTime() {
+            return time;
+        }
+    }
+
+    /**
+     * A head transform whose head view is set by the check.
+     */
+    private static final class FakeHeadTransform extends HeadTransform {
+        final float[] headView = new float[16];
+
+        @Override
+        public void getHeadView(float[] headView, int offset) {
+            System.arraycopy(this.headView, 0, headView, offset, 16);
+        }
+    }
+
+    /**
+     * Counts the callbacks it gets, and keeps the last head view and eye view.
+     */
+    private static final class CountingRenderer implements CardboardView.StereoRenderer {
+        int frames;
+        int eyes;
+        int finishes;
+        int surfaceCreates;
+        int surfaceChanges;
+        int shutdowns;
+        final float[] headView = new float[16];
+        final float[] eyeView = new float[16];
+
+        @Override
+        public void onNewFrame(HeadTransform headTransform) {
+            frames++;
+            headTransform.getHeadView(headView, 0);
+        }
+
+        @Override
+        public void onDrawEye(EyeTransform transform) {
+            eyes++;
+            System.arraycopy(transform.getEyeView(), 0, eyeView, 0, 16);
+        }
+
+        @Override
+        public void onFinishFrame(Viewport viewport) {
+            finishes++;
+        }
+
+        @Override
+        public void onSurfaceChanged(int width, int height) {
+            surfaceChanges++;
+        }
+
+        @Override
+        public void onSurfaceCreated(EGLConfig config) {
+            surfaceCreates++;
+        }
+
+        @Override
+        public void onRendererShutdown() {
+            shutdowns++;
+        }
+    }
+
+    private final Random mRandom = new Random(SEED);
+    private final float[] mExpected = new float[16];
+    private final float[] mActual = new float[16];
+
+    private void randomize(float[] matrix) {
+        for (int i = 0; i < 16; i++) {
+            matrix[i] = mRandom.nextFloat() * 4f - 2f;
+        }
+    }
+
+    /**
+     * The trigger pulls made before a frame.
+     */
+    private static int getTriggers(int frame) {
+        return frame % 5 == 0 ? frame % 3 : 0;
+    }
+
+    private static int getEyeCount(int frame) {
+        return frame == EXTRA_EYE_FRAME ? 3 : frame % 4 == 0 ? 1 : 2;
+    }
+
+    /**
+     * @return The eye drawn as the given one of a frame, as EyeParams.Eye values.
+     */
+    private static int getEye(int frame, int eye) {
+        return getEyeCount(frame) == 1 ? EyeParams.Eye.MONOCULAR : EyeParams.Eye.LEFT + eye % 2;
+    }
+
+    /**
+     * Records FRAMES frames through a PoseRecorder.
+     * @return The trace it recorded.
+     */
+    PoseTrace checkRecording() {
+        FakeClock clock = new FakeClock();
+        CountingRenderer renderer = new CountingRenderer();
+        PoseRecorder recorder = new PoseRecorder(renderer, clock, CAPACITY);
+        FakeHeadTransform head = new FakeHeadTransform();
+        EyeTransform[] transforms = new EyeTransform[] {
+                new EyeParams(EyeParams.Eye.MONOCULAR).getTransform(),
+                new EyeParams(EyeParams.Eye.LEFT).getTransform(),
+                new EyeParams(EyeParams.Eye.RIGHT).getTransform()};
+        Viewport viewport = new Viewport();
+
+        recorder.onSurfaceCreated(null);
+        recorder.onSurfaceChanged(1920, 1080);
+        // Replays the random numbers for each frame when checking the trace.
+        mRandom.setSeed(SEED);
+        boolean passedOn = true;
+        int eyes = 0;
+        for (int f = 0; f < FRAMES; f++) {
+            clock.time += FRAME_NANOS;
+            for (int t = 0; t < getTriggers(f); t++) {
+                recorder.onTrigger();
+            }
+            randomize(head.headView);
+            recorder.onNewFrame(head);
+            passedOn &= Arrays.equals(renderer.headView, head.headView);
+            for (int e = 0; e < getEyeCount(f); e++) {
+                EyeTransform transform = transforms[getEye(f, e)];
+                randomize(transform.getEyeView());
+                randomize(transform.getPerspective());
+                recorder.onDrawEye(transform);
+                passedOn &= Arrays.equals(renderer.eyeView, transform.getEyeView());
+                eyes++;
+            }
+            recorder.onFinishFrame(viewport);
+        }
+        recorder.onRendererShutdown();
+        expect("Every callback reaches the renderer, with its poses", passedOn
+                && renderer.frames == FRAMES && renderer.eyes == eyes
+                && renderer.finishes == FRAMES && renderer.surfaceCreates == 1
+                && renderer.surfaceChanges == 1 && renderer.shutdowns == 1);
+
+        PoseTrace trace = recorder.getTrace();
+        expect("Recording stops once the trace is full", trace.getFrameCount() == CAPACITY);
+        expect("The trace holds what was recorded", matches(trace, clock.time
+                - (FRAMES - 1) * FRAME_NANOS));
+        return trace;
+    }
+
+    /**
+     * @return Whether a trace holds the poses of checkRecording(), with the given first time.
+     */
+    private boolean matches(PoseTrace trace, long firstTime) {
+        mRandom.setSeed(SEED);
+        boolean matches = true;
+        for (int f = 0; f < trace.getFrameCount(); f++) {
+            matches &= trace.getTime(f) == firstTime + f * FRAME_NANOS;
+            matches &= trace.getTriggers(f) == getTriggers(f);
+            randomize(mExpected);
+            trace.getHeadView(f, mActual, 0);
+            matches &= Arrays.equals(mExpected, mActual);
+            matches &= trace.getEyeCount(f) == Math.min(getEyeCount(f), PoseTrace.MAX_EYES);
+            for (int e = 0; e < getEyeCount(f); e++) {
+                boolean kept = e < PoseTrace.MAX_EYES;
+                matches &= !kept || trace.getEye(f, e) == getEye(f, e);
+                randomize(mExpected);
+                if (kept) {
+                    trace.getEyeView(f, e, mActual, 0);
+                    matches &= Arrays.equals(mExpected, mActual);
+                }
+                randomize(mExpected);
+                if (kept) {
+                    trace.getPerspective(f, e, mActual, 0);
+                    matches &= Arrays.equals(mExpected, mActual);
+                }
+            }
+        }
+        return matches;
+    }
+
+    void checkRoundTrip(PoseTrace trace) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        trace.write(out);
+        PoseTrace read = PoseTrace.read(new ByteArrayInputStream(out.toByteArray()));
+        expect("A trace reads back exactly as it was written",
+                read.getFrameCount() == trace.getFrameCount()
+                && matches(read, trace.getTime(0)));
+
+        byte[] bytes = out.toByteArray();
+        expect("A stream that isn't a trace is refused", refused(bytes, 0, 5));
+        expect("Another version is refused", refused(bytes, 7, 5));
+        // The top byte of the frame count.
+        expect("A negative frame count is refused", refused(bytes, 8, -1));
+        expect("An implausibly large frame count is refused", refused(bytes, 8, 5));
+        // The first frame's eye count: after the header, time, triggers and head view.
+        expect("A bad eye count is refused", refused(bytes, 12 + 8 + 4 + 16 * 4 + 3, 5));
+    }
+
+    /**
+     * @return Whether reading the trace fails with one of its bytes changed by delta.
+     */
+    private static boolean refused(byte[] trace, int index, int delta) {
+        byte[] bytes = trace.clone();
+        bytes[index] += delta;
+        try {
+            PoseTrace.read(new ByteArrayInputStream(bytes));
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    @Override
+    protected void run() throws IOException {
+        checkRoundTrip(checkRecording());
+    }
+
+    public static void main(String[] args) {
+        main(new PoseTraceCheck(), args);
+    }
+}
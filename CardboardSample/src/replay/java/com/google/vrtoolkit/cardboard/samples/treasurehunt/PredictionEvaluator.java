@@ -0,0 +1,172 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Measures how well PosePredictor foresees the head views of a pose recording, on a desktop JVM.
+ *
+ * Each frame's head view is added to a predictor, which then predicts the head view some horizon
+ * later. That is compared with the recording at that time, interpolated between the frames either
+ * side of it, and the error is the angle of the rotation between the two. Holding on to the last
+ * head view, which is what drawing without prediction amounts to, is measured the same way, as are
+ * a few velocity windows. From the CardboardSample directory, compiled as for ReplayBenchmark:
+ * <pre>
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.PredictionEvaluator poses.bin \
+ *     [horizonMs...]
+ * </pre>
+ * The default horizons are one, two and three frames at 60Hz.
+ */
+public class PredictionEvaluator {
+    private static final int[] DEFAULT_HORIZONS_MS = {16, 33, 50};
+    private static final int CAPACITY = 8;
+    // The velocity windows to try; zero looks back one sample.
+    private static final long[] WINDOWS_NANOS = {0L, 25000000L, 50000000L};
+    private static final double PERCENTILE = 0.95;
+
+    private final PoseTrace mTrace;
+    private final float[] mQuaternions;
+
+    PredictionEvaluator(PoseTrace trace) {
+        mTrace = trace;
+        int frames = trace.getFrameCount();
+        mQuaternions = new float[frames * 4];
+        float[] headView = new float[16];
+        for (int f = 0; f < frames; f++) {
+            trace.getHeadView(f, headView, 0);
+            PosePredictor.toQuaternion(headView, 0, mQuaternions, f * 4);
+        }
+    }
+
+    /**
+     * @param windowNanos The predictor's velocity window, or -1 to hold the last head view.
+     * @return The error of every frame that has a recorded head view a horizon later, in degrees.
+     */
+    float[] measure(long horizonNanos, long windowNanos) {
+        int frames = mTrace.getFrameCount();
+        PosePredictor predictor = new PosePredictor(CAPACITY, Math.max(0L, windowNanos));
+        float[] headView = new float[16];
+        float[] predicted = new float[16];
+        float[] q = new float[4];
+        float[] truth = new float[4];
+        float[] errors = new float[frames];
+        int count = 0;
+        int next = 0;
+        long end = mTrace.getTime(frames - 1);
+        for (int f = 0; f < frames; f++) {
+            long target = mTrace.getTime(f) + horizonNanos;
+            if (target > end) {
+                break;
+            }
+            mTrace.getHeadView(f, headView, 0);
+            predictor.addSample(mTrace.getTime(f), headView, 0);
+            if (windowNanos < 0) {
+                System.arraycopy(headView, 0, predicted, 0, 16);
+            } else {
+                predictor.predict(target, predicted, 0);
+            }
+            PosePredictor.toQuaternion(predicted, 0, q, 0);
+
+            // The recorded frames either side of the target.
+            while (next < frames - 1 && mTrace.getTime(next + 1) <= target) {
+                next++;
+            }
+            if (next == frames - 1) {
+                System.arraycopy(mQuaternions, next * 4, truth, 0, 4);
+            } else {
+                long t0 = mTrace.getTime(next);
+                float alpha = (target - t0) / (float) (mTrace.getTime(next + 1) - t0);
+                slerp(mQuaternions, next * 4, (next + 1) * 4, alpha, truth);
+            }
+            float dot = Math.abs(q[0] * truth[0] + q[1] * truth[1] + q[2] * truth[2]
+                    + q[3] * truth[3]);
+            errors[count++] = (float) Math.toDegrees(2.0 * Math.acos(Math.min(1f, dot)));
+        }
+        return Arrays.copyOf(errors, count);
+    }
+
+    private static void slerp(float[] q, int a, int b, float alpha, float[] out) {
+        double dot = q[a] * q[b] + q[a + 1] * q[b + 1] + q[a + 2] * q[b + 2] + q[a + 3] * q[b + 3];
+        double sign = dot < 0.0 ? -1.0 : 1.0;
+        dot = Math.min(1.0, Math.abs(dot));
+        double angle = Math.acos(dot);
+        double wa = 1.0 - alpha;
+        double wb = alpha;
+        if (angle > 1e-6) {
+            wa = Math.sin((1.0 - alpha) * angle) / Math.sin(angle);
+            wb = Math.sin(alpha * angle) / Math.sin(angle);
+        }
+        for (int i = 0; i < 4; i++) {
+            out[i] = (float) (wa * q[a + i] + sign * wb * q[b + i]);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: PredictionEvaluator <poses> [horizonMs...]");
+            System.exit(2);
+        }
+        PoseTrace trace;
+        InputStream in = new FileInputStream(args[0]);
+        try {
+            trace = PoseTrace.read(in);
+        } finally {
+            in.close();
+        }
+        if (trace.getFrameCount() < 2) {
+            System.err.println("The recording needs at least two frames.");
+            System.exit(1);
+        }
+        int[] horizons = DEFAULT_HORIZONS_MS;
+        if (args.length > 1) {
+            horizons = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                horizons[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        PredictionEvaluator evaluator = new PredictionEvaluator(trace);
+        System.out.println("Predicting " + trace.getFrameCount() + " frames, error in degrees.");
+        System.out.println(String.format("%10s %-16s %8s %8s %8s", "horizon ms", "method", "mean",
+                "p95", "max"));
+        for (int horizon : horizons) {
+            for (int w = -1; w < WINDOWS_NANOS.length; w++) {
+                long window = w < 0 ? -1L : WINDOWS_NANOS[w];
+                String method = w < 0 ? "hold" : "window " + window / 1000000 + " ms";
+                float[] errors = evaluator.measure(horizon * 1000000L, window);
+                if (errors.length == 0) {
+                    System.out.println(String.format("%10d %-16s %8s", horizon, method,
+                            "too short"));
+                    continue;
+                }
+                double sum = 0.0;
+                for (float error : errors) {
+                    sum += error;
+                }
+                Arrays.sort(errors);
+                System.out.println(String.format("%10d %-16s %8.3f %8.3f %8.3f", horizon, method,
+                        sum / errors.length, errors[(int) (PERCENTILE * (errors.length - 1))],
+                        errors[errors.length - 1]));
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.GLES30;
+
+/**
+ * Checks LatencyHistogram, FrameProfiler and GpuTimer on a desktop JVM, with a fake clock and a
+ * fake GL.
+ *
+ * The histogram's buckets must cover every duration once, each no wider than its promised
+ * accuracy, and its percentiles must land in the right bucket. The profiler is driven through
+ * frames of known lengths, and must count the right number of dropped frames, report its phases
+ * and summaries at the right times, and start again afterwards. The GPU timer is given results
+ * with and without a disjoint event, including one that only shows up once they have been read.
+ * From the CardboardSample directory, compiled as for ReplayBenchmark:
+ * <pre>
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.ProfilerCheck
+ * </pre>
+ */
+public class ProfilerCheck extends Check {
+    private static final long REFRESH_NANOS = 16666667L;
+    private static final long SUMMARY_NANOS = 1000000000L;
+    // Every bucket is at most a sixteenth of its lower bound wide.
+    private static final double ACCURACY = 1.0 / 16.0;
+
+    /**
+     * A clock that only moves when it's told to.
+     */
+    private static final class FakeClock implements Clock {
+        long time = 1000000000L;
+
+        @Override
+        public long nanoTime() {
+            return time;
+        }
+    }
+
+    /**
+     * Has every timer query finish with a given result, and reports a disjoint event once the
+     * results have been read, if told to.
+     */
+    private static final class QueryGL extends NoOpGL {
+        private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+        int result;
+        boolean disjointAfterRead;
+        private boolean mDisjoint;
+
+        @Override
+        public void glGetQueryObjectuiv(int id, int pname, int[] params, int offset) {
+            if (pname == GLES30.GL_QUERY_RESULT_AVAILABLE) {
+                params[offset] = 1;
+            } else {
+                params[offset] = result;
+                mDisjoint |= disjointAfterRead;
+            }
+        }
+
+        @Override
+        public void glGetIntegerv(int pname, int[] params, int offset) {
+            if (pname == GL_GPU_DISJOINT_EXT) {
+                params[offset] = mDisjoint ? 1 : 0;
+                mDisjoint = false;
+            } else {
+                super.glGetIntegerv(pname, params, offset);
+            }
+        }
+    }
+
+    void checkBuckets() {
+        boolean contiguous = true;
+        boolean inside = true;
+        boolean narrow = true;
+        long next = 0;
+        int bucket = 0;
+        // Up to the last bucket, which holds everything beyond.
+        while (LatencyHistogram.getBucket(next) == bucket) {
+            long lower = LatencyHistogram.getBucketLowerBound(bucket);
+            long width = LatencyHistogram.getBucketWidth(bucket);
+            contiguous &= lower == next;
+            inside &= LatencyHistogram.getBucket(lower + width - 1) == bucket
+                    && (lower == 0 || LatencyHistogram.getBucket(lower - 1) == bucket - 1);
+            narrow &= lower < 32 ? width == 1 : width <= lower * ACCURACY;
+            next = lower + width;
+            bucket++;
+        }
+        long lastLower = LatencyHistogram.getBucketLowerBound(bucket - 1);
+        System.out.println(bucket + " buckets, the last from " + lastLower / 1e6 + " s");
+        expect("  Every bucket starts where the one before ends", contiguous);
+        expect("  Every duration from a bucket's bounds falls in it", inside);
+        expect("  Buckets are 1 us wide below 32 us, and within 1/16 above", narrow);
+        expect("  The buckets reach past a minute", lastLower > 60000000L);
+        expect("  Longer durations go in the last bucket",
+                LatencyHistogram.getBucket(Long.MAX_VALUE / 1000) == bucket - 1);
+    }
+
+    void checkPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        expect("An empty histogram reports zero", h.getPercentile(0.5) == 0 && h.getMax() == 0);
+
+        // 1 to 1000 us, once each, backwards so that the order doesn't matter.
+        for (long micros = 1000; micros >= 1; micros--) {
+            h.record(micros * 1000);
+        }
+        boolean close = true;
+        for (double fraction : new double[] {0.01, 0.5, 0.95, 0.99}) {
+            double expected = fraction * 1000 * 1000;
+            close &= Math.abs(h.getPercentile(fraction) - expected) <= expected * ACCURACY;
+        }
+        expect("Percentiles of 1 to 1000 us are within a bucket", close);
+        expect("The count and maximum are exact",
+                h.getCount() == 1000 && h.getMax() == 1000000 && h.getPercentile(1.0) <= 1000000);
+
+        h.reset();
+        h.record(20500);
+        expect("A single duration is reported to the middle of its 1 us bucket",
+                h.getPercentile(0.5) == 20500);
+        h.record(-5);
+        expect("Negative durations count as zero", h.getPercentile(0.01) == 500
+                && h.getCount() == 2 && h.getMax() == 20500);
+        h.reset();
+        // In the bucket from 992 to 1024 us.
+        h.record(1000100);
+        expect("A percentile is never more than the maximum", h.getPercentile(0.5) == 1000100);
+        h.record(3600L * 1000000000L);
+        expect("Durations beyond the last bucket are reported as the maximum",
+                h.getPercentile(1.0) == 3600L * 1000000000L);
+    }
+
+    void checkFrameProfiler() {
+        FakeClock clock = new FakeClock();
+        FrameProfiler profiler = new FrameProfiler(clock, REFRESH_NANOS, SUMMARY_NANOS);
+        // Frames of one, two and two and three quarter refresh periods, then one back to normal.
+        long[] intervals = {REFRESH_NANOS, 2 * REFRESH_NANOS, 11 * REFRESH_NANOS / 4,
+                REFRESH_NANOS};
+        profiler.beginFrame();
+        for (long interval : intervals) {
+            profiler.end(FrameProfiler.PHASE_NEW_FRAME);
+            profiler.begin(FrameProfiler.PHASE_LEFT_EYE);
+            clock.time += 2000000L;
+            profiler.end(FrameProfiler.PHASE_LEFT_EYE);
+            profiler.begin(FrameProfiler.PHASE_RIGHT_EYE);
+            clock.time += 3000000L;
+            profiler.end(FrameProfiler.PHASE_RIGHT_EYE);
+            clock.time += interval - 5000000L;
+            profiler.beginFrame();
+        }
+        expect("Frames and missed vsyncs are counted",
+                profiler.getFrameCount() == 4 && profiler.getDroppedFrames() == 3);
+        expect("The last interval is kept", profiler.getLastInterval() == REFRESH_NANOS);
+        LatencyHistogram left = profiler.getPhase(FrameProfiler.PHASE_LEFT_EYE);
+        LatencyHistogram right = profiler.getPhase(FrameProfiler.PHASE_RIGHT_EYE);
+        expect("Each phase is timed by the clock", left.getCount() == 4
+                && left.getMax() == 2000000L && right.getMax() == 3000000L
+                && profiler.getPhase(FrameProfiler.PHASE_NEW_FRAME).getMax() == 0);
+        expect("The frame intervals are counted",
+                profiler.getFrameIntervals().getMax() == 11 * REFRESH_NANOS / 4);
+
+        profiler.recordGpu(FrameProfiler.PHASE_RIGHT_EYE, 4000000L);
+        expect("GPU times go to their eye",
+                profiler.getLastGpu(FrameProfiler.PHASE_RIGHT_EYE) == 4000000L
+                && profiler.getGpu(FrameProfiler.PHASE_LEFT_EYE).getCount() == 0);
+
+        clock.time += SUMMARY_NANOS / 2;
+        expect("No summary until the interval has passed", profiler.pollSummary() == null);
+        clock.time += SUMMARY_NANOS / 2;
+        String summary = profiler.pollSummary();
+        expect("The summary has the frames and each histogram's percentiles", summary != null
+                && summary.startsWith("4 frames, 3 dropped")
+                && summary.contains("leftEye: p50 2.00 p95 2.00 p99 2.00 max 2.00 ms")
+                && summary.contains("gpuRightEye: p50 4.00")
+                && !summary.contains("gpuLeftEye"));
+        expect("The counts start again after a summary", profiler.getFrameCount() == 0
+                && profiler.getDroppedFrames() == 0 && left.getCount() == 0
+                && profiler.pollSummary() == null);
+
+        profiler.skipInterval();
+        clock.time += 10 * REFRESH_NANOS;
+        profiler.beginFrame();
+        expect("A skipped interval isn't counted", profiler.getFrameCount() == 0
+                && profiler.getDroppedFrames() == 0);
+    }
+
+    void checkGpuTimer() {
+        FakeClock clock = new FakeClock();
+        FrameProfiler profiler = new FrameProfiler(clock, REFRESH_NANOS, SUMMARY_NANOS);
+        QueryGL gl = new QueryGL();
+        GpuTimer timer = new GpuTimer(gl, profiler);
+
+        gl.result = 5000000;
+        timer.begin(FrameProfiler.PHASE_LEFT_EYE);
+        timer.end();
+        timer.begin(FrameProfiler.PHASE_RIGHT_EYE);
+        timer.end();
+        timer.poll();
+        expect("GPU times are recorded for their eyes",
+                profiler.getGpu(FrameProfiler.PHASE_LEFT_EYE).getCount() == 1
+                && profiler.getLastGpu(FrameProfiler.PHASE_RIGHT_EYE) == 5000000L);
+
+        gl.result = 7000000;
+        gl.disjointAfterRead = true;
+        timer.begin(FrameProfiler.PHASE_LEFT_EYE);
+        timer.end();
+        timer.poll();
+        expect("Results are dropped for a disjoint event while they are read",
+                profiler.getGpu(FrameProfiler.PHASE_LEFT_EYE).getCount() == 1
+                && profiler.getLastGpu(FrameProfiler.PHASE_LEFT_EYE) == 5000000L);
+
+        gl.disjointAfterRead = false;
+        timer.begin(FrameProfiler.PHASE_LEFT_EYE);
+        timer.end();
+        timer.poll();
+        expect("Reading the disjoint flag clears it",
+                profiler.getLastGpu(FrameProfiler.PHASE_LEFT_EYE) == 7000000L);
+    }
+
+    @Override
+    protected void run() {
+        checkBuckets();
+        checkPercentiles();
+        checkFrameProfiler();
+        checkGpuTimer();
+    }
+
+    public static void main(String[] args) {
+        main(new ProfilerCheck(), args);
+    }
+}
@@ -0,0 +1,601 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Reduces meshes to fewer triangles offline, for distant levels of detail, with Garland and
+ * Heckbert's quadric error metric.
+ *
+ * Every position gathers the planes of the triangles around it as a quadric, the sum of squared
+ * distances to those planes. Edges are collapsed cheapest first, and a collapsed position hands
+ * its planes on, so the cost of a collapse bounds how far the surviving position is from every
+ * plane it has taken over. Open edges add planes at right angles to their triangle, which keeps
+ * the outline in place.
+ *
+ * The collapses are half-edge collapses: one end of the edge moves onto the other, so no vertex
+ * is ever invented and normals and colors stay exactly as they were. Positions where the
+ * attributes differ between triangles, such as a hard edge or a color boundary, never move, and
+ * nor do positions where the surface isn't a simple sheet. A position on an open edge only slides
+ * along that edge. A collapse is refused if it would join the surface to itself or turn a
+ * triangle over.
+ */
+public final class QuadricSimplifier {
+    /** A simplified mesh, and how far it is from the mesh it was simplified from. */
+    public static final class Level {
+        public final MeshData mesh;
+        /**
+         * The largest quadric error of any collapse, as a distance in model units: every vertex is
+         * within this of the planes of the source triangles it replaced.
+         */
+        public final float error;
+
+        Level(MeshData mesh, float error) {
+            this.mesh = mesh;
+            this.error = error;
+        }
+    }
+
+    /** A level has to have at most this fraction of the previous level's triangles to be kept. */
+    private static final float MIN_REDUCTION = 0.9f;
+
+    // How freely a position may move.
+    private static final int MANIFOLD = 0;
+    private static final int BORDER = 1;
+    private static final int LOCKED = 2;
+
+    // Ten doubles per quadric: the upper triangle of the symmetric 4x4 matrix, row by row.
+    private static final int QUADRIC_SIZE = 10;
+
+    private final MeshData mMesh;
+    private final int[] mCorners;
+    private final boolean[] mDeadTriangles;
+    private int mTriangleCount;
+
+    // Per vertex: its position, as vertices with equal positions are welded together.
+    private final int[] mPositionOf;
+    // Per position.
+    private final double[] mPositions;
+    private final double[] mQuadrics;
+    private final int[] mKinds;
+    private final boolean[] mDeadPositions;
+    private final int[][] mFans;
+    private final int[] mFanSizes;
+    private final int[] mMarks;
+    private int mMark;
+
+    private final PriorityQueue<Collapse> mQueue = new PriorityQueue<Collapse>();
+    private double mMaxCost;
+
+    /**
+     * Simplifies a mesh as far as a triangle count, or as far as it can within an error.
+     * @param mesh An indexed or non-indexed mesh.
+     * @param targetTriangles How many triangles to stop at.
+     * @param maxError The furthest, in model units, a vertex may end up from the planes it
+     *     replaces.
+     * @return An optimized, indexed mesh.
+     */
+    public static Level simplify(MeshData mesh, int targetTriangles, float maxError) {
+        QuadricSimplifier simplifier = new QuadricSimplifier(
+                mesh.isIndexed() ? mesh : MeshOptimizer.deduplicate(mesh));
+        simplifier.run(targetTriangles, (double) maxError * maxError);
+        return new Level(MeshOptimizer.optimize(simplifier.toMesh()),
+                (float) Math.sqrt(simplifier.mMaxCost));
+    }
+
+    /**
+     * Builds a chain of levels of detail, each with about ratio times the triangles of the one
+     * before. Every level is simplified from the source, so that its error is measured against
+     * the source rather than piling up from level to level.
+     * @param mesh An indexed or non-indexed mesh.
+     * @param maxLevels How many simplified levels to make at most.
+     * @param ratio The fraction of triangles to keep from one level to the next.
+     * @param maxError The largest error any level may have, in model units.
+     * @return Level 0, the source optimized with an error of 0, followed by the simplified levels.
+     *     The chain ends early once a level can't be made much smaller within maxError.
+     */
+    public static List<Level> simplifyChain(MeshData mesh, int maxLevels, float ratio,
+            float maxError) {
+        List<Level> levels = new ArrayList<Level>();
+        MeshData source = mesh.isIndexed() ? mesh : MeshOptimizer.deduplicate(mesh);
+        levels.add(new Level(MeshOptimizer.optimize(source), 0f));
+        float target = source.getTriangleCount();
+        for (int i = 1; i <= maxLevels; i++) {
+            target *= ratio;
+            Level level = simplify(source, (int) Math.ceil(target), maxError);
+            int previous = levels.get(levels.size() - 1).mesh.getTriangleCount();
+            if (level.mesh.getTriangleCount() > previous * MIN_REDUCTION) {
+                break;
+            }
+            levels.add(level);
+        }
+        return levels;
+    }
+
+    private QuadricSimplifier(MeshData mesh) {
+        mMesh = mesh;
+        int vertexCount = mesh.getVertexCount();
+        mCorners = new int[mesh.indices.length];
+        for (int i = 0; i < mCorners.length; i++) {
+            mCorners[i] = mesh.indices[i] & 0xffff;
+        }
+        int triangleCount = mCorners.length / 3;
+        mDeadTriangles = new boolean[triangleCount];
+
+        // Weld vertices that differ only in their other attributes, and count the copies.
+        Map<PositionKey, Integer> unique = new HashMap<PositionKey, Integer>();
+        mPositionOf = new int[vertexCount];
+        int[] firstVertex = new int[vertexCount];
+        int[] copies = new int[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            PositionKey key = new PositionKey(mesh.positions, v);
+            Integer position = unique.get(key);
+            if (position == null) {
+                position = unique.size();
+                unique.put(key, position);
+                firstVertex[position] = v;
+            }
+            mPositionOf[v] = position;
+        }
+        int positionCount = unique.size();
+        mPositions = new double[positionCount * 3];
+        for (int p = 0; p < positionCount; p++) {
+            for (int c = 0; c < 3; c++) {
+                mPositions[p * 3 + c] = mesh.positions[firstVertex[p] * 3 + c];
+            }
+        }
+        mQuadrics = new double[positionCount * QUADRIC_SIZE];
+        mKinds = new int[positionCount];
+        mDeadPositions = new boolean[positionCount];
+        mFans = new int[positionCount][];
+        mFanSizes = new int[positionCount];
+        mMarks = new int[positionCount];
+
+        // Only vertices that are used count as copies.
+        boolean[] used = new boolean[vertexCount];
+        for (int corner : mCorners) {
+            if (!used[corner]) {
+                used[corner] = true;
+                copies[mPositionOf[corner]]++;
+            }
+        }
+
+        // Triangles that are already collapsed are dropped, and the rest join their fans.
+        Map<Long, Integer> edgeUses = new HashMap<Long, Integer>();
+        for (int t = 0; t < triangleCount; t++) {
+            int a = position(t, 0);
+            int b = position(t, 1);
+            int c = position(t, 2);
+            if (a == b || b == c || c == a) {
+                mDeadTriangles[t] = true;
+                continue;
+            }
+            mTriangleCount++;
+            for (int k = 0; k < 3; k++) {
+                addToFan(position(t, k), t);
+                Long edge = edgeKey(position(t, k), position(t, (k + 1) % 3));
+                Integer uses = edgeUses.get(edge);
+                edgeUses.put(edge, uses == null ? 1 : uses + 1);
+            }
+        }
+
+        int[] borderEdges = new int[positionCount];
+        double[] normal = new double[3];
+        for (int t = 0; t < triangleCount; t++) {
+            if (mDeadTriangles[t] || !computeNormal(position(t, 0), position(t, 1),
+                    position(t, 2), normal)) {
+                continue;
+            }
+            double d = -dot(normal, position(t, 0));
+            for (int k = 0; k < 3; k++) {
+                addPlane(position(t, k), normal[0], normal[1], normal[2], d);
+            }
+            for (int k = 0; k < 3; k++) {
+                int a = position(t, k);
+                int b = position(t, (k + 1) % 3);
+                int uses = edgeUses.get(edgeKey(a, b));
+                if (uses > 2) {
+                    mKinds[a] = LOCKED;
+                    mKinds[b] = LOCKED;
+                } else if (uses == 1) {
+                    borderEdges[a]++;
+                    borderEdges[b]++;
+                    addBorderPlane(a, b, normal);
+                }
+            }
+        }
+        for (int p = 0; p < positionCount; p++) {
+            if (copies[p] > 1 || mKinds[p] == LOCKED || mFanSizes[p] == 0) {
+                mKinds[p] = LOCKED;
+            } else if (borderEdges[p] == 0) {
+                mKinds[p] = MANIFOLD;
+            } else {
+                mKinds[p] = borderEdges[p] == 2 ? BORDER : LOCKED;
+            }
+        }
+    }
+
+    private int position(int triangle, int corner) {
+        return mPositionOf[mCorners[triangle * 3 + corner]];
+    }
+
+    private static Long edgeKey(int a, int b) {
+        return ((long) Math.min(a, b) << 32) | Math.max(a, b);
+    }
+
+    private void addToFan(int position, int triangle) {
+        int[] fan = mFans[position];
+        if (fan == null) {
+            fan = mFans[position] = new int[8];
+        } else if (mFanSizes[position] == fan.length) {
+            fan = mFans[position] = Arrays.copyOf(fan, fan.length * 2);
+        }
+        fan[mFanSizes[position]++] = triangle;
+    }
+
+    private void run(int targetTriangles, double maxCost) {
+        for (int p = 0; p < mKinds.length; p++) {
+            queueEdges(p);
+        }
+        while (mTriangleCount > targetTriangles && !mQueue.isEmpty()) {
+            Collapse collapse = mQueue.poll();
+            if (collapse.cost > maxCost) {
+                break;
+            }
+            int from = collapse.from;
+            int to = collapse.to;
+            if (mDeadPositions[from] || mDeadPositions[to]) {
+                continue;
+            }
+            // Costs only grow as quadrics are added, so a stale cost is too low, never too high.
+            double cost = computeCost(from, to);
+            if (cost > collapse.cost) {
+                mQueue.add(new Collapse(from, to, cost));
+                continue;
+            }
+            int toVertex = findCollapseVertex(from, to);
+            if (toVertex >= 0) {
+                apply(from, to, toVertex);
+                mMaxCost = Math.max(mMaxCost, cost);
+                queueEdges(to);
+            }
+        }
+    }
+
+    /**
+     * Queues the collapses of every edge around a position, in both directions.
+     */
+    private void queueEdges(int position) {
+        if (mDeadPositions[position]) {
+            return;
+        }
+        int mark = nextMark();
+        int[] fan = mFans[position];
+        for (int i = 0; i < mFanSizes[position]; i++) {
+            int t = fan[i];
+            if (mDeadTriangles[t]) {
+                continue;
+            }
+            for (int k = 0; k < 3; k++) {
+                int other = position(t, k);
+                if (other == position || mMarks[other] == mark) {
+                    continue;
+                }
+                mMarks[other] = mark;
+                if (mKinds[position] != LOCKED) {
+                    mQueue.add(new Collapse(position, other, computeCost(position, other)));
+                }
+                if (mKinds[other] != LOCKED) {
+                    mQueue.add(new Collapse(other, position, computeCost(other, position)));
+                }
+            }
+        }
+    }
+
+    private int nextMark() {
+        return ++mMark;
+    }
+
+    /**
+     * Checks whether from may move onto to.
+     * @return The vertex that from's triangles should use instead of from's vertex, or -1 if the
+     *     collapse isn't allowed.
+     */
+    private int findCollapseVertex(int from, int to) {
+        // The triangles on the edge, which the collapse removes.
+        int shared = 0;
+        int toVertex = -1;
+        int[] fan = mFans[from];
+        for (int i = 0; i < mFanSizes[from]; i++) {
+            int t = fan[i];
+            if (mDeadTriangles[t]) {
+                continue;
+            }
+            for (int k = 0; k < 3; k++) {
+                if (position(t, k) == to) {
+                    int vertex = mCorners[t * 3 + k];
+                    if (toVertex >= 0 && vertex != toVertex) {
+                        // The edge runs across a seam of to's attributes.
+                        return -1;
+                    }
+                    toVertex = vertex;
+                    shared++;
+                }
+            }
+        }
+        if (shared == 0) {
+            return -1;
+        }
+        boolean border = shared == 1;
+        if (mKinds[from] == MANIFOLD ? border
+                : !border || mKinds[to] == MANIFOLD || mKinds[from] == LOCKED) {
+            return -1;
+        }
+
+        // The link condition: the ends may only share the neighbours across the removed
+        // triangles, or the collapse would join the surface to itself.
+        int mark = nextMark();
+        markNeighbours(from, mark);
+        int common = 0;
+        int[] toFan = mFans[to];
+        int toMark = nextMark();
+        for (int i = 0; i < mFanSizes[to]; i++) {
+            int t = toFan[i];
+            if (mDeadTriangles[t]) {
+                continue;
+            }
+            for (int k = 0; k < 3; k++) {
+                int other = position(t, k);
+                if (other != from && other != to && mMarks[other] == mark) {
+                    mMarks[other] = toMark;
+                    common++;
+                }
+            }
+        }
+        if (common != shared) {
+            return -1;
+        }
+
+        // No remaining triangle may turn over.
+        double[] before = new double[3];
+        double[] after = new double[3];
+        for (int i = 0; i < mFanSizes[from]; i++) {
+            int t = fan[i];
+            if (mDeadTriangles[t] || contains(t, to)) {
+                continue;
+            }
+            int a = position(t, 0);
+            int b = position(t, 1);
+            int c = position(t, 2);
+            computeNormal(a, b, c, before);
+            if (!computeNormal(a == from ? to : a, b == from ? to : b, c == from ? to : c, after)
+                    || before[0] * after[0] + before[1] * after[1] + before[2] * after[2] <= 0.0) {
+                return -1;
+            }
+        }
+        return toVertex;
+    }
+
+    private void markNeighbours(int position, int mark) {
+        int[] fan = mFans[position];
+        for (int i = 0; i < mFanSizes[position]; i++) {
+            int t = fan[i];
+            if (!mDeadTriangles[t]) {
+                for (int k = 0; k < 3; k++) {
+                    mMarks[position(t, k)] = mark;
+                }
+            }
+        }
+    }
+
+    private boolean contains(int triangle, int position) {
+        return position(triangle, 0) == position || position(triangle, 1) == position
+                || position(triangle, 2) == position;
+    }
+
+    private void apply(int from, int to, int toVertex) {
+        int[] fan = mFans[from];
+        for (int i = 0; i < mFanSizes[from]; i++) {
+            int t = fan[i];
+            if (mDeadTriangles[t]) {
+                continue;
+            }
+            if (contains(t, to)) {
+                mDeadTriangles[t] = true;
+                mTriangleCount--;
+                continue;
+            }
+            for (int k = 0; k < 3; k++) {
+                if (position(t, k) == from) {
+                    mCorners[t * 3 + k] = toVertex;
+                }
+            }
+            addToFan(to, t);
+        }
+        for (int i = 0; i < QUADRIC_SIZE; i++) {
+            mQuadrics[to * QUADRIC_SIZE + i] += mQuadrics[from * QUADRIC_SIZE + i];
+        }
+        mDeadPositions[from] = true;
+        mFans[from] = null;
+        mFanSizes[from] = 0;
+
+        // Drop the removed triangles from the fan, so that it doesn't keep growing.
+        int[] toFan = mFans[to];
+        int size = 0;
+        for (int i = 0; i < mFanSizes[to]; i++) {
+            if (!mDeadTriangles[toFan[i]]) {
+                toFan[size++] = toFan[i];
+            }
+        }
+        mFanSizes[to] = size;
+    }
+
+    /**
+     * @return The squared distance error of moving from onto to, with both quadrics.
+     */
+    private double computeCost(int from, int to) {
+        double x = mPositions[to * 3];
+        double y = mPositions[to * 3 + 1];
+        double z = mPositions[to * 3 + 2];
+        int f = from * QUADRIC_SIZE;
+        int t = to * QUADRIC_SIZE;
+        double[] q = mQuadrics;
+        double cost = (q[f] + q[t]) * x * x + 2.0 * (q[f + 1] + q[t + 1]) * x * y
+                + 2.0 * (q[f + 2] + q[t + 2]) * x * z + 2.0 * (q[f + 3] + q[t + 3]) * x
+                + (q[f + 4] + q[t + 4]) * y * y + 2.0 * (q[f + 5] + q[t + 5]) * y * z
+                + 2.0 * (q[f + 6] + q[t + 6]) * y
+                + (q[f + 7] + q[t + 7]) * z * z + 2.0 * (q[f + 8] + q[t + 8]) * z
+                + (q[f + 9] + q[t + 9]);
+        // Rounding can take a cost of zero just below it.
+        return Math.max(0.0, cost);
+    }
+
+    private void addPlane(int position, double a, double b, double c, double d) {
+        int o = position * QUADRIC_SIZE;
+        double[] q = mQuadrics;
+        q[o] += a * a;
+        q[o + 1] += a * b;
+        q[o + 2] += a * c;
+        q[o + 3] += a * d;
+        q[o + 4] += b * b;
+        q[o + 5] += b * c;
+        q[o + 6] += b * d;
+        q[o + 7] += c * c;
+        q[o + 8] += c * d;
+        q[o + 9] += d * d;
+    }
+
+    /**
+     * Adds the plane through an open edge at right angles to its triangle to both its ends.
+     */
+    private void addBorderPlane(int a, int b, double[] normal) {
+        double ex = mPositions[b * 3] - mPositions[a * 3];
+        double ey = mPositions[b * 3 + 1] - mPositions[a * 3 + 1];
+        double ez = mPositions[b * 3 + 2] - mPositions[a * 3 + 2];
+        double[] side = new double[] {
+            ey * normal[2] - ez * normal[1],
+            ez * normal[0] - ex * normal[2],
+            ex * normal[1] - ey * normal[0]};
+        double length = Math.sqrt(side[0] * side[0] + side[1] * side[1] + side[2] * side[2]);
+        if (length == 0.0) {
+            return;
+        }
+        for (int c = 0; c < 3; c++) {
+            side[c] /= length;
+        }
+        double d = -dot(side, a);
+        addPlane(a, side[0], side[1], side[2], d);
+        addPlane(b, side[0], side[1], side[2], d);
+    }
+
+    /**
+     * Works out the unit normal of a triangle of positions.
+     * @return False if the triangle has no area, leaving out unchanged.
+     */
+    private boolean computeNormal(int a, int b, int c, double[] out) {
+        double ax = mPositions[b * 3] - mPositions[a * 3];
+        double ay = mPositions[b * 3 + 1] - mPositions[a * 3 + 1];
+        double az = mPositions[b * 3 + 2] - mPositions[a * 3 + 2];
+        double bx = mPositions[c * 3] - mPositions[a * 3];
+        double by = mPositions[c * 3 + 1] - mPositions[a * 3 + 1];
+        double bz = mPositions[c * 3 + 2] - mPositions[a * 3 + 2];
+        double nx = ay * bz - az * by;
+        double ny = az * bx - ax * bz;
+        double nz = ax * by - ay * bx;
+        double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length == 0.0) {
+            return false;
+        }
+        out[0] = nx / length;
+        out[1] = ny / length;
+        out[2] = nz / length;
+        return true;
+    }
+
+    private double dot(double[] normal, int position) {
+        return normal[0] * mPositions[position * 3] + normal[1] * mPositions[position * 3 + 1]
+                + normal[2] * mPositions[position * 3 + 2];
+    }
+
+    /**
+     * @return The remaining triangles over the source's vertices, which may include unused ones.
+     */
+    private MeshData toMesh() {
+        short[] indices = new short[mTriangleCount * 3];
+        int next = 0;
+        for (int t = 0; t < mDeadTriangles.length; t++) {
+            if (!mDeadTriangles[t]) {
+                for (int k = 0; k < 3; k++) {
+                    indices[next++] = (short) mCorners[t * 3 + k];
+                }
+            }
+        }
+        return new MeshData(mMesh.positions, mMesh.normals, mMesh.colors, indices);
+    }
+
+    private static final class Collapse implements Comparable<Collapse> {
+        final int from;
+        final int to;
+        final double cost;
+
+        Collapse(int from, int to, double cost) {
+            this.from = from;
+            this.to = to;
+            this.cost = cost;
+        }
+
+        @Override
+        public int compareTo(Collapse other) {
+            return Double.compare(cost, other.cost);
+        }
+    }
+
+    /**
+     * A vertex position, compared bit for bit.
+     */
+    private static final class PositionKey {
+        private final int mX;
+        private final int mY;
+        private final int mZ;
+
+        PositionKey(float[] positions, int vertex) {
+            mX = Float.floatToIntBits(positions[vertex * 3]);
+            mY = Float.floatToIntBits(positions[vertex * 3 + 1]);
+            mZ = Float.floatToIntBits(positions[vertex * 3 + 2]);
+        }
+
+        @Override
+        public int hashCode() {
+            return (mX * 31 + mY) * 31 + mZ;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PositionKey)) {
+                return false;
+            }
+            PositionKey other = (PositionKey) o;
+            return mX == other.mX && mY == other.mY && mZ == other.mZ;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Checks the order RenderQueue puts draws in, on a desktop JVM.
+ *
+ * Random draws are submitted and sorted, and must come out in the order a plain comparison sort
+ * gives them: by layer, then opaque draws by program, mesh and depth, nearest first, and
+ * translucent draws by depth, furthest first, then program and mesh. Depths beyond the queue's
+ * range must sort together at its far end. Every key must give back what was submitted, and a
+ * full queue or a draw out of range must be refused. From the CardboardSample directory,
+ * compiled as for ReplayBenchmark:
+ * <pre>
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.RenderQueueCheck
+ * </pre>
+ */
+public class RenderQueueCheck extends Check {
+    private static final long SEED = 1;
+    private static final int CAPACITY = 500;
+    private static final float MAX_DEPTH = 100f;
+    private static final int ROUNDS = 20;
+
+    /**
+     * A draw as it was submitted.
+     */
+    private static final class Draw {
+        int layer;
+        int program;
+        int mesh;
+        float depth;
+        int item;
+    }
+
+    /**
+     * The order the queue's keys are meant to give, written out longhand.
+     */
+    private static final Comparator<Draw> ORDER = new Comparator<Draw>() {
+        @Override
+        public int compare(Draw a, Draw b) {
+            if (a.layer != b.layer) {
+                return a.layer - b.layer;
+            }
+            float depthA = Math.max(0f, Math.min(MAX_DEPTH, a.depth));
+            float depthB = Math.max(0f, Math.min(MAX_DEPTH, b.depth));
+            int byDepth = Float.compare(depthA, depthB);
+            int byState = a.program != b.program ? a.program - b.program : a.mesh - b.mesh;
+            if (a.layer == RenderQueue.LAYER_TRANSLUCENT) {
+                if (byDepth != 0) {
+                    return -byDepth;
+                }
+                if (byState != 0) {
+                    return byState;
+                }
+            } else {
+                if (byState != 0) {
+                    return byState;
+                }
+                if (byDepth != 0) {
+                    return byDepth;
+                }
+            }
+            return a.item - b.item;
+        }
+    };
+
+    private final Random mRandom = new Random(SEED);
+
+    private Draw[] randomDraws(int count, int layers) {
+        Draw[] draws = new Draw[count];
+        for (int i = 0; i < count; i++) {
+            Draw draw = new Draw();
+            draw.layer = mRandom.nextInt(layers);
+            draw.program = mRandom.nextInt(4);
+            draw.mesh = mRandom.nextInt(3) * 100;
+            // Far enough apart to survive quantizing, with some beyond either end of the range.
+            draw.depth = (mRandom.nextInt(12000) - 500) / 100f;
+            // Items out of order, so that they say nothing about where a draw was submitted.
+            draw.item = (i * 7919) % RenderQueue.MAX_ITEMS;
+            draws[i] = draw;
+        }
+        return draws;
+    }
+
+    /**
+     * Submits the draws to the queue, sorts it, and compares it with the longhand order.
+     */
+    private boolean sortsLikeLonghand(RenderQueue queue, Draw[] draws) {
+        queue.clear();
+        for (Draw draw : draws) {
+            queue.submit(draw.layer, draw.program, draw.mesh, draw.depth, draw.item);
+        }
+        queue.sort();
+        Draw[] expected = draws.clone();
+        Arrays.sort(expected, ORDER);
+        boolean same = queue.size() == expected.length;
+        for (int i = 0; same && i < expected.length; i++) {
+            long key = queue.getKey(i);
+            Draw draw = expected[i];
+            same = RenderQueue.getItem(key) == draw.item
+                    && RenderQueue.getLayer(key) == draw.layer
+                    && RenderQueue.getProgram(key) == draw.program
+                    && RenderQueue.getMesh(key) == draw.mesh;
+        }
+        return same;
+    }
+
+    void checkOrder() {
+        RenderQueue queue = new RenderQueue(CAPACITY, MAX_DEPTH);
+        boolean same = true;
+        for (int round = 0; round < ROUNDS; round++) {
+            same &= sortsLikeLonghand(queue, randomDraws(CAPACITY - round, 2));
+        }
+        expect("Opaque draws go by state then front to back, translucent ones back to front, "
+                + "after them", same);
+        expect("A single layer sorts the same, with its shared bytes skipped",
+                sortsLikeLonghand(queue, randomDraws(CAPACITY, 1)));
+        expect("An empty queue sorts", sortsLikeLonghand(queue, new Draw[0]));
+
+        // The same state at different depths, submitted in neither order.
+        float[] depths = {5f, 1f, 500f, 3f, -2f};
+        Draw[] draws = new Draw[depths.length * 2];
+        for (int i = 0; i < draws.length; i++) {
+            draws[i] = new Draw();
+            draws[i].layer = i % 2 == 0 ? RenderQueue.LAYER_OPAQUE : RenderQueue.LAYER_TRANSLUCENT;
+            draws[i].depth = depths[i / 2];
+            draws[i].item = i;
+        }
+        queue.clear();
+        for (Draw draw : draws) {
+            queue.submit(draw.layer, 0, 0, draw.depth, draw.item);
+        }
+        queue.sort();
+        int[] items = new int[queue.size()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = RenderQueue.getItem(queue.getKey(i));
+        }
+        expect("Depths come out as " + Arrays.toString(items),
+                Arrays.equals(items, new int[] {8, 2, 6, 0, 4, 5, 1, 7, 3, 9}));
+    }
+
+    void checkLimits() {
+        RenderQueue queue = new RenderQueue(2, MAX_DEPTH);
+        queue.submit(RenderQueue.LAYER_OPAQUE, 0, 0, 1f, 0);
+        queue.submit(RenderQueue.LAYER_OPAQUE, 0, 0, 1f, 1);
+        boolean refused = false;
+        try {
+            queue.submit(RenderQueue.LAYER_OPAQUE, 0, 0, 1f, 2);
+        } catch (IllegalStateException e) {
+            refused = true;
+        }
+        expect("A full queue refuses more draws", refused && queue.size() == 2);
+
+        queue.clear();
+        int[][] bad = {
+            {RenderQueue.LAYER_COUNT, 0, 0, 0},
+            {0, RenderQueue.MAX_PROGRAMS, 0, 0},
+            {0, 0, -1, 0},
+            {0, 0, 0, RenderQueue.MAX_ITEMS},
+        };
+        int refusals = 0;
+        for (int[] draw : bad) {
+            try {
+                queue.submit(draw[0], draw[1], draw[2], 1f, draw[3]);
+            } catch (IllegalArgumentException e) {
+                refusals++;
+            }
+        }
+        expect("Draws out of range are refused", refusals == bad.length && queue.size() == 0);
+    }
+
+    @Override
+    protected void run() {
+        checkOrder();
+        checkLimits();
+    }
+
+    public static void main(String[] args) {
+        main(new RenderQueueCheck(), args);
+    }
+}
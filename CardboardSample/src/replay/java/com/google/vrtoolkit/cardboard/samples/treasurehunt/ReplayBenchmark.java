@@ -0,0 +1,388 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import com.google.vrtoolkit.cardboard.EyeParams;
+import com.google.vrtoolkit.cardboard.EyeTransform;
+import com.google.vrtoolkit.cardboard.HeadTransform;
+import com.google.vrtoolkit.cardboard.Viewport;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Replays a pose recording through TreasureHuntRenderer on a desktop JVM, with NoOpGL in place of
+ * OpenGL ES, and reports the CPU time and allocations of each frame.
+ *
+ * Record on a device with the record_poses intent extra, pull poses.bin from the app's external
+ * files directory, then from the CardboardSample directory:
+ * <pre>
+ * ../gradlew compileReplay
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.ReplayBenchmark poses.bin
+ * </pre>
+ * android.jar is only needed to compile, for the GLES20 constants. At run time the plain Java
+ * android.opengl.Matrix and android.util.Log from src/replay take the place of the framework.
+ *
+ * The simulation is stepped to each recorded frame time with a fixed seed, and triggers are
+ * replayed before the frame they were recorded in, so every run draws exactly the same frames.
+ * Only the render callbacks are measured, not the simulation ticks, which have their own thread
+ * on a device. The first run warms up the JIT and isn't reported.
+ */
+public class ReplayBenchmark {
+    private static final long SEED = 1;
+    private static final int DEFAULT_RUNS = 5;
+
+    /**
+     * A clock that only moves when it's told to.
+     */
+    private static final class ReplayClock implements Clock {
+        long time;
+
+        @Override
+        public long nanoTime() {
+            return time;
+        }
+    }
+
+    /**
+     * A head transform whose head view is set from the recording.
+     */
+    private static final class ReplayHeadTransform extends HeadTransform {
+        final float[] headView = new float[16];
+
+        @Override
+        public void getHeadView(float[] headView, int offset) {
+            System.arraycopy(this.headView, 0, headView, offset, 16);
+        }
+    }
+
+    /**
+     * Reads the shaders and textures from a res directory, so that NoOpGL finds the shaders'
+     * declarations, and the meshes from the assets directory beside it. Textures are decoded
+     * between frames, where they aren't measured, as they would be on another thread on a device.
+     */
+    private static final class FileHost implements TreasureHuntRenderer.Host, Executor {
+        private static final String TEXTURE_DIR = "drawable-xxhdpi";
+        private static final String[] TEXTURE_EXTENSIONS = new String[] {".png", ".jpg"};
+        private static final int HUD_TEXT_SIZE = 40;
+
+        private final File mShaderDir;
+        private final File mTextureDir;
+        private final File mAssetDir;
+        private final Queue<Runnable> mPending = new ArrayDeque<Runnable>();
+
+        FileHost(File resDir) {
+            mShaderDir = new File(resDir, "raw");
+            mTextureDir = new File(resDir, TEXTURE_DIR);
+            // The assets sit next to res, as in src/main.
+            mAssetDir = new File(resDir.getAbsoluteFile().getParentFile(), "assets");
+        }
+
+        /**
+         * Runs the decodes asked for since the last call.
+         */
+        void runPending() {
+            Runnable task;
+            while ((task = mPending.poll()) != null) {
+                task.run();
+            }
+        }
+
+        @Override
+        public ByteBuffer mapAsset(String name) throws IOException {
+            FileInputStream in = new FileInputStream(new File(mAssetDir, name));
+            try {
+                FileChannel channel = in.getChannel();
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                in.close();
+            }
+        }
+
+        @Override
+        public String readShader(String name) {
+            try {
+                File file = new File(mShaderDir, name + ".shader");
+                return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+            } catch (IOException e) {
+                throw new RuntimeException("Can't read shader " + name, e);
+            }
+        }
+
+        /**
+         * NoOpGL can't make binaries, and every run should build its programs the same way.
+         */
+        @Override
+        public File getProgramCacheDir() {
+            return null;
+        }
+
+        @Override
+        public void onCaptureFinished(byte[] capture) {
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            mPending.add(task);
+        }
+
+        @Override
+        public Executor getDecodeExecutor() {
+            return this;
+        }
+
+        /**
+         * Renders the HUD font with AWT, the way GlyphRasterizer does with Android.
+         */
+        @Override
+        public GlyphAtlas createGlyphAtlas() {
+            Font font = new Font(Font.SANS_SERIF, Font.BOLD, HUD_TEXT_SIZE);
+            // Measure with a throwaway image, since the metrics need a graphics context.
+            Graphics2D g = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY).createGraphics();
+            FontMetrics metrics = g.getFontMetrics(font);
+            g.dispose();
+            float[] advances = new float[GlyphAtlas.CHAR_COUNT];
+            int maxAdvance = 0;
+            for (int i = 0; i < GlyphAtlas.CHAR_COUNT; i++) {
+                advances[i] = metrics.charWidth((char) (GlyphAtlas.FIRST_CHAR + i));
+                maxAdvance = Math.max(maxAdvance, (int) advances[i]);
+            }
+            int cellWidth = maxAdvance + 2 * GlyphAtlas.PADDING;
+            int cellHeight = metrics.getHeight() + 2 * GlyphAtlas.PADDING;
+            int width = GlyphAtlas.getWidth(cellWidth);
+            int height = GlyphAtlas.getHeight(cellHeight);
+
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+            g = image.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                    RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setFont(font);
+            g.setColor(Color.WHITE);
+            for (int i = 0; i < GlyphAtlas.CHAR_COUNT; i++) {
+                char c = (char) (GlyphAtlas.FIRST_CHAR + i);
+                g.drawString(String.valueOf(c), GlyphAtlas.getCellX(c, cellWidth)
+                        + GlyphAtlas.PADDING, GlyphAtlas.getCellY(c, cellHeight)
+                        + GlyphAtlas.PADDING + metrics.getAscent());
+            }
+            g.dispose();
+
+            ByteBuffer pixels = ByteBuffer.allocateDirect(width * height);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    pixels.put((byte) image.getRaster().getSample(x, y, 0));
+                }
+            }
+            pixels.position(0);
+            return new GlyphAtlas(cellWidth, cellHeight, advances, pixels);
+        }
+
+        /**
+         * Decodes a texture the way MainActivity does, scaled down to power-of-two sides.
+         */
+        @Override
+        public TextureManager.Image decode(String name) throws IOException {
+            BufferedImage source = null;
+            for (String extension : TEXTURE_EXTENSIONS) {
+                File file = new File(mTextureDir, name + extension);
+                if (file.exists()) {
+                    source = ImageIO.read(file);
+                    break;
+                }
+            }
+            if (source == null) {
+                throw new IOException("Can't decode texture " + name + " in " + mTextureDir);
+            }
+            int width = Integer.highestOneBit(source.getWidth());
+            int height = Integer.highestOneBit(source.getHeight());
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = image.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(source, 0, 0, width, height, null);
+            g.dispose();
+
+            ByteBuffer pixels = ByteBuffer.allocateDirect(width * height * 4);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int argb = image.getRGB(x, y);
+                    pixels.put((byte) (argb >> 16));
+                    pixels.put((byte) (argb >> 8));
+                    pixels.put((byte) argb);
+                    pixels.put((byte) (argb >>> 24));
+                }
+            }
+            pixels.position(0);
+            return new TextureManager.Image(width, height, pixels);
+        }
+    }
+
+    /**
+     * What one replay measured.
+     */
+    private static final class Result implements Simulation.Listener {
+        final LatencyHistogram cpu = new LatencyHistogram();
+        long cpuNanos;
+        long allocatedBytes;
+        int allocatingFrames;
+        volatile int objectsFound;
+        // Shows the same messages as MainActivity.
+        TreasureHuntRenderer renderer;
+
+        @Override
+        public void onObjectFound(int object, int score) {
+            objectsFound = score;
+            renderer.show3DToast("Found it! Look around for another one.\nScore = " + score);
+        }
+    }
+
+    private final PoseTrace mTrace;
+    private final int mTreasureCount;
+    private final File mResDir;
+    private final com.sun.management.ThreadMXBean mThreads;
+    private final long mThreadId = Thread.currentThread().getId();
+    // What reading the allocation counter allocates itself.
+    private long mAllocationOverhead;
+
+    public ReplayBenchmark(PoseTrace trace, int treasureCount, File resDir) {
+        mTrace = trace;
+        mTreasureCount = treasureCount;
+        mResDir = resDir;
+        mThreads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        mThreads.setThreadCpuTimeEnabled(true);
+        mThreads.setThreadAllocatedMemoryEnabled(true);
+        mAllocationOverhead = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            long before = mThreads.getThreadAllocatedBytes(mThreadId);
+            long after = mThreads.getThreadAllocatedBytes(mThreadId);
+            mAllocationOverhead = Math.min(mAllocationOverhead, after - before);
+        }
+    }
+
+    /**
+     * Replays the whole trace once, from a new renderer and simulation.
+     */
+    private Result replay() {
+        Result result = new Result();
+        ReplayClock clock = new ReplayClock();
+        clock.time = mTrace.getTime(0);
+        Tracer tracer = new Tracer(clock, 1);
+        tracer.setEnabled(false);
+        Simulation simulation =
+                new Simulation(mTreasureCount, result, tracer, clock, new Random(SEED));
+        FileHost host = new FileHost(mResDir);
+        TreasureHuntRenderer renderer = new TreasureHuntRenderer(host, new NoOpGL(),
+                ErrorCheckingGL.POLICY_PER_FRAME, simulation, clock, tracer);
+        result.renderer = renderer;
+        renderer.onSurfaceCreated(null);
+        renderer.show3DToast("Pull the magnet when you find an object.");
+
+        ReplayHeadTransform head = new ReplayHeadTransform();
+        EyeParams[] eyes = new EyeParams[] {new EyeParams(EyeParams.Eye.MONOCULAR),
+                new EyeParams(EyeParams.Eye.LEFT), new EyeParams(EyeParams.Eye.RIGHT)};
+        Viewport viewport = new Viewport();
+
+        for (int f = 0; f < mTrace.getFrameCount(); f++) {
+            clock.time = mTrace.getTime(f);
+            for (int t = 0; t < mTrace.getTriggers(f); t++) {
+                if (!renderer.onTrigger()) {
+                    renderer.show3DToast("Look around to find the object!");
+                }
+            }
+            simulation.advanceTo(clock.time);
+            host.runPending();
+            mTrace.getHeadView(f, head.headView, 0);
+
+            long allocated = mThreads.getThreadAllocatedBytes(mThreadId);
+            long cpu = mThreads.getCurrentThreadCpuTime();
+            renderer.onNewFrame(head);
+            for (int e = 0; e < mTrace.getEyeCount(f); e++) {
+                EyeTransform transform = eyes[mTrace.getEye(f, e)].getTransform();
+                mTrace.getEyeView(f, e, transform.getEyeView(), 0);
+                mTrace.getPerspective(f, e, transform.getPerspective(), 0);
+                renderer.onDrawEye(transform);
+            }
+            renderer.onFinishFrame(viewport);
+            cpu = mThreads.getCurrentThreadCpuTime() - cpu;
+            allocated = mThreads.getThreadAllocatedBytes(mThreadId) - allocated
+                    - mAllocationOverhead;
+
+            result.cpu.record(cpu);
+            result.cpuNanos += cpu;
+            if (allocated > 0) {
+                result.allocatedBytes += allocated;
+                result.allocatingFrames++;
+            }
+        }
+        renderer.onRendererShutdown();
+        return result;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 4) {
+            System.err.println("Usage: ReplayBenchmark <poses> [treasureCount] [runs] [resDir]");
+            System.exit(2);
+        }
+        PoseTrace trace;
+        InputStream in = new FileInputStream(args[0]);
+        try {
+            trace = PoseTrace.read(in);
+        } finally {
+            in.close();
+        }
+        if (trace.getFrameCount() == 0) {
+            System.err.println("The recording has no frames.");
+            System.exit(1);
+        }
+        int treasureCount = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_RUNS;
+        File resDir = new File(args.length > 3 ? args[3] : "src/main/res");
+
+        ReplayBenchmark benchmark = new ReplayBenchmark(trace, treasureCount, resDir);
+        int frames = trace.getFrameCount();
+        benchmark.replay();
+        System.out.println("Replaying " + frames + " frames with " + treasureCount
+                + " objects, " + runs + " runs after a warm-up run.");
+        System.out.println(String.format("%4s %12s %10s %10s %10s %14s %12s %7s", "run",
+                "cpu ns/frame", "p50", "p99", "max", "bytes/frame", "alloc frames", "found"));
+        for (int run = 1; run <= runs; run++) {
+            Result r = benchmark.replay();
+            System.out.println(String.format("%4d %12d %10d %10d %10d %14.1f %12d %7d", run,
+                    r.cpuNanos / frames, r.cpu.getPercentile(0.5), r.cpu.getPercentile(0.99),
+                    r.cpu.getMax(), r.allocatedBytes / (double) frames, r.allocatingFrames,
+                    r.objectsFound));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs every desktop check in src/replay, or the ones named, and exits with status 1 if any of
+ * them failed. From the CardboardSample directory:
+ * <pre>
+ * ../gradlew replayChecks
+ * </pre>
+ * which compiles src/replay with the game code first; the check task depends on it too. Once
+ * compiled, the checks can be run by hand:
+ * <pre>
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.ReplayChecks [check...]
+ * </pre>
+ */
+public class ReplayChecks {
+    private static Check[] getChecks() {
+        return new Check[] {
+            new GazeEvaluatorCheck(),
+            new VertexFormatCheck(),
+            new FrustumCheck(),
+            new TripleBufferCheck(),
+            new ProfilerCheck(),
+            new TracerCheck(),
+            new StateCachingGLCheck(),
+            new CaptureAnalyzerCheck(),
+            new PoseTraceCheck(),
+            new TextureManagerCheck(),
+            new GridTextureCheck(),
+            new ResolutionGovernorCheck(),
+            new RenderQueueCheck(),
+            new TransformHierarchyCheck(),
+            new GazeBvhCheck(),
+        };
+    }
+
+    public static void main(String[] args) {
+        List<String> names = Arrays.asList(args);
+        List<Check> checks = new ArrayList<Check>();
+        for (Check check : getChecks()) {
+            if (names.isEmpty() || names.contains(check.getClass().getSimpleName())) {
+                checks.add(check);
+            }
+        }
+        if (checks.size() < names.size()) {
+            System.err.println("Usage: ReplayChecks [check...]");
+            System.exit(2);
+        }
+        int failures = 0;
+        for (Check check : checks) {
+            System.out.println(check.getClass().getSimpleName() + ":");
+            failures += check.runChecks();
+            System.out.println();
+        }
+        Check.exit(failures);
+    }
+}
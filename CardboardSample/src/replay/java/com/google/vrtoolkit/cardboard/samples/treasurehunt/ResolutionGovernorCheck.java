@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import java.util.Random;
+
+/**
+ * Drives ResolutionGovernor with synthetic traces of frame times on a desktop JVM.
+ *
+ * Each frame of a trace takes a cost at full resolution times the area drawn, as a GPU-bound
+ * frame does, with some noise. A light scene must stay at full resolution. When a heavy one comes
+ * in, the scale must come down within a few frames and settle, without hunting, where the frames
+ * fit the budget with little to spare; when it goes, the scale must wait a while and then go back
+ * to full. Scales must stay in their bounds and on SCALE_STEP, and unmeasured frames must be
+ * ignored. From the CardboardSample directory, compiled as for ReplayBenchmark:
+ * <pre>
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.ResolutionGovernorCheck
+ * </pre>
+ */
+public class ResolutionGovernorCheck extends Check {
+    private static final long SEED = 1;
+    private static final float MIN_SCALE = 0.5f;
+    private static final long BUDGET_NANOS = 11666667L;
+    // Frame to frame variation in the cost, as a fraction of it.
+    private static final float NOISE = 0.05f;
+    // How long the governor may take to bring a heavy scene under budget.
+    private static final int REACT_FRAMES = 30;
+    // How long it may take to settle, and how long it must then hold still.
+    private static final int SETTLE_FRAMES = 200;
+    private static final int HOLD_FRAMES = 300;
+
+    private final Random mRandom = new Random(SEED);
+    private ResolutionGovernor mGovernor;
+    private float mScale;
+    private boolean mInBounds;
+
+    private void start() {
+        mGovernor = new ResolutionGovernor(MIN_SCALE, 1f, BUDGET_NANOS);
+        mScale = mGovernor.getScale();
+        mInBounds = true;
+    }
+
+    /**
+     * Draws frames of a scene at the current scale.
+     * @param fullCost What a frame costs at full resolution, as a fraction of the budget.
+     * @return The load of the last frame, as a fraction of the budget.
+     */
+    private float draw(float fullCost, int frames) {
+        float load = 0f;
+        for (int i = 0; i < frames; i++) {
+            load = fullCost * mScale * mScale * (1f + NOISE * (mRandom.nextFloat() * 2f - 1f));
+            mScale = mGovernor.update((long) (load * BUDGET_NANOS));
+            float steps = mScale / ResolutionGovernor.SCALE_STEP;
+            mInBounds &= mScale >= MIN_SCALE && mScale <= 1f
+                    && (steps == Math.round(steps) || mScale == MIN_SCALE);
+        }
+        return load;
+    }
+
+    void checkLight() {
+        start();
+        draw(0.6f, 1000);
+        expect("A light scene stays at full resolution",
+                mScale == 1f && mGovernor.getChangeCount() == 0);
+        // Just under the budget, where noise pushes some frames over it.
+        draw(0.95f, 1000);
+        expect("A scene just under the budget doesn't resize",
+                mScale == 1f && mGovernor.getChangeCount() == 0);
+    }
+
+    void checkHeavy() {
+        start();
+        draw(0.6f, 100);
+        int frames = 0;
+        while (frames < SETTLE_FRAMES && draw(1.6f, 1) > 1f + NOISE) {
+            frames++;
+        }
+        expect(String.format("A heavy scene comes under budget in %d frames", frames),
+                frames <= REACT_FRAMES);
+
+        draw(1.6f, SETTLE_FRAMES);
+        int changes = mGovernor.getChangeCount();
+        float scale = mScale;
+        draw(1.6f, HOLD_FRAMES);
+        float load = 1.6f * mScale * mScale;
+        expect(String.format("It settles at scale %.3f, load %.2f, after %d changes", mScale, load,
+                changes), mGovernor.getChangeCount() == changes && mScale == scale
+                && load <= 1f && load >= 0.75f);
+
+        frames = 0;
+        while (frames < 1000 && mScale < 1f) {
+            draw(0.4f, 1);
+            frames++;
+        }
+        expect(String.format("Once it's light again, it waits, then reaches full scale in %d "
+                + "frames", frames), mScale == 1f && frames >= 30 && frames < 200);
+    }
+
+    void checkBounds() {
+        start();
+        draw(100f, 200);
+        expect("An impossible scene stops at the smallest scale", mScale == MIN_SCALE);
+        float load = mGovernor.getLoad();
+        expect("Unmeasured frames are ignored", mGovernor.update(0) == MIN_SCALE
+                && mGovernor.update(-1) == MIN_SCALE && mGovernor.getLoad() == load);
+        mGovernor.reset();
+        mScale = mGovernor.getScale();
+        expect("reset() goes back to full scale", mScale == 1f);
+        draw(0.2f, 1000);
+        expect("Every scale is in bounds and on a step", mInBounds);
+
+        boolean refused;
+        try {
+            new ResolutionGovernor(0.8f, 0.5f, BUDGET_NANOS);
+            refused = false;
+        } catch (IllegalArgumentException e) {
+            refused = true;
+        }
+        expect("Bounds the wrong way round are refused", refused);
+    }
+
+    @Override
+    protected void run() {
+        checkLight();
+        checkHeavy();
+        checkBounds();
+    }
+
+    public static void main(String[] args) {
+        main(new ResolutionGovernorCheck(), args);
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.GLES20;
+
+/**
+ * Checks which calls StateCachingGL passes on, on a desktop JVM, over a NoOpGL that counts the
+ * calls that reach it.
+ *
+ * A call that repeats the shadowed state must not reach the GL, and one that changes it must.
+ * invalidate() must make the shadowed state unknown again but keep the uniform values, and
+ * linking, loading a binary into or deleting a program must forget that program's uniform values,
+ * and only that program's. reset() must forget everything, every program's uniform values
+ * included. From the CardboardSample directory, compiled as for ReplayBenchmark:
+ * <pre>
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.StateCachingGLCheck
+ * </pre>
+ */
+public class StateCachingGLCheck extends Check {
+    private static final int PROGRAM_A = 3;
+    private static final int PROGRAM_B = 7;
+    private static final int LOCATION = 2;
+
+    /**
+     * Counts the state changes that get through.
+     */
+    private static final class CountingGL extends NoOpGL {
+        int calls;
+
+        @Override
+        public void glUseProgram(int program) {
+            calls++;
+        }
+
+        @Override
+        public void glEnable(int cap) {
+            calls++;
+        }
+
+        @Override
+        public void glDisable(int cap) {
+            calls++;
+        }
+
+        @Override
+        public void glEnableVertexAttribArray(int index) {
+            calls++;
+        }
+
+        @Override
+        public void glDisableVertexAttribArray(int index) {
+            calls++;
+        }
+
+        @Override
+        public void glBindBuffer(int target, int buffer) {
+            calls++;
+        }
+
+        @Override
+        public void glActiveTexture(int texture) {
+            calls++;
+        }
+
+        @Override
+        public void glBindTexture(int target, int texture) {
+            calls++;
+        }
+
+        @Override
+        public void glUniform1f(int location, float x) {
+            calls++;
+        }
+
+        @Override
+        public void glUniform4f(int location, float x, float y, float z, float w) {
+            calls++;
+        }
+
+        @Override
+        public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+                int offset) {
+            calls++;
+        }
+    }
+
+    private final CountingGL mBackend = new CountingGL();
+    private final StateCachingGL mGl = new StateCachingGL(mBackend);
+
+    /**
+     * Reports whether the calls since the last step reached the GL the expected number of times.
+     */
+    private void step(String name, int expectedCalls) {
+        int calls = mBackend.calls;
+        mBackend.calls = 0;
+        expect(String.format("%-62s %d", name, calls), calls == expectedCalls);
+    }
+
+    void checkElision() {
+        mGl.glUseProgram(PROGRAM_A);
+        mGl.glUseProgram(PROGRAM_A);
+        step("Using a program twice", 1);
+        mGl.glUseProgram(PROGRAM_B);
+        mGl.glUseProgram(PROGRAM_A);
+        step("Switching programs", 2);
+
+        mGl.glEnable(GLES20.GL_DEPTH_TEST);
+        mGl.glEnable(GLES20.GL_DEPTH_TEST);
+        mGl.glDisable(GLES20.GL_DEPTH_TEST);
+        mGl.glDisable(GLES20.GL_DEPTH_TEST);
+        step("Enabling and disabling a capability twice each", 2);
+        // Not one the cache knows, so always passed on.
+        mGl.glEnable(0x8DB9);
+        mGl.glEnable(0x8DB9);
+        step("Enabling an unshadowed capability twice", 2);
+
+        mGl.glEnableVertexAttribArray(1);
+        mGl.glEnableVertexAttribArray(1);
+        mGl.glEnableVertexAttribArray(2);
+        step("Enabling attribute arrays 1, 1 and 2", 2);
+
+        mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 5);
+        mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 5);
+        mGl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 5);
+        step("Binding a buffer to each target, one twice", 2);
+        mGl.glDeleteBuffers(1, new int[] {5}, 0);
+        mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        mGl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        step("Binding 0 after deleting the bound buffer", 0);
+
+        mGl.glActiveTexture(GLES20.GL_TEXTURE0);
+        mGl.glBindTexture(GLES20.GL_TEXTURE_2D, 9);
+        mGl.glActiveTexture(GLES20.GL_TEXTURE0 + 1);
+        mGl.glBindTexture(GLES20.GL_TEXTURE_2D, 9);
+        mGl.glActiveTexture(GLES20.GL_TEXTURE0);
+        mGl.glBindTexture(GLES20.GL_TEXTURE_2D, 9);
+        step("Binding a texture to two units, then the first again", 5);
+        mGl.glDeleteTextures(1, new int[] {9}, 0);
+        mGl.glBindTexture(GLES20.GL_TEXTURE_2D, 9);
+        step("Binding a texture again after deleting it", 1);
+
+        float[] matrix = new float[16];
+        mGl.glUniform4f(LOCATION, 1f, 2f, 3f, 4f);
+        mGl.glUniform4f(LOCATION, 1f, 2f, 3f, 4f);
+        mGl.glUniform4f(LOCATION, 1f, 2f, 3f, 5f);
+        step("Setting a uniform, the same again, then different", 2);
+        mGl.glUniformMatrix4fv(LOCATION + 1, 1, false, matrix, 0);
+        mGl.glUniformMatrix4fv(LOCATION + 1, 1, false, matrix, 0);
+        matrix[5] = 1f;
+        mGl.glUniformMatrix4fv(LOCATION + 1, 1, false, matrix, 0);
+        step("Setting a matrix, the same again, then different", 2);
+        mGl.glUniform1f(-1, 1f);
+        step("Setting location -1", 0);
+        mGl.glUniform1f(LOCATION + 2, Float.NaN);
+        mGl.glUniform1f(LOCATION + 2, Float.NaN);
+        step("Setting NaN twice", 1);
+
+        mGl.glUseProgram(PROGRAM_B);
+        mGl.glUniform4f(LOCATION, 1f, 2f, 3f, 5f);
+        step("Using another program and setting the same location", 2);
+        mGl.glUseProgram(PROGRAM_A);
+        mGl.glUniform4f(LOCATION, 1f, 2f, 3f, 5f);
+        step("Going back, the first program's value is kept", 1);
+    }
+
+    void checkInvalidation() {
+        mGl.invalidate();
+        mGl.glUseProgram(PROGRAM_A);
+        mGl.glEnable(GLES20.GL_DEPTH_TEST);
+        mGl.glEnableVertexAttribArray(1);
+        mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 4);
+        mGl.glActiveTexture(GLES20.GL_TEXTURE0);
+        mGl.glBindTexture(GLES20.GL_TEXTURE_2D, 8);
+        step("After invalidate(), setting every kind of state again", 6);
+        mGl.glUniform4f(LOCATION, 1f, 2f, 3f, 5f);
+        step("After invalidate(), a uniform's value is still known", 0);
+
+        mGl.glLinkProgram(PROGRAM_A);
+        mGl.glUniform4f(LOCATION, 1f, 2f, 3f, 5f);
+        step("After linking the program in use, its uniform is set", 1);
+        mGl.glUseProgram(PROGRAM_B);
+        mGl.glUniform4f(LOCATION, 1f, 2f, 3f, 5f);
+        step("Another program's uniforms are kept", 1);
+
+        mGl.glDeleteProgram(PROGRAM_B);
+        mGl.glUseProgram(PROGRAM_B);
+        mGl.glUniform4f(LOCATION, 1f, 2f, 3f, 5f);
+        step("After deleting the program in use, it and its uniform are set", 2);
+
+        mGl.glUseProgram(PROGRAM_A);
+        mGl.glProgramBinary(PROGRAM_A, 0, null, 0);
+        mGl.glUniform4f(LOCATION, 1f, 2f, 3f, 5f);
+        step("After loading a binary into a program, its uniform is set", 2);
+    }
+
+    void checkReset() {
+        mGl.reset();
+        mGl.glUseProgram(PROGRAM_A);
+        mGl.glUniform4f(LOCATION, 1f, 2f, 3f, 5f);
+        mGl.glUseProgram(PROGRAM_B);
+        mGl.glUniform4f(LOCATION, 1f, 2f, 3f, 5f);
+        mGl.glEnable(GLES20.GL_DEPTH_TEST);
+        step("After reset(), every program's uniforms and the rest are set", 5);
+        mGl.glUseProgram(PROGRAM_A);
+        mGl.glUniform4f(LOCATION, 1f, 2f, 3f, 5f);
+        step("Values set after reset() are shadowed again", 1);
+    }
+
+    void checkCounters() {
+        mGl.invalidate();
+        mGl.resetCounters();
+        mGl.glUseProgram(PROGRAM_A);
+        mGl.glUseProgram(PROGRAM_A);
+        mGl.glUseProgram(PROGRAM_A);
+        step("Counting", 1);
+        expect(String.format("%-62s %d/%d", "Issued and elided counts", mGl.getIssuedCount(),
+                mGl.getElidedCount()), mGl.getIssuedCount() == 1 && mGl.getElidedCount() == 2);
+    }
+
+    @Override
+    protected void run() {
+        checkElision();
+        checkInvalidation();
+        checkReset();
+        checkCounters();
+    }
+
+    public static void main(String[] args) {
+        main(new StateCachingGLCheck(), args);
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.GLES20;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Checks TextureManager on a desktop JVM, with a fake clock, an executor that runs when it's told
+ * to, and a fake GL that keeps the pixels uploaded to each texture.
+ *
+ * A texture must only be handed out once all of it is uploaded, one strip per frame with no time
+ * to spare, and no more strips than fit in the time budget otherwise. What ends up in each level
+ * must be the image and the mipmaps worked out here, and images whose sides aren't powers of two
+ * must get one level with clamped edges. Over the memory budget, the least recently used texture
+ * must go first, but never one drawn in the last frame, and an evicted texture must be decoded
+ * again when it's next drawn. release() must delete everything, including textures still being
+ * decoded. From the CardboardSample directory, compiled as for ReplayBenchmark:
+ * <pre>
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.TextureManagerCheck
+ * </pre>
+ */
+public class TextureManagerCheck extends Check {
+    private static final long UNLIMITED = Long.MAX_VALUE / 2;
+    // The bytes of a 64x64 texture with its mipmaps.
+    private static final long SMALL_BYTES = 4 * (4096 + 1024 + 256 + 64 + 16 + 4 + 1);
+
+    /**
+     * A clock that moves on by a step every time it's read, as if uploading took time.
+     */
+    private static final class SteppingClock implements Clock {
+        long time = 1000000000L;
+        long step;
+
+        @Override
+        public long nanoTime() {
+            long now = time;
+            time += step;
+            return now;
+        }
+    }
+
+    /**
+     * Keeps the levels and parameters of every live texture, and counts the uploads.
+     */
+    private static final class TextureGL extends NoOpGL {
+        final Map<Integer, byte[][]> levels = new HashMap<Integer, byte[][]>();
+        final Map<Integer, Integer> minFilters = new HashMap<Integer, Integer>();
+        final Map<Integer, Integer> wraps = new HashMap<Integer, Integer>();
+        int uploads;
+        private int mBound;
+
+        @Override
+        public void glGenTextures(int n, int[] textures, int offset) {
+            super.glGenTextures(n, textures, offset);
+            for (int i = 0; i < n; i++) {
+                levels.put(textures[offset + i], new byte[16][]);
+            }
+        }
+
+        @Override
+        public void glDeleteTextures(int n, int[] textures, int offset) {
+            for (int i = 0; i < n; i++) {
+                levels.remove(textures[offset + i]);
+            }
+        }
+
+        @Override
+        public void glBindTexture(int target, int texture) {
+            mBound = texture;
+        }
+
+        @Override
+        public void glTexParameteri(int target, int pname, int param) {
+            if (pname == GLES20.GL_TEXTURE_MIN_FILTER) {
+                minFilters.put(mBound, param);
+            } else if (pname == GLES20.GL_TEXTURE_WRAP_S) {
+                wraps.put(mBound, param);
+            }
+        }
+
+        @Override
+        public void glTexImage2D(int target, int level, int internalformat, int width,
+                int height, int border, int format, int type, Buffer pixels) {
+            levels.get(mBound)[level] = new byte[width * height * 4];
+        }
+
+        @Override
+        public void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width,
+                int height, int format, int type, Buffer pixels) {
+            uploads++;
+            ByteBuffer source = ((ByteBuffer) pixels).duplicate();
+            source.get(levels.get(mBound)[level], yoffset * width * 4, width * height * 4);
+        }
+
+        /**
+         * @return How many levels a texture has been given.
+         */
+        int getLevelCount(int texture) {
+            int count = 0;
+            for (byte[] level : levels.get(texture)) {
+                if (level != null) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Makes images of the size that ends their name, as in "floor 64x32", from a pattern, and
+     * counts the decodes. Names without a size fail to decode. Decodes wait for runPending().
+     */
+    private static final class PatternDecoder implements TextureManager.Decoder, Executor {
+        final Map<String, Integer> decodes = new HashMap<String, Integer>();
+        private final Queue<Runnable> mPending = new ArrayDeque<Runnable>();
+
+        @Override
+        public TextureManager.Image decode(String name) throws IOException {
+            Integer count = decodes.get(name);
+            decodes.put(name, count == null ? 1 : count + 1);
+            String[] size = name.substring(name.lastIndexOf(' ') + 1).split("x");
+            if (size.length != 2) {
+                throw new IOException("No size in " + name);
+            }
+            int width = Integer.parseInt(size[0]);
+            int height = Integer.parseInt(size[1]);
+            return new TextureManager.Image(width, height,
+                    ByteBuffer.wrap(pattern(width, height)));
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            mPending.add(task);
+        }
+
+        void runPending() {
+            Runnable task;
+            while ((task = mPending.poll()) != null) {
+                task.run();
+            }
+        }
+
+        int getDecodes(String name) {
+            Integer count = decodes.get(name);
+            return count == null ? 0 : count;
+        }
+    }
+
+    private final TextureGL mGl = new TextureGL();
+    private final PatternDecoder mDecoder = new PatternDecoder();
+    private final SteppingClock mClock = new SteppingClock();
+
+    private static byte[] pattern(int width, int height) {
+        byte[] pixels = new byte[width * height * 4];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = (y * width + x) * 4;
+                pixels[i] = (byte) (x * 7);
+                pixels[i + 1] = (byte) (y * 13);
+                pixels[i + 2] = (byte) (x ^ y);
+                pixels[i + 3] = (byte) (x * y);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Halves a level of a power-of-two image by averaging 2x2 blocks, rounding to nearest.
+     */
+    private static byte[] halve(byte[] pixels, int width, int height) {
+        int halfWidth = Math.max(1, width / 2);
+        int halfHeight = Math.max(1, height / 2);
+        byte[] half = new byte[halfWidth * halfHeight * 4];
+        for (int y = 0; y < halfHeight; y++) {
+            for (int x = 0; x < halfWidth; x++) {
+                for (int c = 0; c < 4; c++) {
+                    int sum = 0;
+                    for (int dy = 0; dy < 2; dy++) {
+                        for (int dx = 0; dx < 2; dx++) {
+                            int sx = Math.min(x * 2 + dx, width - 1);
+                            int sy = Math.min(y * 2 + dy, height - 1);
+                            sum += pixels[(sy * width + sx) * 4 + c] & 0xff;
+                        }
+                    }
+                    half[(y * halfWidth + x) * 4 + c] = (byte) ((sum + 2) / 4);
+                }
+            }
+        }
+        return half;
+    }
+
+    /**
+     * Starts a frame, then draws the textures.
+     * @return Whether all of them were ready.
+     */
+    private boolean frame(TextureManager textures, long budgetNanos, String... names) {
+        textures.update(budgetNanos);
+        boolean ready = true;
+        for (String name : names) {
+            ready &= textures.getTexture(name) != 0;
+        }
+        return ready;
+    }
+
+    void checkStreaming() {
+        TextureManager textures =
+                new TextureManager(mGl, mDecoder, mDecoder, mClock, UNLIMITED);
+        String name = "painting 512x512";
+        boolean waiting = textures.getTexture(name) == 0 && textures.getTexture(name) == 0;
+        textures.update(0);
+        waiting &= textures.getTexture(name) == 0;
+        mDecoder.runPending();
+        expect("A texture isn't ready until it's decoded, and is decoded once",
+                waiting && mDecoder.getDecodes(name) == 1);
+
+        mGl.uploads = 0;
+        int frames = 0;
+        boolean oneStrip = true;
+        while (!frame(textures, 0, name) && frames < 100) {
+            oneStrip &= mGl.uploads == frames;
+            frames++;
+        }
+        // One frame to allocate, four strips of 128 rows for the top level, then one strip for
+        // each of the nine mipmaps.
+        expect("With no time to spare, one strip is uploaded a frame",
+                oneStrip && frames + 1 == 1 + 4 + 9);
+
+        int texture = textures.getTexture(name);
+        byte[] expected = pattern(512, 512);
+        boolean same = mGl.getLevelCount(texture) == 10;
+        for (int level = 0, side = 512; level < 10; level++, side /= 2) {
+            same &= Arrays.equals(mGl.levels.get(texture)[level], expected);
+            expected = halve(expected, side, side);
+        }
+        expect("Every level holds the image or its mipmap", same);
+        long bytes = 0;
+        for (int side = 512; side >= 1; side /= 2) {
+            bytes += side * side * 4;
+        }
+        expect("A power-of-two texture repeats and is mipmapped",
+                mGl.minFilters.get(texture) == GLES20.GL_LINEAR_MIPMAP_LINEAR
+                && mGl.wraps.get(texture) == GLES20.GL_REPEAT
+                && textures.getResidentBytes() == bytes);
+
+        // Each read of the clock takes 1 ms: one to set the deadline, then one after each strip,
+        // so three strips fit in 2.5 ms.
+        String timed = "wall 256x512";
+        textures.getTexture(timed);
+        mDecoder.runPending();
+        mClock.step = 1000000L;
+        int maxStrips = 0;
+        boolean ready = false;
+        for (frames = 0; !ready && frames < 100; frames++) {
+            mGl.uploads = 0;
+            ready = frame(textures, 2500000L, timed);
+            maxStrips = Math.max(maxStrips, mGl.uploads);
+        }
+        mClock.step = 0;
+        expect("No more strips are uploaded than fit in the time budget",
+                ready && maxStrips == 3);
+
+        String odd = "sign 3x5";
+        textures.getTexture(odd);
+        mDecoder.runPending();
+        frame(textures, UNLIMITED);
+        int oddTexture = textures.getTexture(odd);
+        expect("A texture whose sides aren't powers of two has one level, clamped",
+                oddTexture != 0 && mGl.getLevelCount(oddTexture) == 1
+                && mGl.minFilters.get(oddTexture) == GLES20.GL_LINEAR
+                && mGl.wraps.get(oddTexture) == GLES20.GL_CLAMP_TO_EDGE
+                && Arrays.equals(mGl.levels.get(oddTexture)[0], pattern(3, 5)));
+
+        String broken = "broken";
+        textures.getTexture(broken);
+        mDecoder.runPending();
+        frame(textures, UNLIMITED);
+        frame(textures, UNLIMITED);
+        expect("A texture that fails to decode isn't tried again",
+                textures.getTexture(broken) == 0 && mDecoder.getDecodes(broken) == 1);
+
+        textures.release();
+        expect("release() deletes every texture",
+                mGl.levels.isEmpty() && textures.getResidentBytes() == 0);
+    }
+
+    /**
+     * Draws the textures in frames until they are all ready.
+     */
+    private void load(TextureManager textures, String... names) {
+        for (int i = 0; i < 10 && !frame(textures, UNLIMITED, names); i++) {
+            mDecoder.runPending();
+        }
+    }
+
+    void checkBudget() {
+        TextureManager textures =
+                new TextureManager(mGl, mDecoder, mDecoder, mClock, 2 * SMALL_BYTES);
+        String a = "a 64x64";
+        String b = "b 64x64";
+        String c = "c 64x64";
+        load(textures, a, b);
+        expect("Two textures fit the budget", frame(textures, UNLIMITED, a, b)
+                && textures.getResidentBytes() == 2 * SMALL_BYTES
+                && textures.getEvictionCount() == 0);
+
+        load(textures, b, c);
+        expect("The least recently used texture is evicted for a new one",
+                frame(textures, UNLIMITED, b, c) && textures.getTexture(a) == 0
+                && textures.getEvictionCount() == 1
+                && textures.getResidentBytes() == 2 * SMALL_BYTES);
+
+        load(textures, a, b, c);
+        expect("Textures drawn in the last frame aren't evicted, even over the budget",
+                frame(textures, UNLIMITED, a, b, c) && textures.getEvictionCount() == 1
+                && textures.getResidentBytes() == 3 * SMALL_BYTES
+                && mDecoder.getDecodes(a) == 2 && mDecoder.getDecodes(b) == 1
+                && mDecoder.getDecodes(c) == 1);
+
+        String d = "d 32x32";
+        textures.getTexture(d);
+        textures.release();
+        mDecoder.runPending();
+        frame(textures, UNLIMITED);
+        expect("A texture being decoded at release() is dropped when it arrives",
+                mGl.levels.isEmpty() && textures.getResidentBytes() == 0);
+    }
+
+    @Override
+    protected void run() {
+        checkStreaming();
+        checkBudget();
+    }
+
+    public static void main(String[] args) {
+        main(new TextureManagerCheck(), args);
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks Tracer on a desktop JVM.
+ *
+ * A few events recorded against a fake clock must come out as exactly the expected Chrome trace,
+ * names escaped and timestamps in microseconds from the tracer's creation. A full buffer must keep
+ * only the newest events, in order, and a disabled tracer nothing. Recording must not allocate.
+ * Finally several threads record nested begin and end events while the trace is written out over
+ * and over: every trace must parse, and once they are done, each thread's events must all be
+ * there, properly nested. From the CardboardSample directory, compiled as for ReplayBenchmark:
+ * <pre>
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.TracerCheck
+ * </pre>
+ */
+public class TracerCheck extends Check {
+    private static final int THREADS = 4;
+    private static final int PAIRS_PER_THREAD = 5000;
+    private static final int ALLOCATION_EVENTS = 100000;
+    private static final int WARMUP_ROUNDS = 10;
+
+    private static final Pattern EVENT = Pattern.compile(
+            "\\{\"name\":\"(\\w+)\",\"ph\":\"([BEi])\",\"ts\":\\d+\\.\\d{3},\"pid\":0,"
+            + "\"tid\":(\\d+)(,\"s\":\"t\")?\\}");
+
+    /**
+     * A clock that only moves when it's told to.
+     */
+    private static final class FakeClock implements Clock {
+        long time = 5000000000L;
+
+        @Override
+        public long nanoTime() {
+            return time;
+        }
+    }
+
+    private static String write(Tracer tracer) throws IOException {
+        StringWriter out = new StringWriter();
+        tracer.writeChromeTrace(out);
+        return out.toString();
+    }
+
+    void checkOutput() throws IOException {
+        FakeClock clock = new FakeClock();
+        Tracer tracer = new Tracer(clock, 16);
+        int frame = tracer.intern("frame");
+        int quoted = tracer.intern("say \"hi\"\n");
+        expect("Interning a name again gives the same ID",
+                tracer.intern("frame") == frame && frame != quoted);
+
+        clock.time += 1234567;
+        tracer.begin(frame);
+        clock.time += 1000;
+        tracer.instant(quoted);
+        clock.time += 999;
+        tracer.end(frame);
+        long tid = Thread.currentThread().getId();
+        String expected = "{\"traceEvents\":[\n"
+                + "{\"name\":\"frame\",\"ph\":\"B\",\"ts\":1234.567,\"pid\":0,\"tid\":" + tid
+                + "},\n"
+                + "{\"name\":\"say \\\"hi\\\"\\u000a\",\"ph\":\"i\",\"ts\":1235.567,\"pid\":0,"
+                + "\"tid\":" + tid + ",\"s\":\"t\"},\n"
+                + "{\"name\":\"frame\",\"ph\":\"E\",\"ts\":1236.566,\"pid\":0,\"tid\":" + tid
+                + "}\n"
+                + "],\"displayTimeUnit\":\"ms\"}\n";
+        expect("Events are written out as a Chrome trace", write(tracer).equals(expected));
+
+        tracer.setEnabled(false);
+        tracer.instant(frame);
+        expect("A disabled tracer records nothing", write(tracer).equals(expected));
+    }
+
+    void checkWraparound() throws IOException {
+        FakeClock clock = new FakeClock();
+        // Rounded up to 8.
+        Tracer tracer = new Tracer(clock, 5);
+        int[] names = new int[20];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = tracer.intern("e" + i);
+        }
+        for (int i = 0; i < names.length; i++) {
+            clock.time += 1000;
+            tracer.instant(names[i]);
+        }
+        Matcher m = EVENT.matcher(write(tracer));
+        StringBuilder kept = new StringBuilder();
+        while (m.find()) {
+            kept.append(m.group(1)).append(' ');
+        }
+        expect("A full buffer keeps the newest events, in order",
+                kept.toString().equals("e12 e13 e14 e15 e16 e17 e18 e19 "));
+    }
+
+    void checkAllocation() {
+        Tracer tracer = new Tracer(Clock.SYSTEM, 1024);
+        int name = tracer.intern("event");
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+        // What reading the allocation counter allocates itself.
+        long overhead = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            long before = threads.getThreadAllocatedBytes(threadId);
+            long after = threads.getThreadAllocatedBytes(threadId);
+            overhead = Math.min(overhead, after - before);
+        }
+        // Until the JIT has finished with it, recording can allocate.
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            recordPairs(tracer, name);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        recordPairs(tracer, name);
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated - overhead;
+        expect("Recording " + 2 * ALLOCATION_EVENTS + " events allocated " + allocated + " bytes",
+                allocated == 0);
+    }
+
+    private static void recordPairs(Tracer tracer, int name) {
+        for (int i = 0; i < ALLOCATION_EVENTS; i++) {
+            tracer.begin(name);
+            tracer.end(name);
+        }
+    }
+
+    void checkConcurrent() throws IOException, InterruptedException {
+        // Big enough to keep everything.
+        final Tracer tracer = new Tracer(Clock.SYSTEM, THREADS * PAIRS_PER_THREAD * 4);
+        final int outer = tracer.intern("outer");
+        final int inner = tracer.intern("inner");
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < PAIRS_PER_THREAD; i++) {
+                        tracer.begin(outer);
+                        tracer.begin(inner);
+                        tracer.end(inner);
+                        tracer.end(outer);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        int traces = 0;
+        int malformed = 0;
+        boolean running = true;
+        while (running) {
+            running = false;
+            for (Thread thread : threads) {
+                running |= thread.isAlive();
+            }
+            String trace = write(tracer);
+            traces++;
+            if (!wellFormed(trace)) {
+                malformed++;
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Each thread's events must nest, and all be there.
+        Map<String, StringBuilder> stacks = new HashMap<String, StringBuilder>();
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        int nesting = 0;
+        Matcher m = EVENT.matcher(write(tracer));
+        while (m.find()) {
+            String tid = m.group(3);
+            if (!stacks.containsKey(tid)) {
+                stacks.put(tid, new StringBuilder());
+                counts.put(tid, 0);
+            }
+            StringBuilder stack = stacks.get(tid);
+            counts.put(tid, counts.get(tid) + 1);
+            String name = m.group(1);
+            if (m.group(2).equals("B")) {
+                stack.append(name.charAt(0));
+            } else if (stack.length() > 0 && stack.charAt(stack.length() - 1) == name.charAt(0)) {
+                stack.setLength(stack.length() - 1);
+            } else {
+                nesting++;
+            }
+        }
+        boolean complete = stacks.size() == THREADS;
+        for (String tid : stacks.keySet()) {
+            complete &= counts.get(tid) == PAIRS_PER_THREAD * 4 && stacks.get(tid).length() == 0;
+        }
+        System.out.println(THREADS + " threads, " + traces + " traces written while recording");
+        expect(String.format("  %-36s %d", "malformed traces", malformed), malformed == 0);
+        expect(String.format("  %-36s %d", "badly nested events", nesting), nesting == 0);
+        expect("  Every thread's events are all there", complete);
+    }
+
+    /**
+     * @return Whether a trace is the header, events that match EVENT, and the footer.
+     */
+    private static boolean wellFormed(String trace) {
+        String header = "{\"traceEvents\":[";
+        String footer = "\n],\"displayTimeUnit\":\"ms\"}\n";
+        if (!trace.startsWith(header) || !trace.endsWith(footer)) {
+            return false;
+        }
+        String body = trace.substring(header.length(), trace.length() - footer.length());
+        if (body.isEmpty()) {
+            return true;
+        }
+        for (String line : body.substring(1).split(",\n")) {
+            if (!EVENT.matcher(line).matches()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void run() throws IOException, InterruptedException {
+        checkOutput();
+        checkWraparound();
+        checkAllocation();
+        checkConcurrent();
+    }
+
+    public static void main(String[] args) {
+        main(new TracerCheck(), args);
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import android.opengl.Matrix;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that TransformHierarchy keeps its world matrices up to date, on a desktop JVM.
+ *
+ * A random tree is built and given random local matrices. After each update(), every world
+ * matrix must match the product of the local matrices up to the top of the tree, worked out
+ * from scratch with android.opengl.Matrix. Each update must recompute exactly the dirty nodes
+ * and the nodes below them, however the dirty nodes nest, and leave every other world matrix as
+ * it was. multiply() must give the same matrices as multiplying one at a time. From the
+ * CardboardSample directory, compiled as for ReplayBenchmark:
+ * <pre>
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.TransformHierarchyCheck
+ * </pre>
+ */
+public class TransformHierarchyCheck extends Check {
+    private static final long SEED = 1;
+    private static final int NODES = 300;
+    private static final int ROUNDS = 50;
+    private static final float TOLERANCE = 1e-4f;
+
+    private final Random mRandom = new Random(SEED);
+    private final TransformHierarchy mTree = new TransformHierarchy(NODES);
+    private final float[] mExpected = new float[NODES * 16];
+    private final float[] mMatrix = new float[16];
+
+    /**
+     * A rotation about a random axis followed by a small random translation.
+     */
+    private void randomize(float[] m, int offset) {
+        Matrix.setRotateM(m, offset, mRandom.nextFloat() * 360f, mRandom.nextFloat() + 0.1f,
+                mRandom.nextFloat(), mRandom.nextFloat());
+        m[offset + 12] = mRandom.nextFloat() * 2f - 1f;
+        m[offset + 13] = mRandom.nextFloat() * 2f - 1f;
+        m[offset + 14] = mRandom.nextFloat() * 2f - 1f;
+    }
+
+    /**
+     * @return Whether a world matrix is what its node's ancestors' local matrices give.
+     */
+    private boolean isCurrent(int node) {
+        float[] local = mTree.getLocal();
+        int parent = mTree.getParent(node);
+        if (parent == TransformHierarchy.NO_PARENT) {
+            System.arraycopy(local, node * 16, mExpected, node * 16, 16);
+        } else {
+            // Parents come before their children, so the parent's is already worked out.
+            Matrix.multiplyMM(mExpected, node * 16, mExpected, parent * 16, local, node * 16);
+        }
+        return matches(mExpected, node * 16, mTree.getWorld(), node * 16);
+    }
+
+    private static boolean matches(float[] a, int aOffset, float[] b, int bOffset) {
+        for (int i = 0; i < 16; i++) {
+            if (Math.abs(a[aOffset + i] - b[bOffset + i]) > TOLERANCE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean allCurrent() {
+        boolean current = true;
+        for (int node = 0; node < mTree.getNodeCount(); node++) {
+            current &= isCurrent(node);
+        }
+        return current;
+    }
+
+    void checkUpdates() {
+        // Mostly deep, with a few roots and some wide nodes.
+        for (int i = 0; i < NODES; i++) {
+            int parent = i == 0 || mRandom.nextInt(20) == 0 ? TransformHierarchy.NO_PARENT
+                    : mRandom.nextInt(2) == 0 ? i - 1 : mRandom.nextInt(i);
+            mTree.addNode(parent);
+            randomize(mMatrix, 0);
+            mTree.setLocal(i, mMatrix, 0);
+        }
+        expect("The first update computes every node",
+                mTree.update() == NODES && allCurrent());
+        expect("An update with nothing dirty computes nothing", mTree.update() == 0);
+
+        boolean current = true;
+        boolean counted = true;
+        boolean untouched = true;
+        boolean[] dirty = new boolean[NODES];
+        float[] before = new float[NODES * 16];
+        for (int round = 0; round < ROUNDS; round++) {
+            System.arraycopy(mTree.getWorld(), 0, before, 0, before.length);
+            Arrays.fill(dirty, false);
+            // A few nodes, some of them more than once, some inside others' subtrees.
+            int changes = 1 + mRandom.nextInt(round % 2 == 0 ? 3 : 12);
+            for (int c = 0; c < changes; c++) {
+                int node = mRandom.nextInt(NODES);
+                if (mRandom.nextBoolean()) {
+                    randomize(mMatrix, 0);
+                    mTree.setLocal(node, mMatrix, 0);
+                } else {
+                    randomize(mTree.getLocal(), node * 16);
+                    mTree.markDirty(node);
+                }
+                dirty[node] = true;
+            }
+            // A node is affected if it or any of its ancestors changed.
+            int affected = 0;
+            for (int node = 0; node < NODES; node++) {
+                int parent = mTree.getParent(node);
+                dirty[node] |= parent != TransformHierarchy.NO_PARENT && dirty[parent];
+                if (dirty[node]) {
+                    affected++;
+                }
+            }
+            int updated = mTree.update();
+            counted &= updated == affected;
+            current &= allCurrent();
+            for (int node = 0; node < NODES; node++) {
+                for (int i = 0; !dirty[node] && i < 16; i++) {
+                    untouched &= mTree.getWorld()[node * 16 + i] == before[node * 16 + i];
+                }
+            }
+        }
+        expect("Each update computes just the changed nodes and their subtrees", counted);
+        expect("Every world matrix is its ancestors' local matrices multiplied", current);
+        expect("Nodes outside the changed subtrees keep their world matrices", untouched);
+    }
+
+    void checkMultiply() {
+        float[] viewProjection = new float[16];
+        randomize(viewProjection, 0);
+        viewProjection[3] = 0.25f;
+        int first = 17;
+        int count = 40;
+        int outOffset = 5;
+        float[] out = new float[outOffset + count * 16];
+        mTree.multiply(viewProjection, 0, first, count, out, outOffset);
+        boolean same = true;
+        for (int i = 0; i < count; i++) {
+            Matrix.multiplyMM(mMatrix, 0, viewProjection, 0, mTree.getWorld(), (first + i) * 16);
+            same &= matches(mMatrix, 0, out, outOffset + i * 16);
+        }
+        expect("multiply() gives each world matrix times the one given", same);
+    }
+
+    void checkLimits() {
+        TransformHierarchy tree = new TransformHierarchy(2);
+        int refusals = 0;
+        try {
+            tree.addNode(0);
+        } catch (IllegalArgumentException e) {
+            refusals++;
+        }
+        tree.addNode(TransformHierarchy.NO_PARENT);
+        tree.addNode(0);
+        try {
+            tree.addNode(1);
+        } catch (IllegalStateException e) {
+            refusals++;
+        }
+        expect("Parents not yet added and nodes past capacity are refused",
+                refusals == 2 && tree.getNodeCount() == 2);
+    }
+
+    @Override
+    protected void run() {
+        checkUpdates();
+        checkMultiply();
+        checkLimits();
+    }
+
+    public static void main(String[] args) {
+        main(new TransformHierarchyCheck(), args);
+    }
+}
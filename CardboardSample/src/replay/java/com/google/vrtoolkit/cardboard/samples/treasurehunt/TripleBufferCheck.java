@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+/**
+ * Checks TripleBuffer's handoff on a desktop JVM.
+ *
+ * First on one thread: the reader sees its front slot until something is published, then the
+ * latest value published, and nothing older once something newer has been published. The writer
+ * is never handed the slot the reader holds.
+ *
+ * Then a writer thread fills every element of an array with a sequence number and publishes it,
+ * as fast as it can, while a reader thread acquires and reads the arrays back. Every array the
+ * reader sees must hold one sequence number throughout, both before and after it has read the
+ * rest, or the writer was writing into a slot the reader held. The numbers must never go
+ * backwards, and the last one published must be seen. From the CardboardSample directory,
+ * compiled as for ReplayBenchmark:
+ * <pre>
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.TripleBufferCheck
+ * </pre>
+ */
+public class TripleBufferCheck extends Check {
+    private static final int LENGTH = 256;
+    private static final long PUBLISHES = 2000000;
+
+    void checkSequential() {
+        long[] back = new long[1];
+        long[] middle = new long[1];
+        long[] front = new long[1];
+        TripleBuffer<long[]> buffer = new TripleBuffer<long[]>(back, middle, front);
+
+        expect("Before anything is published, the reader sees its front slot",
+                buffer.acquire() == front && buffer.getWriteBuffer() == back);
+
+        buffer.getWriteBuffer()[0] = 1;
+        expect("The write buffer stays the same until it is published",
+                buffer.getWriteBuffer() == back && buffer.acquire() == front);
+
+        buffer.publish();
+        long[] read = buffer.acquire();
+        expect("Once published, the reader sees the value",
+                read == back && read[0] == 1 && buffer.acquire() == read);
+
+        boolean disjoint = true;
+        boolean latest = true;
+        for (long i = 2; i < 100; i++) {
+            // Publish one value, or two before the reader gets to them.
+            buffer.getWriteBuffer()[0] = i;
+            disjoint &= buffer.getWriteBuffer() != read;
+            if (i % 3 == 0) {
+                buffer.publish();
+                i++;
+                buffer.getWriteBuffer()[0] = i;
+                disjoint &= buffer.getWriteBuffer() != read;
+            }
+            buffer.publish();
+            disjoint &= buffer.getWriteBuffer() != read;
+            read = buffer.acquire();
+            latest &= read[0] == i && buffer.acquire() == read;
+            disjoint &= buffer.getWriteBuffer() != read;
+        }
+        expect("The reader sees only the latest value, skipping older ones", latest);
+        expect("The writer is never handed the reader's slot", disjoint);
+    }
+
+    void checkConcurrent() throws InterruptedException {
+        final TripleBuffer<long[]> buffer = new TripleBuffer<long[]>(new long[LENGTH],
+                new long[LENGTH], new long[LENGTH]);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (long sequence = 1; sequence <= PUBLISHES; sequence++) {
+                    long[] values = buffer.getWriteBuffer();
+                    for (int i = 0; i < LENGTH; i++) {
+                        values[i] = sequence;
+                    }
+                    buffer.publish();
+                }
+            }
+        }, "writer");
+        writer.start();
+
+        long last = 0;
+        long reads = 0;
+        long distinct = 0;
+        long torn = 0;
+        long backwards = 0;
+        while (true) {
+            boolean finished = !writer.isAlive();
+            long[] values = buffer.acquire();
+            long sequence = values[0];
+            for (int i = 1; i < LENGTH; i++) {
+                if (values[i] != sequence) {
+                    torn++;
+                    break;
+                }
+            }
+            if (values[0] != sequence) {
+                torn++;
+            }
+            if (sequence < last) {
+                backwards++;
+            } else if (sequence > last) {
+                distinct++;
+            }
+            last = sequence;
+            reads++;
+            if (finished) {
+                break;
+            }
+        }
+        writer.join();
+
+        System.out.println(String.format("%d values published, %d reads, %d distinct values read",
+                PUBLISHES, reads, distinct));
+        expect(String.format("  %-32s %d", "torn reads", torn), torn == 0);
+        expect(String.format("  %-32s %d", "values going backwards", backwards), backwards == 0);
+        expect(String.format("  %-32s %d", "last value read", last), last == PUBLISHES);
+    }
+
+    @Override
+    protected void run() throws InterruptedException {
+        checkSequential();
+        checkConcurrent();
+    }
+
+    public static void main(String[] args) {
+        main(new TripleBufferCheck(), args);
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vrtoolkit.cardboard.samples.treasurehunt;
+
+import java.util.Random;
+
+/**
+ * Bounds the round-trip error of the VertexFormat encodings in MeshPacker on a desktop JVM.
+ *
+ * Random values go through each encoder and back through its decoder, and the largest error must
+ * be within half a quantization step, plus float rounding. Normals are random unit vectors, and
+ * their octahedral error is the angle between what went in and what came out. Half floats are
+ * checked for relative error over their normal range and absolute error below it, and every half
+ * float must survive the trip the other way unchanged.
+ *
+ * decodeSnorm16 follows ES 3.0, c / 32767. A GPU that follows ES 2.0 reads (2c + 1) / 65535
+ * instead, so the gap between the two is measured over every 16-bit value, and the normals are
+ * measured a second time as such a GPU would see them. From the CardboardSample directory,
+ * compiled as for ReplayBenchmark:
+ * <pre>
+ * java -cp build/replay:libs/cardboard.jar \
+ *     com.google.vrtoolkit.cardboard.samples.treasurehunt.VertexFormatCheck
+ * </pre>
+ */
+public class VertexFormatCheck extends Check {
+    private static final long SEED = 1;
+    private static final int SAMPLES = 1000000;
+    // A 16-bit octahedral normal is good to about four thousandths of a degree. The ES 2.0 decode
+    // shifts both coordinates by up to two more steps, which near the folds moves it furthest.
+    private static final double MAX_OCTAHEDRAL_DEGREES = 0.005;
+    private static final double MAX_OCTAHEDRAL_ES2_DEGREES = 0.015;
+
+    private final Random mRandom = new Random(SEED);
+
+    private void expectWithin(String name, double error, double bound) {
+        expect(String.format("%-40s max error %.3g, bound %.3g", name, error, bound),
+                error <= bound);
+    }
+
+    /**
+     * The ES 2.0 conversion of a signed normalized 16-bit value.
+     */
+    static float decodeSnorm16Es2(short value) {
+        return (2 * value + 1) / 65535f;
+    }
+
+    void checkUnorm16() {
+        float[][] ranges = {{0f, 1f}, {-1f, 2f}, {-20f, 40f}, {100f, 0.5f}};
+        for (float[] range : ranges) {
+            float offset = range[0];
+            float scale = range[1];
+            double error = 0.0;
+            for (int i = 0; i < SAMPLES; i++) {
+                float value = offset + mRandom.nextFloat() * scale;
+                short encoded = MeshPacker.encodeUnorm16(value, offset, scale);
+                error = Math.max(error,
+                        Math.abs(MeshPacker.decodeUnorm16(encoded, offset, scale) - value));
+            }
+            float largest = Math.max(Math.abs(offset), Math.abs(offset + scale));
+            expectWithin("unorm16 over [" + offset + ", " + (offset + scale) + "]", error,
+                    0.5 * scale / 65535.0 + 4.0 * Math.ulp(largest));
+        }
+    }
+
+    void checkSnorm16AndUnorm8() {
+        double snorm = 0.0;
+        double unorm = 0.0;
+        for (int i = 0; i < SAMPLES; i++) {
+            float value = mRandom.nextFloat() * 2f - 1f;
+            snorm = Math.max(snorm, Math.abs(
+                    MeshPacker.decodeSnorm16(MeshPacker.encodeSnorm16(value)) - value));
+            float color = mRandom.nextFloat();
+            unorm = Math.max(unorm, Math.abs(
+                    MeshPacker.decodeUnorm8(MeshPacker.encodeUnorm8(color)) - color));
+        }
+        expectWithin("snorm16", snorm, 0.5 / 32767.0 + Math.ulp(1f));
+        expectWithin("unorm8", unorm, 0.5 / 255.0 + Math.ulp(1f));
+    }
+
+    void checkEs2Gap() {
+        double gap = 0.0;
+        for (int c = Short.MIN_VALUE; c <= Short.MAX_VALUE; c++) {
+            short value = (short) c;
+            gap = Math.max(gap, Math.abs(decodeSnorm16Es2(value)
+                    - MeshPacker.decodeSnorm16(value)));
+        }
+        expectWithin("snorm16 decode, ES 2.0 against 3.0", gap, 2.0 / 65535.0 + Math.ulp(1f));
+    }
+
+    void checkOctahedral() {
+        float[] decoded = new float[3];
+        short[] encoded = new short[2];
+        double maxDegrees = 0.0;
+        double maxEs2Degrees = 0.0;
+        for (int i = 0; i < SAMPLES; i++) {
+            // Uniform on the sphere, plus the axes, where the folds meet.
+            float x;
+            float y;
+            float z;
+            if (i < 6) {
+                x = i / 2 == 0 ? 1 - 2 * (i % 2) : 0f;
+                y = i / 2 == 1 ? 1 - 2 * (i % 2) : 0f;
+                z = i / 2 == 2 ? 1 - 2 * (i % 2) : 0f;
+            } else {
+                double phi = mRandom.nextDouble() * 2.0 * Math.PI;
+                double cosTheta = mRandom.nextDouble() * 2.0 - 1.0;
+                double sinTheta = Math.sqrt(1.0 - cosTheta * cosTheta);
+                x = (float) (Math.cos(phi) * sinTheta);
+                y = (float) (Math.sin(phi) * sinTheta);
+                z = (float) cosTheta;
+            }
+            MeshPacker.encodeOctahedral(x, y, z, encoded, 0);
+            MeshPacker.decodeOctahedral(encoded[0], encoded[1], decoded, 0);
+            maxDegrees = Math.max(maxDegrees, angleDegrees(x, y, z, decoded));
+            decodeOctahedralEs2(encoded[0], encoded[1], decoded);
+            maxEs2Degrees = Math.max(maxEs2Degrees, angleDegrees(x, y, z, decoded));
+        }
+        expectWithin("octahedral normals, degrees", maxDegrees, MAX_OCTAHEDRAL_DEGREES);
+        expectWithin("octahedral normals on ES 2.0, degrees", maxEs2Degrees,
+                MAX_OCTAHEDRAL_ES2_DEGREES);
+    }
+
+    /**
+     * What light_vertex.shader computes from normals that the GPU converted by the ES 2.0 rule.
+     */
+    private static void decodeOctahedralEs2(short encodedU, short encodedV, float[] out) {
+        float u = decodeSnorm16Es2(encodedU);
+        float v = decodeSnorm16Es2(encodedV);
+        float z = 1f - Math.abs(u) - Math.abs(v);
+        if (z < 0f) {
+            float unfoldedU = (1f - Math.abs(v)) * (u >= 0f ? 1f : -1f);
+            float unfoldedV = (1f - Math.abs(u)) * (v >= 0f ? 1f : -1f);
+            u = unfoldedU;
+            v = unfoldedV;
+        }
+        float invLength = 1f / (float) Math.sqrt(u * u + v * v + z * z);
+        out[0] = u * invLength;
+        out[1] = v * invLength;
+        out[2] = z * invLength;
+    }
+
+    private static double angleDegrees(float x, float y, float z, float[] n) {
+        // The cross product keeps its precision for tiny angles, where acos of the dot doesn't.
+        double cx = y * (double) n[2] - z * (double) n[1];
+        double cy = z * (double) n[0] - x * (double) n[2];
+        double cz = x * (double) n[1] - y * (double) n[0];
+        double dot = x * (double) n[0] + y * (double) n[1] + z * (double) n[2];
+        return Math.toDegrees(Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), dot));
+    }
+
+    void checkHalfFloat() {
+        // The smallest normal half float, and the largest.
+        float minNormal = (float) Math.pow(2.0, -14.0);
+        float maxHalf = 65504f;
+        double relative = 0.0;
+        double absolute = 0.0;
+        for (int i = 0; i < SAMPLES; i++) {
+            // Spread evenly over the exponents, with either sign.
+            float value = (float) Math.pow(2.0, mRandom.nextDouble() * 30.0 - 14.0);
+            value = Math.min(value, maxHalf);
+            value = mRandom.nextBoolean() ? value : -value;
+            float decoded = MeshPacker.halfToFloat(MeshPacker.floatToHalf(value));
+            relative = Math.max(relative, Math.abs(decoded - value) / Math.abs(value));
+
+            float small = (mRandom.nextFloat() * 2f - 1f) * minNormal;
+            decoded = MeshPacker.halfToFloat(MeshPacker.floatToHalf(small));
+            absolute = Math.max(absolute, Math.abs(decoded - small));
+        }
+        expectWithin("half float, relative", relative, Math.pow(2.0, -11.0));
+        expectWithin("half float subnormals, absolute", absolute, Math.pow(2.0, -25.0));
+
+        int changed = 0;
+        for (int h = 0; h <= 0xffff; h++) {
+            boolean nan = (h & 0x7c00) == 0x7c00 && (h & 0x3ff) != 0;
+            if (!nan && (MeshPacker.floatToHalf(MeshPacker.halfToFloat((short) h)) & 0xffff)
+                    != h) {
+                changed++;
+            }
+        }
+        expect(String.format("%-40s %d", "half floats changed by a round trip", changed),
+                changed == 0);
+    }
+
+    @Override
+    protected void run() {
+        checkUnorm16();
+        checkSnorm16AndUnorm8();
+        checkEs2Gap();
+        checkOctahedral();
+        checkHalfFloat();
+    }
+
+    public static void main(String[] args) {
+        main(new VertexFormatCheck(), args);
+    }
+}